@@ -23,6 +23,7 @@ package org.apache.bookkeeper.bookie;
 
 import com.google.common.util.concurrent.RateLimiter;
 import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.bookkeeper.conf.ServerConfiguration;
@@ -40,13 +41,30 @@ public abstract class AbstractLogCompactor {
      */
     public interface LogRemovalListener {
         void removeEntryLog(long logToRemove);
+
+        /**
+         * Called once the live entries of a compacted entry log were written to a dedicated compaction log.
+         *
+         * @param compactedLogMeta metadata of the compacted entry log
+         * @param dstLogId id of the compaction log holding its live entries
+         */
+        default void compactedEntryLog(EntryLogMetadata compactedLogMeta, long dstLogId) {}
     }
 
     protected final LogRemovalListener logRemovalListener;
 
     public AbstractLogCompactor(ServerConfiguration conf, LogRemovalListener logRemovalListener) {
+        this(conf, logRemovalListener, new Throttler(conf));
+    }
+
+    /**
+     * Create a compactor sharing the given throttler, so that several compactors running
+     * concurrently stay within a single compaction rate.
+     */
+    public AbstractLogCompactor(ServerConfiguration conf, LogRemovalListener logRemovalListener,
+                                Throttler throttler) {
         this.conf = conf;
-        this.throttler = new Throttler(conf);
+        this.throttler = throttler;
         this.logRemovalListener = logRemovalListener;
     }
 
@@ -57,6 +75,20 @@ public abstract class AbstractLogCompactor {
      */
     public abstract boolean compact(EntryLogMetadata entryLogMeta);
 
+    /**
+     * Compact several entry log files. The compactors that can write the live entries of several entry logs
+     * to a single log override it, the others compact the entry logs one by one.
+     * @param entryLogMetas log metadata for the entry logs to be compacted
+     * @return true if all of them succeed
+     */
+    public boolean compact(List<EntryLogMetadata> entryLogMetas) {
+        boolean compacted = !entryLogMetas.isEmpty();
+        for (EntryLogMetadata entryLogMeta : entryLogMetas) {
+            compacted &= compact(entryLogMeta);
+        }
+        return compacted;
+    }
+
     /**
      * Do nothing by default. Intended for subclass to override this method.
      */
@@ -104,12 +104,16 @@ public interface BookKeeperServerStats {
 
     String JOURNAL_SCOPE = "journal";
     String JOURNAL_DIRS = "JOURNAL_DIRS";
+    String JOURNAL_REPLAY_ENTRIES = "JOURNAL_REPLAY_ENTRIES";
+    String JOURNAL_REPLAY_SKIPPED_ENTRIES = "JOURNAL_REPLAY_SKIPPED_ENTRIES";
+    String JOURNAL_REPLAY_BYTES = "JOURNAL_REPLAY_BYTES";
     String JOURNAL_ADD_ENTRY = "JOURNAL_ADD_ENTRY";
     String JOURNAL_FORCE_LEDGER = "JOURNAL_FORCE_LEDGER";
     String JOURNAL_SYNC = "JOURNAL_SYNC";
     String JOURNAL_FORCE_WRITE_ENQUEUE = "JOURNAL_FORCE_WRITE_ENQUEUE";
     String JOURNAL_FORCE_WRITE_BATCH_ENTRIES = "JOURNAL_FORCE_WRITE_BATCH_ENTRIES";
     String JOURNAL_FORCE_WRITE_BATCH_BYTES = "JOURNAL_FORCE_WRITE_BATCH_BYTES";
+    String JOURNAL_FORCE_WRITE_OUTSTANDING = "JOURNAL_FORCE_WRITE_OUTSTANDING";
     String JOURNAL_FLUSH_LATENCY = "JOURNAL_FLUSH_LATENCY";
     String JOURNAL_QUEUE_LATENCY = "JOURNAL_QUEUE_LATENCY";
     String JOURNAL_QUEUE_MAX_SIZE = "JOURNAL_QUEUE_MAX_SIZE";
@@ -117,6 +121,12 @@ public interface BookKeeperServerStats {
     String JOURNAL_CREATION_LATENCY = "JOURNAL_CREATION_LATENCY";
     String JOURNAL_MEMORY_MAX = "JOURNAL_MEMORY_MAX";
     String JOURNAL_MEMORY_USED = "JOURNAL_MEMORY_USED";
+    String JOURNAL_ROUTING_LOAD = "JOURNAL_ROUTING_LOAD";
+    String JOURNAL_ROUTED_LEDGERS = "JOURNAL_ROUTED_LEDGERS";
+    String JOURNAL_REBOUND_LEDGERS = "JOURNAL_REBOUND_LEDGERS";
+    String JOURNAL_GROUP_COMMIT_WAIT = "JOURNAL_GROUP_COMMIT_WAIT";
+    String JOURNAL_GROUP_COMMIT_BYTES_THRESHOLD = "JOURNAL_GROUP_COMMIT_BYTES_THRESHOLD";
+    String JOURNAL_ENTRY_ARRIVAL_RATE = "JOURNAL_ENTRY_ARRIVAL_RATE";
 
     // Ledger Storage Stats
     String STORAGE_GET_OFFSET = "STORAGE_GET_OFFSET";
@@ -154,6 +164,15 @@ public interface BookKeeperServerStats {
     String MINOR_COMPACTION_COUNT = "MINOR_COMPACTION_TOTAL";
     String ACTIVE_LEDGER_COUNT = "ACTIVE_LEDGER_TOTAL";
     String DELETED_LEDGER_COUNT = "DELETED_LEDGER_TOTAL";
+    String COMPACTION_PENDING_ENTRY_LOG_COUNT = "COMPACTION_PENDING_ENTRY_LOG_TOTAL";
+    String COMPACTION_COPIED_BYTES = "COMPACTION_COPIED_BYTES";
+    String COMPACTION_RECLAIMED_BYTES = "COMPACTION_RECLAIMED_BYTES";
+    String COMPACTION_COLD_WRITTEN_BYTES = "COMPACTION_COLD_WRITTEN_BYTES";
+    String COLD_ENTRY_LOG_COUNT = "COLD_ENTRY_LOG_TOTAL";
+    String COLD_ENTRY_LOG_SPACE_BYTES = "COLD_ENTRY_LOG_SPACE_BYTES";
+    String COMPACTION_WORKER_ENTRY_LOG_COUNT = "COMPACTION_WORKER_ENTRY_LOG_TOTAL";
+    String COMPACTION_WORKER_COPIED_BYTES = "COMPACTION_WORKER_COPIED_BYTES";
+    String COMPACTION_WORKER_ENTRY_LOG_TIME = "COMPACTION_WORKER_ENTRY_LOG_TIME";
 
     // Index Related Counters
     String INDEX_INMEM_ILLEGAL_STATE_RESET = "INDEX_INMEM_ILLEGAL_STATE_RESET";
@@ -32,7 +32,9 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.FileRegion;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ReferenceCounted;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
@@ -98,6 +100,7 @@ public class BookieImpl implements Bookie {
     final LedgerStorage ledgerStorage;
     final RegistrationManager registrationManager;
     final List<Journal> journals;
+    private final JournalRouter journalRouter;
 
     final HandleFactory handles;
     final boolean entryLogPerLedgerEnabled;
@@ -438,6 +441,8 @@ public class BookieImpl implements Bookie {
                     conf, ledgerDirsManager, statsLogger.scope(JOURNAL_SCOPE), allocator, journalAliveListener));
         }
 
+        journalRouter = new JournalRouter(journals, conf);
+
         this.entryLogPerLedgerEnabled = conf.isEntryLogPerLedgerEnabled();
         CheckpointSource checkpointSource = new CheckpointSourceList(journals);
 
@@ -484,6 +489,7 @@ public class BookieImpl implements Bookie {
             @Override
             public void ledgerDeleted(long ledgerId) {
                 masterKeyCache.remove(ledgerId);
+                journalRouter.ledgerDeleted(ledgerId);
             }
         };
 
@@ -528,6 +534,7 @@ public class BookieImpl implements Bookie {
         JournalScanner scanner = new JournalScanner() {
             @Override
             public void process(int journalVersion, long offset, ByteBuffer recBuff) throws IOException {
+                bookieStats.getJournalReplayBytes().addCount(recBuff.remaining());
                 long ledgerId = recBuff.getLong();
                 long entryId = recBuff.getLong();
                 try {
@@ -591,6 +598,9 @@ public class BookieImpl implements Bookie {
                          */
                         LOG.warn("Read unrecognizable entryId: {} for ledger: {} while replaying Journal. Skipping it",
                                 entryId, ledgerId);
+                    } else if (ledgerStorage.isEntryPersisted(ledgerId, entryId)) {
+                        // Already persisted since the last checkpoint, e.g. by a flush of the ledger storage
+                        bookieStats.getJournalReplaySkippedEntries().inc();
                     } else {
                         byte[] key = masterKeyCache.get(ledgerId);
                         if (key == null) {
@@ -600,6 +610,7 @@ public class BookieImpl implements Bookie {
 
                         recBuff.rewind();
                         handle.addEntry(Unpooled.wrappedBuffer(recBuff));
+                        bookieStats.getJournalReplayEntries().inc();
                     }
                 } catch (NoLedgerException nsle) {
                     if (LOG.isDebugEnabled()) {
@@ -611,8 +622,20 @@ public class BookieImpl implements Bookie {
             }
         };
 
-        for (Journal journal : journals) {
-            replay(journal, scanner);
+        int replayThreads = conf.getJournalReplayThreads();
+        if (replayThreads > 1) {
+            // Apply the entries of different ledgers in parallel, with up to the journal memory pending
+            long maxPendingBytes = conf.getJournalMaxMemorySizeMb() * 1024 * 1024;
+            try (OrderedJournalScanner orderedScanner =
+                         new OrderedJournalScanner(scanner, replayThreads, maxPendingBytes)) {
+                for (Journal journal : journals) {
+                    replay(journal, orderedScanner);
+                }
+            }
+        } else {
+            for (Journal journal : journals) {
+                replay(journal, scanner);
+            }
         }
         long elapsedTs = System.currentTimeMillis() - startTs;
         LOG.info("Finished replaying journal in {} ms.", elapsedTs);
@@ -641,13 +664,22 @@ public class BookieImpl implements Bookie {
         // TODO: When reading in the journal logs that need to be synced, we
         // should use BufferedChannels instead to minimize the amount of
         // system calls done.
-        for (Long id : logs) {
+        for (int i = 0; i < logs.size(); i++) {
+            Long id = logs.get(i);
             long logPosition = 0L;
             if (id == markedLog.getLogFileId()) {
                 logPosition = markedLog.getLogFileOffset();
             }
-            LOG.info("Replaying journal {} from position {}", id, logPosition);
+            LOG.info("Replaying journal {} ({} of {}) from position {}", id, i + 1, logs.size(), logPosition);
+            long startNanos = MathUtils.nowInNano();
             long scanOffset = journal.scanJournal(id, logPosition, scanner, conf.isSkipReplayJournalInvalidRecord());
+            if (scanner instanceof OrderedJournalScanner) {
+                // The journal is only replayed once all its entries are applied
+                ((OrderedJournalScanner) scanner).drain();
+            }
+            long elapsedMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(MathUtils.elapsedNanos(startNanos)));
+            LOG.info("Replayed journal {} up to position {} in {} ms ({} MB/s)", id, scanOffset, elapsedMs,
+                    String.format("%.1f", (scanOffset - logPosition) * 1000.0 / elapsedMs / 1024 / 1024));
             // Update LastLogMark after completely replaying journal
             // scanOffset will point to EOF position
             // After LedgerStorage flush, SyncThread should persist this to disk
@@ -937,7 +969,7 @@ public class BookieImpl implements Bookie {
     }
 
     private Journal getJournal(long ledgerId) {
-        return journals.get(MathUtils.signSafeMod(ledgerId, journals.size()));
+        return journalRouter.getJournal(ledgerId);
     }
 
     @VisibleForTesting
@@ -989,7 +1021,7 @@ public class BookieImpl implements Bookie {
         if (LOG.isTraceEnabled()) {
             LOG.trace("Adding {}@{}", entryId, ledgerId);
         }
-        getJournal(ledgerId).logAddEntry(entry, ackBeforeSync, cb, ctx);
+        journalRouter.getJournal(ledgerId, ackBeforeSync).logAddEntry(entry, ackBeforeSync, cb, ctx);
     }
 
     /**
@@ -1081,7 +1113,7 @@ public class BookieImpl implements Bookie {
             LOG.trace("Forcing ledger {}", ledgerId);
         }
         Journal journal = getJournal(ledgerId);
-        journal.forceLedger(ledgerId, cb, ctx);
+        journal.forceLedger(ledgerId, journalRouter.wrapForceLedgerCallback(ledgerId, cb), ctx);
         bookieStats.getForceLedgerOps().inc();
     }
 
@@ -1162,6 +1194,59 @@ public class BookieImpl implements Bookie {
         }
     }
 
+    public ReferenceCounted readEntryForTransfer(long ledgerId, long entryId)
+            throws IOException, NoLedgerException, BookieException {
+        long requestNanos = MathUtils.nowInNano();
+        boolean success = false;
+        long entrySize = 0;
+        try {
+            LedgerDescriptor handle = handles.getReadOnlyHandle(ledgerId);
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Reading {}@{} for transfer", entryId, ledgerId);
+            }
+            ReferenceCounted entry = handle.readEntryForTransfer(entryId);
+            entrySize = entry instanceof FileRegion ? ((FileRegion) entry).count() : ((ByteBuf) entry).readableBytes();
+            bookieStats.getReadBytes().addCount(entrySize);
+            success = true;
+            return entry;
+        } finally {
+            long elapsedNanos = MathUtils.elapsedNanos(requestNanos);
+            if (success) {
+                bookieStats.getReadEntryStats().registerSuccessfulEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+                bookieStats.getReadBytesStats().registerSuccessfulValue(entrySize);
+            } else {
+                bookieStats.getReadEntryStats().registerFailedEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+                bookieStats.getReadBytesStats().registerFailedValue(entrySize);
+            }
+        }
+    }
+
+    public List<ByteBuf> readEntries(long ledgerId, long firstEntryId, int maxCount, long maxSize)
+            throws IOException, NoLedgerException, BookieException {
+        long requestNanos = MathUtils.nowInNano();
+        boolean success = false;
+        try {
+            LedgerDescriptor handle = handles.getReadOnlyHandle(ledgerId);
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Reading {} entries from {}@{}", maxCount, firstEntryId, ledgerId);
+            }
+            List<ByteBuf> entries = handle.readEntries(firstEntryId, maxCount, maxSize);
+            for (ByteBuf entry : entries) {
+                bookieStats.getReadBytes().addCount(entry.readableBytes());
+                bookieStats.getReadBytesStats().registerSuccessfulValue(entry.readableBytes());
+            }
+            success = true;
+            return entries;
+        } finally {
+            long elapsedNanos = MathUtils.elapsedNanos(requestNanos);
+            if (success) {
+                bookieStats.getReadEntryStats().registerSuccessfulEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+            } else {
+                bookieStats.getReadEntryStats().registerFailedEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
     public long readLastAddConfirmed(long ledgerId) throws IOException, BookieException {
         LedgerDescriptor handle = handles.getReadOnlyHandle(ledgerId);
         return handle.getLastAddConfirmed();
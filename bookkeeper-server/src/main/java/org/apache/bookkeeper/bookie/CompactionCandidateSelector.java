@@ -0,0 +1,99 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import java.util.List;
+
+/**
+ * Policy deciding in which order the entry logs below the compaction threshold are compacted.
+ *
+ * <p>The compaction threshold still decides which entry logs may be compacted at all. The selector
+ * only orders them, so that the entry logs that are the most worth compacting are compacted first
+ * when a compaction run is limited in time.
+ */
+public interface CompactionCandidateSelector {
+
+    String USAGE = "usage";
+    String COST_BENEFIT = "cost-benefit";
+
+    /**
+     * @return the name of the selector, used to label the compaction metrics
+     */
+    String name();
+
+    /**
+     * Sort the candidates, the first one being compacted first.
+     *
+     * @param candidates entry logs below the compaction threshold
+     * @param newestEntryLogId id of the most recently flushed entry log known to the garbage collector
+     */
+    void sort(List<Candidate> candidates, long newestEntryLogId);
+
+    static CompactionCandidateSelector newSelector(String name) {
+        if (USAGE.equalsIgnoreCase(name)) {
+            return UsageCompactionCandidateSelector.INSTANCE;
+        } else if (COST_BENEFIT.equalsIgnoreCase(name)) {
+            return CostBenefitCompactionCandidateSelector.INSTANCE;
+        } else {
+            throw new IllegalArgumentException("Unknown compaction candidate selector: " + name);
+        }
+    }
+
+    /**
+     * An entry log that can be compacted.
+     */
+    final class Candidate {
+        private final long entryLogId;
+        private final double usage;
+        private final long totalSize;
+        private final long remainingSize;
+        private final int generation;
+
+        Candidate(long entryLogId, double usage, long totalSize, long remainingSize, int generation) {
+            this.entryLogId = entryLogId;
+            this.usage = usage;
+            this.totalSize = totalSize;
+            this.remainingSize = remainingSize;
+            this.generation = generation;
+        }
+
+        public long getEntryLogId() {
+            return entryLogId;
+        }
+
+        public double getUsage() {
+            return usage;
+        }
+
+        public long getTotalSize() {
+            return totalSize;
+        }
+
+        public long getRemainingSize() {
+            return remainingSize;
+        }
+
+        public int getGeneration() {
+            return generation;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Compaction candidate selector ranking the entry logs by the cost-benefit ratio of log-structured
+ * file systems, {@code (1 - u) * age / (1 + u)}.
+ *
+ * <p>Compacting an entry log with usage {@code u} reads the whole log and rewrites the {@code u} live
+ * part of it to reclaim {@code 1 - u}. The age weighs the benefit by how long the reclaimed space is
+ * expected to stay free: the data that survived in old entry logs is likely to live on, while young
+ * entry logs are still losing data on their own and are cheaper to compact later.
+ *
+ * <p>Entry log ids are allocated in increasing order as the bookie writes, so the age of an entry log
+ * is measured as the number of entry logs created after it, which is the amount of data written since
+ * rather than wall clock time.
+ */
+class CostBenefitCompactionCandidateSelector implements CompactionCandidateSelector {
+
+    static final CostBenefitCompactionCandidateSelector INSTANCE = new CostBenefitCompactionCandidateSelector();
+
+    private CostBenefitCompactionCandidateSelector() {
+    }
+
+    @Override
+    public String name() {
+        return COST_BENEFIT;
+    }
+
+    @Override
+    public void sort(List<Candidate> candidates, long newestEntryLogId) {
+        candidates.sort(Comparator.<Candidate>comparingDouble(c -> score(c, newestEntryLogId)).reversed()
+                .thenComparingDouble(Candidate::getUsage));
+    }
+
+    static double score(Candidate candidate, long newestEntryLogId) {
+        double usage = candidate.getUsage();
+        long age = Math.max(1L, newestEntryLogId - candidate.getEntryLogId() + 1);
+        return (1.0d - usage) * age / (1.0d + usage);
+    }
+}
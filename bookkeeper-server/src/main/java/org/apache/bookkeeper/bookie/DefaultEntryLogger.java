@@ -31,7 +31,12 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.channel.FileRegion;
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.IllegalReferenceCountException;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ReferenceCounted;
 import io.netty.util.concurrent.FastThreadLocal;
 import java.io.BufferedReader;
 import java.io.File;
@@ -287,6 +292,12 @@ public class DefaultEntryLogger implements EntryLogger {
 
     private final ByteBufAllocator allocator;
 
+    // Null when the memory mapped reads are disabled
+    private final MappedEntryLogs mappedEntryLogs;
+
+    // 0 when the zero copy reads are disabled
+    private final int zeroCopyReadMinEntrySize;
+
     final ServerConfiguration conf;
 
     /**
@@ -318,6 +329,7 @@ public class DefaultEntryLogger implements EntryLogger {
         //We reserve 500 bytes as overhead for the protocol.  This is not 100% accurate
         // but the protocol varies so an exact value is difficult to determine
         this.maxSaneEntrySize = conf.getNettyMaxFrameSizeBytes() - 500;
+        this.zeroCopyReadMinEntrySize = conf.getZeroCopyReadMinEntrySize();
         this.allocator = allocator;
         this.ledgerDirsManager = ledgerDirsManager;
         this.conf = conf;
@@ -358,6 +370,14 @@ public class DefaultEntryLogger implements EntryLogger {
             this.entryLogManager = new EntryLogManagerForSingleEntryLog(conf, ledgerDirsManager, entryLoggerAllocator,
                     listeners, recentlyCreatedEntryLogsStatus);
         }
+
+        if (conf.getEntryLogMmapReadMaxBytes() > 0) {
+            this.mappedEntryLogs = new MappedEntryLogs(conf.getEntryLogMmapReadMaxBytes(),
+                    id -> recentlyCreatedEntryLogsStatus.isFlushedLogId(id) ? findFile(id) : null);
+            this.recentlyCreatedEntryLogsStatus.setFlushListener(mappedEntryLogs::logsSealed);
+        } else {
+            this.mappedEntryLogs = null;
+        }
     }
 
     EntryLogManager getEntryLogManager() {
@@ -418,7 +438,57 @@ public class DefaultEntryLogger implements EntryLogger {
      * and don't cause a change in the channel's position. We use this map to store the file channels. Each
      * file channel is mapped to a log id which represents an open log file.
      */
-    private final ConcurrentMap<Long, FileChannel> logid2FileChannel = new ConcurrentHashMap<Long, FileChannel>();
+    private final ConcurrentMap<Long, LogFileChannel> logid2FileChannel =
+            new ConcurrentHashMap<Long, LogFileChannel>();
+
+    /**
+     * A file channel shared by the readers of a log. The file regions sent from the log keep a reference to it, so
+     * that the channel is only closed once the log is removed and the regions are released.
+     */
+    private static final class LogFileChannel extends AbstractReferenceCounted {
+        private final FileChannel channel;
+
+        LogFileChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        boolean tryRetain() {
+            try {
+                retain();
+                return true;
+            } catch (IllegalReferenceCountException e) {
+                return false;
+            }
+        }
+
+        @Override
+        protected void deallocate() {
+            IOUtils.close(LOG, channel);
+        }
+
+        @Override
+        public ReferenceCounted touch(Object hint) {
+            return this;
+        }
+    }
+
+    /**
+     * A region of a log sent from the shared file channel, it releases its reference to the channel instead of
+     * closing it.
+     */
+    private static final class LogFileRegion extends DefaultFileRegion {
+        private final LogFileChannel logChannel;
+
+        LogFileRegion(LogFileChannel logChannel, long position, long count) {
+            super(logChannel.channel, position, count);
+            this.logChannel = logChannel;
+        }
+
+        @Override
+        protected void deallocate() {
+            logChannel.release();
+        }
+    }
 
     /**
      * Put the logId, bc pair in the map responsible for the current thread.
@@ -435,13 +505,15 @@ public class DefaultEntryLogger implements EntryLogger {
      * @param logId
      */
     public void removeFromChannelsAndClose(long logId) {
-        FileChannel fileChannel = logid2FileChannel.remove(logId);
+        LogFileChannel fileChannel = logid2FileChannel.remove(logId);
         if (null != fileChannel) {
-            try {
-                fileChannel.close();
-            } catch (IOException e) {
-                LOG.warn("Exception while closing channel for log file:" + logId);
-            }
+            fileChannel.release();
+        }
+    }
+
+    private void releaseFileChannels() {
+        for (Long logId : logid2FileChannel.keySet()) {
+            removeFromChannelsAndClose(logId);
         }
     }
 
@@ -519,6 +591,9 @@ public class DefaultEntryLogger implements EntryLogger {
     @Override
     public boolean removeEntryLog(long entryLogId) {
         removeFromChannelsAndClose(entryLogId);
+        if (mappedEntryLogs != null) {
+            mappedEntryLogs.unmap(entryLogId);
+        }
         File entryLogFile;
         try {
             entryLogFile = findFile(entryLogId);
@@ -842,6 +917,12 @@ public class DefaultEntryLogger implements EntryLogger {
         long entryLogId = logIdForOffset(location);
         long pos = posForOffset(location);
 
+        if (mappedEntryLogs != null) {
+            ByteBuf entry = readMappedEntry(ledgerId, entryId, entryLogId, pos, validateEntry);
+            if (entry != null) {
+                return entry;
+            }
+        }
 
         BufferedReadChannel fc = null;
         int entrySize = -1;
@@ -871,6 +952,76 @@ public class DefaultEntryLogger implements EntryLogger {
         return data;
     }
 
+    @Override
+    public FileRegion readEntryRegion(long ledgerId, long entryId, long entryLocation)
+            throws IOException, Bookie.NoEntryException {
+        long entryLogId = logIdForOffset(entryLocation);
+        long pos = posForOffset(entryLocation);
+        if (zeroCopyReadMinEntrySize <= 0 || !recentlyCreatedEntryLogsStatus.isFlushedLogId(entryLogId)) {
+            // The entry might still be in the write buffer of the log
+            return null;
+        }
+
+        int entrySize;
+        try {
+            BufferedReadChannel fc = getFCForEntryInternal(ledgerId, entryId, entryLogId, pos);
+            ByteBuf sizeBuff = readEntrySize(ledgerId, entryId, entryLogId, pos, fc);
+            entrySize = sizeBuff.getInt(0);
+            validateEntry(ledgerId, entryId, entryLogId, pos, sizeBuff);
+            if (entrySize < zeroCopyReadMinEntrySize) {
+                return null;
+            }
+            if (pos + entrySize > fc.size()) {
+                throw new EntryLookupException("Short read for " + ledgerId + "@" + entryId + " in " + entryLogId
+                        + "@" + pos + "(" + (fc.size() - pos) + "!=" + entrySize + ")");
+            }
+        } catch (EntryLookupException e) {
+            throw new IOException("Bad entry read from log file id: " + entryLogId, e);
+        }
+
+        // The region keeps the shared channel open, so that it stays readable if the log is removed before the
+        // entry is sent. If the log was just removed, the entry is read the regular way.
+        LogFileChannel logChannel = logid2FileChannel.get(entryLogId);
+        if (logChannel == null || !logChannel.tryRetain()) {
+            return null;
+        }
+        return new LogFileRegion(logChannel, pos, entrySize);
+    }
+
+    /**
+     * Read an entry as a slice of the memory mapped entry log.
+     *
+     * @return the entry, or null if the log is not mapped
+     */
+    private ByteBuf readMappedEntry(long ledgerId, long entryId, long entryLogId, long pos, boolean validateEntry)
+            throws IOException {
+        ByteBuf mapping = mappedEntryLogs.acquire(entryLogId);
+        if (mapping == null) {
+            return null;
+        }
+
+        try {
+            long entrySizePos = pos - 4;
+            if (entrySizePos < 0 || pos + 8 + 8 > mapping.capacity()) {
+                throw new EntryLookupException.MissingEntryException(ledgerId, entryId, entryLogId, entrySizePos);
+            }
+            ByteBuf sizeBuff = mapping.slice((int) entrySizePos, 4 + 8 + 8);
+            int entrySize = sizeBuff.getInt(0);
+            if (validateEntry) {
+                validateEntry(ledgerId, entryId, entryLogId, pos, sizeBuff);
+            }
+            if (entrySize < 0 || pos + entrySize > mapping.capacity()) {
+                throw new EntryLookupException("Short read for " + ledgerId + "@" + entryId + " in " + entryLogId
+                        + "@" + pos + "(" + (mapping.capacity() - pos) + "!=" + entrySize + ")");
+            }
+            return mapping.retainedSlice((int) pos, entrySize);
+        } catch (EntryLookupException e) {
+            throw new IOException("Bad entry read from log file id: " + entryLogId, e);
+        } finally {
+            ReferenceCountUtil.release(mapping);
+        }
+    }
+
     /**
      * Read the header of an entry log.
      */
@@ -908,10 +1059,10 @@ public class DefaultEntryLogger implements EntryLogger {
         // get channel is used to open an existing entry log file
         // it would be better to open using read mode
         FileChannel newFc = new RandomAccessFile(file, "r").getChannel();
-        FileChannel oldFc = logid2FileChannel.putIfAbsent(entryLogId, newFc);
+        LogFileChannel oldFc = logid2FileChannel.putIfAbsent(entryLogId, new LogFileChannel(newFc));
         if (null != oldFc) {
             newFc.close();
-            newFc = oldFc;
+            newFc = oldFc.channel;
         }
         // We set the position of the write buffer of this buffered channel to Long.MAX_VALUE
         // so that there are no overlaps with the write buffer while reading
@@ -1191,11 +1342,6 @@ public class DefaultEntryLogger implements EntryLogger {
         LOG.info("Stopping EntryLogger");
         try {
             flush();
-            for (FileChannel fc : logid2FileChannel.values()) {
-                fc.close();
-            }
-            // clear the mapping, so we don't need to go through the channels again in finally block in normal case.
-            logid2FileChannel.clear();
             entryLogManager.close();
             synchronized (compactionLogLock) {
                 if (compactionLogChannel != null) {
@@ -1207,15 +1353,16 @@ public class DefaultEntryLogger implements EntryLogger {
             // we have no idea how to avoid io exception during shutting down, so just ignore it
             LOG.error("Error flush entry log during shutting down, which may cause entry log corrupted.", ie);
         } finally {
-            for (FileChannel fc : logid2FileChannel.values()) {
-                IOUtils.close(LOG, fc);
-            }
+            releaseFileChannels();
 
             entryLogManager.forceClose();
             synchronized (compactionLogLock) {
                 IOUtils.close(LOG, compactionLogChannel);
             }
         }
+        if (mappedEntryLogs != null) {
+            mappedEntryLogs.close();
+        }
         // shutdown the pre-allocation thread
         entryLoggerAllocator.stop();
     }
@@ -1258,6 +1405,8 @@ public class DefaultEntryLogger implements EntryLogger {
     static class RecentEntryLogsStatus {
         private final SortedMap<Long, Boolean> entryLogsStatusMap;
         private long leastUnflushedLogId;
+        // Notified when logs become flushed
+        private Runnable flushListener = null;
 
         RecentEntryLogsStatus(long leastUnflushedLogId) {
             entryLogsStatusMap = new TreeMap<>();
@@ -1268,6 +1417,10 @@ public class DefaultEntryLogger implements EntryLogger {
             entryLogsStatusMap.put(entryLogId, false);
         }
 
+        synchronized void setFlushListener(Runnable flushListener) {
+            this.flushListener = flushListener;
+        }
+
         synchronized void flushRotatedEntryLog(Long entryLogId) {
             entryLogsStatusMap.replace(entryLogId, true);
             while ((!entryLogsStatusMap.isEmpty()) && (entryLogsStatusMap.get(entryLogsStatusMap.firstKey()))) {
@@ -1275,6 +1428,9 @@ public class DefaultEntryLogger implements EntryLogger {
                 entryLogsStatusMap.remove(leastFlushedLogId);
                 leastUnflushedLogId = leastFlushedLogId + 1;
             }
+            if (flushListener != null) {
+                flushListener.run();
+            }
         }
 
         synchronized long getLeastUnflushedLogId() {
@@ -1307,6 +1463,10 @@ public class DefaultEntryLogger implements EntryLogger {
         private final File compactingLogFile;
         private final File compactedLogFile;
         private final File finalLogFile;
+        // The other entry logs compacted into this log, each gets its own compacted file so that it is recovered
+        // and removed like a single compacted log
+        private final List<Long> otherLogIdsToCompact = new ArrayList<>();
+        private final List<File> otherCompactedLogFiles = new ArrayList<>();
 
         EntryLoggerCompactionEntryLog(long compactionLogId, long logIdToCompact,
                                       File compactingLogFile,
@@ -1334,11 +1494,7 @@ public class DefaultEntryLogger implements EntryLogger {
         @Override
         public void abort() {
             removeCurCompactionLog();
-            if (compactedLogFile.exists()) {
-                if (!compactedLogFile.delete()) {
-                    LOG.warn("Could not delete file: {}", compactedLogFile);
-                }
-            }
+            deleteCompactedLogFiles();
         }
 
         @Override
@@ -1347,6 +1503,11 @@ public class DefaultEntryLogger implements EntryLogger {
                 if (!compactedLogFile.exists()) {
                     HardLink.createHardLink(compactingLogFile, compactedLogFile);
                 }
+                for (File otherCompactedLogFile : otherCompactedLogFiles) {
+                    if (!otherCompactedLogFile.exists()) {
+                        HardLink.createHardLink(compactingLogFile, otherCompactedLogFile);
+                    }
+                }
             } else {
                 throw new IOException("Compaction log doesn't exist any more after flush: " + compactingLogFile);
             }
@@ -1361,11 +1522,7 @@ public class DefaultEntryLogger implements EntryLogger {
         }
         @Override
         public void finalizeAndCleanup() {
-            if (compactedLogFile.exists()) {
-                if (!compactedLogFile.delete()) {
-                    LOG.warn("Could not delete file: {}", compactedLogFile);
-                }
-            }
+            deleteCompactedLogFiles();
             if (compactingLogFile.exists()) {
                 if (!compactingLogFile.delete()) {
                     LOG.warn("Could not delete file: {}", compactingLogFile);
@@ -1382,11 +1539,40 @@ public class DefaultEntryLogger implements EntryLogger {
             return logIdToCompact;
         }
 
+        @Override
+        public boolean addSrcLog(long logToCompact) {
+            otherLogIdsToCompact.add(logToCompact);
+            otherCompactedLogFiles.add(compactedLogFileFromCompacting(compactingLogFile, logToCompact));
+            return true;
+        }
+
+        @Override
+        public List<Long> getSrcLogIds() {
+            List<Long> srcLogIds = new ArrayList<>(otherLogIdsToCompact.size() + 1);
+            srcLogIds.add(logIdToCompact);
+            srcLogIds.addAll(otherLogIdsToCompact);
+            return srcLogIds;
+        }
+
+        private void deleteCompactedLogFiles() {
+            if (compactedLogFile.exists()) {
+                if (!compactedLogFile.delete()) {
+                    LOG.warn("Could not delete file: {}", compactedLogFile);
+                }
+            }
+            for (File otherCompactedLogFile : otherCompactedLogFiles) {
+                if (otherCompactedLogFile.exists() && !otherCompactedLogFile.delete()) {
+                    LOG.warn("Could not delete file: {}", otherCompactedLogFile);
+                }
+            }
+        }
+
         @Override
         public String toString() {
             return MoreObjects.toStringHelper(this)
                 .add("logId", compactionLogId)
                 .add("compactedLogId", logIdToCompact)
+                .add("otherCompactedLogIds", otherLogIdsToCompact)
                 .add("compactingLogFile", compactingLogFile)
                 .add("compactedLogFile", compactedLogFile)
                 .add("finalLogFile", finalLogFile)
@@ -0,0 +1,196 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import org.apache.bookkeeper.common.util.nativeio.NativeIO;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOException;
+
+/**
+ * A {@link BufferedChannel} which writes with direct I/O (O_DIRECT | O_DSYNC), bypassing the page cache.
+ *
+ * <p>The data is buffered in aligned direct memory, and written by whole aligned blocks. A flush
+ * pads the last partial block with zeros, and keeps it in the buffer, so that the next flush writes it again
+ * along with the data appended to it. Since the writes are synchronous, the data is durable once flushed, and
+ * {@link #forceWrite(boolean)} doesn't need to sync it again.
+ *
+ * <p>The file channel is still used to read the data, and for the writes done outside of this channel, such as
+ * the journal header and the preallocation.
+ */
+class DirectBufferedChannel extends BufferedChannel {
+    static final int ALIGNMENT = 4096;
+
+    private final NativeIO nativeIO;
+    private final String filename;
+    private final int fd;
+    private final int capacity;
+    private final ByteBuf alignedBuffer;
+    private final ByteBuf buffer;
+    private final long pointer;
+
+    // The offset in the file of the start of the buffer, always aligned
+    private long bufferOffset;
+    private volatile long flushedPosition;
+    private boolean closed = false;
+
+    DirectBufferedChannel(NativeIO nativeIO, ByteBufAllocator allocator, FileChannel fc, File file, int capacity)
+            throws IOException {
+        // The buffers of the parent class are not used
+        super(allocator, fc, 0, 0, 0L);
+        this.nativeIO = nativeIO;
+        this.filename = file.getPath();
+        this.capacity = Math.max(ALIGNMENT, capacity - capacity % ALIGNMENT);
+
+        try {
+            fd = nativeIO.open(filename, NativeIO.O_WRONLY | NativeIO.O_DIRECT | NativeIO.O_DSYNC, 00644);
+        } catch (NativeIOException e) {
+            throw new IOException("Failed to open " + filename + " for direct I/O, errno: " + e.getErrno(), e);
+        }
+        alignedBuffer = allocator.directBuffer(this.capacity + ALIGNMENT);
+        long addr = alignedBuffer.memoryAddress();
+        int alignOffset = (int) ((ALIGNMENT - (addr & (ALIGNMENT - 1))) & (ALIGNMENT - 1));
+        pointer = addr + alignOffset;
+        buffer = alignedBuffer.slice(alignOffset, this.capacity);
+        buffer.clear();
+
+        // The block where the writes start may already have data, e.g. the header of the journal, which must be
+        // written again along with the new data
+        bufferOffset = position - position % ALIGNMENT;
+        int existing = (int) (position - bufferOffset);
+        try {
+            ByteBuffer dst = buffer.nioBuffer(0, existing);
+            while (dst.hasRemaining()) {
+                if (fc.read(dst, bufferOffset + dst.position()) < 0) {
+                    throw new IOException("Short read of the block of " + filename + " at " + bufferOffset);
+                }
+            }
+        } catch (IOException e) {
+            alignedBuffer.release();
+            nativeIO.close(fd);
+            throw e;
+        }
+        buffer.writerIndex(existing);
+        flushedPosition = position;
+    }
+
+    @Override
+    public synchronized void write(ByteBuf src) throws IOException {
+        int len = src.readableBytes();
+        int copied = 0;
+        while (copied < len) {
+            int bytesToCopy = Math.min(len - copied, buffer.writableBytes());
+            buffer.writeBytes(src, src.readerIndex() + copied, bytesToCopy);
+            copied += bytesToCopy;
+            position += bytesToCopy;
+            if (!buffer.isWritable()) {
+                flush();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (flushedPosition == position) {
+            return;
+        }
+
+        int dataSize = buffer.writerIndex();
+        int writeSize = (dataSize + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+        buffer.setZero(dataSize, writeSize - dataSize);
+        try {
+            int written = nativeIO.pwrite(fd, pointer, writeSize, bufferOffset);
+            if (written != writeSize) {
+                throw new IOException("Incomplete write to " + filename + " at " + bufferOffset + ", "
+                        + written + " of " + writeSize + " bytes written");
+            }
+        } catch (NativeIOException e) {
+            throw new IOException("Failed to write to " + filename + " at " + bufferOffset
+                    + ", errno: " + e.getErrno(), e);
+        }
+
+        // Keep the last partial block, to write it again once more data is appended
+        int fullBlocksSize = dataSize - dataSize % ALIGNMENT;
+        if (fullBlocksSize > 0) {
+            int partialBlockSize = dataSize - fullBlocksSize;
+            buffer.setBytes(0, buffer, fullBlocksSize, partialBlockSize);
+            buffer.writerIndex(partialBlockSize);
+            bufferOffset += fullBlocksSize;
+        }
+
+        flushedPosition = position;
+        writeBufferStartPosition.set(position);
+    }
+
+    @Override
+    public long forceWrite(boolean forceMetadata) throws IOException {
+        if (forceMetadata) {
+            // Sync the writes done through the file channel
+            fileChannel.force(true);
+        }
+        // The data written with O_DSYNC is already durable
+        return flushedPosition;
+    }
+
+    @Override
+    public synchronized int read(ByteBuf dest, long pos, int length) throws IOException {
+        // The reads go to the file, which needs to have all the data
+        flush();
+        int bytesToRead = Math.min(length, dest.writableBytes());
+        int read = 0;
+        while (read < bytesToRead) {
+            int n = fileChannel.read(dest.nioBuffer(dest.writerIndex(), bytesToRead - read), pos + read);
+            if (n <= 0) {
+                break;
+            }
+            dest.writerIndex(dest.writerIndex() + n);
+            read += n;
+        }
+        return read;
+    }
+
+    @Override
+    public synchronized int getNumOfBytesInWriteBuffer() {
+        return (int) (position - flushedPosition);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+        } finally {
+            try {
+                nativeIO.close(fd);
+            } finally {
+                alignedBuffer.release();
+                super.close();
+            }
+        }
+    }
+}
@@ -37,8 +37,12 @@ public class EntryLogMetadata {
     protected long entryLogId;
     protected long totalSize;
     protected long remainingSize;
+    // Number of times the entries of this entry log have been carried over by compaction, 0 for entry logs
+    // written by the bookie and higher for the cold entry logs written by compaction
+    protected int generation;
     protected final ConcurrentLongLongHashMap ledgersMap;
     private static final short DEFAULT_SERIALIZATION_VERSION = 0;
+    private static final short GENERATION_SERIALIZATION_VERSION = 1;
 
     protected EntryLogMetadata() {
         ledgersMap = ConcurrentLongLongHashMap.newBuilder()
@@ -87,6 +91,14 @@ public class EntryLogMetadata {
         return remainingSize;
     }
 
+    public int getGeneration() {
+        return generation;
+    }
+
+    public void setGeneration(int generation) {
+        this.generation = generation;
+    }
+
     public ConcurrentLongLongHashMap getLedgersMap() {
         return ledgersMap;
     }
@@ -105,6 +117,7 @@ public class EntryLogMetadata {
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("{totalSize = ").append(totalSize).append(", remainingSize = ").append(remainingSize)
+                .append(", generation = ").append(generation)
                 .append(", ledgersMap = ").append(ledgersMap.toString()).append("}");
         return sb.toString();
     }
@@ -118,6 +131,7 @@ public class EntryLogMetadata {
      * 8-bytes: entrylog-entryLogId
      * 8-bytes: entrylog-totalSize
      * 8-bytes: entrylog-remainingSize
+     * 4-bytes: entrylog-generation (schema-version 1 only, written for generations above 0)
      * 8-bytes: total number of ledgers
      * ledgers-map
      * [repeat]: (8-bytes::ledgerId, 8-bytes::size-of-ledger)
@@ -129,10 +143,14 @@ public class EntryLogMetadata {
      *             throws if it couldn't serialize ledger-map
      */
     public void serialize(DataOutputStream out) throws IOException, IllegalStateException {
-        out.writeShort(DEFAULT_SERIALIZATION_VERSION);
+        // Entry logs that were never compacted keep the original schema, readable by older bookies
+        out.writeShort(generation > 0 ? GENERATION_SERIALIZATION_VERSION : DEFAULT_SERIALIZATION_VERSION);
         out.writeLong(entryLogId);
         out.writeLong(totalSize);
         out.writeLong(remainingSize);
+        if (generation > 0) {
+            out.writeInt(generation);
+        }
         out.writeLong(ledgersMap.size());
         ledgersMap.forEach((ledgerId, size) -> {
             try {
@@ -156,13 +174,14 @@ public class EntryLogMetadata {
         EntryLogMetadataRecyclable metadata = EntryLogMetadataRecyclable.get();
         try {
             short serVersion = in.readShort();
-            if ((serVersion != DEFAULT_SERIALIZATION_VERSION)) {
-                throw new IOException(String.format("%s. expected =%d, found=%d", "serialization version doesn't match",
-                        DEFAULT_SERIALIZATION_VERSION, serVersion));
+            if ((serVersion != DEFAULT_SERIALIZATION_VERSION && serVersion != GENERATION_SERIALIZATION_VERSION)) {
+                throw new IOException(String.format("%s. expected <=%d, found=%d",
+                        "serialization version doesn't match", GENERATION_SERIALIZATION_VERSION, serVersion));
             }
             metadata.entryLogId = in.readLong();
             metadata.totalSize = in.readLong();
             metadata.remainingSize = in.readLong();
+            metadata.generation = serVersion == GENERATION_SERIALIZATION_VERSION ? in.readInt() : 0;
             long ledgersMapSize = in.readLong();
             for (int i = 0; i < ledgersMapSize; i++) {
                 long ledgerId = in.readLong();
@@ -183,6 +202,7 @@ public class EntryLogMetadata {
         entryLogId = -1L;
         totalSize = -1L;
         remainingSize = -1L;
+        generation = 0;
         ledgersMap.clear();
     }
 
@@ -0,0 +1,158 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import com.carrotsearch.hppc.LongArrayList;
+import com.carrotsearch.hppc.LongObjectHashMap;
+import java.util.Comparator;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ * Index of the entry log usage, maintained incrementally by the garbage collector as ledgers get deleted.
+ *
+ * <p>The index maps every ledger to the entry logs holding some of its entries, and keeps the entry logs
+ * sorted by usage. When a ledger is deleted, only the entry logs that contained it have their metadata
+ * updated, instead of checking every ledger of every entry log against the ledger storage.
+ *
+ * <p>The index only lives in memory, next to the {@link EntryLogMetadataMap} that persists the updated
+ * metadata. It is rebuilt from a full scan of the metadata map on startup and periodically, which also
+ * catches the ledgers deleted while the index was not tracking them. Since the ledgers map takes as much heap
+ * as the metadata of the entry logs, the index is not used when the metadata is kept off-heap.
+ */
+class EntryLogUsageIndex {
+
+    private static final Comparator<CompactionCandidateSelector.Candidate> USAGE_ORDER =
+            Comparator.comparingDouble(CompactionCandidateSelector.Candidate::getUsage)
+                    .thenComparingLong(CompactionCandidateSelector.Candidate::getEntryLogId);
+
+    private final LongObjectHashMap<LongArrayList> ledgerEntryLogs = new LongObjectHashMap<>();
+    private final LongObjectHashMap<CompactionCandidateSelector.Candidate> entryLogUsages =
+            new LongObjectHashMap<>();
+    private final TreeSet<CompactionCandidateSelector.Candidate> sortedUsages = new TreeSet<>(USAGE_ORDER);
+    private long totalRemainingSize = 0L;
+
+    /**
+     * Add a newly extracted entry log to the index.
+     */
+    synchronized void addEntryLog(EntryLogMetadata meta, double usage) {
+        long entryLogId = meta.getEntryLogId();
+        if (!entryLogUsages.containsKey(entryLogId)) {
+            meta.getLedgersMap().forEach((ledgerId, size) -> {
+                LongArrayList entryLogs = ledgerEntryLogs.get(ledgerId);
+                if (entryLogs == null) {
+                    entryLogs = new LongArrayList(1);
+                    ledgerEntryLogs.put(ledgerId, entryLogs);
+                }
+                entryLogs.add(entryLogId);
+            });
+        }
+        putUsage(new CompactionCandidateSelector.Candidate(entryLogId, usage, meta.getTotalSize(),
+                meta.getRemainingSize(), meta.getGeneration()));
+    }
+
+    /**
+     * Update the usage of an entry log once ledgers were removed from its metadata.
+     */
+    synchronized void updateEntryLog(long entryLogId, long totalSize, long remainingSize, double usage) {
+        CompactionCandidateSelector.Candidate previous = entryLogUsages.get(entryLogId);
+        int generation = previous != null ? previous.getGeneration() : 0;
+        putUsage(new CompactionCandidateSelector.Candidate(entryLogId, usage, totalSize, remainingSize, generation));
+    }
+
+    private void putUsage(CompactionCandidateSelector.Candidate entryLogUsage) {
+        removeUsage(entryLogUsage.getEntryLogId());
+        entryLogUsages.put(entryLogUsage.getEntryLogId(), entryLogUsage);
+        sortedUsages.add(entryLogUsage);
+        totalRemainingSize += entryLogUsage.getRemainingSize();
+    }
+
+    /**
+     * Remove a deleted entry log.
+     *
+     * @param meta the metadata of the entry log, to remove it from the entry logs of its ledgers, or null if
+     *             not available, in which case the ledgers are cleaned up when they get deleted
+     */
+    synchronized void removeEntryLog(long entryLogId, EntryLogMetadata meta) {
+        removeUsage(entryLogId);
+        if (meta != null) {
+            meta.getLedgersMap().forEach((ledgerId, size) -> {
+                LongArrayList entryLogs = ledgerEntryLogs.get(ledgerId);
+                if (entryLogs != null) {
+                    entryLogs.removeAll(entryLogId);
+                    if (entryLogs.isEmpty()) {
+                        ledgerEntryLogs.remove(ledgerId);
+                    }
+                }
+            });
+        }
+    }
+
+    private void removeUsage(long entryLogId) {
+        CompactionCandidateSelector.Candidate entryLogUsage = entryLogUsages.remove(entryLogId);
+        if (entryLogUsage != null) {
+            sortedUsages.remove(entryLogUsage);
+            totalRemainingSize -= entryLogUsage.getRemainingSize();
+        }
+    }
+
+    /**
+     * Remove a deleted ledger from the index.
+     *
+     * @return the ids of the entry logs, still in the index, that contain entries of the ledger
+     */
+    synchronized LongArrayList removeLedger(long ledgerId) {
+        LongArrayList entryLogs = ledgerEntryLogs.remove(ledgerId);
+        LongArrayList liveEntryLogs = new LongArrayList();
+        if (entryLogs != null) {
+            for (int i = 0; i < entryLogs.size(); i++) {
+                long entryLogId = entryLogs.get(i);
+                if (entryLogUsages.containsKey(entryLogId)) {
+                    liveEntryLogs.add(entryLogId);
+                }
+            }
+        }
+        return liveEntryLogs;
+    }
+
+    /**
+     * Iterate over the entry logs, from the lowest usage to the highest.
+     */
+    synchronized void forEach(Consumer<CompactionCandidateSelector.Candidate> action) {
+        sortedUsages.forEach(action);
+    }
+
+    synchronized int size() {
+        return entryLogUsages.size();
+    }
+
+    synchronized long getTotalRemainingSize() {
+        return totalRemainingSize;
+    }
+
+    synchronized void clear() {
+        ledgerEntryLogs.clear();
+        entryLogUsages.clear();
+        sortedUsages.clear();
+        totalRemainingSize = 0L;
+    }
+}
@@ -23,13 +23,20 @@ package org.apache.bookkeeper.bookie;
 
 import static org.apache.bookkeeper.util.BookKeeperConstants.METADATA_CACHE;
 
+import com.carrotsearch.hppc.LongArrayList;
+import com.carrotsearch.hppc.LongHashSet;
+import com.carrotsearch.hppc.LongObjectHashMap;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.Uninterruptibles;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import io.netty.util.concurrent.DefaultThreadFactory;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
@@ -37,6 +44,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 import lombok.Getter;
 import org.apache.bookkeeper.bookie.BookieException.EntryLogMetadataMapException;
 import org.apache.bookkeeper.bookie.GarbageCollector.GarbageCleaner;
@@ -47,7 +55,10 @@ import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.meta.LedgerManager;
 import org.apache.bookkeeper.stats.StatsLogger;
 import org.apache.bookkeeper.util.MathUtils;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashSet;
+import org.apache.bookkeeper.util.collections.ConcurrentLongLongHashMap;
 import org.apache.commons.lang3.mutable.MutableBoolean;
+import org.apache.commons.lang3.mutable.MutableInt;
 import org.apache.commons.lang3.mutable.MutableLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -64,6 +75,15 @@ public class GarbageCollectorThread implements Runnable {
     // Maps entry log files to the set of ledgers that comprise the file and the size usage per ledger
     private EntryLogMetadataMap entryLogMetaMap;
 
+    // Incremental entry log usage accounting: the ledgers deleted since the last gc of the entry logs,
+    // and the index of the entry logs containing them, rebuilt by a full scan every rebuild interval
+    final boolean incrementalEntryLogUsage;
+    final long entryLogUsageRebuildInterval;
+    long lastEntryLogUsageRebuildTime;
+    private volatile boolean entryLogUsageIndexReady = false;
+    private final EntryLogUsageIndex entryLogUsageIndex = new EntryLogUsageIndex();
+    private final ConcurrentLongHashSet deletedLedgers = ConcurrentLongHashSet.newBuilder().build();
+
     private final ScheduledExecutorService gcExecutor;
     Future<?> scheduledFuture = null;
 
@@ -92,6 +112,23 @@ public class GarbageCollectorThread implements Runnable {
     final EntryLogger entryLogger;
     AbstractLogCompactor compactor;
 
+    // Number of entry logs compacted concurrently, each worker owns one of the compactors
+    // and they all share the throttler of the first one.
+    final int compactionThreads;
+    final AbstractLogCompactor[] workerCompactors;
+    final ExecutorService compactionExecutor;
+    private volatile int numPendingCompactionEntryLogs;
+    final CompactionCandidateSelector candidateSelector;
+
+    // Compaction output goes to cold entry logs, tracking how many times their data was compacted.
+    // The generation of a compaction log is kept here until its metadata is extracted, it is not persisted
+    // so the compaction logs not extracted yet when the bookie restarts start again from generation 0.
+    final boolean coldEntryLogsEnabled;
+    private final ConcurrentLongLongHashMap coldEntryLogGenerations =
+            ConcurrentLongLongHashMap.newBuilder().build();
+    private volatile int numColdEntryLogs;
+    private volatile long coldEntryLogSize;
+
     // Stats loggers for garbage collection operations
     private final GarbageCollectorStats gcStats;
 
@@ -169,15 +206,48 @@ public class GarbageCollectorThread implements Runnable {
         this.entryLogMetaMap = createEntryLogMetadataMap();
         this.ledgerStorage = ledgerStorage;
         this.gcWaitTime = conf.getGcWaitTime();
+        if (conf.isGcIncrementalEntryLogUsageEnabled() && conf.isGcEntryLogMetadataCacheEnabled()) {
+            // The usage index keeps the ledgers of every entry log on heap, which the metadata cache avoids
+            LOG.warn("Ignoring gcIncrementalEntryLogUsageEnabled, which can't be used with the entry log metadata"
+                    + " cache enabled");
+            this.incrementalEntryLogUsage = false;
+        } else {
+            this.incrementalEntryLogUsage = conf.isGcIncrementalEntryLogUsageEnabled();
+        }
+        this.entryLogUsageRebuildInterval = conf.getGcEntryLogUsageRebuildInterval() * SECOND;
 
         this.numActiveEntryLogs = 0;
         this.totalEntryLogSize = 0L;
+        this.numPendingCompactionEntryLogs = 0;
+        this.numColdEntryLogs = 0;
+        this.coldEntryLogSize = 0L;
+
+        // Cold entry logs rely on the compaction logs written by the transactional compaction
+        this.coldEntryLogsEnabled = conf.isCompactionColdEntryLogsEnabled();
+        final boolean transactionalCompaction = conf.getUseTransactionalCompaction() || coldEntryLogsEnabled;
+
+        int numCompactionThreads = Math.max(1, conf.getCompactionThreads());
+        if (numCompactionThreads > 1 && transactionalCompaction
+                && entryLogger instanceof DefaultEntryLogger) {
+            // DefaultEntryLogger writes all the transactional compactions to a single compaction log
+            LOG.warn("Transactional compaction with the default entry logger compacts one entry log at a time,"
+                    + " ignoring compactionThreads={}", numCompactionThreads);
+            numCompactionThreads = 1;
+        }
+        this.compactionThreads = numCompactionThreads;
+        this.candidateSelector = CompactionCandidateSelector.newSelector(conf.getCompactionCandidateSelector());
+
         this.garbageCollector = new ScanAndCompareGarbageCollector(ledgerManager, ledgerStorage, conf, statsLogger);
         this.gcStats = new GarbageCollectorStats(
             statsLogger,
             () -> numActiveEntryLogs,
             () -> totalEntryLogSize,
-            () -> garbageCollector.getNumActiveLedgers()
+            () -> garbageCollector.getNumActiveLedgers(),
+            () -> numPendingCompactionEntryLogs,
+            compactionThreads,
+            candidateSelector.name(),
+            () -> numColdEntryLogs,
+            () -> coldEntryLogSize
         );
 
         this.garbageCleaner = ledgerId -> {
@@ -187,6 +257,9 @@ public class GarbageCollectorThread implements Runnable {
                 }
                 gcStats.getDeletedLedgerCounter().inc();
                 ledgerStorage.deleteLedger(ledgerId);
+                if (incrementalEntryLogUsage) {
+                    deletedLedgers.add(ledgerId);
+                }
             } catch (IOException e) {
                 LOG.error("Exception when deleting the ledger index file on the Bookie: ", e);
             }
@@ -215,13 +288,46 @@ public class GarbageCollectorThread implements Runnable {
                     LOG.warn("Failed to remove entry-log metadata {}", logToRemove, e);
                 }
             }
+
+            @Override
+            public void compactedEntryLog(EntryLogMetadata compactedLogMeta, long dstLogId) {
+                if (!coldEntryLogsEnabled) {
+                    return;
+                }
+                if (compactedLogMeta.getGeneration() == 0) {
+                    gcStats.getYoungToColdWrittenBytes().addCount(compactedLogMeta.getRemainingSize());
+                } else {
+                    gcStats.getColdToColdWrittenBytes().addCount(compactedLogMeta.getRemainingSize());
+                }
+                // A cold entry log packing several entry logs takes the generation of the oldest data
+                long generation = compactedLogMeta.getGeneration() + 1;
+                coldEntryLogGenerations.put(dstLogId, Math.max(generation, coldEntryLogGenerations.get(dstLogId)));
+            }
         };
-        if (conf.getUseTransactionalCompaction()) {
+        if (transactionalCompaction) {
             this.compactor = new TransactionalEntryLogCompactor(conf, entryLogger, ledgerStorage, remover);
         } else {
             this.compactor = new EntryLogCompactor(conf, entryLogger, ledgerStorage, remover);
         }
 
+        this.workerCompactors = new AbstractLogCompactor[compactionThreads];
+        this.workerCompactors[0] = compactor;
+        for (int i = 1; i < compactionThreads; i++) {
+            if (transactionalCompaction) {
+                workerCompactors[i] = new TransactionalEntryLogCompactor(conf, entryLogger, ledgerStorage, remover,
+                        compactor.throttler);
+            } else {
+                workerCompactors[i] = new EntryLogCompactor(conf, entryLogger, ledgerStorage, remover,
+                        compactor.throttler);
+            }
+        }
+        if (compactionThreads > 1) {
+            this.compactionExecutor = Executors.newFixedThreadPool(compactionThreads,
+                    new DefaultThreadFactory("GarbageCollectorCompaction"));
+        } else {
+            this.compactionExecutor = null;
+        }
+
         this.throttler = new AbstractLogCompactor.Throttler(conf);
         if (minorCompactionInterval > 0 && minorCompactionThreshold > 0) {
             if (minorCompactionThreshold > 1.0d) {
@@ -270,6 +376,7 @@ public class GarbageCollectorThread implements Runnable {
                + minorCompactionThreshold + ", interval=" + minorCompactionInterval);
         LOG.info("Major Compaction : enabled=" + enableMajorCompaction + ", threshold="
                + majorCompactionThreshold + ", interval=" + majorCompactionInterval);
+        LOG.info("Compaction threads : " + compactionThreads + ", candidate selector : " + candidateSelector.name());
 
         lastMinorCompactionTime = lastMajorCompactionTime = System.currentTimeMillis();
     }
@@ -424,7 +531,12 @@ public class GarbageCollectorThread implements Runnable {
             extractMetaFromEntryLogs();
 
             // gc entry logs
-            doGcEntryLogs();
+            if (incrementalEntryLogUsage && entryLogUsageIndexReady
+                    && System.currentTimeMillis() - lastEntryLogUsageRebuildTime < entryLogUsageRebuildInterval) {
+                doGcEntryLogsOfDeletedLedgers();
+            } else {
+                doGcEntryLogs();
+            }
 
             if (suspendMajor) {
                 LOG.info("Disk almost full, suspend major compaction to slow down filling disk.");
@@ -441,7 +553,7 @@ public class GarbageCollectorThread implements Runnable {
                 LOG.info("Enter major compaction, suspendMajor {}", suspendMajor);
                 majorCompacting.set(true);
                 try {
-                    doCompactEntryLogs(majorCompactionThreshold, majorCompactionMaxTimeMillis);
+                    doCompactEntryLogs(majorCompactionThreshold, majorCompactionMaxTimeMillis, true);
                 } finally {
                     lastMajorCompactionTime = System.currentTimeMillis();
                     // and also move minor compaction time
@@ -456,7 +568,9 @@ public class GarbageCollectorThread implements Runnable {
                 LOG.info("Enter minor compaction, suspendMinor {}", suspendMinor);
                 minorCompacting.set(true);
                 try {
-                    doCompactEntryLogs(minorCompactionThreshold, minorCompactionMaxTimeMillis);
+                    // minor compaction leaves the cold entry logs to major compaction
+                    doCompactEntryLogs(minorCompactionThreshold, minorCompactionMaxTimeMillis,
+                            !coldEntryLogsEnabled);
                 } finally {
                     lastMinorCompactionTime = System.currentTimeMillis();
                     gcStats.getMinorCompactionCounter().inc();
@@ -492,6 +606,16 @@ public class GarbageCollectorThread implements Runnable {
     private void doGcEntryLogs() throws EntryLogMetadataMapException {
         // Get a cumulative count, don't update until complete
         AtomicLong totalEntryLogSizeAcc = new AtomicLong(0L);
+        AtomicInteger coldEntryLogCountAcc = new AtomicInteger(0);
+        AtomicLong coldEntryLogSizeAcc = new AtomicLong(0L);
+
+        if (incrementalEntryLogUsage) {
+            // The full scan below checks every ledger, rebuild the usage index from it
+            LOG.info("Rebuilding entry log usage index from a full scan of the entry log metadata");
+            entryLogUsageIndexReady = false;
+            entryLogUsageIndex.clear();
+            deletedLedgers.clear();
+        }
 
         // Loop through all of the entry logs and remove the non-active ledgers.
         entryLogMetaMap.forEach((entryLogId, meta) -> {
@@ -507,9 +631,18 @@ public class GarbageCollectorThread implements Runnable {
                     } else {
                         gcStats.getReclaimFailedToDelete().inc();
                     }
-                } else if (modified) {
-                    // update entryLogMetaMap only when the meta modified.
-                    entryLogMetaMap.put(meta.getEntryLogId(), meta);
+                } else {
+                    if (modified) {
+                        // update entryLogMetaMap only when the meta modified.
+                        entryLogMetaMap.put(meta.getEntryLogId(), meta);
+                    }
+                    if (incrementalEntryLogUsage) {
+                        entryLogUsageIndex.addEntryLog(meta, getCompactionUsage(meta));
+                    }
+                    if (meta.getGeneration() > 0) {
+                        coldEntryLogCountAcc.incrementAndGet();
+                        coldEntryLogSizeAcc.addAndGet(meta.getRemainingSize());
+                    }
                 }
             } catch (EntryLogMetadataMapException e) {
                 // Ignore and continue because ledger will not be cleaned up
@@ -522,6 +655,85 @@ public class GarbageCollectorThread implements Runnable {
 
         this.totalEntryLogSize = totalEntryLogSizeAcc.get();
         this.numActiveEntryLogs = entryLogMetaMap.size();
+        this.numColdEntryLogs = coldEntryLogCountAcc.get();
+        this.coldEntryLogSize = coldEntryLogSizeAcc.get();
+
+        if (incrementalEntryLogUsage) {
+            lastEntryLogUsageRebuildTime = System.currentTimeMillis();
+            entryLogUsageIndexReady = true;
+        }
+    }
+
+    /**
+     * Garbage collect the entry logs containing the ledgers deleted since the last gc, using the usage index.
+     *
+     * <p>
+     * Only the entry logs that contained the deleted ledgers have their metadata updated, the ledgers
+     * of the other entry logs are not checked against the ledger storage.
+     * </p>
+     */
+    private void doGcEntryLogsOfDeletedLedgers() throws EntryLogMetadataMapException {
+        // Group the deleted ledgers by entry log, to update each metadata once
+        LongArrayList ledgerIds = new LongArrayList();
+        deletedLedgers.forEach(ledgerIds::add);
+        LongObjectHashMap<LongHashSet> entryLogDeletedLedgers = new LongObjectHashMap<>();
+        for (int i = 0; i < ledgerIds.size(); i++) {
+            long ledgerId = ledgerIds.get(i);
+            deletedLedgers.remove(ledgerId);
+            LongArrayList entryLogIds = entryLogUsageIndex.removeLedger(ledgerId);
+            for (int j = 0; j < entryLogIds.size(); j++) {
+                long entryLogId = entryLogIds.get(j);
+                LongHashSet ledgers = entryLogDeletedLedgers.get(entryLogId);
+                if (ledgers == null) {
+                    ledgers = new LongHashSet();
+                    entryLogDeletedLedgers.put(entryLogId, ledgers);
+                }
+                ledgers.add(ledgerId);
+            }
+        }
+
+        for (long entryLogId : entryLogDeletedLedgers.keys().toArray()) {
+            LongHashSet ledgers = entryLogDeletedLedgers.get(entryLogId);
+            entryLogMetaMap.forKey(entryLogId, (logId, meta) -> {
+                if (meta == null) {
+                    entryLogUsageIndex.removeEntryLog(entryLogId, null);
+                    return;
+                }
+                try {
+                    meta.removeLedgerIf(ledgers::contains);
+                    if (meta.isEmpty()) {
+                        LOG.info("Deleting entryLogId {} as it has no active ledgers!", entryLogId);
+                        if (removeEntryLog(entryLogId)) {
+                            gcStats.getReclaimedSpaceViaDeletes().addCount(meta.getTotalSize());
+                        } else {
+                            gcStats.getReclaimFailedToDelete().inc();
+                        }
+                    } else {
+                        entryLogMetaMap.put(entryLogId, meta);
+                        entryLogUsageIndex.updateEntryLog(entryLogId, meta.getTotalSize(), meta.getRemainingSize(),
+                                getCompactionUsage(meta));
+                    }
+                } catch (EntryLogMetadataMapException e) {
+                    // Ignore and continue, the ledgers will be removed from this entry log
+                    // by the next full scan of the entry log metadata
+                    LOG.warn("Failed to remove ledger from entry-log metadata {}", entryLogId, e);
+                }
+            });
+        }
+
+        this.totalEntryLogSize = entryLogUsageIndex.getTotalRemainingSize();
+        this.numActiveEntryLogs = entryLogUsageIndex.size();
+
+        MutableInt coldEntryLogCount = new MutableInt(0);
+        MutableLong coldEntryLogSizeAcc = new MutableLong(0L);
+        entryLogUsageIndex.forEach(entryLog -> {
+            if (entryLog.getGeneration() > 0) {
+                coldEntryLogCount.increment();
+                coldEntryLogSizeAcc.add(entryLog.getRemainingSize());
+            }
+        });
+        this.numColdEntryLogs = coldEntryLogCount.intValue();
+        this.coldEntryLogSize = coldEntryLogSizeAcc.longValue();
     }
 
     private boolean removeIfLedgerNotExists(EntryLogMetadata meta) throws EntryLogMetadataMapException {
@@ -547,41 +759,58 @@ public class GarbageCollectorThread implements Runnable {
      * Compact entry logs if necessary.
      *
      * <p>
-     * Compaction will be executed from low unused space to high unused space.
      * Those entry log files whose remaining size percentage is higher than threshold
-     * would not be compacted.
+     * would not be compacted. The others are compacted in the order given by the
+     * {@link CompactionCandidateSelector}, from low unused space to high unused space
+     * by default.
      * </p>
      */
     @VisibleForTesting
     void doCompactEntryLogs(double threshold, long maxTimeMillis) throws EntryLogMetadataMapException {
-        LOG.info("Do compaction to compact those files lower than {}", threshold);
+        doCompactEntryLogs(threshold, maxTimeMillis, true);
+    }
+
+    /**
+     * Compact entry logs if necessary, optionally leaving out the cold entry logs written by
+     * previous compactions.
+     */
+    void doCompactEntryLogs(double threshold, long maxTimeMillis, boolean includeColdEntryLogs)
+            throws EntryLogMetadataMapException {
+        LOG.info("Do compaction to compact those files lower than {} with {} candidate selector{}",
+                threshold, candidateSelector.name(), includeColdEntryLogs ? "" : ", skipping cold entry logs");
 
         final int numBuckets = 10;
         int[] entryLogUsageBuckets = new int[numBuckets];
         int[] compactedBuckets = new int[numBuckets];
 
-        ArrayList<LinkedList<Long>> compactableBuckets = new ArrayList<>(numBuckets);
-        for (int i = 0; i < numBuckets; i++) {
-            compactableBuckets.add(new LinkedList<>());
-        }
+        List<CompactionCandidateSelector.Candidate> candidates = new ArrayList<>();
+        MutableLong newestEntryLogId = new MutableLong(-1L);
 
         long start = System.currentTimeMillis();
         MutableLong end = new MutableLong(start);
         MutableLong timeDiff = new MutableLong(0);
 
-        entryLogMetaMap.forEach((entryLogId, meta) -> {
-            double usage = meta.getUsage();
-            if (conf.isUseTargetEntryLogSizeForGc() && usage < 1.0d) {
-                usage = (double) meta.getRemainingSize() / Math.max(meta.getTotalSize(), conf.getEntryLogSizeLimit());
-            }
+        List<CompactionCandidateSelector.Candidate> entryLogs = new ArrayList<>();
+        if (incrementalEntryLogUsage && entryLogUsageIndexReady) {
+            entryLogUsageIndex.forEach(entryLogs::add);
+        } else {
+            entryLogMetaMap.forEach((entryLogId, meta) -> entryLogs.add(new CompactionCandidateSelector.Candidate(
+                    meta.getEntryLogId(), getCompactionUsage(meta), meta.getTotalSize(), meta.getRemainingSize(),
+                    meta.getGeneration())));
+        }
+
+        entryLogs.forEach(entryLog -> {
+            double usage = entryLog.getUsage();
             int bucketIndex = calculateUsageIndex(numBuckets, usage);
             entryLogUsageBuckets[bucketIndex]++;
+            newestEntryLogId.setValue(Math.max(newestEntryLogId.getValue(), entryLog.getEntryLogId()));
 
             if (timeDiff.getValue() < maxTimeMillis) {
                 end.setValue(System.currentTimeMillis());
                 timeDiff.setValue(end.getValue() - start);
             }
             if ((usage >= threshold
+                || (!includeColdEntryLogs && entryLog.getGeneration() > 0)
                 || (maxTimeMillis > 0 && timeDiff.getValue() >= maxTimeMillis)
                 || !running)) {
                 // We allow the usage limit calculation to continue so that we get an accurate
@@ -589,25 +818,33 @@ public class GarbageCollectorThread implements Runnable {
                 return;
             }
 
-            compactableBuckets.get(bucketIndex).add(meta.getEntryLogId());
+            candidates.add(entryLog);
         });
 
         LOG.info(
                 "Compaction: entry log usage buckets before compaction [10% 20% 30% 40% 50% 60% 70% 80% 90% 100%] = {}",
                 entryLogUsageBuckets);
 
-        final int maxBucket = calculateUsageIndex(numBuckets, threshold);
-        int totalEntryLogIds = 0;
-        for (int currBucket = 0; currBucket <= maxBucket; currBucket++) {
-            totalEntryLogIds += compactableBuckets.get(currBucket).size();
-        }
-        long lastPrintTimestamp = 0;
-        AtomicInteger processedEntryLogCnt = new AtomicInteger(0);
+        candidateSelector.sort(candidates, newestEntryLogId.getValue());
+        final int totalEntryLogIds = candidates.size();
+        final long priorCopiedBytes = gcStats.getCompactionCopiedBytes().get();
+        final long priorReclaimedBytes = gcStats.getCompactionReclaimedBytes().get();
 
-        stopCompaction:
-        for (int currBucket = 0; currBucket <= maxBucket; currBucket++) {
-            LinkedList<Long> entryLogIds = compactableBuckets.get(currBucket);
-            while (!entryLogIds.isEmpty()) {
+        if (compactionThreads > 1) {
+            ConcurrentLinkedQueue<Long> entryLogIds = new ConcurrentLinkedQueue<>();
+            for (CompactionCandidateSelector.Candidate candidate : candidates) {
+                entryLogIds.add(candidate.getEntryLogId());
+            }
+            doCompactEntryLogsInParallel(entryLogIds, threshold, start, maxTimeMillis, compactedBuckets);
+        } else {
+            long lastPrintTimestamp = 0;
+            AtomicInteger processedEntryLogCnt = new AtomicInteger(0);
+            // With cold entry logs, the entry logs are compacted together into cold entry logs of up to the
+            // entry log size limit, rather than each into its own small cold entry log
+            List<EntryLogMetadata> packedEntryLogs = new ArrayList<>();
+            MutableLong packedSize = new MutableLong(0L);
+
+            for (CompactionCandidateSelector.Candidate candidate : candidates) {
                 if (timeDiff.getValue() < maxTimeMillis) {
                     end.setValue(System.currentTimeMillis());
                     timeDiff.setValue(end.getValue() - start);
@@ -616,11 +853,12 @@ public class GarbageCollectorThread implements Runnable {
                 if ((maxTimeMillis > 0 && timeDiff.getValue() >= maxTimeMillis) || !running) {
                     // We allow the usage limit calculation to continue so that we get an accurate
                     // report of where the usage was prior to running compaction.
-                    break stopCompaction;
+                    break;
                 }
 
-                final int bucketIndex = currBucket;
-                final long logId = entryLogIds.remove();
+                final int bucketIndex = calculateUsageIndex(numBuckets, candidate.getUsage());
+                final long logId = candidate.getEntryLogId();
+                numPendingCompactionEntryLogs = totalEntryLogIds - processedEntryLogCnt.get();
                 if (System.currentTimeMillis() - lastPrintTimestamp >= MINUTE) {
                     lastPrintTimestamp = System.currentTimeMillis();
                     LOG.info("Compaction progress {} / {}, current compaction entryLogId: {}",
@@ -638,6 +876,18 @@ public class GarbageCollectorThread implements Runnable {
                                 meta.getEntryLogId(), meta.getUsage(), threshold);
                     }
 
+                    if (coldEntryLogsEnabled) {
+                        if (!packedEntryLogs.isEmpty()
+                                && packedSize.longValue() + meta.getRemainingSize() > conf.getEntryLogSizeLimit()) {
+                            compactEntryLogs(packedEntryLogs, compactedBuckets);
+                            packedSize.setValue(0L);
+                        }
+                        packedEntryLogs.add(copyOf(meta));
+                        packedSize.add(meta.getRemainingSize());
+                        processedEntryLogCnt.getAndIncrement();
+                        return;
+                    }
+
                     long priorRemainingSize = meta.getRemainingSize();
                     compactEntryLog(meta);
                     gcStats.getReclaimedSpaceViaCompaction().addCount(meta.getTotalSize() - priorRemainingSize);
@@ -645,19 +895,171 @@ public class GarbageCollectorThread implements Runnable {
                     processedEntryLogCnt.getAndIncrement();
                 });
             }
+            compactEntryLogs(packedEntryLogs, compactedBuckets);
+
+            numPendingCompactionEntryLogs = 0;
+
+            if (LOG.isDebugEnabled()) {
+                if (!running) {
+                    LOG.debug("Compaction exited due to gc not running");
+                }
+                if (maxTimeMillis > 0 && timeDiff.getValue() > maxTimeMillis) {
+                    LOG.debug("Compaction ran for {}ms but was limited by {}ms", timeDiff, maxTimeMillis);
+                }
+            }
+        }
+
+        long copiedBytes = gcStats.getCompactionCopiedBytes().get() - priorCopiedBytes;
+        long reclaimedBytes = gcStats.getCompactionReclaimedBytes().get() - priorReclaimedBytes;
+        LOG.info(
+                "Compaction: entry log usage buckets[10% 20% 30% 40% 50% 60% 70% 80% 90% 100%] = {}, compacted {}",
+                entryLogUsageBuckets, compactedBuckets);
+        LOG.info("Compaction: copied {} bytes to reclaim {} bytes, {} bytes copied per byte reclaimed",
+                copiedBytes, reclaimedBytes,
+                reclaimedBytes > 0 ? String.format("%.3f", (double) copiedBytes / reclaimedBytes) : "n/a");
+    }
+
+    /**
+     * Compact the given entry logs with all the compaction workers.
+     *
+     * <p>
+     * The entry logs are taken in order by the workers, so the logs with the lowest usage
+     * are still compacted first. The workers stop picking up new logs once the max compaction
+     * time is reached or the gc thread is shut down.
+     * </p>
+     */
+    private void doCompactEntryLogsInParallel(ConcurrentLinkedQueue<Long> entryLogIds, double threshold,
+                                              long start, long maxTimeMillis, int[] compactedBuckets) {
+        // Hold the compacting flag for the whole run, so that shutdown waits for all the workers
+        if (!compacting.compareAndSet(false, true)) {
+            return;
+        }
+
+        final int totalEntryLogIds = entryLogIds.size();
+        final AtomicInteger processedEntryLogCnt = new AtomicInteger(0);
+        final AtomicInteger pickedEntryLogCnt = new AtomicInteger(0);
+        final AtomicLong lastPrintTimestamp = new AtomicLong(0);
+        numPendingCompactionEntryLogs = totalEntryLogIds;
+        try {
+            List<Future<?>> workers = new ArrayList<>(compactionThreads);
+            for (int i = 0; i < compactionThreads; i++) {
+                final int worker = i;
+                workers.add(compactionExecutor.submit(() -> {
+                    Long logId;
+                    while (running
+                            && (maxTimeMillis <= 0 || System.currentTimeMillis() - start < maxTimeMillis)
+                            && (logId = entryLogIds.poll()) != null) {
+                        numPendingCompactionEntryLogs = totalEntryLogIds - pickedEntryLogCnt.incrementAndGet();
+                        long now = System.currentTimeMillis();
+                        long lastPrint = lastPrintTimestamp.get();
+                        if (now - lastPrint >= MINUTE && lastPrintTimestamp.compareAndSet(lastPrint, now)) {
+                            LOG.info("Compaction progress {} / {}, current compaction entryLogId: {}",
+                                processedEntryLogCnt.get(), totalEntryLogIds, logId);
+                        }
+                        compactEntryLogByWorker(worker, logId, threshold, compactedBuckets);
+                        processedEntryLogCnt.getAndIncrement();
+                    }
+                    return null;
+                }));
+            }
+            // The workers stop on their own once gc is shut down and the throttler is cancelled,
+            // always wait for them before releasing the compacting flag
+            for (Future<?> worker : workers) {
+                try {
+                    Uninterruptibles.getUninterruptibly(worker);
+                } catch (ExecutionException e) {
+                    LOG.error("Compaction worker failed due to unexpected error", e.getCause());
+                }
+            }
+        } finally {
+            numPendingCompactionEntryLogs = 0;
+            compacting.set(false);
         }
 
         if (LOG.isDebugEnabled()) {
             if (!running) {
                 LOG.debug("Compaction exited due to gc not running");
             }
-            if (maxTimeMillis > 0 && timeDiff.getValue() > maxTimeMillis) {
+            long timeDiff = System.currentTimeMillis() - start;
+            if (maxTimeMillis > 0 && timeDiff > maxTimeMillis) {
                 LOG.debug("Compaction ran for {}ms but was limited by {}ms", timeDiff, maxTimeMillis);
             }
         }
-        LOG.info(
-                "Compaction: entry log usage buckets[10% 20% 30% 40% 50% 60% 70% 80% 90% 100%] = {}, compacted {}",
-                entryLogUsageBuckets, compactedBuckets);
+    }
+
+    private void compactEntryLogByWorker(int worker, long logId, double threshold, int[] compactedBuckets) {
+        try {
+            entryLogMetaMap.forKey(logId, (entryLogId, meta) -> {
+                if (meta == null) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Metadata for entry log {} already deleted", logId);
+                    }
+                    return;
+                }
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Compaction worker {} compacting entry log {} with usage {} below threshold {}",
+                            worker, meta.getEntryLogId(), meta.getUsage(), threshold);
+                }
+
+                long priorRemainingSize = meta.getRemainingSize();
+                int bucketIndex = calculateUsageIndex(compactedBuckets.length, getCompactionUsage(meta));
+                long startTime = MathUtils.nowInNano();
+                boolean compacted;
+                try {
+                    compacted = workerCompactors[worker].compact(meta);
+                } catch (Exception e) {
+                    LOG.error("Failed to compact entry log {} due to unexpected error", meta.getEntryLogId(), e);
+                    compacted = false;
+                }
+                recordCompactedEntryLog(worker, startTime, compacted, meta.getTotalSize(), priorRemainingSize);
+                if (compacted) {
+                    gcStats.getReclaimedSpaceViaCompaction().addCount(meta.getTotalSize() - priorRemainingSize);
+                    synchronized (compactedBuckets) {
+                        compactedBuckets[bucketIndex]++;
+                    }
+                }
+            });
+        } catch (EntryLogMetadataMapException e) {
+            // Ignore and continue, the entry log will be picked up again in the next compaction
+            LOG.warn("Failed to get entry-log metadata {} for compaction", logId, e);
+        }
+    }
+
+    private void recordCompactedEntryLog(int worker, long startTime, boolean compacted,
+                                         long totalSize, long copiedBytes) {
+        recordCompactedEntryLogs(worker, startTime, compacted, 1, totalSize, copiedBytes);
+    }
+
+    private void recordCompactedEntryLogs(int worker, long startTime, boolean compacted, int entryLogs,
+                                          long totalSize, long copiedBytes) {
+        GarbageCollectorStats.CompactionWorkerStats workerStats = gcStats.getCompactionWorkerStats(worker);
+        if (compacted) {
+            workerStats.getCompactEntryLogStats().registerSuccessfulEvent(
+                    MathUtils.elapsedNanos(startTime), TimeUnit.NANOSECONDS);
+            workerStats.getCompactedEntryLogCounter().addCount(entryLogs);
+            workerStats.getCopiedBytes().addCount(copiedBytes);
+            gcStats.getCompactionCopiedBytes().addCount(copiedBytes);
+            gcStats.getCompactionReclaimedBytes().addCount(totalSize - copiedBytes);
+        } else {
+            workerStats.getCompactEntryLogStats().registerFailedEvent(
+                    MathUtils.elapsedNanos(startTime), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Get the usage of an entry log as seen by compaction.
+     *
+     * <p>The last cold entry log written by a compaction is usually smaller than the target entry log size.
+     * The usage of cold entry logs is not measured against the target size, otherwise such a log would fall
+     * below the threshold as soon as any of its ledgers is deleted and be copied again on every major
+     * compaction.
+     */
+    private double getCompactionUsage(EntryLogMetadata meta) {
+        double usage = meta.getUsage();
+        if (conf.isUseTargetEntryLogSizeForGc() && usage < 1.0d && meta.getGeneration() == 0) {
+            usage = (double) meta.getRemainingSize() / Math.max(meta.getTotalSize(), conf.getEntryLogSizeLimit());
+        }
+        return usage;
     }
 
     /**
@@ -695,6 +1097,9 @@ public class GarbageCollectorThread implements Runnable {
 
         // Interrupt GC executor thread
         gcExecutor.shutdownNow();
+        if (compactionExecutor != null) {
+            compactionExecutor.shutdownNow();
+        }
         try {
             entryLogMetaMap.close();
         } catch (Exception e) {
@@ -713,6 +1118,10 @@ public class GarbageCollectorThread implements Runnable {
         // remove entry log file successfully
         if (entryLogger.removeEntryLog(entryLogId)) {
             LOG.info("Removing entry log metadata for {}", entryLogId);
+            if (incrementalEntryLogUsage) {
+                // Drop the entry log from the ledgers that still have entries in it, as after a compaction
+                entryLogMetaMap.forKey(entryLogId, entryLogUsageIndex::removeEntryLog);
+            }
             entryLogMetaMap.remove(entryLogId);
             return true;
         }
@@ -737,17 +1146,72 @@ public class GarbageCollectorThread implements Runnable {
             return;
         }
 
+        long priorRemainingSize = entryLogMeta.getRemainingSize();
+        long startTime = MathUtils.nowInNano();
         try {
             // Do the actual compaction
-            compactor.compact(entryLogMeta);
+            boolean compacted = compactor.compact(entryLogMeta);
+            recordCompactedEntryLog(0, startTime, compacted, entryLogMeta.getTotalSize(), priorRemainingSize);
         } catch (Exception e) {
             LOG.error("Failed to compact entry log {} due to unexpected error", entryLogMeta.getEntryLogId(), e);
+            recordCompactedEntryLog(0, startTime, false, entryLogMeta.getTotalSize(), priorRemainingSize);
         } finally {
             // Mark compaction done
             compacting.set(false);
         }
     }
 
+    /**
+     * Compact the entry logs together into a single cold entry log, then clear the list.
+     */
+    private void compactEntryLogs(List<EntryLogMetadata> entryLogMetas, int[] compactedBuckets) {
+        if (entryLogMetas.isEmpty()) {
+            return;
+        }
+        if (!compacting.compareAndSet(false, true)) {
+            entryLogMetas.clear();
+            return;
+        }
+
+        long totalSize = 0L;
+        long priorRemainingSize = 0L;
+        for (EntryLogMetadata entryLogMeta : entryLogMetas) {
+            totalSize += entryLogMeta.getTotalSize();
+            priorRemainingSize += entryLogMeta.getRemainingSize();
+        }
+        long startTime = MathUtils.nowInNano();
+        try {
+            boolean compacted = compactor.compact(entryLogMetas);
+            recordCompactedEntryLogs(0, startTime, compacted, entryLogMetas.size(), totalSize, priorRemainingSize);
+            if (compacted) {
+                gcStats.getReclaimedSpaceViaCompaction().addCount(totalSize - priorRemainingSize);
+                for (EntryLogMetadata entryLogMeta : entryLogMetas) {
+                    compactedBuckets[calculateUsageIndex(compactedBuckets.length,
+                            getCompactionUsage(entryLogMeta))]++;
+                }
+            }
+        } catch (Exception e) {
+            LOG.error("Failed to compact entry logs {} due to unexpected error",
+                    entryLogMetas.stream().map(EntryLogMetadata::getEntryLogId).collect(Collectors.toList()), e);
+            recordCompactedEntryLogs(0, startTime, false, entryLogMetas.size(), totalSize, priorRemainingSize);
+        } finally {
+            compacting.set(false);
+            entryLogMetas.clear();
+        }
+    }
+
+    /**
+     * Copy the metadata of an entry log, which the persistent entry log metadata map recycles once it was
+     * visited.
+     */
+    private static EntryLogMetadata copyOf(EntryLogMetadata meta) {
+        EntryLogMetadata copy = new EntryLogMetadata(meta.getEntryLogId());
+        meta.getLedgersMap().forEach(copy::addLedgerSize);
+        copy.totalSize = meta.getTotalSize();
+        copy.setGeneration(meta.getGeneration());
+        return copy;
+    }
+
     /**
      * Method to read in all of the entry logs (those that we haven't done so yet),
      * and find the set of ledger ID's that make up each entry log file.
@@ -772,6 +1236,10 @@ public class GarbageCollectorThread implements Runnable {
             try {
                 // Read through the entry log file and extract the entry log meta
                 EntryLogMetadata entryLogMeta = entryLogger.getEntryLogMetadata(entryLogId, throttler);
+                long generation = coldEntryLogGenerations.remove(entryLogId);
+                if (generation > 0) {
+                    entryLogMeta.setGeneration((int) generation);
+                }
                 removeIfLedgerNotExists(entryLogMeta);
                 if (entryLogMeta.isEmpty()) {
                     // This means the entry log is not associated with any active
@@ -785,6 +1253,9 @@ public class GarbageCollectorThread implements Runnable {
                     }
                 } else {
                     entryLogMetaMap.put(entryLogId, entryLogMeta);
+                    if (incrementalEntryLogUsage) {
+                        entryLogUsageIndex.addEntryLog(entryLogMeta, getCompactionUsage(entryLogMeta));
+                    }
                 }
             } catch (IOException | RuntimeException e) {
                 LOG.warn("Premature exception when processing " + entryLogId
@@ -32,15 +32,21 @@ import io.netty.buffer.UnpooledByteBufAllocator;
 import io.netty.util.Recycler;
 import io.netty.util.Recycler.Handle;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import org.apache.bookkeeper.bookie.LedgerDirsManager.NoWritableLedgerDirException;
@@ -51,6 +57,8 @@ import org.apache.bookkeeper.common.collections.BlockingMpscQueue;
 import org.apache.bookkeeper.common.collections.RecyclableArrayList;
 import org.apache.bookkeeper.common.util.MemoryLimitController;
 import org.apache.bookkeeper.common.util.affinity.CpuAffinity;
+import org.apache.bookkeeper.common.util.nativeio.NativeIO;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOImpl;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.proto.BookieRequestHandler;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
@@ -61,6 +69,7 @@ import org.apache.bookkeeper.stats.StatsLogger;
 import org.apache.bookkeeper.stats.ThreadRegistry;
 import org.apache.bookkeeper.util.IOUtils;
 import org.apache.bookkeeper.util.MathUtils;
+import org.jctools.queues.MpmcArrayQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -310,8 +319,8 @@ public class Journal implements CheckpointSource {
 
         static QueueEntry create(ByteBuf entry, boolean ackBeforeSync, long ledgerId, long entryId,
                 WriteCallback cb, Object ctx, long enqueueTime, OpStatsLogger journalAddEntryStats,
-                Counter callbackTime) {
-            QueueEntry qe = RECYCLER.get();
+                Counter callbackTime, QueueEntryPool pool) {
+            QueueEntry qe = pool != null ? pool.get() : RECYCLER.get();
             qe.entry = entry;
             qe.ackBeforeSync = ackBeforeSync;
             qe.cb = cb;
@@ -341,25 +350,59 @@ public class Journal implements CheckpointSource {
         }
 
         private final Handle<QueueEntry> recyclerHandle;
+        private final QueueEntryPool pool;
 
-        private QueueEntry(Handle<QueueEntry> recyclerHandle) {
+        private QueueEntry(Handle<QueueEntry> recyclerHandle, QueueEntryPool pool) {
             this.recyclerHandle = recyclerHandle;
+            this.pool = pool;
         }
 
         private static final Recycler<QueueEntry> RECYCLER = new Recycler<QueueEntry>() {
             @Override
             protected QueueEntry newObject(Recycler.Handle<QueueEntry> handle) {
-                return new QueueEntry(handle);
+                return new QueueEntry(handle, null);
             }
         };
 
-        private void recycle() {
+        void recycle() {
             this.entry = null;
             this.cb = null;
             this.ctx = null;
             this.journalAddEntryStats = null;
             this.callbackTime = null;
-            recyclerHandle.recycle(this);
+            if (pool != null) {
+                pool.release(this);
+            } else {
+                recyclerHandle.recycle(this);
+            }
+        }
+    }
+
+    /**
+     * Pool of queue entries allocated upfront, which the threads adding to the journal claim directly.
+     *
+     * <p>Unlike the {@link Recycler}, the pool doesn't do any thread local lookup, and the entries released by
+     * the force write threads go back to a single shared array rather than to the stacks of the threads which
+     * claimed them. When the pool is exhausted, the new entries are allocated, and added to the pool once
+     * released if there's room for them.
+     */
+    static class QueueEntryPool {
+        private final MpmcArrayQueue<QueueEntry> freeEntries;
+
+        QueueEntryPool(int size) {
+            freeEntries = new MpmcArrayQueue<>(size);
+            for (int i = 0; i < size; i++) {
+                freeEntries.offer(new QueueEntry(null, this));
+            }
+        }
+
+        QueueEntry get() {
+            QueueEntry qe = freeEntries.relaxedPoll();
+            return qe != null ? qe : new QueueEntry(null, this);
+        }
+
+        void release(QueueEntry qe) {
+            freeEntries.relaxedOffer(qe);
         }
     }
 
@@ -470,6 +513,16 @@ public class Journal implements CheckpointSource {
         private final boolean enableGroupForceWrites;
         private final Counter forceWriteThreadTime;
 
+        // When several force writes can be outstanding, they are run by the sync executor, while this thread only
+        // dispatches them
+        private final ExecutorService syncExecutor;
+        private final Semaphore outstandingForceWrites;
+        // The dispatched batches, in order, until they are released. Also guards the release of the batches.
+        private final ArrayDeque<ForceWriteBatch> outstandingBatches = new ArrayDeque<>();
+        // Number of batches released before their own force write completed, guarded by outstandingBatches
+        private int releasedUnsyncedBatches = 0;
+        private final ObjectHashSet<BookieRequestHandler> releasedWriteHandlers = new ObjectHashSet<>();
+
         public ForceWriteThread(Consumer<Void> threadToNotifyOnEx,
                                 boolean enableGroupForceWrites,
                                 StatsLogger statsLogger) {
@@ -478,6 +531,16 @@ public class Journal implements CheckpointSource {
             this.threadToNotifyOnEx = threadToNotifyOnEx;
             this.enableGroupForceWrites = enableGroupForceWrites;
             this.forceWriteThreadTime = statsLogger.getThreadScopedCounter("force-write-thread-time");
+
+            int maxOutstandingForceWrites = conf.getJournalMaxOutstandingForceWrites();
+            if (maxOutstandingForceWrites > 1) {
+                this.syncExecutor = Executors.newFixedThreadPool(maxOutstandingForceWrites,
+                        new DefaultThreadFactory("ForceWriteSync"));
+                this.outstandingForceWrites = new Semaphore(maxOutstandingForceWrites);
+            } else {
+                this.syncExecutor = null;
+                this.outstandingForceWrites = null;
+            }
         }
         @Override
         public void run() {
@@ -503,6 +566,11 @@ public class Journal implements CheckpointSource {
 
                     journalStats.getForceWriteQueueSize().addCount(-requestsCount);
 
+                    if (syncExecutor != null) {
+                        dispatch(localRequests, requestsCount);
+                        continue;
+                    }
+
                     // Sync and mark the journal up to the position of the last entry in the batch
                     ForceWriteRequest lastRequest = localRequests[requestsCount - 1];
                     syncJournal(lastRequest);
@@ -516,8 +584,7 @@ public class Journal implements CheckpointSource {
                         req.recycle();
                     }
 
-                    journalStats.getForceWriteGroupingCountStats()
-                            .registerSuccessfulValue(numEntriesInLastForceWrite);
+                    recordEntriesPerSync(numEntriesInLastForceWrite);
                     writeHandlers.forEach(
                             (ObjectProcedure<? super BookieRequestHandler>)
                                     BookieRequestHandler::flushPendingResponse);
@@ -538,12 +605,17 @@ public class Journal implements CheckpointSource {
         }
 
         private void syncJournal(ForceWriteRequest lastRequest) throws IOException {
+            syncFile(lastRequest);
+            lastLogMark.setCurLogMark(lastRequest.logId, lastRequest.lastFlushedPosition);
+        }
+
+        private void syncFile(ForceWriteRequest request) throws IOException {
             long fsyncStartTime = MathUtils.nowInNano();
             try {
-                lastRequest.flushFileToDisk();
-                journalStats.getJournalSyncStats().registerSuccessfulEvent(MathUtils.elapsedNanos(fsyncStartTime),
-                        TimeUnit.NANOSECONDS);
-                lastLogMark.setCurLogMark(lastRequest.logId, lastRequest.lastFlushedPosition);
+                request.flushFileToDisk();
+                long fsyncNanos = MathUtils.elapsedNanos(fsyncStartTime);
+                journalStats.getJournalSyncStats().registerSuccessfulEvent(fsyncNanos, TimeUnit.NANOSECONDS);
+                recordSyncLatency(fsyncNanos);
             } catch (IOException ioe) {
                 journalStats.getJournalSyncStats()
                         .registerFailedEvent(MathUtils.elapsedNanos(fsyncStartTime), TimeUnit.NANOSECONDS);
@@ -551,11 +623,156 @@ public class Journal implements CheckpointSource {
             }
         }
 
+        private synchronized void recordSyncLatency(long fsyncNanos) {
+            double syncLatencyNanos = avgSyncLatencyNanos;
+            avgSyncLatencyNanos = syncLatencyNanos + (fsyncNanos - syncLatencyNanos) / EWMA_WEIGHT;
+        }
+
+        private void recordEntriesPerSync(int numEntries) {
+            journalStats.getForceWriteGroupingCountStats().registerSuccessfulValue(numEntries);
+            double entriesPerSync = avgEntriesPerSync;
+            avgEntriesPerSync = entriesPerSync + (numEntries - entriesPerSync) / EWMA_WEIGHT;
+        }
+
+        /**
+         * Start the force write of a batch of requests, once there are less than the max number of outstanding
+         * force writes.
+         */
+        private void dispatch(ForceWriteRequest[] requests, int requestsCount) throws InterruptedException {
+            outstandingForceWrites.acquire();
+            ForceWriteBatch batch = new ForceWriteBatch(Arrays.copyOf(requests, requestsCount));
+            Arrays.fill(requests, 0, requestsCount, null);
+            synchronized (outstandingBatches) {
+                outstandingBatches.add(batch);
+            }
+            journalStats.getForceWriteOutstanding().inc();
+            syncExecutor.execute(() -> {
+                try {
+                    batch.sync();
+                } catch (IOException ioe) {
+                    LOG.error("I/O exception in ForceWrite thread", ioe);
+                    running = false;
+                    interrupt();
+                    return;
+                } finally {
+                    journalStats.getForceWriteOutstanding().dec();
+                    outstandingForceWrites.release();
+                }
+                onSynced(batch);
+            });
+        }
+
+        /**
+         * Release the batches whose entries are persisted, in the order they were dispatched.
+         *
+         * <p>A force write syncs the whole file, so it also persists the entries of the batches dispatched before
+         * it in the same file, even when their own force write is still in progress.
+         */
+        private void onSynced(ForceWriteBatch batch) {
+            synchronized (outstandingBatches) {
+                boolean covered = !batch.released;
+                if (batch.released) {
+                    releasedUnsyncedBatches--;
+                }
+                batch.synced = true;
+                ForceWriteBatch head;
+                while ((head = outstandingBatches.peekFirst()) != null) {
+                    if (!head.synced && !(covered && head.firstLogId >= batch.firstLogId)) {
+                        break;
+                    }
+                    if (head.closesFile && releasedUnsyncedBatches > 0) {
+                        // A file can't be closed while it is still being synced
+                        break;
+                    }
+                    outstandingBatches.pollFirst();
+                    if (head == batch) {
+                        covered = false;
+                    }
+                    release(head);
+                }
+                if (batch.released) {
+                    batch.recycle();
+                }
+            }
+        }
+
+        private void release(ForceWriteBatch batch) {
+            ForceWriteRequest lastRequest = batch.requests[batch.requests.length - 1];
+            lastLogMark.setCurLogMark(lastRequest.logId, lastRequest.lastFlushedPosition);
+
+            int numEntries = 0;
+            for (ForceWriteRequest req : batch.requests) {
+                numEntries += req.process(releasedWriteHandlers);
+            }
+            batch.released = true;
+            // The requests are still used by their own force write, if it is in progress
+            if (batch.synced) {
+                batch.recycle();
+            } else {
+                releasedUnsyncedBatches++;
+            }
+
+            recordEntriesPerSync(numEntries);
+            releasedWriteHandlers.forEach(
+                    (ObjectProcedure<? super BookieRequestHandler>)
+                            BookieRequestHandler::flushPendingResponse);
+            releasedWriteHandlers.clear();
+        }
+
+        /**
+         * The requests taken together from the force write queue, which are synced by a single force write.
+         */
+        private class ForceWriteBatch {
+            private final ForceWriteRequest[] requests;
+            private final long firstLogId;
+            private final boolean closesFile;
+            // Guarded by outstandingBatches
+            private boolean synced = false;
+            private boolean released = false;
+            private boolean recycled = false;
+
+            ForceWriteBatch(ForceWriteRequest[] requests) {
+                this.requests = requests;
+                this.firstLogId = requests[0].logId;
+                boolean closes = false;
+                for (ForceWriteRequest req : requests) {
+                    closes |= req.shouldClose;
+                }
+                this.closesFile = closes;
+            }
+
+            /**
+             * Sync all the files written by the requests, as a batch may span a journal rollover.
+             */
+            void sync() throws IOException {
+                for (int i = 0; i < requests.length; i++) {
+                    if (i == requests.length - 1 || requests[i + 1].logId != requests[i].logId) {
+                        syncFile(requests[i]);
+                    }
+                }
+            }
+
+            void recycle() {
+                if (!recycled) {
+                    recycled = true;
+                    for (ForceWriteRequest req : requests) {
+                        req.recycle();
+                    }
+                }
+            }
+        }
+
         // shutdown sync thread
         void shutdown() throws InterruptedException {
             running = false;
             this.interrupt();
             this.join();
+            if (syncExecutor != null) {
+                syncExecutor.shutdown();
+                if (!syncExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                    LOG.warn("Timed out waiting for the outstanding journal force writes to complete");
+                }
+            }
         }
     }
 
@@ -601,16 +818,17 @@ public class Journal implements CheckpointSource {
     final ForceWriteThread forceWriteThread;
     final FileChannelProvider fileChannelProvider;
 
-    // Time after which we will stop grouping and issue the flush
-    private final long maxGroupWaitInNanos;
+    // Time after which we will stop grouping and issue the flush, and threshold after which we flush any
+    // buffered journal writes
+    private final JournalGroupCommitController groupCommitController;
     // Threshold after which we flush any buffered journal entries
     private final long bufferedEntriesThreshold;
-    // Threshold after which we flush any buffered journal writes
-    private final long bufferedWritesThreshold;
     // should we flush if the queue is empty
     private final boolean flushWhenQueueEmpty;
     // should we hint the filesystem to remove pages from cache after force write
     private final boolean removePagesFromCache;
+    // Set when the journal is written with direct I/O
+    private final NativeIO directIO;
     private final int journalFormatVersionToWrite;
     private final int journalAlignmentSize;
     // control PageCache flush interval when syncData disabled to reduce disk io util
@@ -634,6 +852,8 @@ public class Journal implements CheckpointSource {
     // journal entry queue to commit
     final BatchedBlockingQueue<QueueEntry> queue;
     BatchedBlockingQueue<ForceWriteRequest> forceWriteRequests;
+    // Pre-allocated queue entries, or null to take them from the recycler
+    private final QueueEntryPool queueEntryPool;
 
     volatile boolean running = true;
     private final LedgerDirsManager ledgerDirsManager;
@@ -646,6 +866,12 @@ public class Journal implements CheckpointSource {
 
     private MemoryLimitController memoryLimitController;
 
+    // Moving averages of the fsync latency and of the number of entries per fsync, only updated by the
+    // force write thread and used to estimate the load of the journal
+    private static final double EWMA_WEIGHT = 8;
+    private static final double MIN_ROUTING_SYNC_LATENCY_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+    private volatile double avgSyncLatencyNanos = 0;
+    private volatile double avgEntriesPerSync = 1;
 
     public Journal(int journalIndex, File journalDirectory, ServerConfiguration conf,
             LedgerDirsManager ledgerDirsManager) {
@@ -667,6 +893,8 @@ public class Journal implements CheckpointSource {
             queue = new BatchedArrayBlockingQueue<>(conf.getJournalQueueSize());
             forceWriteRequests = new BatchedArrayBlockingQueue<>(conf.getJournalQueueSize());
         }
+        int queueEntryPoolSize = conf.getJournalQueueEntryPoolSize();
+        queueEntryPool = queueEntryPoolSize > 0 ? new QueueEntryPool(queueEntryPoolSize) : null;
 
         // Adjust the journal max memory in case there are multiple journals configured.
         long journalMaxMemory = conf.getJournalMaxMemorySizeMb() / conf.getJournalDirNames().length * 1024 * 1024;
@@ -681,8 +909,7 @@ public class Journal implements CheckpointSource {
         this.maxBackupJournals = conf.getMaxBackupJournals();
         this.forceWriteThread = new ForceWriteThread((__) -> this.interruptThread(),
                 conf.getJournalAdaptiveGroupWrites(), journalStatsLogger);
-        this.maxGroupWaitInNanos = TimeUnit.MILLISECONDS.toNanos(conf.getJournalMaxGroupWaitMSec());
-        this.bufferedWritesThreshold = conf.getJournalBufferedWritesThreshold();
+        this.groupCommitController = new JournalGroupCommitController(conf);
         this.bufferedEntriesThreshold = conf.getJournalBufferedEntriesThreshold();
         this.journalFormatVersionToWrite = conf.getJournalFormatVersionToWrite();
         this.journalAlignmentSize = conf.getJournalAlignmentSize();
@@ -694,9 +921,10 @@ public class Journal implements CheckpointSource {
 
         // Unless there is a cap on the max wait (which requires group force writes)
         // we cannot skip flushing for queue empty
-        this.flushWhenQueueEmpty = maxGroupWaitInNanos <= 0 || conf.getJournalFlushWhenQueueEmpty();
+        this.flushWhenQueueEmpty = conf.getJournalMaxGroupWaitMSec() <= 0 || conf.getJournalFlushWhenQueueEmpty();
 
         this.removePagesFromCache = conf.getJournalRemovePagesFromCache();
+        this.directIO = conf.getJournalDirectIOEnabled() ? new NativeIOImpl() : null;
         // read last log mark
         if (conf.getJournalDirs().length == 1) {
             lastMarkFileName = LAST_MARK_DEFAULT_NAME;
@@ -717,7 +945,10 @@ public class Journal implements CheckpointSource {
 
         // Expose Stats
         this.journalStats = new JournalStats(journalStatsLogger, journalMaxMemory,
-                () -> memoryLimitController.currentUsage());
+                () -> memoryLimitController.currentUsage(), this::getRoutingLoadMicros,
+                () -> TimeUnit.NANOSECONDS.toMicros(groupCommitController.getGroupWaitNanos()),
+                groupCommitController::getBufferedBytesThreshold,
+                () -> (long) groupCommitController.getEntriesPerSecond());
     }
 
     public Journal(int journalIndex, File journalDirectory, ServerConfiguration conf,
@@ -912,7 +1143,7 @@ public class Journal implements CheckpointSource {
         queue.put(QueueEntry.create(
                 entry, ackBeforeSync, ledgerId, entryId, cb, ctx, MathUtils.nowInNano(),
                 journalStats.getJournalAddEntryStats(),
-                callbackTime));
+                callbackTime, queueEntryPool));
     }
 
     void forceLedger(long ledgerId, WriteCallback cb, Object ctx) {
@@ -920,7 +1151,7 @@ public class Journal implements CheckpointSource {
                 null, false /* ackBeforeSync */, ledgerId,
                 BookieImpl.METAENTRY_ID_FORCE_LEDGER, cb, ctx, MathUtils.nowInNano(),
                 journalStats.getJournalForceLedgerStats(),
-                callbackTime));
+                callbackTime, queueEntryPool));
         // Increment afterwards because the add operation could fail.
         journalStats.getJournalQueueSize().inc();
     }
@@ -934,11 +1165,30 @@ public class Journal implements CheckpointSource {
         return queue.size();
     }
 
+    /**
+     * Estimate the time needed to persist the entries that are waiting in the journal queue, from the
+     * recent fsync latency and the number of entries that are persisted by each fsync. The latency is floored, so
+     * that the load still grows with the queue before the first fsync and on devices with very fast fsyncs.
+     *
+     * @return estimated time in microseconds
+     */
+    long getRoutingLoadMicros() {
+        double syncs = 1 + queue.size() / Math.max(1, avgEntriesPerSync);
+        return (long) (syncs * Math.max(MIN_ROUTING_SYNC_LATENCY_NANOS, avgSyncLatencyNanos) / 1000);
+    }
+
     @VisibleForTesting
     JournalChannel newLogFile(long logId, Long replaceLogId) throws IOException {
+        BufferedChannelBuilder bcBuilder = getBufferedChannelBuilder();
+        if (directIO != null) {
+            File file = new File(journalDirectory, Long.toHexString(logId) + ".txn");
+            bcBuilder = (FileChannel fc, int capacity) -> new DirectBufferedChannel(directIO, allocator, fc, file,
+                    capacity);
+        }
+        // The direct writes bypass the page cache, so there is nothing to remove from it
         return new JournalChannel(journalDirectory, logId, journalPreAllocSize, journalWriteBufferSize,
-                journalAlignmentSize, removePagesFromCache,
-                journalFormatVersionToWrite, getBufferedChannelBuilder(),
+                journalAlignmentSize, removePagesFromCache && directIO == null,
+                journalFormatVersionToWrite, bcBuilder,
                 conf, fileChannelProvider, replaceLogId);
     }
 
@@ -989,6 +1239,10 @@ public class Journal implements CheckpointSource {
             long logId = journalIds.isEmpty() ? System.currentTimeMillis() : journalIds.get(journalIds.size() - 1);
             long lastFlushPosition = 0;
             boolean groupWhenTimeout = false;
+            // The group commit thresholds, updated after each flush
+            long maxGroupWaitInNanos = groupCommitController.getGroupWaitNanos();
+            long bufferedWritesThreshold = groupCommitController.getBufferedBytesThreshold();
+            boolean flushOnEmptyQueue = flushWhenQueueEmpty || maxGroupWaitInNanos <= 0;
 
             long dequeueStartTime = 0L;
             long lastFlushTimeMs = System.currentTimeMillis();
@@ -1037,7 +1291,7 @@ public class Journal implements CheckpointSource {
                         // the waiting time to the remaining groupWait time
                         long pollWaitTimeNanos = maxGroupWaitInNanos
                                 - MathUtils.elapsedNanos(toFlush.get(0).enqueueTime);
-                        if (flushWhenQueueEmpty || pollWaitTimeNanos < 0) {
+                        if (flushOnEmptyQueue || pollWaitTimeNanos < 0) {
                             pollWaitTimeNanos = 0;
                         }
 
@@ -1079,7 +1333,7 @@ public class Journal implements CheckpointSource {
                         groupWhenTimeout = false;
                         shouldFlush = true;
                         journalStats.getFlushMaxOutstandingBytesCounter().inc();
-                    } else if (qe == null && flushWhenQueueEmpty) {
+                    } else if (qe == null && flushOnEmptyQueue) {
                         // We should get here only if we flushWhenQueueEmpty is true else we would wait
                         // for timeout that would put is past the maxWait threshold
                         // 3. If the queue is empty i.e. no benefit of grouping. This happens when we have one
@@ -1118,6 +1372,14 @@ public class Journal implements CheckpointSource {
                         journalStats.getJournalFlushStats().registerSuccessfulEvent(
                                 journalFlushWatcher.stop().elapsed(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
 
+                        if (groupCommitController.isAdaptive()) {
+                            groupCommitController.onFlush(MathUtils.nowInNano(), toFlush.size(), batchSize,
+                                    avgSyncLatencyNanos);
+                            maxGroupWaitInNanos = groupCommitController.getGroupWaitNanos();
+                            bufferedWritesThreshold = groupCommitController.getBufferedBytesThreshold();
+                            flushOnEmptyQueue = flushWhenQueueEmpty || maxGroupWaitInNanos <= 0;
+                        }
+
                         // Trace the lifetime of entries through persistence
                         if (LOG.isDebugEnabled()) {
                             for (QueueEntry e : toFlush) {
@@ -0,0 +1,138 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+
+/**
+ * Decide how long the journal groups the entries before flushing them.
+ *
+ * <p>With the static policy, the entries are grouped for up to {@link ServerConfiguration#getJournalMaxGroupWaitMSec()}
+ * or {@link ServerConfiguration#getJournalBufferedWritesThreshold()} bytes. With the adaptive policy, these values
+ * are only upper bounds, and the group wait is chosen from the measured arrival rate of the entries and the measured
+ * fsync latency: the smallest wait keeping the fsync rate under
+ * {@link ServerConfiguration#getJournalAdaptiveGroupCommitTargetSyncRate()}. A shorter wait means a lower add latency,
+ * so when the entries arrive slower than the target rate, or when an fsync already takes longer than the target
+ * interval, they are not grouped at all and the journal flushes as soon as its queue is empty. Otherwise, the wait
+ * fills the rest of the target interval after the fsync.
+ *
+ * <p>The measurements are updated by the journal thread after each flush, while the decisions can be read by any
+ * thread, e.g. to be exported as stats.
+ */
+class JournalGroupCommitController {
+
+    // Weight of the moving averages of the arrival rates, in number of flushes
+    private static final double EWMA_WEIGHT = 8;
+    // Margin kept on the buffered bytes threshold over the bytes expected to arrive during the group wait, so that
+    // the threshold only cuts the group short on bursts
+    private static final int BUFFERED_BYTES_MARGIN = 2;
+
+    private final boolean adaptive;
+    private final long maxGroupWaitNanos;
+    private final long maxBufferedBytes;
+    private final long minBufferedBytes;
+    private final double targetSyncIntervalNanos;
+
+    // Only accessed by the journal thread
+    private long lastFlushNanos = 0;
+    private double entriesPerNano = 0;
+    private double bytesPerNano = 0;
+
+    private volatile long groupWaitNanos;
+    private volatile long bufferedBytesThreshold;
+    private volatile double entriesPerSecond = 0;
+
+    JournalGroupCommitController(ServerConfiguration conf) {
+        this.adaptive = conf.isJournalAdaptiveGroupCommitEnabled();
+        this.maxGroupWaitNanos = TimeUnit.MILLISECONDS.toNanos(conf.getJournalMaxGroupWaitMSec());
+        this.maxBufferedBytes = conf.getJournalBufferedWritesThreshold();
+        this.minBufferedBytes = Math.min(maxBufferedBytes, conf.getJournalWriteBufferSizeKB() * 1024L);
+        int targetSyncRate = conf.getJournalAdaptiveGroupCommitTargetSyncRate();
+        this.targetSyncIntervalNanos = targetSyncRate > 0 ? (double) TimeUnit.SECONDS.toNanos(1) / targetSyncRate : 0;
+
+        // Start without grouping, until there are measurements
+        this.groupWaitNanos = adaptive ? 0 : maxGroupWaitNanos;
+        this.bufferedBytesThreshold = adaptive ? minBufferedBytes : maxBufferedBytes;
+    }
+
+    boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * @return the max time to group an entry with the following ones before flushing it
+     */
+    long getGroupWaitNanos() {
+        return groupWaitNanos;
+    }
+
+    /**
+     * @return the number of buffered bytes after which the grouped entries are flushed
+     */
+    long getBufferedBytesThreshold() {
+        return bufferedBytesThreshold;
+    }
+
+    /**
+     * @return the measured arrival rate of the entries, only measured with the adaptive policy
+     */
+    double getEntriesPerSecond() {
+        return entriesPerSecond;
+    }
+
+    /**
+     * Record a flush of the journal, and update the group wait for the next ones.
+     *
+     * @param nowNanos time of the flush
+     * @param numEntries number of entries flushed
+     * @param numBytes number of bytes flushed
+     * @param syncLatencyNanos current estimation of the fsync latency
+     */
+    void onFlush(long nowNanos, int numEntries, long numBytes, double syncLatencyNanos) {
+        if (!adaptive) {
+            return;
+        }
+        long intervalNanos = nowNanos - lastFlushNanos;
+        boolean first = lastFlushNanos == 0;
+        lastFlushNanos = nowNanos;
+        if (first || intervalNanos <= 0) {
+            return;
+        }
+
+        entriesPerNano += ((double) numEntries / intervalNanos - entriesPerNano) / EWMA_WEIGHT;
+        bytesPerNano += ((double) numBytes / intervalNanos - bytesPerNano) / EWMA_WEIGHT;
+        entriesPerSecond = entriesPerNano * TimeUnit.SECONDS.toNanos(1);
+
+        long waitNanos;
+        if (entriesPerNano * targetSyncIntervalNanos <= 1) {
+            // Syncing each entry on its own stays under the target fsync rate
+            waitNanos = 0;
+        } else {
+            waitNanos = (long) Math.max(0, targetSyncIntervalNanos - syncLatencyNanos);
+        }
+        waitNanos = Math.min(waitNanos, maxGroupWaitNanos);
+        long bytesThreshold = (long) (BUFFERED_BYTES_MARGIN * bytesPerNano * waitNanos);
+
+        groupWaitNanos = waitNanos;
+        bufferedBytesThreshold = Math.max(minBufferedBytes, Math.min(maxBufferedBytes, bytesThreshold));
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
+import org.apache.bookkeeper.util.MathUtils;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
+
+/**
+ * Choose the journal that persists the entries of a ledger.
+ *
+ * <p>By default, the journal is chosen by the ledger id modulo the number of journals. When the adaptive routing
+ * is enabled, a ledger is assigned to the least loaded journal the first time it is written, where the load is
+ * the estimated time for the journal to persist its queued entries (see {@link Journal#getRoutingLoadMicros()}).
+ * All the following writes of the ledger go to the same journal, to preserve their order. A ledger is only moved
+ * to a less loaded journal after it has been idle for a while and the queue of its journal is drained, so that
+ * its previous entries are already written when the first entry is written in the new journal.
+ *
+ * <p>The journals with the same load are chosen by the length of their queue and then in round-robin, so that the
+ * ledgers are spread when the journals are idle. A ledger with entries added with ackBeforeSync is not moved until
+ * they are synced by a forceLedger, since the forceLedger only syncs the journal the ledger is assigned to.
+ */
+class JournalRouter {
+
+    // A ledger is only moved when its journal is at least twice as loaded as the least loaded one
+    private static final int REBIND_LOAD_RATIO = 2;
+
+    private final List<Journal> journals;
+    private final boolean adaptiveRoutingEnabled;
+    private final long rebindIdleTimeNanos;
+
+    private final ConcurrentLongHashMap<Assignment> assignments;
+    private final AtomicInteger nextJournal = new AtomicInteger();
+
+    JournalRouter(List<Journal> journals, ServerConfiguration conf) {
+        this.journals = journals;
+        this.adaptiveRoutingEnabled = conf.isJournalAdaptiveRoutingEnabled() && journals.size() > 1;
+        this.rebindIdleTimeNanos = TimeUnit.MILLISECONDS.toNanos(conf.getJournalRoutingRebindIdleTimeMs());
+        this.assignments = adaptiveRoutingEnabled
+                ? ConcurrentLongHashMap.<Assignment>newBuilder()
+                        .expectedItems(16 * 1024)
+                        .concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
+                        .build()
+                : null;
+    }
+
+    Journal getJournal(long ledgerId) {
+        return getJournal(ledgerId, false);
+    }
+
+    /**
+     * Get the journal of a ledger.
+     *
+     * @param ackBeforeSync whether the journal is used to add an entry that is acknowledged before being synced
+     */
+    Journal getJournal(long ledgerId, boolean ackBeforeSync) {
+        if (!adaptiveRoutingEnabled) {
+            return journals.get(MathUtils.signSafeMod(ledgerId, journals.size()));
+        }
+
+        long now = MathUtils.nowInNano();
+        Assignment assignment = assignments.get(ledgerId);
+        if (assignment != null) {
+            if (!canRebind(assignment, now)) {
+                return assignment.access(now, ackBeforeSync);
+            }
+
+            Journal leastLoaded = getLeastLoadedJournal();
+            if (leastLoaded == assignment.journal || leastLoaded.getRoutingLoadMicros() * REBIND_LOAD_RATIO
+                    >= assignment.journal.getRoutingLoadMicros()) {
+                return assignment.access(now, ackBeforeSync);
+            }
+
+            if (assignments.remove(ledgerId, assignment)) {
+                assignment.journal.getJournalStats().getJournalReboundLedgers().inc();
+            }
+            // Assign the ledger again, unless another thread has already done it
+            return getJournal(ledgerId, ackBeforeSync);
+        }
+
+        Assignment newAssignment = new Assignment(getLeastLoadedJournal(), now);
+        assignment = assignments.putIfAbsent(ledgerId, newAssignment);
+        if (assignment != null) {
+            return assignment.access(now, ackBeforeSync);
+        }
+        newAssignment.journal.getJournalStats().getJournalRoutedLedgers().inc();
+        return newAssignment.access(now, ackBeforeSync);
+    }
+
+    /**
+     * Wrap the callback of a forceLedger, to record that the entries of the ledger added with ackBeforeSync before
+     * the forceLedger are synced once it completes. This must be called before the forceLedger is added to the
+     * journal.
+     */
+    WriteCallback wrapForceLedgerCallback(long ledgerId, WriteCallback cb) {
+        if (!adaptiveRoutingEnabled) {
+            return cb;
+        }
+
+        Assignment assignment = assignments.get(ledgerId);
+        if (assignment == null) {
+            return cb;
+        }
+
+        long unsyncedEntries = assignment.unsyncedEntries;
+        if (unsyncedEntries == assignment.syncedEntries) {
+            return cb;
+        }
+        return (rc, ledger, entry, addr, ctx) -> {
+            if (rc == BKException.Code.OK) {
+                assignment.synced(unsyncedEntries);
+            }
+            cb.writeComplete(rc, ledger, entry, addr, ctx);
+        };
+    }
+
+    void ledgerDeleted(long ledgerId) {
+        if (adaptiveRoutingEnabled) {
+            assignments.remove(ledgerId);
+        }
+    }
+
+    private boolean canRebind(Assignment assignment, long now) {
+        return now - assignment.lastAccessNanos > rebindIdleTimeNanos
+                && assignment.syncedEntries == assignment.unsyncedEntries
+                && assignment.journal.getJournalQueueLength() == 0;
+    }
+
+    private Journal getLeastLoadedJournal() {
+        // Start from a different journal each time, so that the ties are broken in round-robin
+        int size = journals.size();
+        int start = MathUtils.signSafeMod(nextJournal.getAndIncrement(), size);
+        Journal leastLoaded = null;
+        long minLoad = Long.MAX_VALUE;
+        int minQueueLength = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            Journal journal = journals.get((start + i) % size);
+            long load = journal.getRoutingLoadMicros();
+            if (load > minLoad) {
+                continue;
+            }
+
+            int queueLength = journal.getJournalQueueLength();
+            if (load < minLoad || queueLength < minQueueLength) {
+                leastLoaded = journal;
+                minLoad = load;
+                minQueueLength = queueLength;
+            }
+        }
+        return leastLoaded;
+    }
+
+    private static class Assignment {
+        private static final AtomicLongFieldUpdater<Assignment> UNSYNCED_ENTRIES_UPDATER =
+                AtomicLongFieldUpdater.newUpdater(Assignment.class, "unsyncedEntries");
+        private static final AtomicLongFieldUpdater<Assignment> SYNCED_ENTRIES_UPDATER =
+                AtomicLongFieldUpdater.newUpdater(Assignment.class, "syncedEntries");
+
+        final Journal journal;
+        volatile long lastAccessNanos;
+        // Number of entries added with ackBeforeSync, and number of them synced by a forceLedger
+        volatile long unsyncedEntries;
+        volatile long syncedEntries;
+
+        Assignment(Journal journal, long lastAccessNanos) {
+            this.journal = journal;
+            this.lastAccessNanos = lastAccessNanos;
+        }
+
+        Journal access(long now, boolean ackBeforeSync) {
+            if (ackBeforeSync) {
+                UNSYNCED_ENTRIES_UPDATER.incrementAndGet(this);
+            }
+            lastAccessNanos = now;
+            return journal;
+        }
+
+        void synced(long entries) {
+            SYNCED_ENTRIES_UPDATER.accumulateAndGet(this, entries, Math::max);
+        }
+    }
+}
@@ -24,6 +24,7 @@ package org.apache.bookkeeper.bookie;
 import com.google.common.util.concurrent.RateLimiter;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.ReferenceCounted;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -82,6 +83,14 @@ public interface LedgerStorage {
      */
     boolean entryExists(long ledgerId, long entryId) throws IOException, BookieException;
 
+    /**
+     * Whether an entry is durably persisted by the ledger storage, so that it doesn't need to be added again when
+     * replaying the journal. Storages which can't tell it cheaply just return false.
+     */
+    default boolean isEntryPersisted(long ledgerId, long entryId) throws IOException {
+        return false;
+    }
+
     /**
      * Fenced the ledger id in ledger storage.
      *
@@ -144,6 +153,47 @@ public interface LedgerStorage {
      */
     ByteBuf getEntry(long ledgerId, long entryId) throws IOException, BookieException;
 
+    /**
+     * Read consecutive entries from storage, starting at {@code firstEntryId}.
+     *
+     * <p>The read stops after {@code maxCount} entries, once the entries read add up to at least
+     * {@code maxSize} bytes, or at the first entry that can't be read. The first entry is always
+     * read, and a failure to read it is thrown.
+     *
+     * @return the entries read, in order. The caller must release them.
+     */
+    default List<ByteBuf> getEntries(long ledgerId, long firstEntryId, int maxCount, long maxSize)
+            throws IOException, BookieException {
+        List<ByteBuf> entries = new ArrayList<>();
+        long size = 0;
+        for (long entryId = firstEntryId; entries.size() < maxCount && size < maxSize; entryId++) {
+            ByteBuf entry;
+            try {
+                entry = getEntry(ledgerId, entryId);
+            } catch (IOException | BookieException e) {
+                if (entries.isEmpty()) {
+                    throw e;
+                }
+                break;
+            }
+            entries.add(entry);
+            size += entry.readableBytes();
+        }
+        return entries;
+    }
+
+    /**
+     * Read an entry from storage, to be sent as is to a client.
+     *
+     * <p>Instead of a {@link ByteBuf}, the storage may return a {@link io.netty.channel.FileRegion} over the
+     * entry in its file, so that it can be transferred without being copied into memory.
+     *
+     * @return the entry. The caller must release it.
+     */
+    default ReferenceCounted getEntryForTransfer(long ledgerId, long entryId) throws IOException, BookieException {
+        return getEntry(ledgerId, entryId);
+    }
+
     /**
      * Get last add confirmed.
      *
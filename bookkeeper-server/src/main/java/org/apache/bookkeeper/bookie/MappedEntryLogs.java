@@ -0,0 +1,256 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+// CHECKSTYLE.OFF: IllegalImport
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.IllegalReferenceCountException;
+import io.netty.util.internal.PlatformDependent;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+// CHECKSTYLE.ON: IllegalImport
+
+/**
+ * Memory mappings of sealed entry logs, to read entries as slices of the mapped files instead of copying
+ * them out of the files.
+ *
+ * <p>The total size of the mappings is capped, and the least recently read logs are unmapped to make room
+ * for new ones. A log is only unmapped once all the entries sliced from it have been released, and it counts
+ * toward the mapped size until then.
+ *
+ * <p>The logs found not sealed are remembered, so that the reads of the logs being written don't go through
+ * the lock of the mappings each time. They are checked again once {@link #logsSealed()} is called.
+ */
+class MappedEntryLogs implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedEntryLogs.class);
+
+    // How often the reads check whether the dropped logs can be unmapped
+    private static final long UNMAP_CHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Finds the file of an entry log.
+     */
+    interface LogFileLocator {
+        /**
+         * @return the file of the log, or null if the log is not sealed yet, and so can't be mapped until the
+         *         next call to {@link #logsSealed()}
+         */
+        File findSealed(long logId) throws IOException;
+    }
+
+    private final long maxMappedBytes;
+    private final LogFileLocator locator;
+    private final Map<Long, MappedLog> mappings = new ConcurrentHashMap<>();
+    // Guarded by this, includes the logs that are waiting to be unmapped
+    private long mappedBytes = 0;
+    // Logs dropped from the mappings, which are unmapped once the entries sliced from them are released
+    private final List<MappedLog> pendingUnmaps = new ArrayList<>();
+    private volatile boolean hasPendingUnmaps = false;
+    private volatile long lastUnmapCheckNanos = System.nanoTime();
+
+    // Logs found not sealed, with the seal generation at the time they were checked. An entry is only valid
+    // while the generation is unchanged.
+    private final Map<Long, Long> unsealedLogs = new ConcurrentHashMap<>();
+    private final AtomicLong sealGeneration = new AtomicLong();
+
+    MappedEntryLogs(long maxMappedBytes, LogFileLocator locator) {
+        this.maxMappedBytes = maxMappedBytes;
+        this.locator = locator;
+    }
+
+    /**
+     * Get the mapping of a sealed entry log, mapping it if needed.
+     *
+     * @return a buffer over the whole log which must be released once done with it, or null if the log
+     *         can't be mapped
+     */
+    ByteBuf acquire(long logId) throws IOException {
+        if (hasPendingUnmaps && System.nanoTime() - lastUnmapCheckNanos >= UNMAP_CHECK_INTERVAL_NANOS) {
+            unmapReleasedLogs();
+        }
+
+        MappedLog mapped = mappings.get(logId);
+        if (mapped == null) {
+            Long unsealedGeneration = unsealedLogs.get(logId);
+            if (unsealedGeneration != null && unsealedGeneration == sealGeneration.get()) {
+                return null;
+            }
+            mapped = map(logId);
+        }
+        if (mapped == null || mapped.buffer == null) {
+            return null;
+        }
+
+        mapped.lastAccessNanos = System.nanoTime();
+        try {
+            return mapped.buffer.retain();
+        } catch (IllegalReferenceCountException e) {
+            // Unmapped concurrently
+            return null;
+        }
+    }
+
+    /**
+     * Notify that some logs were sealed, so that the logs found not sealed are checked again.
+     */
+    void logsSealed() {
+        sealGeneration.incrementAndGet();
+        unsealedLogs.clear();
+    }
+
+    /**
+     * Drop the mapping of a log, typically because the log is being removed.
+     */
+    synchronized void unmap(long logId) {
+        unsealedLogs.remove(logId);
+        MappedLog mapped = mappings.remove(logId);
+        if (mapped != null) {
+            release(mapped);
+        }
+        unmapReleased();
+    }
+
+    synchronized long getMappedBytes() {
+        return mappedBytes;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Long logId : mappings.keySet()) {
+            unmap(logId);
+        }
+    }
+
+    private synchronized MappedLog map(long logId) throws IOException {
+        MappedLog mapped = mappings.get(logId);
+        if (mapped != null) {
+            return mapped;
+        }
+
+        // Read the generation first, a log sealed concurrently is then not remembered as unsealed
+        long generation = sealGeneration.get();
+        File file = locator.findSealed(logId);
+        if (file == null) {
+            unsealedLogs.put(logId, generation);
+            return null;
+        }
+        long size = file.length();
+        if (size > Integer.MAX_VALUE || size > maxMappedBytes) {
+            // Remember that the log can't be mapped, so as not to try again on each read
+            mapped = new MappedLog(null, 0);
+            mappings.put(logId, mapped);
+            return mapped;
+        }
+
+        unmapReleased();
+        while (mappedBytes + size > maxMappedBytes) {
+            if (!evictLeastRecentlyUsed()) {
+                // The dropped logs are still in use, read from the file until they are unmapped
+                return null;
+            }
+            unmapReleased();
+        }
+
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        mapped = new MappedLog(buffer, size);
+        mappings.put(logId, mapped);
+        mappedBytes += size;
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Mapped entry log {} ({} bytes), total mapped bytes: {}", logId, size, mappedBytes);
+        }
+        return mapped;
+    }
+
+    /**
+     * @return false if there are no mapped logs left to evict
+     */
+    private boolean evictLeastRecentlyUsed() {
+        Map.Entry<Long, MappedLog> eldest = null;
+        for (Map.Entry<Long, MappedLog> e : mappings.entrySet()) {
+            if (e.getValue().buffer != null
+                    && (eldest == null || e.getValue().lastAccessNanos - eldest.getValue().lastAccessNanos < 0)) {
+                eldest = e;
+            }
+        }
+        if (eldest == null) {
+            return false;
+        }
+        if (mappings.remove(eldest.getKey(), eldest.getValue())) {
+            release(eldest.getValue());
+        }
+        return true;
+    }
+
+    private void release(MappedLog mapped) {
+        if (mapped.buffer != null) {
+            mapped.buffer.release();
+            pendingUnmaps.add(mapped);
+            hasPendingUnmaps = true;
+        }
+    }
+
+    private synchronized void unmapReleasedLogs() {
+        unmapReleased();
+    }
+
+    private void unmapReleased() {
+        lastUnmapCheckNanos = System.nanoTime();
+        // Once released, a buffer can't be retained again, so its mapping can't be used anymore
+        pendingUnmaps.removeIf(mapped -> {
+            if (mapped.buffer.refCnt() == 0) {
+                PlatformDependent.freeDirectBuffer(mapped.mappedBuffer);
+                mappedBytes -= mapped.size;
+                return true;
+            }
+            return false;
+        });
+        hasPendingUnmaps = !pendingUnmaps.isEmpty();
+    }
+
+    private static class MappedLog {
+        private final MappedByteBuffer mappedBuffer;
+        private final ByteBuf buffer;
+        private final long size;
+        private volatile long lastAccessNanos = System.nanoTime();
+
+        MappedLog(MappedByteBuffer mappedBuffer, long size) {
+            this.mappedBuffer = mappedBuffer;
+            this.buffer = mappedBuffer != null ? Unpooled.wrappedBuffer(mappedBuffer) : null;
+            this.size = size;
+        }
+    }
+
+}
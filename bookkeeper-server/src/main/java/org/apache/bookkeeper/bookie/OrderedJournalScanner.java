@@ -0,0 +1,146 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.bookkeeper.bookie.Journal.JournalScanner;
+import org.apache.bookkeeper.common.util.MemoryLimitController;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link JournalScanner} which processes the journal records in parallel.
+ *
+ * <p>The records are still read sequentially by the journal scan, but are then dispatched by ledger id to an ordered
+ * executor, so that the records of a ledger are processed in the journal order, while the records of different
+ * ledgers are processed in parallel. The size of the records read but not processed yet is bounded.
+ *
+ * <p>{@link #drain()} must be called once a journal file is scanned, to wait for all its records to be processed
+ * before marking it as replayed.
+ */
+class OrderedJournalScanner implements JournalScanner, AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(OrderedJournalScanner.class);
+
+    private final JournalScanner scanner;
+    private final OrderedExecutor executor;
+    private final MemoryLimitController pendingBytes;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final AtomicLong pendingRecords = new AtomicLong();
+
+    OrderedJournalScanner(JournalScanner scanner, int numThreads, long maxPendingBytes) {
+        this.scanner = scanner;
+        this.executor = OrderedExecutor.newBuilder().numThreads(numThreads).name("JournalReplay").build();
+        this.pendingBytes = new MemoryLimitController(maxPendingBytes);
+    }
+
+    @Override
+    public void process(int journalVersion, long offset, ByteBuffer entry) throws IOException {
+        checkFailure();
+
+        // The buffer is reused by the journal scan
+        int size = entry.remaining();
+        try {
+            pendingBytes.reserveMemory(size);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while replaying the journal", e);
+        }
+        ByteBuffer record = ByteBuffer.allocate(size);
+        record.put(entry);
+        record.flip();
+        long ledgerId = record.getLong(0);
+
+        pendingRecords.incrementAndGet();
+        executor.executeOrdered(ledgerId, () -> {
+            try {
+                if (failure.get() == null) {
+                    scanner.process(journalVersion, offset, record);
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            } finally {
+                pendingBytes.releaseMemory(size);
+                onProcessed();
+            }
+        });
+    }
+
+    private synchronized void onProcessed() {
+        if (pendingRecords.decrementAndGet() == 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Wait for all the records dispatched so far to be processed.
+     *
+     * @throws IOException if the processing of a record failed
+     */
+    void drain() throws IOException {
+        try {
+            awaitProcessed(Long.MAX_VALUE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while replaying the journal", e);
+        }
+        checkFailure();
+    }
+
+    private synchronized boolean awaitProcessed(long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (pendingRecords.get() > 0) {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (timeoutNanos != Long.MAX_VALUE && remainingMillis <= 0) {
+                return false;
+            }
+            wait(timeoutNanos == Long.MAX_VALUE ? 0 : remainingMillis);
+        }
+        return true;
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable t = failure.get();
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t != null) {
+            throw new IOException("Failed to replay a journal record", t);
+        }
+    }
+
+    @Override
+    public void close() {
+        // Once a record failed, the pending ones are skipped, so this only waits for the records being processed
+        try {
+            if (!awaitProcessed(TimeUnit.MINUTES.toNanos(1))) {
+                LOG.warn("Timed out waiting for the journal records to be processed");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
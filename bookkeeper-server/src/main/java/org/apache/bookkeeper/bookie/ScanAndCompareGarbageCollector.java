@@ -23,19 +23,22 @@ package org.apache.bookkeeper.bookie;
 
 import static org.apache.bookkeeper.common.concurrent.FutureUtils.result;
 
+import com.carrotsearch.hppc.LongArrayList;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.RateLimiter;
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.NavigableSet;
 import java.util.Set;
 import java.util.SortedMap;
-import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicBoolean;
 import lombok.Cleanup;
 import org.apache.bookkeeper.client.BKException;
 import org.apache.bookkeeper.client.api.LedgerMetadata;
@@ -61,11 +64,11 @@ import org.slf4j.LoggerFactory;
  * <p>
  * Garbage collection is processed as below:
  * <ul>
- * <li> fetch all existing ledgers from zookeeper or metastore according to
- * the LedgerManager, called <b>globalActiveLedgers</b>
- * <li> fetch all active ledgers from bookie server, said <b>bkActiveLedgers</b>
- * <li> loop over <b>bkActiveLedgers</b> to find those ledgers that are not in
- * <b>globalActiveLedgers</b>, do garbage collection on them.
+ * <li> fetch all active ledgers from bookie server into a sorted snapshot, said <b>bkActiveLedgers</b>
+ * <li> iterate over the sorted ledger ranges from zookeeper or metastore according to
+ * the LedgerManager, one range at a time
+ * <li> merge each range with the <b>bkActiveLedgers</b> falling into it, do garbage collection
+ * on those that are not in the range, after verifying their metadata in batches if configured.
  * </ul>
  * </p>
  */
@@ -84,6 +87,8 @@ public class ScanAndCompareGarbageCollector implements GarbageCollector {
     private int activeLedgerCounter;
     private StatsLogger statsLogger;
     private final int maxConcurrentRequests;
+    private final int verifyMetadataBatchSize;
+    private final RateLimiter metadataOpsRateLimiter;
 
     public ScanAndCompareGarbageCollector(LedgerManager ledgerManager, CompactableLedgerStorage ledgerStorage,
             ServerConfiguration conf, StatsLogger statsLogger) throws IOException {
@@ -103,6 +108,11 @@ public class ScanAndCompareGarbageCollector implements GarbageCollector {
                 enableGcOverReplicatedLedger, gcOverReplicatedLedgerIntervalMillis, maxConcurrentRequests);
 
         verifyMetadataOnGc = conf.getVerifyMetadataOnGC();
+        this.verifyMetadataBatchSize = Math.max(1, conf.getGcVerifyMetadataBatchSize());
+        int metadataOpsRateLimit = conf.getGcMetadataOpsRateLimit();
+        this.metadataOpsRateLimiter = metadataOpsRateLimit > 0 ? RateLimiter.create(metadataOpsRateLimit) : null;
+        LOG.info("Metadata verification on gc : enabled={}, batchSize={}, metadataOpsRateLimit={}",
+                verifyMetadataOnGc, verifyMetadataBatchSize, metadataOpsRateLimit);
 
         this.activeLedgerCounter = 0;
     }
@@ -120,19 +130,23 @@ public class ScanAndCompareGarbageCollector implements GarbageCollector {
         }
 
         try {
-            // Get a set of all ledgers on the bookie
-            NavigableSet<Long> bkActiveLedgers = Sets.newTreeSet(ledgerStorage.getActiveLedgersInRange(0,
-                    Long.MAX_VALUE));
+            // Get a sorted snapshot of all ledgers on the bookie
+            LongArrayList bkActiveLedgers = new LongArrayList();
+            for (Long ledgerId : ledgerStorage.getActiveLedgersInRange(0, Long.MAX_VALUE)) {
+                bkActiveLedgers.add(ledgerId);
+            }
+            Arrays.sort(bkActiveLedgers.buffer, 0, bkActiveLedgers.size());
             this.activeLedgerCounter = bkActiveLedgers.size();
 
             long curTime = System.currentTimeMillis();
             boolean checkOverreplicatedLedgers = (enableGcOverReplicatedLedger && curTime
                     - lastOverReplicatedLedgerGcTimeMillis > gcOverReplicatedLedgerIntervalMillis);
+            Set<Long> overReplicatedLedgers = Collections.emptySet();
             if (checkOverreplicatedLedgers) {
                 LOG.info("Start removing over-replicated ledgers. activeLedgerCounter={}", activeLedgerCounter);
 
                 // remove all the overreplicated ledgers from the local bookie
-                Set<Long> overReplicatedLedgers = removeOverReplicatedledgers(bkActiveLedgers, garbageCleaner);
+                overReplicatedLedgers = removeOverReplicatedledgers(bkActiveLedgers, garbageCleaner);
                 if (overReplicatedLedgers.isEmpty()) {
                     LOG.info("No over-replicated ledgers found.");
                 } else {
@@ -141,70 +155,48 @@ public class ScanAndCompareGarbageCollector implements GarbageCollector {
                 lastOverReplicatedLedgerGcTimeMillis = System.currentTimeMillis();
             }
 
-            // Iterate over all the ledger on the metadata store
+            // Merge the sorted local ledgers with the sorted ledger ranges of the metadata store,
+            // one range at a time
             long zkOpTimeoutMs = this.conf.getZkTimeout() * 2;
             LedgerRangeIterator ledgerRangeIterator = ledgerManager
                     .getLedgerRanges(zkOpTimeoutMs);
             Set<Long> ledgersInMetadata = null;
-            long start;
             long end = -1;
+            int bkLedgerIdx = 0;
             boolean done = false;
-            AtomicBoolean isBookieInEnsembles = new AtomicBoolean(false);
-            Versioned<LedgerMetadata> metadata = null;
+            List<Long> deletionCandidates = new ArrayList<>();
             while (!done) {
-                start = end + 1;
+                acquireMetadataOp();
                 if (ledgerRangeIterator.hasNext()) {
                     LedgerRange lRange = ledgerRangeIterator.next();
                     ledgersInMetadata = lRange.getLedgers();
                     end = lRange.end();
                 } else {
-                    ledgersInMetadata = new TreeSet<>();
+                    ledgersInMetadata = Collections.emptySet();
                     end = Long.MAX_VALUE;
                     done = true;
                 }
 
-                Iterable<Long> subBkActiveLedgers = bkActiveLedgers.subSet(start, true, end, true);
+                deletionCandidates.clear();
+                while (bkLedgerIdx < bkActiveLedgers.size() && bkActiveLedgers.get(bkLedgerIdx) <= end) {
+                    long bkLid = bkActiveLedgers.get(bkLedgerIdx++);
+                    if (!ledgersInMetadata.contains(bkLid) && !overReplicatedLedgers.contains(bkLid)) {
+                        deletionCandidates.add(bkLid);
+                    }
+                }
 
                 if (LOG.isDebugEnabled()) {
-                    LOG.debug("Active in metadata {}, Active in bookie {}", ledgersInMetadata, subBkActiveLedgers);
+                    LOG.debug("Active in metadata {}, missing from metadata in bookie {}",
+                            ledgersInMetadata, deletionCandidates);
                 }
-                for (Long bkLid : subBkActiveLedgers) {
-                    if (!ledgersInMetadata.contains(bkLid)) {
-                        if (verifyMetadataOnGc) {
-                            isBookieInEnsembles.set(false);
-                            metadata = null;
-                            int rc = BKException.Code.OK;
-                            try {
-                                metadata = result(ledgerManager.readLedgerMetadata(bkLid), zkOpTimeoutMs,
-                                        TimeUnit.MILLISECONDS);
-                            } catch (BKException | TimeoutException e) {
-                                if (e instanceof BKException) {
-                                    rc = ((BKException) e).getCode();
-                                } else {
-                                    LOG.warn("Time-out while fetching metadata for Ledger {} : {}.", bkLid,
-                                            e.getMessage());
-
-                                    continue;
-                                }
-                            }
-                            // check bookie should be part of ensembles in one
-                            // of the segment else ledger should be deleted from
-                            // local storage
-                            if (metadata != null && metadata.getValue() != null) {
-                                metadata.getValue().getAllEnsembles().forEach((entryId, ensembles) -> {
-                                    if (ensembles != null && ensembles.contains(selfBookieAddress)) {
-                                        isBookieInEnsembles.set(true);
-                                    }
-                                });
-                                if (isBookieInEnsembles.get()) {
-                                    continue;
-                                }
-                            } else if (rc != BKException.Code.NoSuchLedgerExistsOnMetadataServerException) {
-                                LOG.warn("Ledger {} Missing in metadata list, but ledgerManager returned rc: {}.",
-                                        bkLid, rc);
-                                continue;
-                            }
-                        }
+                if (verifyMetadataOnGc) {
+                    for (int i = 0; i < deletionCandidates.size(); i += verifyMetadataBatchSize) {
+                        verifyAndClean(deletionCandidates.subList(i,
+                                Math.min(i + verifyMetadataBatchSize, deletionCandidates.size())),
+                                zkOpTimeoutMs, garbageCleaner);
+                    }
+                } else {
+                    for (Long bkLid : deletionCandidates) {
                         garbageCleaner.clean(bkLid);
                     }
                 }
@@ -215,9 +207,66 @@ public class ScanAndCompareGarbageCollector implements GarbageCollector {
         }
     }
 
-    private Set<Long> removeOverReplicatedledgers(Set<Long> bkActiveledgers, final GarbageCleaner garbageCleaner)
+    /**
+     * Read the metadata of a batch of ledgers missing from the metadata ranges concurrently,
+     * and clean up those that are really gone or no longer have this bookie in their ensembles.
+     */
+    private void verifyAndClean(List<Long> bkLids, long zkOpTimeoutMs, GarbageCleaner garbageCleaner)
+            throws Exception {
+        List<CompletableFuture<Versioned<LedgerMetadata>>> metadataFutures = new ArrayList<>(bkLids.size());
+        for (Long bkLid : bkLids) {
+            acquireMetadataOp();
+            metadataFutures.add(ledgerManager.readLedgerMetadata(bkLid));
+        }
+
+        for (int i = 0; i < bkLids.size(); i++) {
+            long bkLid = bkLids.get(i);
+            Versioned<LedgerMetadata> metadata = null;
+            int rc = BKException.Code.OK;
+            try {
+                metadata = result(metadataFutures.get(i), zkOpTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (BKException | TimeoutException e) {
+                if (e instanceof BKException) {
+                    rc = ((BKException) e).getCode();
+                } else {
+                    LOG.warn("Time-out while fetching metadata for Ledger {} : {}.", bkLid,
+                            e.getMessage());
+
+                    continue;
+                }
+            }
+            // check bookie should be part of ensembles in one
+            // of the segment else ledger should be deleted from
+            // local storage
+            if (metadata != null && metadata.getValue() != null) {
+                boolean isBookieInEnsembles = false;
+                for (List<BookieId> ensemble : metadata.getValue().getAllEnsembles().values()) {
+                    if (ensemble != null && ensemble.contains(selfBookieAddress)) {
+                        isBookieInEnsembles = true;
+                        break;
+                    }
+                }
+                if (isBookieInEnsembles) {
+                    continue;
+                }
+            } else if (rc != BKException.Code.NoSuchLedgerExistsOnMetadataServerException) {
+                LOG.warn("Ledger {} Missing in metadata list, but ledgerManager returned rc: {}.",
+                        bkLid, rc);
+                continue;
+            }
+            garbageCleaner.clean(bkLid);
+        }
+    }
+
+    private void acquireMetadataOp() {
+        if (metadataOpsRateLimiter != null) {
+            metadataOpsRateLimiter.acquire();
+        }
+    }
+
+    private Set<Long> removeOverReplicatedledgers(LongArrayList bkActiveledgers, final GarbageCleaner garbageCleaner)
             throws Exception {
-        final Set<Long> overReplicatedLedgers = Sets.newHashSet();
+        final Set<Long> overReplicatedLedgers = Sets.newConcurrentHashSet();
         final Semaphore semaphore = new Semaphore(this.maxConcurrentRequests);
         final CountDownLatch latch = new CountDownLatch(bkActiveledgers.size());
         // instantiate zookeeper client to initialize ledger manager
@@ -231,11 +280,13 @@ public class ScanAndCompareGarbageCollector implements GarbageCollector {
         @Cleanup
         LedgerUnderreplicationManager lum = lmf.newLedgerUnderreplicationManager();
 
-        for (final Long ledgerId : bkActiveledgers) {
+        for (int i = 0; i < bkActiveledgers.size(); i++) {
+            final long ledgerId = bkActiveledgers.get(i);
             try {
                 // check ledger ensembles before creating lock nodes.
                 // this is to reduce the number of lock node creations and deletions in ZK.
                 // the ensemble check is done again after the lock node is created.
+                acquireMetadataOp();
                 Versioned<LedgerMetadata> preCheckMetadata = ledgerManager.readLedgerMetadata(ledgerId).get();
                 if (!isNotBookieIncludedInLedgerEnsembles(preCheckMetadata)) {
                     latch.countDown();
@@ -261,6 +312,7 @@ public class ScanAndCompareGarbageCollector implements GarbageCollector {
                 // current bookie again and, in that case, we cannot remove the ledger from local storage
                 lum.acquireUnderreplicatedLedger(ledgerId);
                 semaphore.acquire();
+                acquireMetadataOp();
                 ledgerManager.readLedgerMetadata(ledgerId)
                     .whenComplete((metadata, exception) -> {
                             try {
@@ -293,7 +345,6 @@ public class ScanAndCompareGarbageCollector implements GarbageCollector {
             }
         }
         latch.await();
-        bkActiveledgers.removeAll(overReplicatedLedgers);
         return overReplicatedLedgers;
     }
 
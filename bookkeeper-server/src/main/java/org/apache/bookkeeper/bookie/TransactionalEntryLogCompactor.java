@@ -24,6 +24,7 @@ package org.apache.bookkeeper.bookie;
 import io.netty.buffer.ByteBuf;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import org.apache.bookkeeper.bookie.storage.CompactionEntryLog;
 import org.apache.bookkeeper.bookie.storage.EntryLogScanner;
@@ -57,7 +58,16 @@ public class TransactionalEntryLogCompactor extends AbstractLogCompactor {
             EntryLogger entryLogger,
             CompactableLedgerStorage ledgerStorage,
             LogRemovalListener logRemover) {
-        super(conf, logRemover);
+        this(conf, entryLogger, ledgerStorage, logRemover, new Throttler(conf));
+    }
+
+    public TransactionalEntryLogCompactor(
+            ServerConfiguration conf,
+            EntryLogger entryLogger,
+            CompactableLedgerStorage ledgerStorage,
+            LogRemovalListener logRemover,
+            Throttler throttler) {
+        super(conf, logRemover, throttler);
         this.entryLogger = entryLogger;
         this.ledgerStorage = ledgerStorage;
     }
@@ -87,27 +97,72 @@ public class TransactionalEntryLogCompactor extends AbstractLogCompactor {
                 LOG.error("Exception creating new compaction entry log", ioe);
                 return false;
             }
-            CompactionPhase scanEntryLog = new ScanEntryLogPhase(metadata, compactionLog);
-            if (!scanEntryLog.run()) {
-                LOG.info("Compaction for entry log {} end in ScanEntryLogPhase.", metadata.getEntryLogId());
-                return false;
-            }
+            return compact(Collections.singletonList(metadata), compactionLog);
+        }
+        return false;
+    }
 
-            CompactionPhase flushCompactionLog = new FlushCompactionLogPhase(compactionLog);
-            if (!flushCompactionLog.run()) {
-                LOG.info("Compaction for entry log {} end in FlushCompactionLogPhase.", metadata.getEntryLogId());
-                return false;
+    /**
+     * Compact the entry logs into a single compaction log. The entry logs that the compaction log of the entry
+     * logger can't take are compacted on their own.
+     */
+    @Override
+    public boolean compact(List<EntryLogMetadata> metadatas) {
+        if (metadatas.size() <= 1) {
+            return metadatas.size() == 1 && compact(metadatas.get(0));
+        }
+        EntryLogMetadata first = metadatas.get(0);
+        LOG.info("Compacting {} entry logs starting with entry log {} with usage {}.",
+            metadatas.size(), first.getEntryLogId(), first.getUsage());
+        CompactionEntryLog compactionLog;
+        try {
+            compactionLog = entryLogger.newCompactionLog(first.getEntryLogId());
+        } catch (IOException ioe) {
+            LOG.error("Exception creating new compaction entry log", ioe);
+            return false;
+        }
+        List<EntryLogMetadata> packed = new ArrayList<>(metadatas.size());
+        List<EntryLogMetadata> others = new ArrayList<>();
+        packed.add(first);
+        for (EntryLogMetadata metadata : metadatas.subList(1, metadatas.size())) {
+            if (compactionLog.addSrcLog(metadata.getEntryLogId())) {
+                packed.add(metadata);
+            } else {
+                others.add(metadata);
             }
+        }
 
-            CompactionPhase updateIndex = new UpdateIndexPhase(compactionLog);
-            if (!updateIndex.run()) {
-                LOG.info("Compaction for entry log {} end in UpdateIndexPhase.", metadata.getEntryLogId());
-                return false;
-            }
-            LOG.info("Compacted entry log : {}.", metadata.getEntryLogId());
-            return true;
+        boolean compacted = compact(packed, compactionLog);
+        for (EntryLogMetadata metadata : others) {
+            compacted &= compact(metadata);
         }
-        return false;
+        return compacted;
+    }
+
+    private boolean compact(List<EntryLogMetadata> metadatas, CompactionEntryLog compactionLog) {
+        List<Long> logIds = compactionLog.getSrcLogIds();
+        CompactionPhase scanEntryLog = new ScanEntryLogPhase(metadatas, compactionLog);
+        if (!scanEntryLog.run()) {
+            LOG.info("Compaction for entry logs {} end in ScanEntryLogPhase.", logIds);
+            return false;
+        }
+
+        CompactionPhase flushCompactionLog = new FlushCompactionLogPhase(compactionLog);
+        if (!flushCompactionLog.run()) {
+            LOG.info("Compaction for entry logs {} end in FlushCompactionLogPhase.", logIds);
+            return false;
+        }
+
+        CompactionPhase updateIndex = new UpdateIndexPhase(compactionLog);
+        if (!updateIndex.run()) {
+            LOG.info("Compaction for entry logs {} end in UpdateIndexPhase.", logIds);
+            return false;
+        }
+        LOG.info("Compacted entry logs : {}.", logIds);
+        for (EntryLogMetadata metadata : metadatas) {
+            logRemovalListener.compactedEntryLog(metadata, compactionLog.getDstLogId());
+        }
+        return true;
     }
 
     /**
@@ -142,6 +197,7 @@ public class TransactionalEntryLogCompactor extends AbstractLogCompactor {
     /**
      * Assume we're compacting entry log 1 to entry log 3.
      * The first phase is to scan entries in 1.log and copy them to compaction log file "3.log.compacting".
+     * When several entry logs are compacted into the same log, they are all scanned in this phase.
      * We'll try to allocate a new compaction log before scanning to make sure we have a log file to write.
      * If after scanning, there's no data written, it means there's no valid entries to be compacted,
      * so we can remove 1.log directly, clear the offsets and end the compaction.
@@ -150,17 +206,23 @@ public class TransactionalEntryLogCompactor extends AbstractLogCompactor {
      * <p>If anything failed in this phase, we should delete the compaction log and clean the offsets.
      */
     class ScanEntryLogPhase extends CompactionPhase {
-        private final EntryLogMetadata metadata;
+        private final List<EntryLogMetadata> metadatas;
         private final CompactionEntryLog compactionLog;
 
-        ScanEntryLogPhase(EntryLogMetadata metadata, CompactionEntryLog compactionLog) {
+        ScanEntryLogPhase(List<EntryLogMetadata> metadatas, CompactionEntryLog compactionLog) {
             super("ScanEntryLogPhase");
-            this.metadata = metadata;
+            this.metadatas = metadatas;
             this.compactionLog = compactionLog;
         }
 
         @Override
         void start() throws IOException {
+            for (EntryLogMetadata metadata : metadatas) {
+                scan(metadata);
+            }
+        }
+
+        private void scan(EntryLogMetadata metadata) throws IOException {
             // scan entry log into compaction log and offset list
             entryLogger.scanEntryLog(metadata.getEntryLogId(), new EntryLogScanner() {
                 @Override
@@ -197,7 +259,9 @@ public class TransactionalEntryLogCompactor extends AbstractLogCompactor {
             if (offsets.isEmpty()) {
                 // no valid entries is compacted, delete entry log file
                 LOG.info("No valid entry is found in entry log after scan, removing entry log now.");
-                logRemovalListener.removeEntryLog(metadata.getEntryLogId());
+                for (EntryLogMetadata metadata : metadatas) {
+                    logRemovalListener.removeEntryLog(metadata.getEntryLogId());
+                }
                 compactionLog.abort();
                 compactingLogWriteDone();
                 return false;
@@ -306,7 +370,9 @@ public class TransactionalEntryLogCompactor extends AbstractLogCompactor {
             // delete the ".compacted" file to indicate this phase is completed.
             offsets.clear();
             compactionLog.finalizeAndCleanup();
-            logRemovalListener.removeEntryLog(compactionLog.getSrcLogId());
+            for (long srcLogId : compactionLog.getSrcLogIds()) {
+                logRemovalListener.removeEntryLog(srcLogId);
+            }
             return true;
         }
 
@@ -0,0 +1,54 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Compaction candidate selector that compacts the entry logs by usage buckets of 10%,
+ * the least used first. Within a bucket, the entry logs keep the order of the metadata map.
+ */
+class UsageCompactionCandidateSelector implements CompactionCandidateSelector {
+
+    static final UsageCompactionCandidateSelector INSTANCE = new UsageCompactionCandidateSelector();
+
+    private static final int NUM_BUCKETS = 10;
+
+    private UsageCompactionCandidateSelector() {
+    }
+
+    @Override
+    public String name() {
+        return USAGE;
+    }
+
+    @Override
+    public void sort(List<Candidate> candidates, long newestEntryLogId) {
+        // List.sort is stable, the order within a bucket is preserved
+        candidates.sort(Comparator.comparingInt(c -> bucket(c.getUsage())));
+    }
+
+    private static int bucket(double usage) {
+        return Math.min(NUM_BUCKETS - 1, (int) Math.floor(usage * NUM_BUCKETS));
+    }
+}
@@ -24,6 +24,15 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ACTIVE_ENTRY_LO
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ACTIVE_LEDGER_COUNT;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIE_SCOPE;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.COLD_ENTRY_LOG_COUNT;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.COLD_ENTRY_LOG_SPACE_BYTES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.COMPACTION_COLD_WRITTEN_BYTES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.COMPACTION_COPIED_BYTES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.COMPACTION_PENDING_ENTRY_LOG_COUNT;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.COMPACTION_RECLAIMED_BYTES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.COMPACTION_WORKER_COPIED_BYTES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.COMPACTION_WORKER_ENTRY_LOG_COUNT;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.COMPACTION_WORKER_ENTRY_LOG_TIME;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.DELETED_LEDGER_COUNT;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.MAJOR_COMPACTION_COUNT;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.MINOR_COMPACTION_COUNT;
@@ -102,11 +111,77 @@ public class GarbageCollectorStats {
         help = "Current number of active ledgers"
     )
     private final Gauge<Integer> activeLedgerCountGauge;
+    @StatsDoc(
+        name = COMPACTION_PENDING_ENTRY_LOG_COUNT,
+        help = "Current number of entry logs selected by the running compaction and not compacted yet"
+    )
+    private final Gauge<Integer> compactionPendingEntryLogCountGauge;
+    @StatsDoc(
+        name = COMPACTION_COPIED_BYTES,
+        help = "Number of bytes of live entries copied by compaction, labelled by compaction candidate selector"
+    )
+    private final Counter compactionCopiedBytes;
+    @StatsDoc(
+        name = COMPACTION_RECLAIMED_BYTES,
+        help = "Number of bytes reclaimed by compaction, labelled by compaction candidate selector"
+    )
+    private final Counter compactionReclaimedBytes;
+    @StatsDoc(
+        name = COMPACTION_COLD_WRITTEN_BYTES,
+        help = "Number of bytes written by compaction to cold entry logs, labelled by the generation of the"
+            + " compacted entry log: young for entry logs written by the bookie, cold for recopied cold entry logs"
+    )
+    private final Counter youngToColdWrittenBytes;
+    private final Counter coldToColdWrittenBytes;
+    @StatsDoc(
+        name = COLD_ENTRY_LOG_COUNT,
+        help = "Current number of cold entry logs written by compaction"
+    )
+    private final Gauge<Integer> coldEntryLogCountGauge;
+    @StatsDoc(
+        name = COLD_ENTRY_LOG_SPACE_BYTES,
+        help = "Current number of live bytes in cold entry logs written by compaction"
+    )
+    private final Gauge<Long> coldEntryLogSpaceBytesGauge;
+    private final CompactionWorkerStats[] compactionWorkerStats;
+
+    /**
+     * Progress stats of a single compaction worker, labelled with the worker index.
+     */
+    @Getter
+    public static class CompactionWorkerStats {
+        @StatsDoc(
+            name = COMPACTION_WORKER_ENTRY_LOG_COUNT,
+            help = "Number of entry logs compacted by a compaction worker"
+        )
+        private final Counter compactedEntryLogCounter;
+        @StatsDoc(
+            name = COMPACTION_WORKER_COPIED_BYTES,
+            help = "Number of bytes of live entries copied by a compaction worker"
+        )
+        private final Counter copiedBytes;
+        @StatsDoc(
+            name = COMPACTION_WORKER_ENTRY_LOG_TIME,
+            help = "Operation stats of compacting a single entry log by a compaction worker"
+        )
+        private final OpStatsLogger compactEntryLogStats;
+
+        CompactionWorkerStats(StatsLogger workerStatsLogger) {
+            this.compactedEntryLogCounter = workerStatsLogger.getCounter(COMPACTION_WORKER_ENTRY_LOG_COUNT);
+            this.copiedBytes = workerStatsLogger.getCounter(COMPACTION_WORKER_COPIED_BYTES);
+            this.compactEntryLogStats = workerStatsLogger.getOpStatsLogger(COMPACTION_WORKER_ENTRY_LOG_TIME);
+        }
+    }
 
     public GarbageCollectorStats(StatsLogger statsLogger,
                                  Supplier<Integer> activeEntryLogCountSupplier,
                                  Supplier<Long> activeEntryLogSpaceBytesSupplier,
-                                 Supplier<Integer> activeLedgerCountSupplier) {
+                                 Supplier<Integer> activeLedgerCountSupplier,
+                                 Supplier<Integer> compactionPendingEntryLogCountSupplier,
+                                 int numCompactionWorkers,
+                                 String compactionCandidateSelector,
+                                 Supplier<Integer> coldEntryLogCountSupplier,
+                                 Supplier<Long> coldEntryLogSpaceBytesSupplier) {
         this.statsLogger = statsLogger;
 
         this.minorCompactionCounter = statsLogger.getCounter(MINOR_COMPACTION_COUNT);
@@ -153,6 +228,61 @@ public class GarbageCollectorStats {
             }
         };
         statsLogger.registerGauge(ACTIVE_LEDGER_COUNT, activeLedgerCountGauge);
+        this.compactionPendingEntryLogCountGauge = new Gauge<Integer>() {
+            @Override
+            public Integer getDefaultValue() {
+                return 0;
+            }
+
+            @Override
+            public Integer getSample() {
+                return compactionPendingEntryLogCountSupplier.get();
+            }
+        };
+        statsLogger.registerGauge(COMPACTION_PENDING_ENTRY_LOG_COUNT, compactionPendingEntryLogCountGauge);
+
+        StatsLogger selectorStatsLogger = statsLogger.scopeLabel("compactionSelector", compactionCandidateSelector);
+        this.compactionCopiedBytes = selectorStatsLogger.getCounter(COMPACTION_COPIED_BYTES);
+        this.compactionReclaimedBytes = selectorStatsLogger.getCounter(COMPACTION_RECLAIMED_BYTES);
+
+        this.youngToColdWrittenBytes = statsLogger.scopeLabel("compactionGeneration", "young")
+                .getCounter(COMPACTION_COLD_WRITTEN_BYTES);
+        this.coldToColdWrittenBytes = statsLogger.scopeLabel("compactionGeneration", "cold")
+                .getCounter(COMPACTION_COLD_WRITTEN_BYTES);
+        this.coldEntryLogCountGauge = new Gauge<Integer>() {
+            @Override
+            public Integer getDefaultValue() {
+                return 0;
+            }
+
+            @Override
+            public Integer getSample() {
+                return coldEntryLogCountSupplier.get();
+            }
+        };
+        statsLogger.registerGauge(COLD_ENTRY_LOG_COUNT, coldEntryLogCountGauge);
+        this.coldEntryLogSpaceBytesGauge = new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return coldEntryLogSpaceBytesSupplier.get();
+            }
+        };
+        statsLogger.registerGauge(COLD_ENTRY_LOG_SPACE_BYTES, coldEntryLogSpaceBytesGauge);
+
+        this.compactionWorkerStats = new CompactionWorkerStats[numCompactionWorkers];
+        for (int i = 0; i < numCompactionWorkers; i++) {
+            compactionWorkerStats[i] = new CompactionWorkerStats(
+                    statsLogger.scopeLabel("compactionWorker", String.valueOf(i)));
+        }
+    }
+
+    public CompactionWorkerStats getCompactionWorkerStats(int worker) {
+        return compactionWorkerStats[worker];
     }
 
 }
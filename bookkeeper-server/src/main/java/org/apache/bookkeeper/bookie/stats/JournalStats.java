@@ -24,13 +24,17 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.FORCE_LEDGER;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_ADD_ENTRY;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_CREATION_LATENCY;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_ENTRY_ARRIVAL_RATE;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_FLUSH_LATENCY;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_FORCE_LEDGER;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_FORCE_WRITE_BATCH_BYTES;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_FORCE_WRITE_BATCH_ENTRIES;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_FORCE_WRITE_ENQUEUE;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_FORCE_WRITE_GROUPING_COUNT;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_FORCE_WRITE_OUTSTANDING;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_FORCE_WRITE_QUEUE_SIZE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_GROUP_COMMIT_BYTES_THRESHOLD;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_GROUP_COMMIT_WAIT;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_MEMORY_MAX;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_MEMORY_USED;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_NUM_FLUSH_EMPTY_QUEUE;
@@ -39,6 +43,9 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_NUM_FLU
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_PROCESS_TIME_LATENCY;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_QUEUE_LATENCY;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_QUEUE_SIZE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_REBOUND_LEDGERS;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_ROUTED_LEDGERS;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_ROUTING_LOAD;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_SCOPE;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_SYNC;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_WRITE_BYTES;
@@ -141,6 +148,11 @@ public class JournalStats {
         help = "The force write queue size"
     )
     private final Counter forceWriteQueueSize;
+    @StatsDoc(
+        name = JOURNAL_FORCE_WRITE_OUTSTANDING,
+        help = "The number of force writes in progress, when several force writes can be outstanding"
+    )
+    private final Counter forceWriteOutstanding;
 
     @StatsDoc(
         name = JOURNAL_NUM_FLUSH_MAX_WAIT,
@@ -172,9 +184,44 @@ public class JournalStats {
             help = "The actual amount of memory in bytes currently used by the bookie journal"
     )
     private final Gauge<Long> journalMemoryUsedStats;
+    @StatsDoc(
+            name = JOURNAL_ROUTING_LOAD,
+            help = "The estimated time in microseconds for the journal to persist its queued entries,"
+                + " used to assign the ledgers to the least loaded journal"
+    )
+    private final Gauge<Long> journalRoutingLoadStats;
+    @StatsDoc(
+            name = JOURNAL_ROUTED_LEDGERS,
+            help = "The number of ledgers assigned to the journal by the adaptive journal routing"
+    )
+    private final Counter journalRoutedLedgers;
+    @StatsDoc(
+            name = JOURNAL_REBOUND_LEDGERS,
+            help = "The number of idle ledgers moved away from the journal by the adaptive journal routing"
+    )
+    private final Counter journalReboundLedgers;
+    @StatsDoc(
+            name = JOURNAL_GROUP_COMMIT_WAIT,
+            help = "The max time in microseconds the journal groups an entry with the following ones before"
+                + " flushing it, as chosen by the group commit policy"
+    )
+    private final Gauge<Long> groupCommitWaitStats;
+    @StatsDoc(
+            name = JOURNAL_GROUP_COMMIT_BYTES_THRESHOLD,
+            help = "The number of buffered bytes after which the journal flushes the grouped entries,"
+                + " as chosen by the group commit policy"
+    )
+    private final Gauge<Long> groupCommitBytesThresholdStats;
+    @StatsDoc(
+            name = JOURNAL_ENTRY_ARRIVAL_RATE,
+            help = "The number of entries added to the journal per second, as measured by the adaptive group commit"
+    )
+    private final Gauge<Long> entryArrivalRateStats;
 
     public JournalStats(StatsLogger statsLogger, final long maxJournalMemoryBytes,
-                        Supplier<Long> currentJournalMemoryBytes) {
+                        Supplier<Long> currentJournalMemoryBytes, Supplier<Long> routingLoadMicros,
+                        Supplier<Long> groupCommitWaitMicros, Supplier<Long> groupCommitBytesThreshold,
+                        Supplier<Long> entryArrivalRate) {
         journalAddEntryStats = statsLogger.getOpStatsLogger(BookKeeperServerStats.JOURNAL_ADD_ENTRY);
         journalForceLedgerStats = statsLogger.getOpStatsLogger(BookKeeperServerStats.JOURNAL_FORCE_LEDGER);
         journalSyncStats = statsLogger.getOpStatsLogger(BookKeeperServerStats.JOURNAL_SYNC);
@@ -190,11 +237,14 @@ public class JournalStats {
         forceWriteBatchBytesStats = statsLogger.getOpStatsLogger(BookKeeperServerStats.JOURNAL_FORCE_WRITE_BATCH_BYTES);
         journalQueueSize = statsLogger.getCounter(BookKeeperServerStats.JOURNAL_QUEUE_SIZE);
         forceWriteQueueSize = statsLogger.getCounter(BookKeeperServerStats.JOURNAL_FORCE_WRITE_QUEUE_SIZE);
+        forceWriteOutstanding = statsLogger.getCounter(JOURNAL_FORCE_WRITE_OUTSTANDING);
         flushMaxWaitCounter = statsLogger.getCounter(BookKeeperServerStats.JOURNAL_NUM_FLUSH_MAX_WAIT);
         flushMaxOutstandingBytesCounter =
                 statsLogger.getCounter(BookKeeperServerStats.JOURNAL_NUM_FLUSH_MAX_OUTSTANDING_BYTES);
         flushEmptyQueueCounter = statsLogger.getCounter(BookKeeperServerStats.JOURNAL_NUM_FLUSH_EMPTY_QUEUE);
         journalWriteBytes = statsLogger.getCounter(BookKeeperServerStats.JOURNAL_WRITE_BYTES);
+        journalRoutedLedgers = statsLogger.getCounter(JOURNAL_ROUTED_LEDGERS);
+        journalReboundLedgers = statsLogger.getCounter(JOURNAL_REBOUND_LEDGERS);
 
         journalMemoryMaxStats = new Gauge<Long>() {
             @Override
@@ -221,6 +271,58 @@ public class JournalStats {
             }
         };
         statsLogger.registerGauge(JOURNAL_MEMORY_USED, journalMemoryUsedStats);
+
+        journalRoutingLoadStats = new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return routingLoadMicros.get();
+            }
+        };
+        statsLogger.registerGauge(JOURNAL_ROUTING_LOAD, journalRoutingLoadStats);
+
+        groupCommitWaitStats = new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return groupCommitWaitMicros.get();
+            }
+        };
+        statsLogger.registerGauge(JOURNAL_GROUP_COMMIT_WAIT, groupCommitWaitStats);
+
+        groupCommitBytesThresholdStats = new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return groupCommitBytesThreshold.get();
+            }
+        };
+        statsLogger.registerGauge(JOURNAL_GROUP_COMMIT_BYTES_THRESHOLD, groupCommitBytesThresholdStats);
+
+        entryArrivalRateStats = new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return entryArrivalRate.get();
+            }
+        };
+        statsLogger.registerGauge(JOURNAL_ENTRY_ARRIVAL_RATE, entryArrivalRateStats);
     }
 
     @VisibleForTesting
@@ -22,6 +22,8 @@ package org.apache.bookkeeper.bookie.storage;
 
 import io.netty.buffer.ByteBuf;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * An entrylog to received compacted entries.
@@ -87,4 +89,21 @@ public interface CompactionEntryLog {
      * Get the log ID of the entrylog which is being compacted.
      */
     long getSrcLogId();
+
+    /**
+     * Add another entrylog to compact into this log, so that the live entries of several
+     * entrylogs are written to a single log. It must be called before the log is flushed.
+     *
+     * @return false if the log only receives the entries of a single entrylog
+     */
+    default boolean addSrcLog(long logToCompact) {
+        return false;
+    }
+
+    /**
+     * Get the log IDs of all the entrylogs which are being compacted into this log.
+     */
+    default List<Long> getSrcLogIds() {
+        return Collections.singletonList(getSrcLogId());
+    }
 }
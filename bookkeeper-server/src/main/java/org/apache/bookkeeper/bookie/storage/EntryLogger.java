@@ -21,8 +21,12 @@
 package org.apache.bookkeeper.bookie.storage;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.FileRegion;
+import io.netty.util.ReferenceCountUtil;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import org.apache.bookkeeper.bookie.AbstractLogCompactor;
 import org.apache.bookkeeper.bookie.Bookie.NoEntryException;
 import org.apache.bookkeeper.bookie.EntryLogMetadata;
@@ -67,6 +71,47 @@ public interface EntryLogger extends AutoCloseable {
     ByteBuf readEntry(long ledgerId, long entryId, long entryLocation)
             throws IOException, NoEntryException;
 
+    /**
+     * Read the entries at a set of entrylog locations. Implementations may coalesce
+     * nearby locations into fewer, larger reads.
+     * @param entryLocations the locations from which to read the entries
+     * @return the entries, in the same order as the locations. The caller must release them.
+     */
+    default List<ByteBuf> readEntries(long[] entryLocations) throws IOException, NoEntryException {
+        List<ByteBuf> entries = new ArrayList<>(entryLocations.length);
+        try {
+            for (long entryLocation : entryLocations) {
+                entries.add(readEntry(entryLocation));
+            }
+        } catch (IOException e) {
+            entries.forEach(ReferenceCountUtil::release);
+            throw e;
+        }
+        return entries;
+    }
+
+    /**
+     * Get the region of the entry log file where an entry is stored, so that the entry can be
+     * transferred from the file without being copied into memory. The entry is verified to match
+     * the expected ledger and entry ID.
+     * @param ledgerId the ledgerID to match
+     * @param entryId the entryID to match
+     * @param entryLocation the location of the entry
+     * @return the region of the entry, or null if it should be read with {@link #readEntry(long, long, long)}
+     *         instead. The caller must release it.
+     */
+    default FileRegion readEntryRegion(long ledgerId, long entryId, long entryLocation)
+            throws IOException, NoEntryException {
+        return null;
+    }
+
+    /**
+     * @return whether {@link #readEntries(long[])} is cheaper than reading the entries one by one.
+     */
+    default boolean supportsVectoredReads() {
+        return false;
+    }
+
     /**
      * Flush any outstanding writes to disk.
      */
@@ -78,7 +123,8 @@ public interface EntryLogger extends AutoCloseable {
     /**
      * Create a new entrylog into which compacted entries can be added.
      * There is a 1-1 mapping between logs that are being compacted
-     * and the log the compacted entries are written to.
+     * and the log the compacted entries are written to, unless more
+     * logs are added with {@link CompactionEntryLog#addSrcLog(long)}.
      */
     CompactionEntryLog newCompactionLog(long logToCompact) throws IOException;
 
@@ -23,6 +23,7 @@ package org.apache.bookkeeper.bookie.storage.directentrylogger;
 import io.netty.buffer.ByteBufAllocator;
 import java.io.IOException;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.bookkeeper.common.util.nativeio.NativeIO;
 
 /**
@@ -30,15 +31,48 @@ import org.apache.bookkeeper.common.util.nativeio.NativeIO;
  */
 public class BufferPool implements AutoCloseable {
     private final ArrayBlockingQueue<Buffer> pool;
+    private final NativeIO nativeIO;
+    private final ByteBufAllocator allocator;
+    private final int bufferSize;
+    private final int maxPoolSize;
+    private final AtomicInteger allocated = new AtomicInteger();
 
     BufferPool(NativeIO nativeIO, ByteBufAllocator allocator, int bufferSize, int maxPoolSize) throws IOException {
+        this(nativeIO, allocator, bufferSize, maxPoolSize, true);
+    }
+
+    /**
+     * @param preallocate whether to allocate all the buffers upfront, instead of when they are first acquired.
+     */
+    BufferPool(NativeIO nativeIO, ByteBufAllocator allocator, int bufferSize, int maxPoolSize,
+               boolean preallocate) throws IOException {
+        this.nativeIO = nativeIO;
+        this.allocator = allocator;
+        this.bufferSize = bufferSize;
+        this.maxPoolSize = maxPoolSize;
         pool = new ArrayBlockingQueue<>(maxPoolSize);
-        for (int i = 0; i < maxPoolSize; i++) {
-            pool.add(new Buffer(nativeIO, allocator, bufferSize));
+        if (preallocate) {
+            for (int i = 0; i < maxPoolSize; i++) {
+                pool.add(new Buffer(nativeIO, allocator, bufferSize));
+            }
+            allocated.set(maxPoolSize);
         }
     }
 
     Buffer acquire() throws IOException {
+        Buffer buffer = pool.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+
+        int count = allocated.get();
+        while (count < maxPoolSize) {
+            if (allocated.compareAndSet(count, count + 1)) {
+                return new Buffer(nativeIO, allocator, bufferSize);
+            }
+            count = allocated.get();
+        }
+
         try {
             return pool.take();
         } catch (InterruptedException ie) {
@@ -33,6 +33,7 @@ import java.util.concurrent.ExecutorService;
 import org.apache.bookkeeper.bookie.EntryLogMetadata;
 import org.apache.bookkeeper.bookie.storage.CompactionEntryLog;
 import org.apache.bookkeeper.bookie.storage.EntryLogScanner;
+import org.apache.bookkeeper.common.util.nativeio.AsyncNativeIO;
 import org.apache.bookkeeper.common.util.nativeio.NativeIO;
 import org.apache.bookkeeper.slogger.Slogger;
 import org.apache.bookkeeper.stats.OpStatsLogger;
@@ -56,11 +57,12 @@ public abstract class DirectCompactionEntryLog implements CompactionEntryLog {
                                      ExecutorService writeExecutor,
                                      BufferPool writeBuffers,
                                      NativeIO nativeIO,
+                                     AsyncNativeIO asyncNativeIO,
                                      ByteBufAllocator allocator,
                                      Slogger slog) throws IOException {
         return new WritingDirectCompactionEntryLog(
                 srcLogId, dstLogId, ledgerDir, maxFileSize,
-                writeExecutor, writeBuffers, nativeIO, allocator, slog);
+                writeExecutor, writeBuffers, nativeIO, asyncNativeIO, allocator, slog);
     }
 
     static CompactionEntryLog recoverLog(int srcLogId,
@@ -222,13 +224,14 @@ public abstract class DirectCompactionEntryLog implements CompactionEntryLog {
                                         ExecutorService writeExecutor,
                                         BufferPool writeBuffers,
                                         NativeIO nativeIO,
+                                        AsyncNativeIO asyncNativeIO,
                                         ByteBufAllocator allocator,
                                         Slogger slog) throws IOException {
             super(srcLogId, dstLogId, ledgerDir, slog);
 
             this.writer = new WriterWithMetadata(
                     new DirectWriter(dstLogId, compactingFile.toString(), maxFileSize,
-                                     writeExecutor, writeBuffers, nativeIO, slog),
+                                     writeExecutor, writeBuffers, nativeIO, asyncNativeIO, slog),
                     new EntryLogMetadata(dstLogId),
                     allocator);
 
@@ -25,23 +25,21 @@ import static org.apache.bookkeeper.bookie.TransactionalEntryLogCompactor.COMPAC
 import static org.apache.bookkeeper.common.util.ExceptionMessageHelper.exMsg;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.RemovalListener;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
 import io.netty.util.ReferenceCountUtil;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
@@ -55,6 +53,7 @@ import org.apache.bookkeeper.bookie.storage.CompactionEntryLog;
 import org.apache.bookkeeper.bookie.storage.EntryLogIds;
 import org.apache.bookkeeper.bookie.storage.EntryLogScanner;
 import org.apache.bookkeeper.bookie.storage.EntryLogger;
+import org.apache.bookkeeper.common.util.nativeio.AsyncNativeIO;
 import org.apache.bookkeeper.common.util.nativeio.NativeIO;
 import org.apache.bookkeeper.slogger.Slogger;
 import org.apache.bookkeeper.stats.StatsLogger;
@@ -81,10 +80,13 @@ public class DirectEntryLogger implements EntryLogger {
 
     private List<Future<?>> pendingFlushes;
     private final NativeIO nativeIO;
-    private final List<Cache<?, ?>> allCaches = new CopyOnWriteArrayList<>();
-    private final ThreadLocal<Cache<Integer, LogReader>> caches;
+    private final AsyncNativeIO asyncNativeIO;
+    private final BufferPool readBuffers;
+    private final LogReaderPool readers;
 
     private static final int NUMBER_OF_WRITE_BUFFERS = 8;
+    // Locations further apart are read separately, so as not to read too much unrequested data between them
+    private static final long MAX_COALESCED_DISTANCE = 1024 * 1024;
 
     public DirectEntryLogger(File ledgerDir,
                              EntryLogIds ids,
@@ -101,11 +103,39 @@ public class DirectEntryLogger implements EntryLogger {
                              int maxFdCacheTimeSeconds,
                              Slogger slogParent,
                              StatsLogger stats) throws IOException {
+        this(ledgerDir, ids, nativeIO, null, allocator, writeExecutor, flushExecutor, maxFileSize,
+             maxSaneEntrySize, totalWriteBufferSize, totalReadBufferSize, readBufferSize, numReadThreads,
+             maxFdCacheTimeSeconds, slogParent, stats);
+    }
+
+    /**
+     * Create a direct entry logger.
+     *
+     * @param asyncNativeIO if not null, used to submit the writes of the logs asynchronously instead of
+     *                      running them on the write executor. It is closed with the entry logger.
+     */
+    public DirectEntryLogger(File ledgerDir,
+                             EntryLogIds ids,
+                             NativeIO nativeIO,
+                             AsyncNativeIO asyncNativeIO,
+                             ByteBufAllocator allocator,
+                             ExecutorService writeExecutor,
+                             ExecutorService flushExecutor,
+                             long maxFileSize,
+                             int maxSaneEntrySize,
+                             long totalWriteBufferSize,
+                             long totalReadBufferSize,
+                             int readBufferSize,
+                             int numReadThreads,
+                             int maxFdCacheTimeSeconds,
+                             Slogger slogParent,
+                             StatsLogger stats) throws IOException {
         this.ledgerDir = ledgerDir;
         this.flushExecutor = flushExecutor;
         this.writeExecutor = writeExecutor;
         this.pendingFlushes = new ArrayList<>();
         this.nativeIO = nativeIO;
+        this.asyncNativeIO = asyncNativeIO;
         this.unflushedLogs = ConcurrentHashMap.newKeySet();
 
         this.maxFileSize = maxFileSize;
@@ -121,25 +151,16 @@ public class DirectEntryLogger implements EntryLogger {
         int singleWriteBufferSize = Buffer.nextAlignment((int) (totalWriteBufferSize / NUMBER_OF_WRITE_BUFFERS));
         this.writeBuffers = new BufferPool(nativeIO, allocator, singleWriteBufferSize, NUMBER_OF_WRITE_BUFFERS);
 
-        // The total read buffer memory needs to get split across all the read threads, since the caches
-        // are thread-specific and we want to ensure we don't pass the total memory limit.
-        long perThreadBufferSize = totalReadBufferSize / numReadThreads;
-
-        // if the amount of total read buffer size is too low, and/or the number of read threads is too high
-        // then the perThreadBufferSize can be lower than the readBufferSize causing immediate eviction of readers
-        // from the cache
-        if (perThreadBufferSize < readBufferSize) {
-            slog.kv("reason", "perThreadBufferSize lower than readBufferSize (causes immediate reader cache eviction)")
+        // The readers are shared by all the read threads, each open reader can hold a read buffer
+        int maxCachedReaders = (int) Math.min(Integer.MAX_VALUE, totalReadBufferSize / this.readBufferSize);
+        if (maxCachedReaders < 1) {
+            slog.kv("reason", "totalReadBufferSize lower than readBufferSize (causes immediate reader eviction)")
                 .kv("totalReadBufferSize", totalReadBufferSize)
-                .kv("totalNumReadThreads", numReadThreads)
                 .kv("readBufferSize", readBufferSize)
-                .kv("perThreadBufferSize", perThreadBufferSize)
                 .error(Events.ENTRYLOGGER_MISCONFIGURED);
+            maxCachedReaders = 1;
         }
 
-        long maxCachedReadersPerThread = perThreadBufferSize / readBufferSize;
-        long maxCachedReaders = maxCachedReadersPerThread * numReadThreads;
-
         this.slog
             .kv("maxFileSize", maxFileSize)
             .kv("maxSaneEntrySize", maxSaneEntrySize)
@@ -147,30 +168,26 @@ public class DirectEntryLogger implements EntryLogger {
             .kv("singleWriteBufferSize", singleWriteBufferSize)
             .kv("totalReadBufferSize", totalReadBufferSize)
             .kv("readBufferSize", readBufferSize)
-            .kv("perThreadBufferSize", perThreadBufferSize)
-            .kv("maxCachedReadersPerThread", maxCachedReadersPerThread)
+            .kv("numReadThreads", numReadThreads)
             .kv("maxCachedReaders", maxCachedReaders)
             .info(Events.ENTRYLOGGER_CREATED);
 
-        this.caches = ThreadLocal.withInitial(() -> {
-            RemovalListener<Integer, LogReader> rl = (notification) -> {
-                try {
-                    notification.getValue().close();
-                    this.stats.getCloseReaderCounter().inc();
-                } catch (IOException ioe) {
-                    slog.kv("logID", notification.getKey()).error(Events.READER_CLOSE_ERROR);
-                }
-            };
-            Cache<Integer, LogReader> cache = CacheBuilder.newBuilder()
-                    .maximumWeight(perThreadBufferSize)
-                    .weigher((key, value) -> readBufferSize)
-                    .removalListener(rl)
-                    .expireAfterAccess(maxFdCacheTimeSeconds, TimeUnit.SECONDS)
-                    .concurrencyLevel(1) // important to avoid too aggressive eviction
-                    .build();
-            allCaches.add(cache);
-            return cache;
-        });
+        this.readBuffers = new BufferPool(nativeIO, allocator, this.readBufferSize, maxCachedReaders, false);
+        this.readers = new LogReaderPool(
+                logId -> {
+                    this.stats.getOpenReaderCounter().inc();
+                    return new DirectReader(logId, logFilename(ledgerDir, logId), allocator, nativeIO,
+                                            readBuffers, this.readBufferSize, maxSaneEntrySize,
+                                            this.stats.getReadBlockStats());
+                },
+                (logId, error) -> {
+                    if (error != null) {
+                        slog.kv("logID", logId).error(Events.READER_CLOSE_ERROR);
+                    } else {
+                        this.stats.getCloseReaderCounter().inc();
+                    }
+                },
+                maxCachedReaders, maxFdCacheTimeSeconds);
     }
 
     @Override
@@ -211,30 +228,108 @@ public class DirectEntryLogger implements EntryLogger {
         return internalReadEntry(ledgerId, entryId, entryLocation, true);
     }
 
-    private LogReader getReader(int logId) throws IOException {
-        Cache<Integer, LogReader> cache = caches.get();
+    /**
+     * Read the entries at the given locations. Locations of the same log which are close to each
+     * other are read with a single read of the span covering them, and the entries are returned as
+     * slices of that span, without copying. A span is freed once all of its entries are released.
+     */
+    @Override
+    public List<ByteBuf> readEntries(long[] entryLocations) throws IOException, NoEntryException {
+        final int count = entryLocations.length;
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(entryLocations[a], entryLocations[b]));
+
+        long start = System.nanoTime();
+        ByteBuf[] entries = new ByteBuf[count];
+        boolean success = false;
         try {
-            LogReader reader = cache.get(logId, () -> {
-                this.stats.getOpenReaderCounter().inc();
-                return newDirectReader(logId);
-            });
+            int runStart = 0;
+            while (runStart < count) {
+                long firstLocation = entryLocations[order[runStart]];
+                long maxDistance = 0;
+                int runEnd = runStart + 1;
+                while (runEnd < count) {
+                    long nextLocation = entryLocations[order[runEnd]];
+                    long distance = nextLocation - entryLocations[order[runEnd - 1]];
+                    if ((nextLocation >> 32) != (firstLocation >> 32)
+                            || distance > MAX_COALESCED_DISTANCE
+                            || nextLocation - firstLocation + Math.max(maxDistance, distance) > readBufferSize) {
+                        break;
+                    }
+                    maxDistance = Math.max(maxDistance, distance);
+                    runEnd++;
+                }
 
-            // it is possible though unlikely, that the cache has already cleaned up this cache entry
-            // during the get operation. This is more likely to happen when there is great demand
-            // for many separate readers in a low memory environment.
-            if (reader.isClosed()) {
-                this.stats.getCachedReadersServedClosedCounter().inc();
-                throw new IOException(exMsg("Cached reader already closed").kv("logId", logId).toString());
+                if (runEnd - runStart == 1) {
+                    entries[order[runStart]] = internalReadEntry(-1L, -1L, firstLocation, false);
+                } else {
+                    // The size of the last entry of the run is not known, assume it's not larger than the
+                    // largest distance between the locations of the run
+                    readSpan(entryLocations, order, runStart, runEnd, maxDistance, entries);
+                }
+                runStart = runEnd;
             }
-
-            return reader;
-        } catch (ExecutionException ee) {
-            if (ee.getCause() instanceof IOException) {
-                throw (IOException) ee.getCause();
+            success = true;
+        } finally {
+            if (success) {
+                stats.getReadEntriesStats().registerSuccessfulEvent(System.nanoTime() - start, TimeUnit.NANOSECONDS);
             } else {
-                throw new IOException(exMsg("Error loading reader in cache").kv("logId", logId).toString(), ee);
+                stats.getReadEntriesStats().registerFailedEvent(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                for (ByteBuf entry : entries) {
+                    ReferenceCountUtil.release(entry);
+                }
             }
         }
+        return Arrays.asList(entries);
+    }
+
+    @Override
+    public boolean supportsVectoredReads() {
+        return true;
+    }
+
+    private void readSpan(long[] entryLocations, Integer[] order, int from, int to, long lastEntrySize,
+                          ByteBuf[] entries) throws IOException {
+        long firstLocation = entryLocations[order[from]];
+        long lastLocation = entryLocations[order[to - 1]];
+        long spanStart = (firstLocation & 0xFFFFFFFFL) - Integer.BYTES;
+        int spanSize = (int) (lastLocation - firstLocation + Integer.BYTES + lastEntrySize);
+
+        ByteBuf span;
+        try (LogReader reader = getReader((int) (firstLocation >> 32))) {
+            span = reader.readSpanAt(spanStart, spanSize);
+        } catch (EOFException eof) {
+            span = Unpooled.EMPTY_BUFFER;
+        }
+        try {
+            for (int i = from; i < to; i++) {
+                long location = entryLocations[order[i]];
+                int offsetInSpan = (int) (location - firstLocation) + Integer.BYTES;
+                ByteBuf entry = null;
+                if (offsetInSpan <= span.readableBytes()) {
+                    int entrySize = span.getInt(span.readerIndex() + offsetInSpan - Integer.BYTES);
+                    if (entrySize > 0 && entrySize <= maxSaneEntrySize
+                            && offsetInSpan + entrySize <= span.readableBytes()) {
+                        entry = span.retainedSlice(span.readerIndex() + offsetInSpan, entrySize);
+                    }
+                }
+                if (entry == null) {
+                    // The entry doesn't fit in the span, or the span was read from preallocated space which
+                    // has been written since. Let the reader deal with it.
+                    entry = internalReadEntry(-1L, -1L, location, false);
+                }
+                entries[order[i]] = entry;
+            }
+        } finally {
+            ReferenceCountUtil.release(span);
+        }
+    }
+
+    private LogReader getReader(int logId) throws IOException {
+        return readers.acquire(logId);
     }
 
     private ByteBuf internalReadEntry(long ledgerId, long entryId, long location, boolean validateEntry)
@@ -243,9 +338,7 @@ public class DirectEntryLogger implements EntryLogger {
         int pos = (int) (location & 0xFFFFFFFF);
 
         long start = System.nanoTime();
-        LogReader reader = getReader(logId);
-
-        try {
+        try (LogReader reader = getReader(logId)) {
             ByteBuf buf = reader.readEntryAt(pos);
             if (validateEntry) {
                 long thisLedgerId = buf.getLong(0);
@@ -358,11 +451,12 @@ public class DirectEntryLogger implements EntryLogger {
         flushAndCloseCurrent(); // appends metadata to current log
         flush(); // wait for all outstanding flushes
 
-        for (Cache<?, ?> c : allCaches) {
-            c.invalidateAll();
-        }
-
+        readers.close();
+        readBuffers.close();
         writeBuffers.close();
+        if (asyncNativeIO != null) {
+            asyncNativeIO.close();
+        }
     }
 
     @Override
@@ -376,6 +470,7 @@ public class DirectEntryLogger implements EntryLogger {
     @Override
     public boolean removeEntryLog(long entryLogId) {
         checkArgument(entryLogId < Integer.MAX_VALUE, "Entry log id must be an int [%d]", entryLogId);
+        readers.invalidate((int) entryLogId);
         File file = logFile(ledgerDir, (int) entryLogId);
         boolean result = file.delete();
         slog.kv("file", file).kv("logId", entryLogId).kv("result", result).info(Events.LOG_DELETED);
@@ -450,7 +545,7 @@ public class DirectEntryLogger implements EntryLogger {
     private LogWriter newDirectWriter(int newId) throws IOException {
         unflushedLogs.add(newId);
         LogWriter writer = new DirectWriter(newId, logFilename(ledgerDir, newId), maxFileSize,
-                                            writeExecutor, writeBuffers, nativeIO, slog);
+                                            writeExecutor, writeBuffers, nativeIO, asyncNativeIO, slog);
         ByteBuf buf = allocator.buffer(Buffer.ALIGNMENT);
         try {
             Header.writeEmptyHeader(buf);
@@ -475,7 +570,7 @@ public class DirectEntryLogger implements EntryLogger {
         int dstLogId = ids.nextId();
         return DirectCompactionEntryLog.newLog((int) srcLogId, dstLogId, ledgerDir,
                                                maxFileSize, writeExecutor, writeBuffers,
-                                               nativeIO, allocator, slog);
+                                               nativeIO, asyncNativeIO, allocator, slog);
     }
 
     @Override
@@ -37,12 +37,12 @@ import org.apache.bookkeeper.stats.annotations.StatsDoc;
 class DirectEntryLoggerStats {
     private static final String ADD_ENTRY = "entrylog-add-entry";
     private static final String READ_ENTRY = "entrylog-read-entry";
+    private static final String READ_ENTRIES = "entrylog-read-entries";
     private static final String FLUSH = "entrylog-flush";
     private static final String WRITER_FLUSH = "entrylog-writer-flush";
     private static final String READ_BLOCK = "entrylog-read-block";
     private static final String READER_OPEN = "entrylog-open-reader";
     private static final String READER_CLOSE = "entrylog-close-reader";
-    private static final String CACHED_READER_SERVED_CLOSED = "entrylog-cached-reader-closed";
 
     @StatsDoc(
               name = ADD_ENTRY,
@@ -58,6 +58,12 @@ class DirectEntryLoggerStats {
     )
     private static ThreadLocal<OpStatsLogger> readEntryStats;
 
+    @StatsDoc(
+              name = READ_ENTRIES,
+              help = "Operation stats of reading batches of entries from the entry log"
+    )
+    private final OpStatsLogger readEntriesStats;
+
     @StatsDoc(
               name = FLUSH,
               help = "Stats for persisting outstanding entrylog writes to disk"
@@ -88,14 +94,9 @@ class DirectEntryLoggerStats {
     )
     private static ThreadLocal<Counter> closeReaderStats;
 
-    @StatsDoc(
-            name = CACHED_READER_SERVED_CLOSED,
-            help = "Stats for cached readers being served closed"
-    )
-    private static ThreadLocal<Counter> cachedReadersServedClosed;
-
     DirectEntryLoggerStats(StatsLogger stats) {
         addEntryStats = stats.getOpStatsLogger(ADD_ENTRY);
+        readEntriesStats = stats.getOpStatsLogger(READ_ENTRIES);
 
         flushStats = stats.getOpStatsLogger(FLUSH);
         writerFlushStats = stats.getOpStatsLogger(WRITER_FLUSH);
@@ -133,20 +134,16 @@ class DirectEntryLoggerStats {
                     .getCounter(READER_CLOSE);
             }
         };
-
-        DirectEntryLoggerStats.cachedReadersServedClosed = new ThreadLocal<Counter>() {
-            @Override
-            public Counter initialValue() {
-                return stats.scopeLabel("thread", String.valueOf(Thread.currentThread().getId()))
-                    .getCounter(CACHED_READER_SERVED_CLOSED);
-            }
-        };
     }
 
     OpStatsLogger getAddEntryStats() {
         return addEntryStats;
     }
 
+    OpStatsLogger getReadEntriesStats() {
+        return readEntriesStats;
+    }
+
     OpStatsLogger getFlushStats() {
         return flushStats;
     }
@@ -170,8 +167,4 @@ class DirectEntryLoggerStats {
     Counter getCloseReaderCounter() {
         return closeReaderStats.get();
     }
-
-    Counter getCachedReadersServedClosedCounter() {
-        return cachedReadersServedClosed.get();
-    }
 }
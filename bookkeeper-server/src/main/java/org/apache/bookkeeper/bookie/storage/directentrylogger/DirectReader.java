@@ -29,6 +29,7 @@ import io.netty.util.ReferenceCountUtil;
 import java.io.EOFException;
 import java.io.IOException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import org.apache.bookkeeper.common.util.nativeio.NativeIO;
 import org.apache.bookkeeper.common.util.nativeio.NativeIOException;
 import org.apache.bookkeeper.stats.OpStatsLogger;
@@ -36,7 +37,9 @@ import org.apache.bookkeeper.stats.OpStatsLogger;
 class DirectReader implements LogReader {
     private final ByteBufAllocator allocator;
     private final NativeIO nativeIO;
-    private final Buffer nativeBuffer;
+    private final BufferPool bufferPool;
+    private final ReentrantLock blockLock = new ReentrantLock();
+    private Buffer nativeBuffer;
     private final String filename;
     private final int logId;
     private final int fd;
@@ -45,12 +48,25 @@ class DirectReader implements LogReader {
     private long currentBlock = -1;
     private long currentBlockEnd = -1;
     private long maxOffset;
-    private boolean closed;
+    private volatile boolean closed;
 
     DirectReader(int logId, String filename, ByteBufAllocator allocator,
                  NativeIO nativeIO, int bufferSize,
                  int maxSaneEntrySize, OpStatsLogger readBlockStats) throws IOException {
+        this(logId, filename, allocator, nativeIO, null, bufferSize, maxSaneEntrySize, readBlockStats);
+    }
+
+    /**
+     * Create a reader which can be shared by multiple threads.
+     *
+     * @param bufferPool if not null, the block buffer is taken from the pool on the first read and
+     *                   given back when the reader is closed
+     */
+    DirectReader(int logId, String filename, ByteBufAllocator allocator,
+                 NativeIO nativeIO, BufferPool bufferPool, int bufferSize,
+                 int maxSaneEntrySize, OpStatsLogger readBlockStats) throws IOException {
         this.nativeIO = nativeIO;
+        this.bufferPool = bufferPool;
         this.allocator = allocator;
         this.logId = logId;
         this.filename = filename;
@@ -69,7 +85,9 @@ class DirectReader implements LogReader {
                                   .kv("errno", ne.getErrno()).toString());
         }
         refreshMaxOffset();
-        nativeBuffer = new Buffer(nativeIO, allocator, bufferSize);
+        if (bufferPool == null) {
+            nativeBuffer = new Buffer(nativeIO, allocator, bufferSize);
+        }
     }
 
     @Override
@@ -78,9 +96,12 @@ class DirectReader implements LogReader {
     }
 
     private void clearCache() {
-        synchronized (nativeBuffer) {
+        blockLock.lock();
+        try {
             currentBlock = -1;
             currentBlockEnd = -1;
+        } finally {
+            blockLock.unlock();
         }
     }
 
@@ -100,19 +121,23 @@ class DirectReader implements LogReader {
     @Override
     public void readIntoBufferAt(ByteBuf buffer, long offset, int size) throws IOException, EOFException {
         assertValidOffset(offset);
-        synchronized (nativeBuffer) {
+        blockLock.lock();
+        try {
             while (size > 0) {
                 int bytesRead = readBytesIntoBuf(buffer, offset, size);
                 size -= bytesRead;
                 offset += bytesRead;
             }
+        } finally {
+            blockLock.unlock();
         }
     }
 
     @Override
     public int readIntAt(long offset) throws IOException, EOFException {
         assertValidOffset(offset);
-        synchronized (nativeBuffer) {
+        blockLock.lock();
+        try {
             if (offset >= currentBlock && offset + Integer.BYTES <= currentBlockEnd) { // fast path
                 return nativeBuffer.readInt(offsetInBlock(offset));
             } else { // slow path
@@ -123,13 +148,16 @@ class DirectReader implements LogReader {
                     ReferenceCountUtil.release(intBuf);
                 }
             }
+        } finally {
+            blockLock.unlock();
         }
     }
 
     @Override
     public long readLongAt(long offset) throws IOException, EOFException {
         assertValidOffset(offset);
-        synchronized (nativeBuffer) {
+        blockLock.lock();
+        try {
             if (offset >= currentBlock && offset + Long.BYTES <= currentBlockEnd) { // fast path
                 return nativeBuffer.readLong(offsetInBlock(offset));
             } else { // slow path
@@ -140,11 +168,14 @@ class DirectReader implements LogReader {
                     ReferenceCountUtil.release(longBuf);
                 }
             }
+        } finally {
+            blockLock.unlock();
         }
     }
 
     private int readBytesIntoBuf(ByteBuf buf, long offset, int size) throws IOException, EOFException {
-        synchronized (nativeBuffer) {
+        blockLock.lock();
+        try {
             if (offset < currentBlock || offset >= currentBlockEnd) {
                 readBlock(offset);
             }
@@ -158,6 +189,8 @@ class DirectReader implements LogReader {
                                       .kv("size", size).toString());
             }
             return nativeBuffer.readByteBuf(buf, offsetInBuffer, size);
+        } finally {
+            blockLock.unlock();
         }
     }
 
@@ -171,6 +204,23 @@ class DirectReader implements LogReader {
                                   .kv("offset", offset).toString());
         }
 
+        if (!blockLock.tryLock()) {
+            // Another thread is using the block buffer, read the entry straight from the file instead of waiting
+            ByteBuf entry = readEntryUncached(offset);
+            if (entry != null) {
+                return entry;
+            }
+            blockLock.lock();
+        }
+        try {
+            return readEntryFromBlock(offset);
+        } finally {
+            blockLock.unlock();
+        }
+    }
+
+    private ByteBuf readEntryFromBlock(int offset) throws IOException, EOFException {
+        int sizeOffset = offset - Integer.BYTES;
         int entrySize = readIntAt(sizeOffset);
         if (entrySize == 0) {
             // reading an entry with size 0 may mean reading from preallocated
@@ -191,7 +241,90 @@ class DirectReader implements LogReader {
         return readBufferAt(offset, entrySize);
     }
 
+    /**
+     * Read an entry with direct reads of the file, bypassing the block buffer.
+     * @return the entry, or null if its size could not be read as valid, in which case the
+     *         block buffer path should be used to report the error or refresh a stale view
+     */
+    private ByteBuf readEntryUncached(int offset) throws IOException {
+        int sizeOffset = offset - Integer.BYTES;
+        try {
+            ByteBuf span = readSpanAt(sizeOffset, Buffer.ALIGNMENT);
+            int entrySize = span.readableBytes() >= Integer.BYTES ? span.getInt(span.readerIndex()) : 0;
+            boolean validSize = entrySize > 0 && entrySize <= maxSaneEntrySize;
+            if (validSize && span.readableBytes() < Integer.BYTES + entrySize) {
+                ReferenceCountUtil.release(span);
+                span = readSpanAt(sizeOffset, Integer.BYTES + entrySize);
+            }
+
+            try {
+                if (!validSize || span.readableBytes() < Integer.BYTES + entrySize) {
+                    return null;
+                }
+                return span.retainedSlice(span.readerIndex() + Integer.BYTES, entrySize);
+            } finally {
+                ReferenceCountUtil.release(span);
+            }
+        } catch (EOFException eof) {
+            return null;
+        }
+    }
+
+    @Override
+    public ByteBuf readSpanAt(long offset, int size) throws IOException {
+        assertValidOffset(offset);
+        final long spanStart = offset & ~(Buffer.ALIGNMENT - 1);
+        final int spanSize = Buffer.nextAlignment((int) (offset - spanStart) + size);
+        final long startNs = System.nanoTime();
+
+        // The span is read straight into the returned buffer, so its memory must be aligned for direct I/O
+        ByteBuf buf = allocator.directBuffer(spanSize + Buffer.ALIGNMENT);
+        long addr = buf.memoryAddress();
+        int alignOffset = (int) ((Buffer.ALIGNMENT - (addr & (Buffer.ALIGNMENT - 1))) & (Buffer.ALIGNMENT - 1));
+
+        int bytesFilled = 0;
+        try {
+            while (bytesFilled < spanSize) {
+                long bytesRead = nativeIO.pread(fd, addr + alignOffset + bytesFilled,
+                                                spanSize - bytesFilled, spanStart + bytesFilled);
+                if (bytesRead <= 0) {
+                    break;
+                }
+                bytesFilled += (int) bytesRead;
+                if (!Buffer.isAligned(bytesRead)) {
+                    // only the read reaching the end of the file can be unaligned
+                    break;
+                }
+            }
+        } catch (NativeIOException ne) {
+            ReferenceCountUtil.release(buf);
+            readBlockStats.registerFailedEvent(System.nanoTime() - startNs, TimeUnit.NANOSECONDS);
+            throw new IOException(exMsg(ne.getMessage())
+                                  .kv("requestedBytes", spanSize)
+                                  .kv("offset", spanStart)
+                                  .kv("bytesFilled", bytesFilled)
+                                  .kv("file", filename)
+                                  .kv("fd", fd)
+                                  .kv("errno", ne.getErrno()).toString());
+        }
+        readBlockStats.registerSuccessfulEvent(System.nanoTime() - startNs, TimeUnit.NANOSECONDS);
+
+        int readerIndex = alignOffset + (int) (offset - spanStart);
+        int writerIndex = alignOffset + bytesFilled;
+        if (writerIndex < readerIndex) {
+            ReferenceCountUtil.release(buf);
+            throw new EOFException(exMsg("Span beyond end of file")
+                                   .kv("file", filename)
+                                   .kv("offset", offset)
+                                   .kv("size", size).toString());
+        }
+        return buf.setIndex(readerIndex, Math.min(writerIndex, readerIndex + size));
+    }
+
     void readBlock(long offset) throws IOException {
+        if (nativeBuffer == null) {
+            nativeBuffer = bufferPool.acquire();
+        }
         final int blockSize = nativeBuffer.size();
         assertValidBlockSize(blockSize);
         final long blockStart = offset & ~(blockSize - 1);
@@ -248,8 +381,16 @@ class DirectReader implements LogReader {
 
     @Override
     public void close() throws IOException {
-        synchronized (nativeBuffer) {
-            nativeBuffer.free();
+        blockLock.lock();
+        try {
+            if (bufferPool == null) {
+                nativeBuffer.free();
+            } else if (nativeBuffer != null) {
+                bufferPool.release(nativeBuffer);
+                nativeBuffer = null;
+            }
+        } finally {
+            blockLock.unlock();
         }
 
         try {
@@ -29,8 +29,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import org.apache.bookkeeper.common.util.nativeio.AsyncNativeIO;
 import org.apache.bookkeeper.common.util.nativeio.NativeIO;
 import org.apache.bookkeeper.common.util.nativeio.NativeIOException;
 import org.apache.bookkeeper.slogger.Slogger;
@@ -38,6 +40,8 @@ import org.apache.commons.lang3.SystemUtils;
 
 class DirectWriter implements LogWriter {
     final NativeIO nativeIO;
+    // If set, the writes are submitted asynchronously instead of running on the write executor
+    final AsyncNativeIO asyncNativeIO;
     final int fd;
     final int id;
     final String filename;
@@ -56,11 +60,23 @@ class DirectWriter implements LogWriter {
                  ExecutorService writeExecutor,
                  BufferPool bufferPool,
                  NativeIO nativeIO, Slogger slog) throws IOException {
+        this(id, filename, maxFileSize, writeExecutor, bufferPool, nativeIO, null, slog);
+    }
+
+    DirectWriter(int id,
+                 String filename,
+                 long maxFileSize,
+                 ExecutorService writeExecutor,
+                 BufferPool bufferPool,
+                 NativeIO nativeIO,
+                 AsyncNativeIO asyncNativeIO,
+                 Slogger slog) throws IOException {
         checkArgument(maxFileSize > 0, "Max file size (%d) must be positive");
         this.id = id;
         this.filename = filename;
         this.writeExecutor = writeExecutor;
         this.nativeIO = nativeIO;
+        this.asyncNativeIO = asyncNativeIO;
         this.slog = slog.ctx(DirectWriter.class);
 
         offset = 0;
@@ -124,11 +140,35 @@ class DirectWriter implements LogWriter {
         Buffer tmpBuffer = bufferPool.acquire();
         tmpBuffer.reset();
         tmpBuffer.writeByteBuf(buf);
-        Future<?> f = writeExecutor.submit(() -> {
-            writeByteBuf(tmpBuffer, bytesToWrite, offset);
-            return null;
+        addOutstandingWrite(submitWrite(tmpBuffer, bytesToWrite, offset));
+    }
+
+    private Future<?> submitWrite(Buffer buffer, int bytesToWrite, long offsetToWrite) {
+        if (asyncNativeIO == null) {
+            return writeExecutor.submit(() -> {
+                writeByteBuf(buffer, bytesToWrite, offsetToWrite);
+                return null;
             });
-        addOutstandingWrite(f);
+        }
+
+        return asyncNativeIO.pwrite(fd, buffer.pointer(), bytesToWrite, offsetToWrite).handle((ret, t) -> {
+            try {
+                if (t != null) {
+                    Throwable cause = t instanceof CompletionException ? t.getCause() : t;
+                    if (cause instanceof NativeIOException) {
+                        throw new CompletionException(writeError(buffer, bytesToWrite, offsetToWrite,
+                                                                 (NativeIOException) cause));
+                    }
+                    throw new CompletionException(new IOException(cause));
+                }
+                if (ret != bytesToWrite) {
+                    throw new CompletionException(incompleteWrite(buffer, bytesToWrite, offsetToWrite, ret));
+                }
+                return null;
+            } finally {
+                bufferPool.release(buffer);
+            }
+        });
     }
 
     private void writeByteBuf(Buffer buffer, int bytesToWrite, long offsetToWrite) throws IOException{
@@ -138,27 +178,35 @@ class DirectWriter implements LogWriter {
             }
             int ret = nativeIO.pwrite(fd, buffer.pointer(), bytesToWrite, offsetToWrite);
             if (ret != bytesToWrite) {
-                throw new IOException(exMsg("Incomplete write")
-                    .kv("filename", filename)
-                    .kv("pointer", buffer.pointer())
-                    .kv("offset", offsetToWrite)
-                    .kv("writeSize", bytesToWrite)
-                    .kv("bytesWritten", ret)
-                    .toString());
+                throw incompleteWrite(buffer, bytesToWrite, offsetToWrite, ret);
             }
         } catch (NativeIOException ne) {
-            throw new IOException(exMsg("Write error")
-                .kv("filename", filename)
-                .kv("offset", offsetToWrite)
-                .kv("writeSize", bytesToWrite)
-                .kv("pointer", buffer.pointer())
-                .kv("errno", ne.getErrno())
-                .toString());
+            throw writeError(buffer, bytesToWrite, offsetToWrite, ne);
         } finally {
             bufferPool.release(buffer);
         }
     }
 
+    private IOException incompleteWrite(Buffer buffer, int bytesToWrite, long offsetToWrite, int ret) {
+        return new IOException(exMsg("Incomplete write")
+            .kv("filename", filename)
+            .kv("pointer", buffer.pointer())
+            .kv("offset", offsetToWrite)
+            .kv("writeSize", bytesToWrite)
+            .kv("bytesWritten", ret)
+            .toString());
+    }
+
+    private IOException writeError(Buffer buffer, int bytesToWrite, long offsetToWrite, NativeIOException ne) {
+        return new IOException(exMsg("Write error")
+            .kv("filename", filename)
+            .kv("offset", offsetToWrite)
+            .kv("writeSize", bytesToWrite)
+            .kv("pointer", buffer.pointer())
+            .kv("errno", ne.getErrno())
+            .toString());
+    }
+
     @Override
     public int writeDelimited(ByteBuf buf) throws IOException {
         synchronized (bufferLock) {
@@ -300,11 +348,7 @@ class DirectWriter implements LogWriter {
                 long offsetToWrite = offset;
                 offset += bytesToWrite;
 
-                Future<?> f = writeExecutor.submit(() -> {
-                    writeByteBuf(bufferToFlush, bytesToWrite, offsetToWrite);
-                    return null;
-                });
-                addOutstandingWrite(f);
+                addOutstandingWrite(submitWrite(bufferToFlush, bytesToWrite, offsetToWrite));
 
                 // must acquire after triggering the write
                 // otherwise it could try to acquire a buffer without kicking off
@@ -73,6 +73,16 @@ public interface LogReader extends AutoCloseable {
      */
     ByteBuf readEntryAt(int offset) throws IOException, EOFException;
 
+    /**
+     * Read a span of the file with a single read, bypassing any buffering in the reader.
+     * The span may be shorter than requested if the file ends before offset + size.
+     * It is the responsibility of the caller to release the returned buffer.
+     * @param offset the offset at which the span starts
+     * @param size the number of bytes to read
+     * @return a bytebuf whose readable bytes start at offset. The caller must release.
+     */
+    ByteBuf readSpanAt(long offset, int size) throws IOException, EOFException;
+
     @Override
     void close() throws IOException;
 
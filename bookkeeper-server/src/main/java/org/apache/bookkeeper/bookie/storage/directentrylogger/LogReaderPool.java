@@ -0,0 +1,290 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.directentrylogger;
+
+import io.netty.buffer.ByteBuf;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of log readers shared by all the read threads.
+ *
+ * <p>There is at most one reader per log, and at most maxReaders readers open at a time. The least
+ * recently used readers, and the readers which haven't been used for longer than the idle timeout,
+ * are evicted. Readers are reference counted, so an evicted reader is only closed once the threads
+ * reading from it are done.
+ *
+ * <p>Getting a reader that is already open doesn't take any lock, the pool is only locked to evict
+ * readers, when a new reader is opened or periodically to close the idle readers.
+ */
+class LogReaderPool implements AutoCloseable {
+    /**
+     * Opens the reader of a log.
+     */
+    interface ReaderFactory {
+        LogReader open(int logId) throws IOException;
+    }
+
+    /**
+     * Called with the readers that have been closed, or that failed to close.
+     */
+    interface CloseListener {
+        void onClose(int logId, IOException error);
+    }
+
+    private final ReaderFactory factory;
+    private final CloseListener closeListener;
+    private final int maxReaders;
+    private final long maxIdleNanos;
+    private final long idleCheckIntervalNanos;
+
+    private final ConcurrentHashMap<Integer, PooledReader> readers = new ConcurrentHashMap<>();
+    private volatile long lastIdleCheckNanos = System.nanoTime();
+    private volatile boolean closed = false;
+
+    LogReaderPool(ReaderFactory factory, CloseListener closeListener, int maxReaders, long maxIdleSeconds) {
+        this.factory = factory;
+        this.closeListener = closeListener;
+        this.maxReaders = Math.max(maxReaders, 1);
+        this.maxIdleNanos = TimeUnit.SECONDS.toNanos(maxIdleSeconds);
+        this.idleCheckIntervalNanos = Math.min(maxIdleNanos, TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * Get the reader of a log. The returned reader must be closed once done with it, which
+     * gives it back to the pool.
+     */
+    LogReader acquire(int logId) throws IOException {
+        while (true) {
+            PooledReader reader = readers.get(logId);
+            if (reader != null) {
+                if (reader.tryRetain()) {
+                    if (System.nanoTime() - lastIdleCheckNanos >= idleCheckIntervalNanos) {
+                        closeAll(evictReaders());
+                    }
+                    return reader;
+                }
+                // Evicted concurrently, open a new reader
+                readers.remove(logId, reader);
+                continue;
+            }
+
+            // Open the new reader out of the lock, it has to open the file
+            PooledReader newReader = new PooledReader(logId, factory.open(logId));
+            newReader.tryRetain();
+            if (readers.putIfAbsent(logId, newReader) != null) {
+                // Someone else opened the same log in the meantime
+                newReader.closeReader();
+                continue;
+            }
+
+            List<PooledReader> evicted = evictReaders();
+            if (closed) {
+                // Closed concurrently, the new reader might have been added after the pool was cleared
+                if (readers.remove(logId, newReader) && newReader.release()) {
+                    evicted.add(newReader);
+                }
+                if (newReader.release()) {
+                    evicted.add(newReader);
+                }
+                closeAll(evicted);
+                throw new IOException("Reader pool already closed");
+            }
+            closeAll(evicted);
+            return newReader;
+        }
+    }
+
+    /**
+     * Close the reader of a log, as soon as it is not used anymore.
+     */
+    void invalidate(int logId) {
+        PooledReader reader = readers.remove(logId);
+        if (reader != null && reader.release()) {
+            reader.closeReader();
+        }
+    }
+
+    int size() {
+        return readers.size();
+    }
+
+    @Override
+    public void close() {
+        List<PooledReader> evicted = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            for (PooledReader reader : readers.values()) {
+                evict(reader, evicted);
+            }
+        }
+        closeAll(evicted);
+    }
+
+    /**
+     * Evict the idle readers and the least recently used readers above the maximum number of readers.
+     *
+     * @return the evicted readers that are not used anymore, and must be closed out of the lock
+     */
+    private synchronized List<PooledReader> evictReaders() {
+        List<PooledReader> evicted = new ArrayList<>();
+        long now = System.nanoTime();
+        lastIdleCheckNanos = now;
+        for (PooledReader reader : readers.values()) {
+            if (now - reader.lastAccessNanos >= maxIdleNanos) {
+                evict(reader, evicted);
+            }
+        }
+
+        while (readers.size() > maxReaders) {
+            PooledReader leastRecentlyUsed = null;
+            for (PooledReader reader : readers.values()) {
+                if (leastRecentlyUsed == null || reader.lastAccessNanos - leastRecentlyUsed.lastAccessNanos < 0) {
+                    leastRecentlyUsed = reader;
+                }
+            }
+            if (leastRecentlyUsed == null) {
+                break;
+            }
+            evict(leastRecentlyUsed, evicted);
+        }
+        return evicted;
+    }
+
+    private void evict(PooledReader reader, List<PooledReader> evicted) {
+        // Drop the reference of the pool, the reader is closed once the threads reading from it are done
+        if (readers.remove(reader.logId, reader) && reader.release()) {
+            evicted.add(reader);
+        }
+    }
+
+    private static void closeAll(List<PooledReader> readers) {
+        for (PooledReader reader : readers) {
+            reader.closeReader();
+        }
+    }
+
+    /**
+     * Reader handed out by the pool. Closing it gives it back to the pool.
+     */
+    private class PooledReader implements LogReader {
+        private final int logId;
+        private final LogReader reader;
+        // One reference is held by the pool, until the reader is evicted
+        private final AtomicInteger refCount = new AtomicInteger(1);
+        private volatile long lastAccessNanos = System.nanoTime();
+
+        PooledReader(int logId, LogReader reader) {
+            this.logId = logId;
+            this.reader = reader;
+        }
+
+        /**
+         * @return false if the reader has been evicted and is not used anymore, so it can't be used again
+         */
+        boolean tryRetain() {
+            while (true) {
+                int current = refCount.get();
+                if (current == 0) {
+                    return false;
+                }
+                if (refCount.compareAndSet(current, current + 1)) {
+                    lastAccessNanos = System.nanoTime();
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * @return whether the reader is not referenced anymore and can now be closed
+         */
+        boolean release() {
+            return refCount.decrementAndGet() == 0;
+        }
+
+        void closeReader() {
+            IOException error = null;
+            try {
+                reader.close();
+            } catch (IOException ioe) {
+                error = ioe;
+            }
+            closeListener.onClose(logId, error);
+        }
+
+        @Override
+        public int logId() {
+            return logId;
+        }
+
+        @Override
+        public long maxOffset() {
+            return reader.maxOffset();
+        }
+
+        @Override
+        public ByteBuf readBufferAt(long offset, int size) throws IOException, EOFException {
+            return reader.readBufferAt(offset, size);
+        }
+
+        @Override
+        public void readIntoBufferAt(ByteBuf buffer, long offset, int size) throws IOException, EOFException {
+            reader.readIntoBufferAt(buffer, offset, size);
+        }
+
+        @Override
+        public int readIntAt(long offset) throws IOException, EOFException {
+            return reader.readIntAt(offset);
+        }
+
+        @Override
+        public long readLongAt(long offset) throws IOException, EOFException {
+            return reader.readLongAt(offset);
+        }
+
+        @Override
+        public ByteBuf readEntryAt(int offset) throws IOException, EOFException {
+            return reader.readEntryAt(offset);
+        }
+
+        @Override
+        public ByteBuf readSpanAt(long offset, int size) throws IOException, EOFException {
+            return reader.readSpanAt(offset, size);
+        }
+
+        @Override
+        public void close() {
+            if (release()) {
+                closeReader();
+            }
+        }
+
+        @Override
+        public boolean isClosed() {
+            return reader.isClosed();
+        }
+    }
+}
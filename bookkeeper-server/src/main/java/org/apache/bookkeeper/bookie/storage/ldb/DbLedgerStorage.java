@@ -29,6 +29,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.ReferenceCounted;
 import io.netty.util.concurrent.DefaultThreadFactory;
 import io.netty.util.internal.PlatformDependent;
 import java.io.File;
@@ -61,6 +62,8 @@ import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigT
 import org.apache.bookkeeper.bookie.storage.ldb.SingleDirectoryDbLedgerStorage.LedgerLoggerProcessor;
 import org.apache.bookkeeper.common.util.MathUtils;
 import org.apache.bookkeeper.common.util.Watcher;
+import org.apache.bookkeeper.common.util.nativeio.AsyncNativeIO;
+import org.apache.bookkeeper.common.util.nativeio.NativeIO;
 import org.apache.bookkeeper.common.util.nativeio.NativeIOImpl;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.meta.LedgerManager;
@@ -91,9 +94,42 @@ public class DbLedgerStorage implements LedgerStorage {
         "dbStorage_directIOEntryLoggerReadBufferSizeMB";
     public static final String DIRECT_IO_ENTRYLOGGER_MAX_FD_CACHE_TIME_SECONDS =
         "dbStorage_directIOEntryLoggerMaxFdCacheTimeSeconds";
+    public static final String DIRECT_IO_ENTRYLOGGER_IO_URING_QUEUE_DEPTH =
+        "dbStorage_directIOEntryLoggerIoUringQueueDepth";
 
     static final String MAX_THROTTLE_TIME_MILLIS = "dbStorage_maxThrottleTimeMs";
 
+    static final String WRITE_CACHE_GENERATIONS = "dbStorage_writeCacheGenerations";
+    static final int DEFAULT_WRITE_CACHE_GENERATIONS = 2;
+
+    static final String FLUSH_PARTITIONS = "dbStorage_flushPartitions";
+    static final int DEFAULT_FLUSH_PARTITIONS = 1;
+
+    static final String ENTRY_LOCATION_INDEX_STORAGE = "dbStorage_entryLocationIndexStorage";
+    static final String ENTRY_LOCATION_INDEX_STORAGE_ROCKSDB = "rocksdb";
+    static final String ENTRY_LOCATION_INDEX_STORAGE_SORTED_SEGMENTS = "sortedSegments";
+
+    static final String ENTRY_LOCATION_SUMMARY_ENABLED = "dbStorage_entryLocationSummaryEnabled";
+    static final String ENTRY_LOCATION_SUMMARY_MAX_LEDGERS = "dbStorage_entryLocationSummaryMaxLedgers";
+    static final long DEFAULT_ENTRY_LOCATION_SUMMARY_MAX_LEDGERS = 1_000_000;
+    static final String ENTRY_LOCATION_BLOOM_FILTER_EXPECTED_ENTRIES =
+        "dbStorage_entryLocationBloomFilterExpectedEntries";
+    // the default value is 0. only the range of entries of each ledger is used to skip the index lookups
+    static final long DEFAULT_ENTRY_LOCATION_BLOOM_FILTER_EXPECTED_ENTRIES = 0;
+
+    static final String READ_CACHE_EVICTION_POLICY = "dbStorage_readCacheEvictionPolicy";
+    static final String DEFAULT_READ_CACHE_EVICTION_POLICY = ReadCacheEvictionPolicy.FIFO;
+
+    static final String READ_AHEAD_ADAPTIVE_ENABLED = "dbStorage_readAheadAdaptiveEnabled";
+    static final String READ_AHEAD_INITIAL_BATCH_SIZE = "dbStorage_readAheadInitialBatchSize";
+    static final int DEFAULT_READ_AHEAD_INITIAL_BATCH_SIZE = 8;
+
+    static final String READ_AHEAD_LANE_MAX_SIZE_MB = "dbStorage_readAheadLaneMaxSizeMb";
+    static final String READ_AHEAD_LANE_MAX_LEDGER_SIZE_MB = "dbStorage_readAheadLaneMaxLedgerSizeMb";
+    // the default value is 0. read-ahead entries are inserted in the read cache
+    static final long DEFAULT_READ_AHEAD_LANE_MAX_SIZE_MB = 0;
+    static final long DEFAULT_READ_AHEAD_LANE_MAX_LEDGER_SIZE_MB = 4;
+
     private static final int MB = 1024 * 1024;
 
     private static final long DEFAULT_WRITE_CACHE_MAX_SIZE_MB =
@@ -116,6 +152,8 @@ public class DbLedgerStorage implements LedgerStorage {
     private static final long DEFAULT_DIRECT_IO_READBUFFER_SIZE_MB = 8;
 
     private static final int DEFAULT_DIRECT_IO_MAX_FD_CACHE_TIME_SECONDS = 300;
+    // the default value is 0. the writes of the direct entry logger run on the write executor
+    private static final int DEFAULT_DIRECT_IO_IO_URING_QUEUE_DEPTH = 0;
 
     // use the storage assigned to ledger 0 for flags.
     // if the storage configuration changes, the flags may be lost
@@ -224,8 +262,22 @@ public class DbLedgerStorage implements LedgerStorage {
                     numReadThreads = conf.getServerNumIOThreads();
                 }
 
+                NativeIO nativeIO = new NativeIOImpl();
+                int ioUringQueueDepth = (int) getLongVariableOrDefault(
+                    conf,
+                    DIRECT_IO_ENTRYLOGGER_IO_URING_QUEUE_DEPTH,
+                    DEFAULT_DIRECT_IO_IO_URING_QUEUE_DEPTH);
+                AsyncNativeIO asyncNativeIO = null;
+                if (ioUringQueueDepth > 0) {
+                    asyncNativeIO = AsyncNativeIO.create(nativeIO, ioUringQueueDepth, entryLoggerWriteExecutor);
+                    if (!asyncNativeIO.isIoUring()) {
+                        log.warn("io_uring is not supported, the direct entry logger writes run on the write "
+                            + "executor");
+                    }
+                }
+
                 entrylogger = new DirectEntryLogger(ledgerDir, new EntryLogIdsImpl(ldm, slog),
-                    new NativeIOImpl(),
+                    nativeIO, asyncNativeIO,
                     allocator, entryLoggerWriteExecutor, entryLoggerFlushExecutor,
                     conf.getEntryLogSizeLimit(),
                     conf.getNettyMaxFrameSizeBytes() - 500,
@@ -330,6 +382,11 @@ public class DbLedgerStorage implements LedgerStorage {
         return getLedgerStorage(ledgerId).entryExists(ledgerId, entryId);
     }
 
+    @Override
+    public boolean isEntryPersisted(long ledgerId, long entryId) throws IOException {
+        return getLedgerStorage(ledgerId).isEntryPersisted(ledgerId, entryId);
+    }
+
     @Override
     public boolean setFenced(long ledgerId) throws IOException {
         return getLedgerStorage(ledgerId).setFenced(ledgerId);
@@ -361,6 +418,17 @@ public class DbLedgerStorage implements LedgerStorage {
         return getLedgerStorage(ledgerId).getEntry(ledgerId, entryId);
     }
 
+    @Override
+    public List<ByteBuf> getEntries(long ledgerId, long firstEntryId, int maxCount, long maxSize)
+            throws IOException, BookieException {
+        return getLedgerStorage(ledgerId).getEntries(ledgerId, firstEntryId, maxCount, maxSize);
+    }
+
+    @Override
+    public ReferenceCounted getEntryForTransfer(long ledgerId, long entryId) throws IOException, BookieException {
+        return getLedgerStorage(ledgerId).getEntryForTransfer(ledgerId, entryId);
+    }
+
     @Override
     public long getLastAddConfirmed(long ledgerId) throws IOException, BookieException {
         return getLedgerStorage(ledgerId).getLastAddConfirmed(ledgerId);
@@ -610,6 +678,18 @@ public class DbLedgerStorage implements LedgerStorage {
         }
     }
 
+    static KeyValueStorageFactory getEntryLocationIndexStorageFactory(ServerConfiguration conf) {
+        String storage = conf.getString(ENTRY_LOCATION_INDEX_STORAGE, ENTRY_LOCATION_INDEX_STORAGE_ROCKSDB);
+        switch (storage) {
+        case ENTRY_LOCATION_INDEX_STORAGE_ROCKSDB:
+            return KeyValueStorageRocksDB.factory;
+        case ENTRY_LOCATION_INDEX_STORAGE_SORTED_SEGMENTS:
+            return KeyValueStorageSortedSegments.factory;
+        default:
+            throw new IllegalArgumentException("Unknown entry location index storage: " + storage);
+        }
+    }
+
     static boolean getBooleanVariableOrDefault(ServerConfiguration conf, String keyName, boolean defaultValue) {
         Object obj = conf.getProperty(keyName);
         if (obj instanceof Boolean) {
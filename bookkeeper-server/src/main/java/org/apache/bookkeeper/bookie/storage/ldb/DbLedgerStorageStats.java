@@ -52,14 +52,30 @@ class DbLedgerStorageStats {
     private static final String WRITE_CACHE_MISSES = "write-cache-misses";
     private static final String READ_CACHE_HITS = "read-cache-hits";
     private static final String READ_CACHE_MISSES = "read-cache-misses";
+    private static final String READ_CACHE_EVICTIONS = "read-cache-evictions";
+    private static final String READ_CACHE_RETAINED = "read-cache-retained";
+    private static final String READ_CACHE_POLICY_LABEL = "readCachePolicy";
     private static final String READAHEAD_BATCH_COUNT = "readahead-batch-count";
     private static final String READAHEAD_BATCH_SIZE = "readahead-batch-size";
     private static final String READAHEAD_TIME = "readahead-time";
+    private static final String READAHEAD_WINDOW_SIZE = "readahead-window-size";
+    private static final String READAHEAD_WINDOW_GROW = "readahead-window-grow";
+    private static final String READAHEAD_WINDOW_SHRINK = "readahead-window-shrink";
+    private static final String READAHEAD_SKIPPED = "readahead-skipped";
+    private static final String READAHEAD_LANE_HITS = "readahead-lane-hits";
+    private static final String LOCATIONS_INDEX_RANGE_SKIPS = "locations-index-range-skips";
+    private static final String LOCATIONS_INDEX_BLOOM_FILTER_SKIPS = "locations-index-bloom-filter-skips";
+    private static final String READAHEAD_LANE_PROMOTIONS = "readahead-lane-promotions";
+    private static final String READAHEAD_LANE_EVICTIONS = "readahead-lane-evictions";
+    private static final String READAHEAD_LANE_SIZE = "readahead-lane-size";
+    private static final String READAHEAD_LANE_COUNT = "readahead-lane-count";
     private static final String FLUSH = "flush";
     private static final String FLUSH_ENTRYLOG = "flush-entrylog";
     private static final String FLUSH_LOCATIONS_INDEX = "flush-locations-index";
     private static final String FLUSH_LEDGER_INDEX = "flush-ledger-index";
     private static final String FLUSH_SIZE = "flush-size";
+    private static final String FLUSH_PARTITION = "flush-partition";
+    private static final String FLUSH_PARTITION_LABEL = "flushPartition";
 
     @Deprecated
     private static final String THROTTLED_WRITE_REQUESTS = "throttled-write-requests";
@@ -68,6 +84,7 @@ class DbLedgerStorageStats {
     private static final String REJECTED_WRITE_REQUESTS = "rejected-write-requests";
     private static final String WRITE_CACHE_SIZE = "write-cache-size";
     private static final String WRITE_CACHE_COUNT = "write-cache-count";
+    private static final String WRITE_CACHE_FLUSHING_GENERATIONS = "write-cache-flushing-generations";
     private static final String READ_CACHE_SIZE = "read-cache-size";
     private static final String READ_CACHE_COUNT = "read-cache-count";
 
@@ -119,6 +136,16 @@ class DbLedgerStorageStats {
         parent = READ_ENTRY
     )
     private final Counter readCacheMissCounter;
+    @StatsDoc(
+        name = READ_CACHE_EVICTIONS,
+        help = "number of entries dropped from the read cache when recycling a segment, per eviction policy"
+    )
+    private final Counter readCacheEvictionCounter;
+    @StatsDoc(
+        name = READ_CACHE_RETAINED,
+        help = "number of entries carried over by the eviction policy when recycling a read cache segment"
+    )
+    private final Counter readCacheRetainedCounter;
     @StatsDoc(
         name = READAHEAD_BATCH_COUNT,
         help = "the distribution of num of entries to read in one readahead batch"
@@ -134,6 +161,56 @@ class DbLedgerStorageStats {
             help = "Time spent on readahead operations"
     )
     private final Counter readAheadTime;
+    @StatsDoc(
+        name = READAHEAD_WINDOW_SIZE,
+        help = "the distribution of the adaptive readahead window chosen after a read cache miss"
+    )
+    private final OpStatsLogger readAheadWindowSizeStats;
+    @StatsDoc(
+        name = READAHEAD_WINDOW_GROW,
+        help = "number of times the adaptive readahead window was grown because of a sequential read"
+    )
+    private final Counter readAheadWindowGrowCounter;
+    @StatsDoc(
+        name = READAHEAD_WINDOW_SHRINK,
+        help = "number of times the adaptive readahead window was shrunk because of a random read"
+    )
+    private final Counter readAheadWindowShrinkCounter;
+    @StatsDoc(
+        name = READAHEAD_SKIPPED,
+        help = "number of read cache misses for which the adaptive readahead was skipped"
+    )
+    private final Counter readAheadSkippedCounter;
+    @StatsDoc(
+        name = READAHEAD_LANE_HITS,
+        help = "number of reads served from the read-ahead lane",
+        parent = READ_ENTRY
+    )
+    private final Counter readAheadLaneHitCounter;
+    @StatsDoc(
+        name = LOCATIONS_INDEX_RANGE_SKIPS,
+        help = "number of reads of entries outside of the range of entries stored for the ledger,"
+            + " answered without looking up the locations index",
+        parent = READ_ENTRY
+    )
+    private final Counter locationsIndexRangeSkipCounter;
+    @StatsDoc(
+        name = LOCATIONS_INDEX_BLOOM_FILTER_SKIPS,
+        help = "number of reads of entries rejected by the entries bloom filter,"
+            + " answered without looking up the locations index",
+        parent = READ_ENTRY
+    )
+    private final Counter locationsIndexBloomFilterSkipCounter;
+    @StatsDoc(
+        name = READAHEAD_LANE_PROMOTIONS,
+        help = "number of entries promoted from the read-ahead lane into the read cache after a second read"
+    )
+    private final Counter readAheadLanePromotionCounter;
+    @StatsDoc(
+        name = READAHEAD_LANE_EVICTIONS,
+        help = "number of entries dropped from the read-ahead lane to stay within its size limits"
+    )
+    private final Counter readAheadLaneEvictionCounter;
     @StatsDoc(
         name = FLUSH,
         help = "operation stats of flushing write cache to entry log files"
@@ -159,6 +236,11 @@ class DbLedgerStorageStats {
         help = "the distribution of number of bytes flushed from write cache to entry log files"
     )
     private final OpStatsLogger flushSizeStats;
+    @StatsDoc(
+        name = FLUSH_PARTITION,
+        help = "operation stats of sorting, writing and indexing a single partition of the write cache during a flush"
+    )
+    private final OpStatsLogger[] flushPartitionStats;
     @StatsDoc(
         name = THROTTLED_WRITE_REQUESTS,
         help = "The number of requests throttled due to write cache is full"
@@ -185,6 +267,11 @@ class DbLedgerStorageStats {
         help = "Current number of entries in write cache"
     )
     private final Gauge<Long> writeCacheCountGauge;
+    @StatsDoc(
+        name = WRITE_CACHE_FLUSHING_GENERATIONS,
+        help = "Current number of write cache generations waiting to be flushed or being flushed"
+    )
+    private final Gauge<Long> writeCacheFlushingGenerationsGauge;
     @StatsDoc(
         name = READ_CACHE_SIZE,
         help = "Current number of bytes in read cache"
@@ -195,28 +282,60 @@ class DbLedgerStorageStats {
         help = "Current number of entries in read cache"
     )
     private final Gauge<Long> readCacheCountGauge;
+    @StatsDoc(
+        name = READAHEAD_LANE_SIZE,
+        help = "Current number of bytes in the read-ahead lane"
+    )
+    private final Gauge<Long> readAheadLaneSizeGauge;
+    @StatsDoc(
+        name = READAHEAD_LANE_COUNT,
+        help = "Current number of entries in the read-ahead lane"
+    )
+    private final Gauge<Long> readAheadLaneCountGauge;
 
     DbLedgerStorageStats(StatsLogger stats,
+                         String readCachePolicy,
+                         int flushPartitions,
                          Supplier<Long> writeCacheSizeSupplier,
                          Supplier<Long> writeCacheCountSupplier,
+                         Supplier<Long> writeCacheFlushingGenerationsSupplier,
                          Supplier<Long> readCacheSizeSupplier,
-                         Supplier<Long> readCacheCountSupplier) {
+                         Supplier<Long> readCacheCountSupplier,
+                         Supplier<Long> readAheadLaneSizeSupplier,
+                         Supplier<Long> readAheadLaneCountSupplier) {
         addEntryStats = stats.getThreadScopedOpStatsLogger(ADD_ENTRY);
         readEntryStats = stats.getThreadScopedOpStatsLogger(READ_ENTRY);
         readFromLocationIndexTime = stats.getThreadScopedCounter(READ_ENTRY_LOCATIONS_INDEX_TIME);
         readFromEntryLogTime = stats.getThreadScopedCounter(READ_ENTRYLOG_TIME);
         readCacheHitCounter = stats.getCounter(READ_CACHE_HITS);
         readCacheMissCounter = stats.getCounter(READ_CACHE_MISSES);
+        StatsLogger readCachePolicyStats = stats.scopeLabel(READ_CACHE_POLICY_LABEL, readCachePolicy);
+        readCacheEvictionCounter = readCachePolicyStats.getCounter(READ_CACHE_EVICTIONS);
+        readCacheRetainedCounter = readCachePolicyStats.getCounter(READ_CACHE_RETAINED);
         writeCacheHitCounter = stats.getCounter(WRITE_CACHE_HITS);
         writeCacheMissCounter = stats.getCounter(WRITE_CACHE_MISSES);
         readAheadBatchCountStats = stats.getOpStatsLogger(READAHEAD_BATCH_COUNT);
         readAheadBatchSizeStats = stats.getOpStatsLogger(READAHEAD_BATCH_SIZE);
         readAheadTime = stats.getThreadScopedCounter(READAHEAD_TIME);
+        readAheadWindowSizeStats = stats.getOpStatsLogger(READAHEAD_WINDOW_SIZE);
+        readAheadWindowGrowCounter = stats.getCounter(READAHEAD_WINDOW_GROW);
+        readAheadWindowShrinkCounter = stats.getCounter(READAHEAD_WINDOW_SHRINK);
+        readAheadSkippedCounter = stats.getCounter(READAHEAD_SKIPPED);
+        readAheadLaneHitCounter = stats.getCounter(READAHEAD_LANE_HITS);
+        locationsIndexRangeSkipCounter = stats.getCounter(LOCATIONS_INDEX_RANGE_SKIPS);
+        locationsIndexBloomFilterSkipCounter = stats.getCounter(LOCATIONS_INDEX_BLOOM_FILTER_SKIPS);
+        readAheadLanePromotionCounter = stats.getCounter(READAHEAD_LANE_PROMOTIONS);
+        readAheadLaneEvictionCounter = stats.getCounter(READAHEAD_LANE_EVICTIONS);
         flushStats = stats.getOpStatsLogger(FLUSH);
         flushEntryLogStats = stats.getOpStatsLogger(FLUSH_ENTRYLOG);
         flushLocationIndexStats = stats.getOpStatsLogger(FLUSH_LOCATIONS_INDEX);
         flushLedgerIndexStats = stats.getOpStatsLogger(FLUSH_LEDGER_INDEX);
         flushSizeStats = stats.getOpStatsLogger(FLUSH_SIZE);
+        flushPartitionStats = new OpStatsLogger[flushPartitions];
+        for (int i = 0; i < flushPartitions; i++) {
+            flushPartitionStats[i] = stats.scopeLabel(FLUSH_PARTITION_LABEL, String.valueOf(i))
+                    .getOpStatsLogger(FLUSH_PARTITION);
+        }
 
         throttledWriteRequests = stats.getThreadScopedCounter(THROTTLED_WRITE_REQUESTS);
         throttledWriteStats = stats.getOpStatsLogger(THROTTLED_WRITE);
@@ -246,6 +365,18 @@ class DbLedgerStorageStats {
             }
         };
         stats.registerGauge(WRITE_CACHE_COUNT, writeCacheCountGauge);
+        writeCacheFlushingGenerationsGauge = new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return writeCacheFlushingGenerationsSupplier.get();
+            }
+        };
+        stats.registerGauge(WRITE_CACHE_FLUSHING_GENERATIONS, writeCacheFlushingGenerationsGauge);
         readCacheSizeGauge = new Gauge<Long>() {
             @Override
             public Long getDefaultValue() {
@@ -271,6 +402,30 @@ class DbLedgerStorageStats {
             }
         };
         stats.registerGauge(READ_CACHE_COUNT, readCacheCountGauge);
+        readAheadLaneSizeGauge = new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return readAheadLaneSizeSupplier.get();
+            }
+        };
+        stats.registerGauge(READAHEAD_LANE_SIZE, readAheadLaneSizeGauge);
+        readAheadLaneCountGauge = new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return readAheadLaneCountSupplier.get();
+            }
+        };
+        stats.registerGauge(READAHEAD_LANE_COUNT, readAheadLaneCountGauge);
     }
 
 }
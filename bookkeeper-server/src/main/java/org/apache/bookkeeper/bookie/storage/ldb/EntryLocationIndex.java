@@ -138,6 +138,23 @@ public class EntryLocationIndex implements Closeable {
         }
     }
 
+    public long getFirstEntryInLedger(long ledgerId) throws IOException {
+        if (deletedLedgers.contains(ledgerId)) {
+            throw new Bookie.NoEntryException(ledgerId, -1);
+        }
+
+        LongPairWrapper minEntryId = LongPairWrapper.get(ledgerId, 0);
+
+        // Search the first entry in storage
+        Entry<byte[], byte[]> entry = locationsDb.getCeil(minEntryId.array);
+        minEntryId.recycle();
+
+        if (entry == null || ArrayUtil.getLong(entry.getKey(), 0) != ledgerId) {
+            throw new Bookie.NoEntryException(ledgerId, -1);
+        }
+        return ArrayUtil.getLong(entry.getKey(), 8);
+    }
+
     public void addLocation(long ledgerId, long entryId, long location) throws IOException {
         Batch batch = locationsDb.newBatch();
         addLocation(batch, ledgerId, entryId, location);
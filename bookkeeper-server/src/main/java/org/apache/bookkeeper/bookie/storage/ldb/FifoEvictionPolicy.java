@@ -0,0 +1,52 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+/**
+ * Read cache eviction policy that drops the whole oldest segment, in insertion order.
+ */
+class FifoEvictionPolicy implements ReadCacheEvictionPolicy {
+
+    static final FifoEvictionPolicy INSTANCE = new FifoEvictionPolicy();
+
+    private FifoEvictionPolicy() {
+    }
+
+    @Override
+    public String name() {
+        return FIFO;
+    }
+
+    @Override
+    public void recordAccess(long ledgerId, long entryId) {
+        // Access frequency is not tracked
+    }
+
+    @Override
+    public boolean shouldRetain(long ledgerId, long entryId) {
+        return false;
+    }
+
+    @Override
+    public boolean isRetaining() {
+        return false;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+/**
+ * Approximate frequency counter for (ledgerId, entryId) pairs.
+ *
+ * <p>This is a count-min sketch with 4 bits counters, 16 counters packed in each long. Every key is mapped
+ * to one counter in each of the 4 rows and its frequency is estimated as the minimum of them. To let the
+ * sketch adapt to changes in the access pattern, all the counters are halved once the number of recorded
+ * increments reaches a sample size proportional to the sketch capacity.
+ *
+ * <p>Updates are not synchronized: concurrent increments might get lost, which only affects the accuracy
+ * of the estimation.
+ */
+class FrequencySketch {
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNTER_VALUE = 15;
+    private static final int MIN_CAPACITY = 1024;
+    private static final int MAX_CAPACITY = 1 << 24;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int size;
+
+    FrequencySketch(long expectedItems) {
+        int capacity = (int) Math.min(Math.max(expectedItems, MIN_CAPACITY), MAX_CAPACITY);
+        this.table = new long[Integer.highestOneBit(capacity - 1) << 1];
+        this.tableMask = table.length - 1;
+        this.sampleSize = 10 * capacity;
+    }
+
+    int frequency(long ledgerId, long entryId) {
+        long hash = hash(ledgerId, entryId);
+        int frequency = MAX_COUNTER_VALUE;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long rowHash = rowHash(hash, i);
+            int shift = counterShift(rowHash);
+            int count = (int) ((table[indexOf(rowHash)] >>> shift) & MAX_COUNTER_VALUE);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    void increment(long ledgerId, long entryId) {
+        long hash = hash(ledgerId, entryId);
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long rowHash = rowHash(hash, i);
+            int index = indexOf(rowHash);
+            int shift = counterShift(rowHash);
+            if (((table[index] >>> shift) & MAX_COUNTER_VALUE) != MAX_COUNTER_VALUE) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+
+        if (added && ++size >= sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size /= 2;
+    }
+
+    private int indexOf(long rowHash) {
+        return (int) rowHash & tableMask;
+    }
+
+    private static int counterShift(long rowHash) {
+        // Pick one of the 16 counters in the long, using the upper bits of the hash
+        return (int) (rowHash >>> 60) << 2;
+    }
+
+    private static long rowHash(long hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        return h ^ (h >>> 29);
+    }
+
+    private static long hash(long ledgerId, long entryId) {
+        long h = ledgerId * 0x9e3779b97f4a7c15L + entryId;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
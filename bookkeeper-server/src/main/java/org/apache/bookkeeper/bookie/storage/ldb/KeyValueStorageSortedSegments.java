@@ -0,0 +1,1070 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.IllegalReferenceCountException;
+import io.netty.util.ReferenceCounted;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Key-value storage based on immutable sorted segment files, memory mapped for reads.
+ *
+ * <p>Each flushed batch is written as a new segment, whose records and range tombstones take precedence over the
+ * ones of the older segments. Single {@link #put(byte[], byte[])} and {@link #delete(byte[])} operations are kept in
+ * memory until the next {@link #sync()} or batch flush.
+ *
+ * <p>This layout fits the entry location index, whose keys are mostly appended: the new segments rarely overlap
+ * the older ones, so lookups only have to binary search a few of them. Segments of similar size are merged in
+ * background, which bounds their number with a write amplification that is logarithmic in the size of the store.
+ */
+public class KeyValueStorageSortedSegments implements KeyValueStorage {
+
+    static KeyValueStorageFactory factory = (defaultBasePath, subPath, dbConfigType, conf) ->
+            new KeyValueStorageSortedSegments(defaultBasePath, subPath, conf);
+
+    static final String SORTED_SEGMENTS_MAX_BATCH_SIZE = "dbStorage_sortedSegments_maxBatchSize";
+    static final String SORTED_SEGMENTS_MAX_MEMTABLE_SIZE = "dbStorage_sortedSegments_maxMemtableSize";
+    static final String SORTED_SEGMENTS_MERGE_MIN_SEGMENTS = "dbStorage_sortedSegments_mergeMinSegments";
+    static final String SORTED_SEGMENTS_MAX_SEGMENTS = "dbStorage_sortedSegments_maxSegments";
+
+    private static final int DEFAULT_MAX_BATCH_SIZE = 100_000;
+    private static final int DEFAULT_MAX_MEMTABLE_SIZE = 10_000;
+    private static final int DEFAULT_MERGE_MIN_SEGMENTS = 4;
+    private static final int DEFAULT_MAX_SEGMENTS = 32;
+
+    // Segments are merged when their sizes are within this ratio
+    private static final int MERGE_SIZE_RATIO = 2;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    // Marker of a deleted key in the memtable and in the merged iterators
+    private static final byte[] TOMBSTONE = new byte[0];
+
+    private final File dbDir;
+    private final int maxBatchSize;
+    private final int maxMemtableSize;
+    private final int mergeMinSegments;
+    private final int maxSegments;
+
+    private final AtomicLong tmpFileCounter = new AtomicLong();
+    private long nextSegmentId;
+
+    // Snapshot of the memtable and of the segments, from the newest to the oldest. The storage holds a reference
+    // to the current state and the readers acquire their own, so that the segments are not unmapped while in use.
+    private volatile State state;
+
+    private final ExecutorService mergeExecutor;
+    // Only a single merge or compaction can happen at a time
+    private final Object mergeLock = new Object();
+    private final AtomicBoolean mergeScheduled = new AtomicBoolean(false);
+    private volatile boolean closed = false;
+
+    private static final class State extends AbstractReferenceCounted {
+        final ConcurrentSkipListMap<byte[], byte[]> memtable;
+        final SortedSegment[] segments;
+
+        State(ConcurrentSkipListMap<byte[], byte[]> memtable, SortedSegment[] segments) {
+            this.memtable = memtable;
+            this.segments = segments;
+            for (SortedSegment segment : segments) {
+                segment.retain();
+            }
+        }
+
+        @Override
+        protected void deallocate() {
+            for (SortedSegment segment : segments) {
+                segment.release();
+            }
+        }
+
+        @Override
+        public ReferenceCounted touch(Object hint) {
+            return this;
+        }
+    }
+
+    public KeyValueStorageSortedSegments(String basePath, String subPath, ServerConfiguration conf)
+            throws IOException {
+        this.dbDir = new File(basePath, subPath);
+        this.maxBatchSize = conf.getInt(SORTED_SEGMENTS_MAX_BATCH_SIZE, DEFAULT_MAX_BATCH_SIZE);
+        this.maxMemtableSize = conf.getInt(SORTED_SEGMENTS_MAX_MEMTABLE_SIZE, DEFAULT_MAX_MEMTABLE_SIZE);
+        this.mergeMinSegments = Math.max(2, conf.getInt(SORTED_SEGMENTS_MERGE_MIN_SEGMENTS,
+                DEFAULT_MERGE_MIN_SEGMENTS));
+        this.maxSegments = Math.max(mergeMinSegments, conf.getInt(SORTED_SEGMENTS_MAX_SEGMENTS,
+                DEFAULT_MAX_SEGMENTS));
+
+        if (!dbDir.isDirectory() && !dbDir.mkdirs()) {
+            throw new IOException("Failed to create directory " + dbDir);
+        }
+        if (new File(dbDir, "CURRENT").exists()) {
+            throw new IOException("Directory " + dbDir + " contains a RocksDB database, it cannot be opened as "
+                    + "sorted segments storage");
+        }
+
+        SortedSegment[] segments = loadSegments();
+        this.state = new State(newMemtable(), segments);
+        for (SortedSegment segment : segments) {
+            segment.release();
+        }
+        this.mergeExecutor = Executors.newSingleThreadExecutor(
+                new DefaultThreadFactory("db-sorted-segments-merge-" + subPath));
+        scheduleMerge();
+    }
+
+    private synchronized SortedSegment[] loadSegments() throws IOException {
+        List<SortedSegment> segments = new ArrayList<>();
+        File[] files = dbDir.listFiles();
+        if (files == null) {
+            throw new IOException("Failed to list directory " + dbDir);
+        }
+
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TMP_SUFFIX) || name.endsWith(TMP_SUFFIX + ".idx")) {
+                // Leftover of an interrupted flush or merge
+                Files.deleteIfExists(file.toPath());
+            } else if (name.endsWith(SEGMENT_SUFFIX)) {
+                long id = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()), 16);
+                segments.add(SortedSegment.open(id, file));
+            }
+        }
+
+        segments.sort((s1, s2) -> Long.compare(s2.getId(), s1.getId()));
+
+        // Remove the segments that were merged into a newer one, if the merge was interrupted before deleting them
+        List<SortedSegment> liveSegments = new ArrayList<>();
+        long minCoveredId = Long.MAX_VALUE;
+        for (SortedSegment segment : segments) {
+            if (segment.getId() >= minCoveredId) {
+                log.info("Deleting segment {} already merged into a newer segment", segment.getFile());
+                segment.release();
+                Files.deleteIfExists(segment.getFile().toPath());
+                continue;
+            }
+
+            liveSegments.add(segment);
+            minCoveredId = Math.min(minCoveredId, segment.getMinCoveredId());
+        }
+
+        nextSegmentId = segments.isEmpty() ? 0 : segments.get(0).getId() + 1;
+        log.info("Opened sorted segments storage {} with {} segments", dbDir, liveSegments.size());
+        return liveSegments.toArray(new SortedSegment[0]);
+    }
+
+    private static ConcurrentSkipListMap<byte[], byte[]> newMemtable() {
+        return new ConcurrentSkipListMap<>(SortedSegment.KEY_COMPARATOR);
+    }
+
+    @Override
+    public synchronized void put(byte[] key, byte[] value) throws IOException {
+        checkState(!closed, "Storage is closed");
+        // The caller can reuse the arrays
+        state.memtable.put(key.clone(), value.clone());
+        flushMemtableIfFull();
+    }
+
+    @Override
+    public synchronized void delete(byte[] key) throws IOException {
+        checkState(!closed, "Storage is closed");
+        state.memtable.put(key.clone(), TOMBSTONE);
+        flushMemtableIfFull();
+    }
+
+    private void flushMemtableIfFull() throws IOException {
+        if (state.memtable.size() >= maxMemtableSize) {
+            flushMemtable();
+        }
+    }
+
+    @Override
+    public byte[] get(byte[] key) throws IOException {
+        State s = acquireState();
+        try {
+            byte[] value = s.memtable.get(key);
+            if (value != null) {
+                return value == TOMBSTONE ? null : value;
+            }
+
+            for (SortedSegment segment : s.segments) {
+                if (!segment.mightContain(key)) {
+                    continue;
+                }
+
+                long idx = segment.find(key);
+                if (idx >= 0) {
+                    return segment.valueAt(idx);
+                } else if (segment.coveringRangeBegin(key) != null) {
+                    return null;
+                }
+            }
+
+            return null;
+        } finally {
+            s.release();
+        }
+    }
+
+    @Override
+    public int get(byte[] key, byte[] value) throws IOException {
+        byte[] result = get(key);
+        if (result == null) {
+            return -1;
+        }
+
+        if (result.length > value.length) {
+            throw new IOException("Value array is too small to fit the result");
+        }
+
+        System.arraycopy(result, 0, value, 0, result.length);
+        return result.length;
+    }
+
+    @Override
+    public Entry<byte[], byte[]> getFloor(byte[] key) throws IOException {
+        State s = acquireState();
+        try {
+            return getFloor(sources(s), key);
+        } finally {
+            s.release();
+        }
+    }
+
+    private static Entry<byte[], byte[]> getFloor(Source[] sources, byte[] key) {
+
+        // Upper bound (not included) of the next candidate in each source
+        byte[][] bounds = new byte[sources.length][];
+        Arrays.fill(bounds, key);
+
+        while (true) {
+            byte[] candidate = null;
+            int candidateSource = -1;
+            for (int i = 0; i < sources.length; i++) {
+                if (bounds[i] == null) {
+                    continue;
+                }
+
+                byte[] floor = sources[i].floorKey(bounds[i]);
+                if (floor == null) {
+                    bounds[i] = null;
+                } else if (candidate == null || SortedSegment.compareKeys(floor, candidate) > 0) {
+                    candidate = floor;
+                    candidateSource = i;
+                }
+            }
+
+            if (candidate == null) {
+                return null;
+            }
+
+            byte[] value = sources[candidateSource].get(candidate);
+            int coveringSource = -1;
+            byte[] coveringRangeBegin = null;
+            for (int i = 0; i < candidateSource; i++) {
+                coveringRangeBegin = sources[i].coveringRangeBegin(candidate);
+                if (coveringRangeBegin != null) {
+                    coveringSource = i;
+                    break;
+                }
+            }
+
+            if (value != TOMBSTONE && coveringSource < 0) {
+                return new SimpleImmutableEntry<>(candidate, value);
+            }
+
+            // The candidate is deleted, look for the keys before it. If it was deleted by a range, skip the whole
+            // range in the older sources.
+            for (int i = 0; i < sources.length; i++) {
+                if (bounds[i] != null && SortedSegment.compareKeys(candidate, bounds[i]) < 0) {
+                    bounds[i] = candidate;
+                }
+                if (coveringSource >= 0 && i > coveringSource && bounds[i] != null
+                        && SortedSegment.compareKeys(coveringRangeBegin, bounds[i]) < 0) {
+                    bounds[i] = coveringRangeBegin;
+                }
+            }
+        }
+    }
+
+    @Override
+    public Entry<byte[], byte[]> getCeil(byte[] key) throws IOException {
+        State s = acquireState();
+        try {
+            MergedIterator iterator = new MergedIterator(sources(s), key, null, false);
+            return iterator.hasNext() ? iterator.next() : null;
+        } finally {
+            s.release();
+        }
+    }
+
+    @Override
+    public void compact(byte[] firstKey, byte[] lastKey) throws IOException {
+        // Segments are not partitioned by key range, the whole storage is compacted
+        compact();
+    }
+
+    @Override
+    public void compact() throws IOException {
+        sync();
+        synchronized (mergeLock) {
+            checkState(!closed, "Storage is closed");
+            SortedSegment[] segments = state.segments;
+            if (segments.length > 1 || (segments.length == 1 && segments[0].rangesCount() > 0)) {
+                long startTime = System.currentTimeMillis();
+                merge(segments, 0, segments.length);
+                log.info("Compacted sorted segments storage {} from {} segments in {} ms", dbDir, segments.length,
+                        System.currentTimeMillis() - startTime);
+            }
+        }
+    }
+
+    @Override
+    public String getDBPath() {
+        return dbDir.getPath();
+    }
+
+    @Override
+    public CloseableIterator<byte[]> keys() {
+        return keys(null, null);
+    }
+
+    @Override
+    public CloseableIterator<byte[]> keys(byte[] firstKey, byte[] lastKey) {
+        State s = acquireState();
+        MergedIterator iterator = new MergedIterator(sources(s), firstKey, lastKey, false);
+        return new CloseableIterator<byte[]>() {
+            private boolean closed = false;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public byte[] next() {
+                return iterator.next().getKey();
+            }
+
+            @Override
+            public void close() {
+                if (!closed) {
+                    closed = true;
+                    s.release();
+                }
+            }
+        };
+    }
+
+    @Override
+    public CloseableIterator<Entry<byte[], byte[]>> iterator() {
+        State s = acquireState();
+        MergedIterator iterator = new MergedIterator(sources(s), null, null, false);
+        return new CloseableIterator<Entry<byte[], byte[]>>() {
+            private boolean closed = false;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Entry<byte[], byte[]> next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+                if (!closed) {
+                    closed = true;
+                    s.release();
+                }
+            }
+        };
+    }
+
+    @Override
+    public synchronized void sync() throws IOException {
+        flushMemtable();
+    }
+
+    /**
+     * @return an estimation of the number of keys, which also counts the deleted and overwritten keys that are not
+     *         merged yet
+     */
+    @Override
+    public long count() throws IOException {
+        // Only the segments metadata is read, no need to acquire the state
+        State s = state;
+        long count = s.memtable.size();
+        for (SortedSegment segment : s.segments) {
+            count += segment.recordsCount();
+        }
+        return count;
+    }
+
+    @Override
+    public Batch newBatch() {
+        return new SortedSegmentsBatch();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            flushMemtable();
+            closed = true;
+        }
+
+        mergeExecutor.shutdown();
+        try {
+            if (!mergeExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Timed out waiting for the segments merge of {} to complete", dbDir);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (mergeLock) {
+            // Unmap the segments once the readers are done with them
+            state.release();
+        }
+    }
+
+    /**
+     * Get the current state, which must be released once done with it.
+     */
+    private State acquireState() {
+        while (true) {
+            State s = state;
+            try {
+                s.retain();
+                return s;
+            } catch (IllegalReferenceCountException e) {
+                // Replaced and released concurrently
+                checkState(!closed, "Storage is closed");
+            }
+        }
+    }
+
+    /**
+     * Replace the current state, the segments dropped from it are unmapped once the readers are done with them.
+     */
+    private synchronized void setState(State newState) {
+        State oldState = state;
+        state = newState;
+        oldState.release();
+    }
+
+    private synchronized void flushMemtable() throws IOException {
+        ConcurrentSkipListMap<byte[], byte[]> memtable = state.memtable;
+        if (memtable.isEmpty()) {
+            return;
+        }
+
+        File tmpFile = newTmpFile();
+        try (SortedSegment.Writer writer = new SortedSegment.Writer(tmpFile)) {
+            for (Map.Entry<byte[], byte[]> entry : memtable.entrySet()) {
+                writer.add(entry.getKey(), entry.getValue() == TOMBSTONE ? null : entry.getValue());
+            }
+            writer.finish(-1);
+        }
+
+        // The new memtable and the segment with the content of the old one are made visible together
+        installSegment(tmpFile, newMemtable());
+    }
+
+    /**
+     * Make a new segment, written in a temporary file, visible as the newest segment.
+     */
+    private synchronized void installSegment(File tmpFile, ConcurrentSkipListMap<byte[], byte[]> memtable)
+            throws IOException {
+        long id = nextSegmentId++;
+        File file = segmentFile(id);
+        Files.move(tmpFile.toPath(), file.toPath());
+        syncDir();
+
+        SortedSegment segment = SortedSegment.open(id, file);
+        SortedSegment[] segments = new SortedSegment[state.segments.length + 1];
+        segments[0] = segment;
+        System.arraycopy(state.segments, 0, segments, 1, state.segments.length);
+        setState(new State(memtable, segments));
+        segment.release();
+
+        scheduleMerge();
+    }
+
+    private void scheduleMerge() {
+        if (!closed && mergeScheduled.compareAndSet(false, true)) {
+            mergeExecutor.execute(this::mergeSegments);
+        }
+    }
+
+    private void mergeSegments() {
+        try {
+            synchronized (mergeLock) {
+                while (!closed) {
+                    SortedSegment[] segments = state.segments;
+                    int[] window = pickSegmentsToMerge(segments);
+                    if (window == null) {
+                        break;
+                    }
+
+                    merge(segments, window[0], window[1]);
+                }
+            }
+        } catch (Throwable t) {
+            log.error("Failed to merge segments of {}", dbDir, t);
+        } finally {
+            mergeScheduled.set(false);
+        }
+    }
+
+    /**
+     * Pick the newest run of at least mergeMinSegments adjacent segments of similar size. If there are too many
+     * segments, the newest segments are merged anyway.
+     *
+     * @return the [start, end) indexes of the segments to merge or null if no merge is needed
+     */
+    private int[] pickSegmentsToMerge(SortedSegment[] segments) {
+        for (int start = 0; start < segments.length; start++) {
+            long min = segments[start].size();
+            long max = min;
+            int end = start + 1;
+            while (end < segments.length) {
+                long size = segments[end].size();
+                long newMin = Math.min(min, size);
+                long newMax = Math.max(max, size);
+                if (newMax > newMin * MERGE_SIZE_RATIO) {
+                    break;
+                }
+                min = newMin;
+                max = newMax;
+                end++;
+            }
+
+            if (end - start >= mergeMinSegments) {
+                return new int[] { start, end };
+            }
+        }
+
+        if (segments.length > maxSegments) {
+            return new int[] { 0, mergeMinSegments };
+        }
+        return null;
+    }
+
+    /**
+     * Merge the adjacent segments [start, end) into a single one, that replaces them.
+     *
+     * <p>The merged segment gets the id of the newest merged segment and records the id of the oldest one. In case
+     * of crash before the merged segments are deleted, they are recognized as obsolete when the storage is opened.
+     */
+    private void merge(SortedSegment[] segments, int start, int end) throws IOException {
+        SortedSegment[] toMerge = Arrays.copyOfRange(segments, start, end);
+        boolean includesOldest = end == segments.length;
+        if (log.isDebugEnabled()) {
+            log.debug("Merging {} segments of {}, includes oldest: {}", toMerge.length, dbDir, includesOldest);
+        }
+
+        Source[] sources = new Source[toMerge.length];
+        for (int i = 0; i < toMerge.length; i++) {
+            sources[i] = new SegmentSource(toMerge[i]);
+        }
+
+        // Deleted keys can be discarded only if there are no older segments where they can still be found
+        File tmpFile = newTmpFile();
+        try (SortedSegment.Writer writer = new SortedSegment.Writer(tmpFile)) {
+            MergedIterator iterator = new MergedIterator(sources, null, null, !includesOldest);
+            while (iterator.hasNext()) {
+                Entry<byte[], byte[]> entry = iterator.next();
+                writer.add(entry.getKey(), entry.getValue() == TOMBSTONE ? null : entry.getValue());
+            }
+
+            if (!includesOldest) {
+                for (SortedSegment segment : toMerge) {
+                    for (int i = 0; i < segment.rangesCount(); i++) {
+                        writer.addRange(segment.rangeBegin(i), segment.rangeEnd(i));
+                    }
+                }
+            }
+
+            writer.finish(toMerge[toMerge.length - 1].getId());
+        }
+
+        SortedSegment newestMerged = toMerge[0];
+        synchronized (this) {
+            SortedSegment[] current = state.segments;
+            int offset = Arrays.asList(current).indexOf(newestMerged);
+            checkState(offset >= 0 && offset + toMerge.length <= current.length
+                    && current[offset + toMerge.length - 1] == toMerge[toMerge.length - 1],
+                    "Merged segments were modified concurrently");
+
+            File file = segmentFile(newestMerged.getId());
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            syncDir();
+            SortedSegment merged = SortedSegment.open(newestMerged.getId(), file);
+
+            SortedSegment[] newSegments = new SortedSegment[current.length - toMerge.length + 1];
+            System.arraycopy(current, 0, newSegments, 0, offset);
+            newSegments[offset] = merged;
+            System.arraycopy(current, offset + toMerge.length, newSegments, offset + 1,
+                    current.length - offset - toMerge.length);
+            setState(new State(state.memtable, newSegments));
+            merged.release();
+        }
+
+        // The readers that still use the old segments keep them mapped, until they release them, even after the
+        // files are deleted
+        for (int i = 1; i < toMerge.length; i++) {
+            Files.deleteIfExists(toMerge[i].getFile().toPath());
+        }
+    }
+
+    private File segmentFile(long id) {
+        return new File(dbDir, String.format("%016x%s", id, SEGMENT_SUFFIX));
+    }
+
+    private File newTmpFile() {
+        return new File(dbDir, "segment-" + tmpFileCounter.incrementAndGet() + TMP_SUFFIX);
+    }
+
+    private void syncDir() throws IOException {
+        try (FileChannel dirChannel = FileChannel.open(dbDir.toPath(), StandardOpenOption.READ)) {
+            dirChannel.force(true);
+        } catch (IOException e) {
+            // Not all platforms allow to sync a directory
+            log.debug("Failed to sync directory {}", dbDir, e);
+        }
+    }
+
+    private static Source[] sources(State s) {
+        Source[] sources = new Source[s.segments.length + 1];
+        sources[0] = new MemtableSource(s.memtable);
+        for (int i = 0; i < s.segments.length; i++) {
+            sources[i + 1] = new SegmentSource(s.segments[i]);
+        }
+        return sources;
+    }
+
+    /**
+     * A sorted source of records, either the memtable or a segment. Deleted keys have a {@code TOMBSTONE} value.
+     */
+    private interface Source {
+        /**
+         * @return the value, {@code TOMBSTONE} if the key is deleted in this source, or null if not found
+         */
+        byte[] get(byte[] key);
+
+        /**
+         * @return the begin of the range tombstone that deletes the key from the older sources, or null
+         */
+        byte[] coveringRangeBegin(byte[] key);
+
+        /**
+         * @return the biggest key strictly lower than the given key, including deleted keys, or null
+         */
+        byte[] floorKey(byte[] key);
+
+        /**
+         * @return a cursor positioned on the first key bigger or equal than the given one, or on the first key if
+         *         null
+         */
+        Cursor cursor(byte[] from);
+    }
+
+    private interface Cursor {
+        boolean isValid();
+
+        byte[] key();
+
+        byte[] value();
+
+        void next();
+    }
+
+    private static final class MemtableSource implements Source {
+        private final ConcurrentSkipListMap<byte[], byte[]> memtable;
+
+        MemtableSource(ConcurrentSkipListMap<byte[], byte[]> memtable) {
+            this.memtable = memtable;
+        }
+
+        @Override
+        public byte[] get(byte[] key) {
+            return memtable.get(key);
+        }
+
+        @Override
+        public byte[] coveringRangeBegin(byte[] key) {
+            return null;
+        }
+
+        @Override
+        public byte[] floorKey(byte[] key) {
+            return memtable.lowerKey(key);
+        }
+
+        @Override
+        public Cursor cursor(byte[] from) {
+            Iterator<Map.Entry<byte[], byte[]>> iterator = from == null
+                    ? memtable.entrySet().iterator()
+                    : memtable.tailMap(from, true).entrySet().iterator();
+            return new Cursor() {
+                Map.Entry<byte[], byte[]> current = iterator.hasNext() ? iterator.next() : null;
+
+                @Override
+                public boolean isValid() {
+                    return current != null;
+                }
+
+                @Override
+                public byte[] key() {
+                    return current.getKey();
+                }
+
+                @Override
+                public byte[] value() {
+                    return current.getValue();
+                }
+
+                @Override
+                public void next() {
+                    current = iterator.hasNext() ? iterator.next() : null;
+                }
+            };
+        }
+    }
+
+    private static final class SegmentSource implements Source {
+        private final SortedSegment segment;
+
+        SegmentSource(SortedSegment segment) {
+            this.segment = segment;
+        }
+
+        @Override
+        public byte[] get(byte[] key) {
+            long idx = segment.find(key);
+            if (idx < 0) {
+                return null;
+            }
+
+            byte[] value = segment.valueAt(idx);
+            return value != null ? value : TOMBSTONE;
+        }
+
+        @Override
+        public byte[] coveringRangeBegin(byte[] key) {
+            return segment.coveringRangeBegin(key);
+        }
+
+        @Override
+        public byte[] floorKey(byte[] key) {
+            long idx = segment.ceilIndex(key) - 1;
+            return idx >= 0 ? segment.keyAt(idx) : null;
+        }
+
+        @Override
+        public Cursor cursor(byte[] from) {
+            return new Cursor() {
+                long idx = from == null ? 0 : segment.ceilIndex(from);
+                byte[] key = idx < segment.recordsCount() ? segment.keyAt(idx) : null;
+
+                @Override
+                public boolean isValid() {
+                    return key != null;
+                }
+
+                @Override
+                public byte[] key() {
+                    return key;
+                }
+
+                @Override
+                public byte[] value() {
+                    byte[] value = segment.valueAt(idx);
+                    return value != null ? value : TOMBSTONE;
+                }
+
+                @Override
+                public void next() {
+                    idx++;
+                    key = idx < segment.recordsCount() ? segment.keyAt(idx) : null;
+                }
+            };
+        }
+    }
+
+    /**
+     * Iterator over the keys of multiple sources, in increasing key order, where the newest source wins.
+     */
+    private static final class MergedIterator {
+        private final Source[] sources;
+        private final byte[] lastKey;
+        private final boolean keepTombstones;
+        private final PriorityQueue<SourceCursor> queue;
+        private Entry<byte[], byte[]> nextEntry;
+
+        private static final class SourceCursor {
+            final int sourceIdx;
+            final Cursor cursor;
+
+            SourceCursor(int sourceIdx, Cursor cursor) {
+                this.sourceIdx = sourceIdx;
+                this.cursor = cursor;
+            }
+        }
+
+        /**
+         * @param firstKey the first key (included), or null to start from the first key
+         * @param lastKey the last key (not included), or null to iterate until the last key
+         * @param keepTombstones whether to return the deleted keys, with a {@code TOMBSTONE} value
+         */
+        MergedIterator(Source[] sources, byte[] firstKey, byte[] lastKey, boolean keepTombstones) {
+            this.sources = sources;
+            this.lastKey = lastKey;
+            this.keepTombstones = keepTombstones;
+            this.queue = new PriorityQueue<>(Math.max(1, sources.length), (c1, c2) -> {
+                int cmp = SortedSegment.compareKeys(c1.cursor.key(), c2.cursor.key());
+                return cmp != 0 ? cmp : Integer.compare(c1.sourceIdx, c2.sourceIdx);
+            });
+
+            for (int i = 0; i < sources.length; i++) {
+                Cursor cursor = sources[i].cursor(firstKey);
+                if (cursor.isValid()) {
+                    queue.add(new SourceCursor(i, cursor));
+                }
+            }
+            advance();
+        }
+
+        boolean hasNext() {
+            return nextEntry != null;
+        }
+
+        Entry<byte[], byte[]> next() {
+            checkState(nextEntry != null);
+            Entry<byte[], byte[]> entry = nextEntry;
+            advance();
+            return entry;
+        }
+
+        private void advance() {
+            nextEntry = null;
+            while (!queue.isEmpty()) {
+                SourceCursor winner = queue.poll();
+                byte[] key = winner.cursor.key();
+                if (lastKey != null && SortedSegment.compareKeys(key, lastKey) >= 0) {
+                    queue.clear();
+                    return;
+                }
+
+                byte[] value = winner.cursor.value();
+                moveNext(winner);
+
+                // Skip the same key in the older sources
+                while (!queue.isEmpty() && SortedSegment.compareKeys(queue.peek().cursor.key(), key) == 0) {
+                    moveNext(queue.poll());
+                }
+
+                if (isDeletedByRange(key, winner.sourceIdx)) {
+                    continue;
+                }
+
+                if (value != TOMBSTONE || keepTombstones) {
+                    nextEntry = new SimpleImmutableEntry<>(key, value);
+                    return;
+                }
+            }
+        }
+
+        private boolean isDeletedByRange(byte[] key, int sourceIdx) {
+            for (int i = 0; i < sourceIdx; i++) {
+                if (sources[i].coveringRangeBegin(key) != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void moveNext(SourceCursor sourceCursor) {
+            sourceCursor.cursor.next();
+            if (sourceCursor.cursor.isValid()) {
+                queue.add(sourceCursor);
+            }
+        }
+    }
+
+    /**
+     * Batch of operations that is written as a new segment when flushed.
+     */
+    private class SortedSegmentsBatch implements Batch {
+        private final List<byte[]> keys = new ArrayList<>();
+        // Null values are deletions
+        private final List<byte[]> values = new ArrayList<>();
+        private final List<byte[][]> ranges = new ArrayList<>();
+        // Number of puts and deletes that were added before each range
+        private final List<Integer> rangePositions = new ArrayList<>();
+        private boolean sorted = true;
+
+        @Override
+        public void put(byte[] key, byte[] value) throws IOException {
+            add(key, value);
+        }
+
+        @Override
+        public void remove(byte[] key) throws IOException {
+            add(key, null);
+        }
+
+        @Override
+        public void deleteRange(byte[] beginKey, byte[] endKey) throws IOException {
+            ranges.add(new byte[][] { beginKey.clone(), endKey.clone() });
+            rangePositions.add(keys.size());
+            flushIfFull();
+        }
+
+        private void add(byte[] key, byte[] value) throws IOException {
+            if (!keys.isEmpty() && SortedSegment.compareKeys(keys.get(keys.size() - 1), key) >= 0) {
+                sorted = false;
+            }
+            // The caller can reuse the arrays
+            keys.add(key.clone());
+            values.add(value != null ? value.clone() : null);
+            flushIfFull();
+        }
+
+        private void flushIfFull() throws IOException {
+            if (batchCount() >= maxBatchSize) {
+                flush();
+                clear();
+            }
+        }
+
+        @Override
+        public void clear() {
+            keys.clear();
+            values.clear();
+            ranges.clear();
+            rangePositions.clear();
+            sorted = true;
+        }
+
+        @Override
+        public int batchCount() {
+            return keys.size() + ranges.size();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            checkState(!closed, "Storage is closed");
+            if (batchCount() == 0) {
+                return;
+            }
+
+            Integer[] order = new Integer[keys.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            if (!sorted) {
+                // Stable sort, so that the last operation on a key comes last
+                Arrays.sort(order, (i1, i2) -> SortedSegment.compareKeys(keys.get(i1), keys.get(i2)));
+            }
+
+            File tmpFile = newTmpFile();
+            try (SortedSegment.Writer writer = new SortedSegment.Writer(tmpFile)) {
+                for (int i = 0; i < order.length; i++) {
+                    int op = order[i];
+                    if (i + 1 < order.length
+                            && SortedSegment.compareKeys(keys.get(op), keys.get(order[i + 1])) == 0) {
+                        // Overwritten later in the same batch
+                        continue;
+                    }
+
+                    if (isDeletedByLaterRange(keys.get(op), op)) {
+                        continue;
+                    }
+
+                    writer.add(keys.get(op), values.get(op));
+                }
+
+                for (byte[][] range : ranges) {
+                    writer.addRange(range[0], range[1]);
+                }
+
+                writer.finish(-1);
+            }
+
+            synchronized (KeyValueStorageSortedSegments.this) {
+                // Pending single operations happened before this batch
+                flushMemtable();
+                installSegment(tmpFile, state.memtable);
+            }
+        }
+
+        private boolean isDeletedByLaterRange(byte[] key, int op) {
+            for (int i = 0; i < ranges.size(); i++) {
+                byte[][] range = ranges.get(i);
+                if (rangePositions.get(i) > op && SortedSegment.compareKeys(range[0], key) <= 0
+                        && SortedSegment.compareKeys(key, range[1]) < 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void close() {
+            clear();
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(KeyValueStorageSortedSegments.class);
+}
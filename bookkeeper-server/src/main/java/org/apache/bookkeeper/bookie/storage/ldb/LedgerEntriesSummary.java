@@ -0,0 +1,282 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import java.io.IOException;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
+
+/**
+ * In-memory summary of the entries stored in the locations index, used to answer reads of entries that
+ * are definitely not stored without looking up the index.
+ *
+ * <p>For each ledger, the summary keeps the range {@code [firstEntry, lastEntry]} of the entries that were
+ * indexed. The range is loaded from the index the first time a ledger is seen and is then extended with every
+ * entry that is added to the index, before the batch that contains it is flushed. Reads of ledgers without any
+ * entry in the index, such as the recovery reads of ledgers that are not stored on this bookie, are not cached, so
+ * that the summary only tracks the ledgers stored here, which are removed when deleted.
+ *
+ * <p>Optionally, the summary also keeps a bloom filter of the (ledgerId, entryId) pairs, to detect the
+ * missing entries within the range. The filter only knows about the entries added since the bookie started,
+ * so it is only used for the ledgers that had no entries in the index when they were first seen. Once the
+ * filter is full, it is replaced with an empty one and the ledgers tracked by the old filter fall back to the
+ * range check only.
+ *
+ * <p>The number of ledgers in the summary is bounded. Once the limit is exceeded, the summaries that only cover
+ * entries already persisted in the index are evicted, and are loaded again from the index when needed. The summary
+ * of a ledger that has entries still being written to the index is never evicted, since loading it again from the
+ * index would miss those entries. To know which entries are persisted, every update of the index must be enclosed
+ * between {@link #beginIndexUpdate()} and {@link #endIndexUpdate(long)}.
+ */
+class LedgerEntriesSummary {
+
+    private static final double BLOOM_FILTER_FALSE_POSITIVE_PROBABILITY = 0.01;
+    // Fraction of the max number of ledgers that is kept when evicting
+    private static final double EVICTION_LOW_WATERMARK = 0.9;
+
+    private final ConcurrentLongHashMap<LedgerSummary> ledgers = ConcurrentLongHashMap.<LedgerSummary>newBuilder()
+            .expectedItems(16 * 1024)
+            .concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
+            .build();
+
+    private final EntryLocationIndex entryLocationIndex;
+    private final long bloomFilterExpectedEntries;
+    private volatile EntriesFilter entriesFilter;
+
+    private final long maxLedgers;
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    // Epochs of the index updates in progress. An entry recorded with an epoch lower than all of them is persisted.
+    private final AtomicLong indexUpdateEpoch = new AtomicLong();
+    private final TreeSet<Long> indexUpdatesInProgress = new TreeSet<>();
+
+    private final Counter rangeMissCounter;
+    private final Counter bloomFilterMissCounter;
+
+    LedgerEntriesSummary(EntryLocationIndex entryLocationIndex, long maxLedgers, long bloomFilterExpectedEntries,
+                         Counter rangeMissCounter, Counter bloomFilterMissCounter) {
+        this.entryLocationIndex = entryLocationIndex;
+        this.maxLedgers = maxLedgers;
+        this.bloomFilterExpectedEntries = bloomFilterExpectedEntries;
+        this.entriesFilter = bloomFilterExpectedEntries > 0 ? new EntriesFilter(bloomFilterExpectedEntries) : null;
+        this.rangeMissCounter = rangeMissCounter;
+        this.bloomFilterMissCounter = bloomFilterMissCounter;
+    }
+
+    /**
+     * Start an update of the locations index.
+     *
+     * @return the epoch of the update, to pass to {@link #endIndexUpdate(long)} once the update is persisted or
+     *         has failed
+     */
+    synchronized long beginIndexUpdate() {
+        long epoch = indexUpdateEpoch.incrementAndGet();
+        indexUpdatesInProgress.add(epoch);
+        return epoch;
+    }
+
+    synchronized void endIndexUpdate(long epoch) {
+        indexUpdatesInProgress.remove(epoch);
+    }
+
+    /**
+     * Record an entry that is being added to the locations index, as part of an update started with
+     * {@link #beginIndexUpdate()}.
+     *
+     * <p>This must be called before the entry is removed from the write cache, so that the readers that do not
+     * find the entry in the write cache always see it in the summary.
+     */
+    void add(long ledgerId, long entryId) throws IOException {
+        LedgerSummary summary;
+        while (true) {
+            summary = getOrLoad(ledgerId, true);
+            synchronized (summary) {
+                if (summary.evicted) {
+                    // Record the entry in the summary that replaced the evicted one
+                    continue;
+                }
+                summary.firstEntry = Math.min(summary.firstEntry, entryId);
+                summary.lastEntry = Math.max(summary.lastEntry, entryId);
+                // Not lower than the epoch of the update that adds the entry
+                summary.lastUpdateEpoch = indexUpdateEpoch.get();
+                break;
+            }
+        }
+
+        EntriesFilter filter = summary.filter;
+        if (filter != null && filter == entriesFilter) {
+            filter.add(ledgerId, entryId);
+        }
+    }
+
+    /**
+     * Check whether an entry is definitely not stored in the locations index.
+     *
+     * @return true if the entry is not stored, false if it might be stored
+     */
+    boolean isDefinitelyAbsent(long ledgerId, long entryId) throws IOException {
+        LedgerSummary summary = getOrLoad(ledgerId, false);
+        if (summary == null) {
+            // No entries stored for the ledger
+            rangeMissCounter.inc();
+            return true;
+        }
+
+        synchronized (summary) {
+            if (entryId < summary.firstEntry || entryId > summary.lastEntry) {
+                rangeMissCounter.inc();
+                return true;
+            }
+        }
+
+        EntriesFilter filter = summary.filter;
+        if (filter != null && filter == entriesFilter && !filter.bloomFilter.mightContain(ledgerId, entryId)) {
+            bloomFilterMissCounter.inc();
+            return true;
+        }
+        return false;
+    }
+
+    void removeLedger(long ledgerId) {
+        ledgers.remove(ledgerId);
+    }
+
+    long ledgersCount() {
+        return ledgers.size();
+    }
+
+    /**
+     * Get the summary of a ledger, loading it from the index if needed.
+     *
+     * @param addIfEmpty whether to add a summary for a ledger that has no entries in the index
+     * @return the summary of the ledger, or null if the ledger has no entries and addIfEmpty is false
+     */
+    private LedgerSummary getOrLoad(long ledgerId, boolean addIfEmpty) throws IOException {
+        LedgerSummary summary = ledgers.get(ledgerId);
+        if (summary != null) {
+            return summary;
+        }
+
+        // Load the range from the index outside of the map lock. If another thread loaded the ledger in the
+        // meantime, its summary is used instead, so that the entries it recorded are not lost. A new summary is not
+        // evictable while the index updates in progress, such as the one of a caller that records an entry, are not
+        // completed.
+        long epoch = indexUpdateEpoch.get();
+        LedgerSummary loaded;
+        try {
+            loaded = new LedgerSummary(entryLocationIndex.getFirstEntryInLedger(ledgerId),
+                    entryLocationIndex.getLastEntryInLedger(ledgerId), null, epoch);
+        } catch (Bookie.NoEntryException e) {
+            if (!addIfEmpty) {
+                return null;
+            }
+            // No entries stored yet, all the entries of the ledger will go through the summary
+            loaded = new LedgerSummary(Long.MAX_VALUE, Long.MIN_VALUE, entriesFilter, epoch);
+        }
+
+        summary = ledgers.putIfAbsent(ledgerId, loaded);
+        if (summary != null) {
+            return summary;
+        }
+
+        if (ledgers.size() > maxLedgers) {
+            evict();
+        }
+        return loaded;
+    }
+
+    /**
+     * Evict the summaries of the ledgers whose entries are all persisted in the index, until the number of ledgers
+     * is back below the low watermark.
+     */
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            long persistedEpoch = persistedEpoch();
+            long toEvict = ledgers.size() - (long) (maxLedgers * EVICTION_LOW_WATERMARK);
+            AtomicLong evicted = new AtomicLong();
+            ledgers.removeIf((ledgerId, summary) -> {
+                if (evicted.get() >= toEvict) {
+                    return false;
+                }
+
+                synchronized (summary) {
+                    if (summary.lastUpdateEpoch > persistedEpoch) {
+                        return false;
+                    }
+                    summary.evicted = true;
+                }
+                evicted.incrementAndGet();
+                return true;
+            });
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    /**
+     * @return the highest epoch such that all the entries recorded up to it are persisted in the index
+     */
+    private synchronized long persistedEpoch() {
+        return indexUpdatesInProgress.isEmpty() ? indexUpdateEpoch.get() : indexUpdatesInProgress.first() - 1;
+    }
+
+    private static class LedgerSummary {
+        long firstEntry;
+        long lastEntry;
+        // Max epoch of the index updates that added entries of the ledger
+        long lastUpdateEpoch;
+        boolean evicted;
+        // The filter that has recorded all the entries of the ledger, if any
+        final EntriesFilter filter;
+
+        LedgerSummary(long firstEntry, long lastEntry, EntriesFilter filter, long lastUpdateEpoch) {
+            this.firstEntry = firstEntry;
+            this.lastEntry = lastEntry;
+            this.filter = filter;
+            this.lastUpdateEpoch = lastUpdateEpoch;
+        }
+    }
+
+    private class EntriesFilter {
+        final LongBloomFilter bloomFilter;
+        final AtomicLong entries = new AtomicLong();
+
+        EntriesFilter(long expectedEntries) {
+            this.bloomFilter = new LongBloomFilter(expectedEntries, BLOOM_FILTER_FALSE_POSITIVE_PROBABILITY);
+        }
+
+        void add(long ledgerId, long entryId) {
+            bloomFilter.add(ledgerId, entryId);
+            if (entries.incrementAndGet() == bloomFilterExpectedEntries) {
+                // The filter is full and its false positive rate will only increase from now on
+                entriesFilter = new EntriesFilter(bloomFilterExpectedEntries);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe bloom filter of long keys, or of (long, long) pairs.
+ *
+ * <p>The filter uses double hashing on a 64 bits hash of the key to derive the bit positions. It is sized for a
+ * given number of items and false positive probability, and it degrades gracefully when more items are added.
+ */
+class LongBloomFilter {
+
+    private static final long SEED_1 = 0x9e3779b97f4a7c15L;
+    private static final long SEED_2 = 0xc2b2ae3d27d4eb4fL;
+
+    private final AtomicLongArray bits;
+    private final long bitsMask;
+    private final int hashFunctions;
+
+    LongBloomFilter(long expectedItems, double falsePositiveProbability) {
+        long items = Math.max(1, expectedItems);
+        long optimalBits = (long) (-items * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(1 << 26, Math.max(1, Long.highestOneBit(Math.max(64, optimalBits) - 1) >>> 5));
+        this.bits = new AtomicLongArray(words);
+        this.bitsMask = (long) words * Long.SIZE - 1;
+        this.hashFunctions = Math.max(1, (int) Math.round((double) bitsMask / items * Math.log(2)));
+    }
+
+    void add(long key) {
+        add(key, 0);
+    }
+
+    boolean mightContain(long key) {
+        return mightContain(key, 0);
+    }
+
+    void add(long key1, long key2) {
+        long hash1 = mix(key1 * SEED_1 + key2);
+        long hash2 = mix(hash1 ^ SEED_2) | 1;
+        for (int i = 0; i < hashFunctions; i++) {
+            long bit = (hash1 + i * hash2) & bitsMask;
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current = bits.get(word);
+            while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask)) {
+                current = bits.get(word);
+            }
+        }
+    }
+
+    boolean mightContain(long key1, long key2) {
+        long hash1 = mix(key1 * SEED_1 + key2);
+        long hash2 = mix(hash1 ^ SEED_2) | 1;
+        for (int i = 0; i < hashFunctions; i++) {
+            long bit = (hash1 + i * hash2) & bitsMask;
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the size of the filter, in bytes
+     */
+    long sizeInBytes() {
+        return (long) bits.length() * Long.BYTES;
+    }
+
+    private static long mix(long h) {
+        // Murmur3 finalizer
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCountUtil;
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
+
+/**
+ * Bounded per-ledger buffer for the entries that are speculatively read ahead.
+ *
+ * <p>Read-ahead entries are kept here instead of being inserted in the {@link ReadCache}. An entry is
+ * served from the lane the first time it is read and it's promoted into the read cache only when it is
+ * read a second time. A catch-up reader that consumes each entry exactly once will then not evict the
+ * entries that other readers keep on reading from the read cache.
+ *
+ * <p>The memory is bounded both per ledger and in total. When a ledger goes over its own limit, its
+ * oldest entries are dropped. When the total limit is reached, the ledger that was accessed least
+ * recently is dropped entirely.
+ */
+class ReadAheadLane implements Closeable {
+
+    private final ConcurrentLongHashMap<LedgerLane> lanes = ConcurrentLongHashMap.<LedgerLane>newBuilder()
+            .expectedItems(1024)
+            .concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
+            .build();
+
+    // The lanes in access order, used to find the least recently used one. It's updated while holding the
+    // lock of the lane, so that a lane is in the LRU list only while it's not removed.
+    private final LinkedHashMap<Long, LedgerLane> lruLanes = new LinkedHashMap<>(1024, 0.75f, true);
+
+    private final ReadCache readCache;
+    private final long maxSize;
+    private final long maxLedgerSize;
+
+    private final AtomicLong size = new AtomicLong(0);
+    private final LongAdder count = new LongAdder();
+
+    private final Counter promotionCounter;
+    private final Counter evictionCounter;
+
+    ReadAheadLane(ReadCache readCache, long maxSize, long maxLedgerSize, Counter promotionCounter,
+                  Counter evictionCounter) {
+        this.readCache = readCache;
+        this.maxSize = maxSize;
+        this.maxLedgerSize = Math.min(maxSize, maxLedgerSize);
+        this.promotionCounter = promotionCounter;
+        this.evictionCounter = evictionCounter;
+    }
+
+    /**
+     * @return the max number of bytes that can be buffered for a single ledger
+     */
+    long getMaxLedgerSize() {
+        return maxLedgerSize;
+    }
+
+    /**
+     * Add a read-ahead entry to the lane of its ledger.
+     *
+     * <p>The lane takes a reference on the entry buffer, the caller keeps the ownership of its own reference. An
+     * entry that is a slice of a larger buffer, such as the span of a vectored read, is copied instead, so that the
+     * lane does not retain the memory of the whole buffer, which is not counted against its limits.
+     */
+    void put(long ledgerId, long entryId, ByteBuf entry) {
+        int entrySize = entry.readableBytes();
+        if (entrySize > maxLedgerSize) {
+            return;
+        }
+
+        ByteBuf stored = entry.unwrap() != null ? entry.copy() : entry.retain();
+        boolean added = false;
+
+        while (true) {
+            LedgerLane lane = lanes.computeIfAbsent(ledgerId, LedgerLane::new);
+            synchronized (lane) {
+                if (lane.removed) {
+                    // The lane was dropped concurrently, get a new one
+                    continue;
+                }
+
+                if (!lane.entries.containsKey(entryId)) {
+                    while (lane.size + entrySize > maxLedgerSize && !lane.entries.isEmpty()) {
+                        Iterator<Slot> it = lane.entries.values().iterator();
+                        Slot oldest = it.next();
+                        it.remove();
+                        release(lane, oldest);
+                        evictionCounter.inc();
+                    }
+
+                    lane.entries.put(entryId, new Slot(stored));
+                    added = true;
+                    lane.size += entrySize;
+                    touch(lane);
+                    size.addAndGet(entrySize);
+                    count.increment();
+                }
+            }
+            break;
+        }
+
+        if (!added) {
+            stored.release();
+        }
+
+        while (size.get() > maxSize) {
+            if (!evictLeastRecentlyUsedLane()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Read an entry from the lane.
+     *
+     * <p>On the second read, the entry is removed from the lane and promoted into the read cache.
+     *
+     * @return the entry or null if it's not in the lane
+     */
+    ByteBuf get(long ledgerId, long entryId) {
+        LedgerLane lane = lanes.get(ledgerId);
+        if (lane == null) {
+            return null;
+        }
+
+        Slot promoted;
+        synchronized (lane) {
+            Slot slot = lane.entries.get(entryId);
+            if (slot == null) {
+                return null;
+            }
+
+            touch(lane);
+            if (!slot.read) {
+                slot.read = true;
+                return slot.entry.retainedDuplicate();
+            }
+
+            // Second read, the entry is moved out of the lane
+            lane.entries.remove(entryId);
+            unlink(lane, slot);
+            promoted = slot;
+            removeIfEmpty(ledgerId, lane);
+        }
+
+        readCache.put(ledgerId, entryId, promoted.entry);
+        promotionCounter.inc();
+        return promoted.entry;
+    }
+
+    boolean hasEntry(long ledgerId, long entryId) {
+        LedgerLane lane = lanes.get(ledgerId);
+        if (lane == null) {
+            return false;
+        }
+
+        synchronized (lane) {
+            return lane.entries.containsKey(entryId);
+        }
+    }
+
+    /**
+     * Drop all the buffered entries of a ledger.
+     */
+    void removeLedger(long ledgerId) {
+        LedgerLane lane = lanes.remove(ledgerId);
+        if (lane != null) {
+            synchronized (lane) {
+                clear(lane);
+            }
+        }
+    }
+
+    /**
+     * @return the total size of buffered entries
+     */
+    long size() {
+        return size.get();
+    }
+
+    /**
+     * @return the total number of buffered entries
+     */
+    long count() {
+        return count.sum();
+    }
+
+    @Override
+    public void close() {
+        lanes.forEach((ledgerId, lane) -> {
+            synchronized (lane) {
+                clear(lane);
+            }
+        });
+        lanes.clear();
+    }
+
+    private boolean evictLeastRecentlyUsedLane() {
+        LedgerLane lane;
+        synchronized (lruLanes) {
+            Iterator<LedgerLane> it = lruLanes.values().iterator();
+            if (!it.hasNext()) {
+                return false;
+            }
+            lane = it.next();
+        }
+
+        synchronized (lane) {
+            if (lane.removed) {
+                // Someone else got to it first
+                return true;
+            }
+
+            evictionCounter.addCount(lane.entries.size());
+            lanes.remove(lane.ledgerId, lane);
+            clear(lane);
+        }
+        return true;
+    }
+
+    // Must be called while holding the lane lock
+    private void clear(LedgerLane lane) {
+        for (Slot slot : lane.entries.values()) {
+            release(lane, slot);
+        }
+        lane.entries.clear();
+        markRemoved(lane);
+    }
+
+    // Must be called while holding the lane lock
+    private void touch(LedgerLane lane) {
+        synchronized (lruLanes) {
+            lruLanes.put(lane.ledgerId, lane);
+        }
+    }
+
+    // Must be called while holding the lane lock
+    private void markRemoved(LedgerLane lane) {
+        lane.removed = true;
+        synchronized (lruLanes) {
+            lruLanes.remove(lane.ledgerId, lane);
+        }
+    }
+
+    // Must be called while holding the lane lock
+    private void release(LedgerLane lane, Slot slot) {
+        unlink(lane, slot);
+        ReferenceCountUtil.release(slot.entry);
+    }
+
+    // Must be called while holding the lane lock
+    private void unlink(LedgerLane lane, Slot slot) {
+        int entrySize = slot.entry.readableBytes();
+        lane.size -= entrySize;
+        size.addAndGet(-entrySize);
+        count.decrement();
+    }
+
+    // Must be called while holding the lane lock
+    private void removeIfEmpty(long ledgerId, LedgerLane lane) {
+        if (lane.entries.isEmpty()) {
+            markRemoved(lane);
+            lanes.remove(ledgerId, lane);
+        }
+    }
+
+    private static final class Slot {
+        private final ByteBuf entry;
+        private boolean read = false;
+
+        Slot(ByteBuf entry) {
+            this.entry = entry;
+        }
+    }
+
+    private static final class LedgerLane {
+        private final long ledgerId;
+        private final Map<Long, Slot> entries = new LinkedHashMap<>();
+        private long size = 0;
+        private boolean removed = false;
+
+        LedgerLane(long ledgerId) {
+            this.ledgerId = ledgerId;
+        }
+    }
+}
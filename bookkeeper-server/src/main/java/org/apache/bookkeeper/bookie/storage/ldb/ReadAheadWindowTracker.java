@@ -0,0 +1,134 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.OpStatsLogger;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
+
+/**
+ * Track the read pattern of each ledger to decide how many entries to read ahead after a cache miss.
+ *
+ * <p>Every read is recorded, including the ones served from the caches. When a cache miss continues the
+ * sequence of the previous read on the same ledger, the read-ahead window of the ledger is doubled, up
+ * to the configured max batch size. When the miss is a jump somewhere else in the ledger, the window is
+ * halved, so that a ledger that is read randomly quickly ends up with no read-ahead at all.
+ */
+class ReadAheadWindowTracker {
+
+    private static final long STATE_CACHING_TIME_MILLIS =
+            TimeUnit.MINUTES.toMillis(TransientLedgerInfo.LEDGER_INFO_CACHING_TIME_MINUTES);
+
+    private final ConcurrentLongHashMap<LedgerReadState> ledgers = ConcurrentLongHashMap.<LedgerReadState>newBuilder()
+            .expectedItems(1024)
+            .concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
+            .build();
+
+    private final int initialWindow;
+    private final int maxWindow;
+
+    private final Counter windowGrowCounter;
+    private final Counter windowShrinkCounter;
+    private final Counter readAheadSkippedCounter;
+    private final OpStatsLogger windowSizeStats;
+
+    ReadAheadWindowTracker(int initialWindow, int maxWindow, Counter windowGrowCounter, Counter windowShrinkCounter,
+                           Counter readAheadSkippedCounter, OpStatsLogger windowSizeStats) {
+        this.maxWindow = Math.max(0, maxWindow);
+        this.initialWindow = Math.min(Math.max(0, initialWindow), this.maxWindow);
+        this.windowGrowCounter = windowGrowCounter;
+        this.windowShrinkCounter = windowShrinkCounter;
+        this.readAheadSkippedCounter = readAheadSkippedCounter;
+        this.windowSizeStats = windowSizeStats;
+    }
+
+    /**
+     * Record a read on the ledger, whether it was served from a cache or not.
+     */
+    void recordRead(long ledgerId, long entryId) {
+        LedgerReadState state = ledgers.computeIfAbsent(ledgerId, l -> new LedgerReadState(initialWindow));
+        synchronized (state) {
+            state.previousEntryId = state.lastEntryId;
+            state.lastEntryId = entryId;
+            state.lastAccessed = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Compute the read-ahead window after a cache miss on an entry that was just recorded with
+     * {@link #recordRead(long, long)}.
+     *
+     * @return the number of entries to read ahead, 0 means no read-ahead
+     */
+    int nextWindow(long ledgerId, long entryId) {
+        LedgerReadState state = ledgers.get(ledgerId);
+        int window = initialWindow;
+        if (state != null) {
+            synchronized (state) {
+                if (state.previousEntryId == LedgerReadState.NO_ENTRY) {
+                    // First read of this ledger, start with the initial window
+                } else if (entryId == state.previousEntryId + 1) {
+                    // Sequential access, grow exponentially
+                    state.window = Math.min(maxWindow, Math.max(1, state.window * 2));
+                    windowGrowCounter.inc();
+                } else {
+                    // Random access, shrink exponentially down to 0
+                    state.window = state.window / 2;
+                    windowShrinkCounter.inc();
+                }
+                window = state.window;
+            }
+        }
+
+        if (window == 0) {
+            readAheadSkippedCounter.inc();
+        }
+        windowSizeStats.registerSuccessfulValue(window);
+        return window;
+    }
+
+    void removeLedger(long ledgerId) {
+        ledgers.remove(ledgerId);
+    }
+
+    /**
+     * Drop the state of the ledgers that were not read recently.
+     */
+    void removeStaleLedgers() {
+        long staleTimestamp = System.currentTimeMillis() - STATE_CACHING_TIME_MILLIS;
+        ledgers.removeIf((ledgerId, state) -> state.lastAccessed < staleTimestamp);
+    }
+
+    private static final class LedgerReadState {
+        private static final long NO_ENTRY = -1L;
+
+        private long lastEntryId = NO_ENTRY;
+        private long previousEntryId = NO_ENTRY;
+        private int window;
+        private volatile long lastAccessed;
+
+        LedgerReadState(int window) {
+            this.window = window;
+            this.lastAccessed = System.currentTimeMillis();
+        }
+    }
+}
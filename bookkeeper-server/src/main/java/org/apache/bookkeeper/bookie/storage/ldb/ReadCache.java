@@ -22,6 +22,7 @@ package org.apache.bookkeeper.bookie.storage.ldb;
 
 import static org.apache.bookkeeper.bookie.storage.ldb.WriteCache.align64;
 
+import com.carrotsearch.hppc.LongArrayList;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
@@ -30,7 +31,10 @@ import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.NullStatsLogger;
 import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap;
 import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap.LongPair;
 import org.slf4j.Logger;
@@ -45,12 +49,19 @@ import org.slf4j.LoggerFactory;
  * ring-buffer fashion. When the read cache is full, the oldest segment
  * is cleared and rotated to make space for new entries to be added to
  * the read cache.
+ *
+ * <p>Before a segment is cleared, the configured {@link ReadCacheEvictionPolicy} can select
+ * entries that should survive. These entries are copied back at the beginning of the segment,
+ * up to half of its capacity, and the segment is then reused for new entries.
  */
 public class ReadCache implements Closeable {
     private static final Logger log = LoggerFactory.getLogger(ReadCache.class);
 
     private static final int DEFAULT_MAX_SEGMENT_SIZE = 1 * 1024 * 1024 * 1024;
 
+    // Max fraction of a recycled segment that can be filled with retained entries
+    private static final int MAX_RETAINED_SEGMENT_FRACTION = 2;
+
     private final List<ByteBuf> cacheSegments;
     private final List<ConcurrentLongLongPairHashMap> cacheIndexes;
 
@@ -62,12 +73,35 @@ public class ReadCache implements Closeable {
     private ByteBufAllocator allocator;
     private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
+    private final ReadCacheEvictionPolicy evictionPolicy;
+    private final Counter evictedEntriesCounter;
+    private final Counter retainedEntriesCounter;
+
+    // Serializes the roll-overs to the next segment
+    private final ReentrantLock rolloverLock = new ReentrantLock();
+
     public ReadCache(ByteBufAllocator allocator, long maxCacheSize) {
         this(allocator, maxCacheSize, DEFAULT_MAX_SEGMENT_SIZE);
     }
 
     public ReadCache(ByteBufAllocator allocator, long maxCacheSize, int maxSegmentSize) {
+        this(allocator, maxCacheSize, maxSegmentSize, FifoEvictionPolicy.INSTANCE,
+                NullStatsLogger.INSTANCE.getCounter("evicted"), NullStatsLogger.INSTANCE.getCounter("retained"));
+    }
+
+    public ReadCache(ByteBufAllocator allocator, long maxCacheSize, ReadCacheEvictionPolicy evictionPolicy,
+                     Counter evictedEntriesCounter, Counter retainedEntriesCounter) {
+        this(allocator, maxCacheSize, DEFAULT_MAX_SEGMENT_SIZE, evictionPolicy, evictedEntriesCounter,
+                retainedEntriesCounter);
+    }
+
+    public ReadCache(ByteBufAllocator allocator, long maxCacheSize, int maxSegmentSize,
+                     ReadCacheEvictionPolicy evictionPolicy, Counter evictedEntriesCounter,
+                     Counter retainedEntriesCounter) {
         this.allocator = allocator;
+        this.evictionPolicy = evictionPolicy;
+        this.evictedEntriesCounter = evictedEntriesCounter;
+        this.retainedEntriesCounter = retainedEntriesCounter;
         int segmentsCount = Math.max(2, (int) (maxCacheSize / maxSegmentSize));
         segmentSize = (int) (maxCacheSize / segmentsCount);
 
@@ -93,46 +127,31 @@ public class ReadCache implements Closeable {
         int entrySize = entry.readableBytes();
         int alignedSize = align64(entrySize);
 
-        lock.readLock().lock();
-
-        try {
-            if (entrySize > segmentSize) {
-                log.warn("entrySize {} > segmentSize {}, skip update read cache!", entrySize, segmentSize);
-                return;
-            }
-            int offset = currentSegmentOffset.getAndAdd(alignedSize);
-            if (offset + entrySize > segmentSize) {
-                // Roll-over the segment (outside the read-lock)
-            } else {
-                // Copy entry into read cache segment
-                cacheSegments.get(currentSegmentIdx).setBytes(offset, entry, entry.readerIndex(),
-                        entry.readableBytes());
-                cacheIndexes.get(currentSegmentIdx).put(ledgerId, entryId, offset, entrySize);
-                return;
-            }
-        } finally {
-            lock.readLock().unlock();
+        if (entrySize > segmentSize) {
+            log.warn("entrySize {} > segmentSize {}, skip update read cache!", entrySize, segmentSize);
+            return;
         }
 
-        // We could not insert in segment, we to get the write lock and roll-over to
-        // next segment
-        lock.writeLock().lock();
-
-        try {
-            int offset = currentSegmentOffset.getAndAdd(entrySize);
-            if (offset + entrySize > segmentSize) {
-                // Rollover to next segment
-                currentSegmentIdx = (currentSegmentIdx + 1) % cacheSegments.size();
-                currentSegmentOffset.set(alignedSize);
-                cacheIndexes.get(currentSegmentIdx).clear();
-                offset = 0;
+        while (true) {
+            int segmentIdx;
+            lock.readLock().lock();
+
+            try {
+                segmentIdx = currentSegmentIdx;
+                int offset = currentSegmentOffset.getAndAdd(alignedSize);
+                if (offset + entrySize <= segmentSize) {
+                    // Copy entry into read cache segment
+                    cacheSegments.get(segmentIdx).setBytes(offset, entry, entry.readerIndex(),
+                            entry.readableBytes());
+                    cacheIndexes.get(segmentIdx).put(ledgerId, entryId, offset, entrySize);
+                    return;
+                }
+            } finally {
+                lock.readLock().unlock();
             }
 
-            // Copy entry into read cache segment
-            cacheSegments.get(currentSegmentIdx).setBytes(offset, entry, entry.readerIndex(), entry.readableBytes());
-            cacheIndexes.get(currentSegmentIdx).put(ledgerId, entryId, offset, entrySize);
-        } finally {
-            lock.writeLock().unlock();
+            // We could not insert in segment, we need to roll-over to the next segment and retry
+            rollOver(segmentIdx, entrySize);
         }
     }
 
@@ -152,6 +171,7 @@ public class ReadCache implements Closeable {
                     int entryOffset = (int) res.first;
                     int entryLen = (int) res.second;
 
+                    evictionPolicy.recordAccess(ledgerId, entryId);
                     ByteBuf entry = allocator.buffer(entryLen, entryLen);
                     entry.writeBytes(cacheSegments.get(segmentIdx), entryOffset, entryLen);
                     return entry;
@@ -165,6 +185,111 @@ public class ReadCache implements Closeable {
         return null;
     }
 
+    /**
+     * Roll-over to the next segment, keeping only the entries of the recycled segment that are
+     * selected by the eviction policy.
+     *
+     * <p>The retained entries are copied out of the recycled segment before taking the write lock and
+     * are copied back at its beginning once the write lock is released, so that the readers are only
+     * blocked while the segment index is cleared.
+     *
+     * @param segmentIdx the segment that was found to be full
+     * @param reservedSize the space to leave free in the segment for the entry being inserted
+     */
+    private void rollOver(int segmentIdx, int reservedSize) {
+        rolloverLock.lock();
+
+        try {
+            if (currentSegmentIdx != segmentIdx) {
+                // Another thread has already rolled over the full segment
+                return;
+            }
+
+            int nextSegmentIdx = (segmentIdx + 1) % cacheSegments.size();
+            ConcurrentLongLongPairHashMap segmentIndex = cacheIndexes.get(nextSegmentIdx);
+            long entriesInSegment = segmentIndex.size();
+
+            // The segment is only written after the roll-over, so it can be scanned without holding the lock
+            LongArrayList retainedEntries = new LongArrayList();
+            ByteBuf retainedData = null;
+            if (evictionPolicy.isRetaining() && entriesInSegment > 0) {
+                retainedData = copyRetainedEntries(nextSegmentIdx, reservedSize, retainedEntries);
+            }
+            int retainedSize = retainedData != null ? retainedData.readableBytes() : 0;
+
+            lock.writeLock().lock();
+
+            try {
+                segmentIndex.clear();
+                currentSegmentIdx = nextSegmentIdx;
+                currentSegmentOffset.set(retainedSize);
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            long retainedCount = retainedEntries.size() / 3;
+            if (retainedData != null) {
+                try {
+                    // New entries are only added after the retained ones, and each retained entry becomes
+                    // visible to the readers once it is indexed again
+                    cacheSegments.get(nextSegmentIdx).setBytes(0, retainedData, 0, retainedSize);
+                    int offset = 0;
+                    for (int i = 0; i < retainedEntries.size(); i += 3) {
+                        int entryLen = (int) retainedEntries.get(i + 2);
+                        segmentIndex.put(retainedEntries.get(i), retainedEntries.get(i + 1), offset, entryLen);
+                        offset += align64(entryLen);
+                    }
+                } finally {
+                    retainedData.release();
+                }
+            }
+
+            retainedEntriesCounter.addCount(retainedCount);
+            evictedEntriesCounter.addCount(entriesInSegment - retainedCount);
+        } finally {
+            rolloverLock.unlock();
+        }
+    }
+
+    /**
+     * Copy the entries of a segment that are selected by the eviction policy into a new buffer, up to
+     * half of the segment capacity.
+     *
+     * @param reservedSize the space to leave free in the segment for the entry being inserted
+     * @param retainedEntries filled with the (ledgerId, entryId, length) of the copied entries
+     * @return the copied entries, each one aligned as in the segment, or null if no entry is retained
+     */
+    private ByteBuf copyRetainedEntries(int segmentIdx, int reservedSize, LongArrayList retainedEntries) {
+        // Always leave enough space for the entry that triggered the rollover
+        int maxRetainedSize = Math.min(segmentSize / MAX_RETAINED_SEGMENT_FRACTION, segmentSize - reservedSize);
+
+        // Select the entries as (offset, length, ledgerId, entryId) tuples
+        LongArrayList selected = new LongArrayList();
+        long[] selectedSize = new long[1];
+        cacheIndexes.get(segmentIdx).forEach((ledgerId, entryId, offset, length) -> {
+            if (selectedSize[0] + align64((int) length) <= maxRetainedSize
+                    && evictionPolicy.shouldRetain(ledgerId, entryId)) {
+                selected.add(offset, length, ledgerId, entryId);
+                selectedSize[0] += align64((int) length);
+            }
+        });
+
+        if (selected.isEmpty()) {
+            return null;
+        }
+
+        ByteBuf segment = cacheSegments.get(segmentIdx);
+        ByteBuf retainedData = allocator.directBuffer((int) selectedSize[0], (int) selectedSize[0]);
+        for (int i = 0; i < selected.size(); i += 4) {
+            int entryOffset = (int) selected.get(i);
+            int entryLen = (int) selected.get(i + 1);
+            retainedData.writeBytes(segment, entryOffset, entryLen);
+            retainedData.writerIndex(align64(retainedData.writerIndex()));
+            retainedEntries.add(selected.get(i + 2), selected.get(i + 3), entryLen);
+        }
+        return retainedData;
+    }
+
     public boolean hasEntry(long ledgerId, long entryId) {
         lock.readLock().lock();
 
@@ -186,6 +311,10 @@ public class ReadCache implements Closeable {
         return false;
     }
 
+    ReadCacheEvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
     /**
      * @return the total size of cached entries
      */
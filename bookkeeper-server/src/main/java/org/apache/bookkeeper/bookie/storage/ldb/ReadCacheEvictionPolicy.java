@@ -0,0 +1,65 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+/**
+ * Policy deciding which entries survive when the {@link ReadCache} recycles its oldest segment.
+ *
+ * <p>The read cache memory is still organized as a ring of segments. When the ring wraps around, the
+ * oldest segment is about to be cleared; the policy gets the chance to pick entries from that segment
+ * that should be carried over into the new generation instead of being dropped.
+ */
+public interface ReadCacheEvictionPolicy {
+
+    String FIFO = "fifo";
+    String TINY_LFU = "tinylfu";
+
+    /**
+     * @return the name of the policy, used to label the eviction metrics
+     */
+    String name();
+
+    /**
+     * Record a cache hit for the given entry.
+     */
+    void recordAccess(long ledgerId, long entryId);
+
+    /**
+     * @return true if the entry, stored in the segment that is being recycled, should be retained
+     */
+    boolean shouldRetain(long ledgerId, long entryId);
+
+    /**
+     * @return true if the policy can retain any entry at all. When false, the read cache can skip
+     *         scanning the segment being recycled.
+     */
+    boolean isRetaining();
+
+    static ReadCacheEvictionPolicy newPolicy(String name, long maxCacheSize) {
+        if (FIFO.equalsIgnoreCase(name)) {
+            return FifoEvictionPolicy.INSTANCE;
+        } else if (TINY_LFU.equalsIgnoreCase(name)) {
+            return new TinyLfuEvictionPolicy(maxCacheSize);
+        } else {
+            throw new IllegalArgumentException("Unknown read cache eviction policy: " + name);
+        }
+    }
+}
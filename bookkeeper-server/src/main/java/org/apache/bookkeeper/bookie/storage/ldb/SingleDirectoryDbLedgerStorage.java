@@ -23,6 +23,7 @@ package org.apache.bookkeeper.bookie.storage.ldb;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 
+import com.carrotsearch.hppc.LongArrayList;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
@@ -32,20 +33,28 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ReferenceCounted;
 import io.netty.util.concurrent.DefaultThreadFactory;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.PrimitiveIterator.OfLong;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.StampedLock;
 import org.apache.bookkeeper.bookie.Bookie;
@@ -102,22 +111,34 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
     // Write cache where all new entries are inserted into
     protected volatile WriteCache writeCache;
 
-    // Write cache that is used to swap with writeCache during flushes
-    protected volatile WriteCache writeCacheBeingFlushed;
+    // Write caches that were rotated out and are being flushed, from the newest to the oldest
+    private volatile WriteCacheGeneration[] writeCachesBeingFlushed = new WriteCacheGeneration[0];
+
+    // Empty write caches, ready to replace the current one
+    private final Queue<WriteCache> freeWriteCaches = new ConcurrentLinkedQueue<>();
+    private final List<WriteCache> allWriteCaches = new ArrayList<>();
 
     // Cache where we insert entries for speculative reading
-    private final ReadCache readCache;
+    private ReadCache readCache;
 
-    private final StampedLock writeCacheRotationLock = new StampedLock();
+    // Per-ledger buffer for read-ahead entries, when enabled they're kept out of the read cache
+    private ReadAheadLane readAheadLane;
+    private final boolean readAheadLaneEnabled;
 
-    protected final ReentrantLock flushMutex = new ReentrantLock();
+    // Summary of the entries of each ledger stored in the locations index, null if disabled
+    private final LedgerEntriesSummary ledgerEntriesSummary;
 
-    protected final AtomicBoolean hasFlushBeenTriggered = new AtomicBoolean(false);
-    private final AtomicBoolean isFlushOngoing = new AtomicBoolean(false);
+    private final StampedLock writeCacheRotationLock = new StampedLock();
 
     private static String dbStoragerExecutorName = "db-storage";
-    private final ExecutorService executor = Executors.newSingleThreadExecutor(
-            new DefaultThreadFactory(dbStoragerExecutorName));
+    private final ExecutorService executor;
+
+    // Executor used to flush the partitions of a write cache in parallel, if there is more than one partition
+    private final int flushPartitions;
+    private final ExecutorService flushPartitionsExecutor;
+
+    // Held by a flush while it writes the entries of a ledger into the entry logger
+    private final ReentrantLock flushEntryLogLock = new ReentrantLock();
 
     // Executor used to for db index cleanup
     private final ScheduledExecutorService cleanupExecutor = Executors
@@ -127,11 +148,13 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             .newCopyOnWriteArrayList();
 
     private CheckpointSource checkpointSource = CheckpointSource.DEFAULT;
-    private Checkpoint lastCheckpoint = Checkpoint.MIN;
+    private volatile Checkpoint lastCheckpoint = Checkpoint.MIN;
 
     private final long writeCacheMaxSize;
     private final long readCacheMaxSize;
     private final int readAheadCacheBatchSize;
+    private final boolean readAheadAdaptiveEnabled;
+    private final ReadAheadWindowTracker readAheadWindowTracker;
     private final long readAheadCacheBatchBytesSize;
 
     private final long maxThrottleTimeNanos;
@@ -140,6 +163,11 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
     private static final long DEFAULT_MAX_THROTTLE_TIME_MILLIS = TimeUnit.SECONDS.toMillis(10);
 
+    private static final long MB = 1024 * 1024;
+
+    // Max number of entries looked up in the index before issuing a vectored read from the entry logger
+    private static final int MAX_VECTORED_READ_COUNT = 1024;
+
     private final long maxReadAheadBytesSize;
 
     private final Counter flushExecutorTime;
@@ -173,27 +201,67 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
                 .scopeLabel("indexDir", indexBaseDir);
 
         this.writeCacheMaxSize = writeCacheSize;
-        this.writeCache = new WriteCache(allocator, writeCacheMaxSize / 2);
-        this.writeCacheBeingFlushed = new WriteCache(allocator, writeCacheMaxSize / 2);
+        int writeCacheGenerations = conf.getInt(DbLedgerStorage.WRITE_CACHE_GENERATIONS,
+                DbLedgerStorage.DEFAULT_WRITE_CACHE_GENERATIONS);
+        checkArgument(writeCacheGenerations >= 2, "At least 2 write cache generations are required");
+        for (int i = 0; i < writeCacheGenerations; i++) {
+            WriteCache cache = new WriteCache(allocator, writeCacheMaxSize / writeCacheGenerations);
+            allWriteCaches.add(cache);
+            freeWriteCaches.add(cache);
+        }
+        this.writeCache = freeWriteCaches.poll();
+
+        // One background thread per generation that can be flushed while the current one is being filled
+        AtomicInteger flushThreadOrdinal = new AtomicInteger();
+        DefaultThreadFactory flushThreadFactory = new DefaultThreadFactory(dbStoragerExecutorName);
+        this.executor = Executors.newFixedThreadPool(writeCacheGenerations - 1, r -> {
+            Thread thread = flushThreadFactory.newThread(r);
+            ThreadRegistry.register(dbStoragerExecutorName, flushThreadOrdinal.getAndIncrement(), thread.getId());
+            return thread;
+        });
+        this.flushPartitions = conf.getInt(DbLedgerStorage.FLUSH_PARTITIONS,
+                DbLedgerStorage.DEFAULT_FLUSH_PARTITIONS);
+        checkArgument(flushPartitions >= 1, "At least 1 flush partition is required");
+        this.flushPartitionsExecutor = flushPartitions > 1
+                ? Executors.newFixedThreadPool(flushPartitions, new DefaultThreadFactory("db-storage-flush-partition"))
+                : null;
         this.singleLedgerDirs = conf.getLedgerDirs().length == 1;
 
         readCacheMaxSize = readCacheSize;
         this.readAheadCacheBatchSize = readAheadCacheBatchSize;
         this.readAheadCacheBatchBytesSize = readAheadCacheBatchBytesSize;
-
-        // Do not attempt to perform read-ahead more than half the total size of the cache
-        maxReadAheadBytesSize = readCacheMaxSize / 2;
+        this.readAheadAdaptiveEnabled = DbLedgerStorage.getBooleanVariableOrDefault(conf,
+                DbLedgerStorage.READ_AHEAD_ADAPTIVE_ENABLED, false);
+
+        long readAheadLaneMaxSize = DbLedgerStorage.getLongVariableOrDefault(conf,
+                DbLedgerStorage.READ_AHEAD_LANE_MAX_SIZE_MB, DbLedgerStorage.DEFAULT_READ_AHEAD_LANE_MAX_SIZE_MB)
+                * MB / conf.getLedgerDirs().length;
+        long readAheadLaneMaxLedgerSize = DbLedgerStorage.getLongVariableOrDefault(conf,
+                DbLedgerStorage.READ_AHEAD_LANE_MAX_LEDGER_SIZE_MB,
+                DbLedgerStorage.DEFAULT_READ_AHEAD_LANE_MAX_LEDGER_SIZE_MB) * MB;
+        this.readAheadLaneEnabled = readAheadLaneMaxSize > 0;
+
+        if (readAheadLaneEnabled) {
+            // Do not attempt to perform read-ahead more than what a single ledger can buffer in the lane
+            maxReadAheadBytesSize = Math.min(readAheadLaneMaxSize, readAheadLaneMaxLedgerSize);
+        } else {
+            // Do not attempt to perform read-ahead more than half the total size of the cache
+            maxReadAheadBytesSize = readCacheMaxSize / 2;
+        }
 
         long maxThrottleTimeMillis = conf.getLong(DbLedgerStorage.MAX_THROTTLE_TIME_MILLIS,
                 DEFAULT_MAX_THROTTLE_TIME_MILLIS);
         maxThrottleTimeNanos = TimeUnit.MILLISECONDS.toNanos(maxThrottleTimeMillis);
 
-        readCache = new ReadCache(allocator, readCacheMaxSize);
+        ReadCacheEvictionPolicy readCacheEvictionPolicy = ReadCacheEvictionPolicy.newPolicy(
+                conf.getString(DbLedgerStorage.READ_CACHE_EVICTION_POLICY,
+                        DbLedgerStorage.DEFAULT_READ_CACHE_EVICTION_POLICY),
+                readCacheMaxSize);
 
         ledgerIndex = new LedgerMetadataIndex(conf,
                 KeyValueStorageRocksDB.factory, indexBaseDir, ledgerIndexDirStatsLogger);
         entryLocationIndex = new EntryLocationIndex(conf,
-                KeyValueStorageRocksDB.factory, indexBaseDir, ledgerIndexDirStatsLogger);
+                DbLedgerStorage.getEntryLocationIndexStorageFactory(conf), indexBaseDir, ledgerIndexDirStatsLogger);
 
         transientLedgerInfoCache = ConcurrentLongHashMap.<TransientLedgerInfo>newBuilder()
                 .expectedItems(16 * 1024)
@@ -209,16 +277,53 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
         dbLedgerStorageStats = new DbLedgerStorageStats(
             ledgerIndexDirStatsLogger,
-            () -> writeCache.size() + writeCacheBeingFlushed.size(),
-            () -> writeCache.count() + writeCacheBeingFlushed.count(),
+            readCacheEvictionPolicy.name(),
+            flushPartitions,
+            () -> allWriteCaches.stream().mapToLong(WriteCache::size).sum(),
+            () -> allWriteCaches.stream().mapToLong(WriteCache::count).sum(),
+            () -> (long) writeCachesBeingFlushed.length,
             () -> readCache.size(),
-            () -> readCache.count()
+            () -> readCache.count(),
+            () -> readAheadLane.size(),
+            () -> readAheadLane.count()
         );
 
+        readCache = new ReadCache(allocator, readCacheMaxSize, readCacheEvictionPolicy,
+                dbLedgerStorageStats.getReadCacheEvictionCounter(),
+                dbLedgerStorageStats.getReadCacheRetainedCounter());
+        readAheadLane = new ReadAheadLane(readCache, readAheadLaneMaxSize, readAheadLaneMaxLedgerSize,
+                dbLedgerStorageStats.getReadAheadLanePromotionCounter(),
+                dbLedgerStorageStats.getReadAheadLaneEvictionCounter());
+        if (DbLedgerStorage.getBooleanVariableOrDefault(conf, DbLedgerStorage.ENTRY_LOCATION_SUMMARY_ENABLED, false)) {
+            ledgerEntriesSummary = new LedgerEntriesSummary(entryLocationIndex,
+                    DbLedgerStorage.getLongVariableOrDefault(conf,
+                            DbLedgerStorage.ENTRY_LOCATION_SUMMARY_MAX_LEDGERS,
+                            DbLedgerStorage.DEFAULT_ENTRY_LOCATION_SUMMARY_MAX_LEDGERS),
+                    DbLedgerStorage.getLongVariableOrDefault(conf,
+                            DbLedgerStorage.ENTRY_LOCATION_BLOOM_FILTER_EXPECTED_ENTRIES,
+                            DbLedgerStorage.DEFAULT_ENTRY_LOCATION_BLOOM_FILTER_EXPECTED_ENTRIES),
+                    dbLedgerStorageStats.getLocationsIndexRangeSkipCounter(),
+                    dbLedgerStorageStats.getLocationsIndexBloomFilterSkipCounter());
+        } else {
+            ledgerEntriesSummary = null;
+        }
+        readAheadWindowTracker = new ReadAheadWindowTracker(
+                conf.getInt(DbLedgerStorage.READ_AHEAD_INITIAL_BATCH_SIZE,
+                        DbLedgerStorage.DEFAULT_READ_AHEAD_INITIAL_BATCH_SIZE),
+                readAheadCacheBatchSize,
+                dbLedgerStorageStats.getReadAheadWindowGrowCounter(),
+                dbLedgerStorageStats.getReadAheadWindowShrinkCounter(),
+                dbLedgerStorageStats.getReadAheadSkippedCounter(),
+                dbLedgerStorageStats.getReadAheadWindowSizeStats());
+        if (readAheadAdaptiveEnabled) {
+            cleanupExecutor.scheduleAtFixedRate(readAheadWindowTracker::removeStaleLedgers,
+                    TransientLedgerInfo.LEDGER_INFO_CACHING_TIME_MINUTES,
+                    TransientLedgerInfo.LEDGER_INFO_CACHING_TIME_MINUTES, TimeUnit.MINUTES);
+        }
+
         flushExecutorTime = ledgerIndexDirStatsLogger.getThreadScopedCounter("db-storage-thread-time");
 
         executor.submit(() -> {
-            ThreadRegistry.register(dbStoragerExecutorName, 0);
             // ensure the metric gets registered on start-up as this thread only executes
             // when the write cache is full which may not happen or not for a long time
             flushExecutorTime.addLatency(0, TimeUnit.NANOSECONDS);
@@ -347,10 +452,13 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             ledgerIndex.close();
             entryLocationIndex.close();
 
-            writeCache.close();
-            writeCacheBeingFlushed.close();
+            allWriteCaches.forEach(WriteCache::close);
             readCache.close();
+            readAheadLane.close();
             executor.shutdown();
+            if (flushPartitionsExecutor != null) {
+                flushPartitionsExecutor.shutdown();
+            }
 
         } catch (IOException e) {
             log.error("Error closing db storage", e);
@@ -371,32 +479,39 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         }
     }
 
+    @Override
+    public boolean isEntryPersisted(long ledgerId, long entryId) throws IOException {
+        // The locations are only added to the index once the entry logs holding the entries are flushed
+        return entryLocationIndex.getLocation(ledgerId, entryId) != 0;
+    }
+
     @Override
     public boolean entryExists(long ledgerId, long entryId) throws IOException, BookieException {
         if (entryId == BookieProtocol.LAST_ADD_CONFIRMED) {
             return false;
         }
 
-        // We need to try to read from both write caches, since recent entries could be found in either of the two. The
-        // write caches are already thread safe on their own, here we just need to make sure we get references to both
-        // of them. Using an optimistic lock since the read lock is always free, unless we're swapping the caches.
+        // We need to try to read from all the write caches, since recent entries could be found in any of them. The
+        // write caches are already thread safe on their own, here we just need to make sure we get references to all
+        // of them. Using an optimistic lock since the read lock is always free, unless we're rotating the caches.
         long stamp = writeCacheRotationLock.tryOptimisticRead();
         WriteCache localWriteCache = writeCache;
-        WriteCache localWriteCacheBeingFlushed = writeCacheBeingFlushed;
+        WriteCacheGeneration[] localWriteCachesBeingFlushed = writeCachesBeingFlushed;
         if (!writeCacheRotationLock.validate(stamp)) {
             // Fallback to regular read lock approach
             stamp = writeCacheRotationLock.readLock();
             try {
                 localWriteCache = writeCache;
-                localWriteCacheBeingFlushed = writeCacheBeingFlushed;
+                localWriteCachesBeingFlushed = writeCachesBeingFlushed;
             } finally {
                 writeCacheRotationLock.unlockRead(stamp);
             }
         }
 
         boolean inCache = localWriteCache.hasEntry(ledgerId, entryId)
-             || localWriteCacheBeingFlushed.hasEntry(ledgerId, entryId)
-             || readCache.hasEntry(ledgerId, entryId);
+             || hasEntryInGenerations(localWriteCachesBeingFlushed, ledgerId, entryId)
+             || readCache.hasEntry(ledgerId, entryId)
+             || readAheadLane.hasEntry(ledgerId, entryId);
 
         if (inCache) {
             return true;
@@ -511,27 +626,11 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         long absoluteTimeoutNanos = System.nanoTime() + maxThrottleTimeNanos;
 
         while (System.nanoTime() < absoluteTimeoutNanos) {
-            // Write cache is full, we need to trigger a flush so that it gets rotated
-            // If the flush has already been triggered or flush has already switched the
-            // cache, we don't need to trigger another flush
-            if (!isFlushOngoing.get() && hasFlushBeenTriggered.compareAndSet(false, true)) {
-                // Trigger an early flush in background
-                log.info("Write cache is full, triggering flush");
-                executor.execute(() -> {
-                        long startTime = System.nanoTime();
-                        try {
-                            flush();
-                        } catch (IOException e) {
-                            log.error("Error during flush", e);
-                        } finally {
-                            flushExecutorTime.addLatency(MathUtils.elapsedNanos(startTime), TimeUnit.NANOSECONDS);
-                        }
-                    });
-            }
-
+            WriteCache localWriteCache;
             long stamp = writeCacheRotationLock.readLock();
             try {
-                if (writeCache.put(ledgerId, entryId, entry)) {
+                localWriteCache = writeCache;
+                if (localWriteCache.put(ledgerId, entryId, entry)) {
                     // We succeeded in putting the entry in write cache in the
                     recordSuccessfulEvent(dbLedgerStorageStats.getThrottledWriteStats(), throttledStartTime);
                     return;
@@ -540,7 +639,22 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
                 writeCacheRotationLock.unlockRead(stamp);
             }
 
-            // Wait some time and try again
+            // Write cache is full, we need to rotate it and flush it in background. If another thread has
+            // already rotated it, we can just try again with the new write cache.
+            WriteCacheGeneration generation = rotateWriteCache(localWriteCache);
+            if (generation != null) {
+                log.info("Write cache is full, triggering flush");
+                triggerFlush(generation);
+                continue;
+            } else if (writeCache != localWriteCache) {
+                continue;
+            }
+
+            // All the write cache generations are still being flushed. Retry the ones whose flush has failed, then
+            // wait some time and try again
+            for (WriteCacheGeneration flushingGeneration : writeCachesBeingFlushed) {
+                triggerFlush(flushingGeneration);
+            }
             try {
                 Thread.sleep(1);
             } catch (InterruptedException e) {
@@ -568,6 +682,53 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         }
     }
 
+    @Override
+    public List<ByteBuf> getEntries(long ledgerId, long firstEntryId, int maxCount, long maxSize)
+            throws IOException, BookieException {
+        if (!entryLogger.supportsVectoredReads()) {
+            return CompactableLedgerStorage.super.getEntries(ledgerId, firstEntryId, maxCount, maxSize);
+        }
+
+        // The first entry goes through the regular read path, which also triggers the read-ahead
+        List<ByteBuf> entries = new ArrayList<>();
+        ByteBuf firstEntry = getEntry(ledgerId, firstEntryId);
+        entries.add(firstEntry);
+        long size = firstEntry.readableBytes();
+
+        long entryId = firstEntryId + 1;
+        try {
+            while (entries.size() < maxCount && size < maxSize) {
+                ByteBuf entry = getCachedEntry(ledgerId, entryId);
+                if (entry != null) {
+                    entries.add(entry);
+                    size += entry.readableBytes();
+                    entryId++;
+                    continue;
+                }
+
+                // Read the following entries together, as many as are expected to fit in the remaining size
+                long averageSize = Math.max(size / entries.size(), 1);
+                int readCount = (int) Math.min(Math.min(maxCount - entries.size(), MAX_VECTORED_READ_COUNT),
+                        (maxSize - size) / averageSize + 1);
+                List<ByteBuf> readEntries = readEntriesFromEntryLog(ledgerId, entryId, readCount);
+                for (ByteBuf readEntry : readEntries) {
+                    entries.add(readEntry);
+                    size += readEntry.readableBytes();
+                }
+                entryId += readEntries.size();
+                if (readEntries.size() < readCount) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // Only the failure to read the first entry is reported
+            if (log.isDebugEnabled()) {
+                log.debug("Stopped reading entries of ledger {} at {}", ledgerId, entryId, e);
+            }
+        }
+        return entries;
+    }
+
     private ByteBuf doGetEntry(long ledgerId, long entryId) throws IOException, BookieException {
         if (log.isDebugEnabled()) {
             log.debug("Get Entry: {}@{}", ledgerId, entryId);
@@ -577,64 +738,81 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             return getLastEntry(ledgerId);
         }
 
-        // We need to try to read from both write caches, since recent entries could be found in either of the two. The
-        // write caches are already thread safe on their own, here we just need to make sure we get references to both
-        // of them. Using an optimistic lock since the read lock is always free, unless we're swapping the caches.
-        long stamp = writeCacheRotationLock.tryOptimisticRead();
-        WriteCache localWriteCache = writeCache;
-        WriteCache localWriteCacheBeingFlushed = writeCacheBeingFlushed;
-        if (!writeCacheRotationLock.validate(stamp)) {
-            // Fallback to regular read lock approach
-            stamp = writeCacheRotationLock.readLock();
-            try {
-                localWriteCache = writeCache;
-                localWriteCacheBeingFlushed = writeCacheBeingFlushed;
-            } finally {
-                writeCacheRotationLock.unlockRead(stamp);
-            }
+        if (readAheadAdaptiveEnabled) {
+            readAheadWindowTracker.recordRead(ledgerId, entryId);
         }
 
-        // First try to read from the write cache of recent entries
-        ByteBuf entry = localWriteCache.get(ledgerId, entryId);
+        ByteBuf entry = getCachedEntry(ledgerId, entryId);
         if (entry != null) {
-            dbLedgerStorageStats.getWriteCacheHitCounter().inc();
             return entry;
         }
 
-        // If there's a flush going on, the entry might be in the flush buffer
-        entry = localWriteCacheBeingFlushed.get(ledgerId, entryId);
-        if (entry != null) {
-            dbLedgerStorageStats.getWriteCacheHitCounter().inc();
-            return entry;
+        // Read from main storage
+        return readEntryAndReadAhead(ledgerId, entryId, getEntryLocation(ledgerId, entryId));
+    }
+
+    @Override
+    public ReferenceCounted getEntryForTransfer(long ledgerId, long entryId) throws IOException, BookieException {
+        if (entryId == BookieProtocol.LAST_ADD_CONFIRMED) {
+            return getEntry(ledgerId, entryId);
         }
 
-        dbLedgerStorageStats.getWriteCacheMissCounter().inc();
+        long startTime = MathUtils.nowInNano();
+        try {
+            if (readAheadAdaptiveEnabled) {
+                readAheadWindowTracker.recordRead(ledgerId, entryId);
+            }
 
-        // Try reading from read-ahead cache
-        entry = readCache.get(ledgerId, entryId);
-        if (entry != null) {
-            dbLedgerStorageStats.getReadCacheHitCounter().inc();
+            ReferenceCounted entry = getCachedEntry(ledgerId, entryId);
+            if (entry == null) {
+                long entryLocation = getEntryLocation(ledgerId, entryId);
+                long readEntryStartNano = MathUtils.nowInNano();
+                try {
+                    entry = entryLogger.readEntryRegion(ledgerId, entryId, entryLocation);
+                } finally {
+                    dbLedgerStorageStats.getReadFromEntryLogTime().addLatency(
+                            MathUtils.elapsedNanos(readEntryStartNano), TimeUnit.NANOSECONDS);
+                }
+
+                // Entries sent from their file don't go through the read cache, nor trigger the read-ahead, which
+                // would copy them into memory anyway
+                if (entry == null) {
+                    entry = readEntryAndReadAhead(ledgerId, entryId, entryLocation);
+                }
+            }
+            recordSuccessfulEvent(dbLedgerStorageStats.getReadEntryStats(), startTime);
             return entry;
+        } catch (IOException e) {
+            recordFailedEvent(dbLedgerStorageStats.getReadEntryStats(), startTime);
+            throw e;
         }
+    }
 
-        dbLedgerStorageStats.getReadCacheMissCounter().inc();
-
-        // Read from main storage
-        long entryLocation;
+    private long getEntryLocation(long ledgerId, long entryId) throws IOException, BookieException {
         long locationIndexStartNano = MathUtils.nowInNano();
         try {
-            entryLocation = entryLocationIndex.getLocation(ledgerId, entryId);
+            if (ledgerEntriesSummary != null && ledgerEntriesSummary.isDefinitelyAbsent(ledgerId, entryId)) {
+                throwIfLimbo(ledgerId);
+
+                throw new NoEntryException(ledgerId, entryId);
+            }
+
+            long entryLocation = entryLocationIndex.getLocation(ledgerId, entryId);
             if (entryLocation == 0) {
                 // Only a negative result while in limbo equates to unknown
                 throwIfLimbo(ledgerId);
 
                 throw new NoEntryException(ledgerId, entryId);
             }
+            return entryLocation;
         } finally {
             dbLedgerStorageStats.getReadFromLocationIndexTime().addLatency(
                     MathUtils.elapsedNanos(locationIndexStartNano), TimeUnit.NANOSECONDS);
         }
+    }
 
+    private ByteBuf readEntryAndReadAhead(long ledgerId, long entryId, long entryLocation) throws IOException {
+        ByteBuf entry;
         long readEntryStartNano = MathUtils.nowInNano();
         try {
             entry = entryLogger.readEntry(ledgerId, entryId, entryLocation);
@@ -646,13 +824,83 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         readCache.put(ledgerId, entryId, entry);
 
         // Try to read more entries
-        long nextEntryLocation = entryLocation + 4 /* size header */ + entry.readableBytes();
-        fillReadAheadCache(ledgerId, entryId + 1, nextEntryLocation);
+        int readAheadCount = readAheadAdaptiveEnabled
+                ? readAheadWindowTracker.nextWindow(ledgerId, entryId)
+                : readAheadCacheBatchSize;
+        if (readAheadCount > 0 && entryLogger.supportsVectoredReads()) {
+            fillReadAheadCacheVectored(ledgerId, entryId + 1, entry.readableBytes(), readAheadCount);
+        } else if (readAheadCount > 0) {
+            long nextEntryLocation = entryLocation + 4 /* size header */ + entry.readableBytes();
+            fillReadAheadCache(ledgerId, entryId + 1, nextEntryLocation, readAheadCount);
+        }
 
         return entry;
     }
 
-    private void fillReadAheadCache(long orginalLedgerId, long firstEntryId, long firstEntryLocation) {
+    /**
+     * Look up an entry in the write caches and in the read caches.
+     *
+     * @return the entry, or null if it needs to be read from the entry logger
+     */
+    private ByteBuf getCachedEntry(long ledgerId, long entryId) {
+        // We need to try to read from all the write caches, since recent entries could be found in any of them. The
+        // write caches are already thread safe on their own, here we just need to make sure we get references to all
+        // of them. Using an optimistic lock since the read lock is always free, unless we're rotating the caches.
+        long stamp = writeCacheRotationLock.tryOptimisticRead();
+        WriteCache localWriteCache = writeCache;
+        WriteCacheGeneration[] localWriteCachesBeingFlushed = writeCachesBeingFlushed;
+        if (!writeCacheRotationLock.validate(stamp)) {
+            // Fallback to regular read lock approach
+            stamp = writeCacheRotationLock.readLock();
+            try {
+                localWriteCache = writeCache;
+                localWriteCachesBeingFlushed = writeCachesBeingFlushed;
+            } finally {
+                writeCacheRotationLock.unlockRead(stamp);
+            }
+        }
+
+        // First try to read from the write cache of recent entries
+        ByteBuf entry = localWriteCache.get(ledgerId, entryId);
+        if (entry != null) {
+            dbLedgerStorageStats.getWriteCacheHitCounter().inc();
+            return entry;
+        }
+
+        // If there are flushes going on, the entry might be in one of the flush buffers
+        for (WriteCacheGeneration generation : localWriteCachesBeingFlushed) {
+            entry = generation.getWriteCache().get(ledgerId, entryId);
+            if (entry != null) {
+                dbLedgerStorageStats.getWriteCacheHitCounter().inc();
+                return entry;
+            }
+        }
+
+        dbLedgerStorageStats.getWriteCacheMissCounter().inc();
+
+        // Try reading from read-ahead cache
+        entry = readCache.get(ledgerId, entryId);
+        if (entry != null) {
+            dbLedgerStorageStats.getReadCacheHitCounter().inc();
+            return entry;
+        }
+
+        dbLedgerStorageStats.getReadCacheMissCounter().inc();
+
+        if (readAheadLaneEnabled) {
+            // Entries that were read ahead are only moved into the read cache when they are read again
+            entry = readAheadLane.get(ledgerId, entryId);
+            if (entry != null) {
+                dbLedgerStorageStats.getReadAheadLaneHitCounter().inc();
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+    private void fillReadAheadCache(long orginalLedgerId, long firstEntryId, long firstEntryLocation,
+                                    int maxReadAheadCount) {
         long readAheadStartNano = MathUtils.nowInNano();
         int count = 0;
         long size = 0;
@@ -662,7 +910,8 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             long currentEntryLogId = firstEntryLogId;
             long currentEntryLocation = firstEntryLocation;
 
-            while (chargeReadAheadCache(count, size) && currentEntryLogId == firstEntryLogId) {
+            while (count < maxReadAheadCount && chargeReadAheadCache(count, size)
+                    && currentEntryLogId == firstEntryLogId) {
                 ByteBuf entry = entryLogger.readEntry(orginalLedgerId,
                         firstEntryId, currentEntryLocation);
 
@@ -675,8 +924,13 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
                         break;
                     }
 
-                    // Insert entry in read cache
-                    readCache.put(orginalLedgerId, currentEntryId, entry);
+                    if (readAheadLaneEnabled) {
+                        // Keep the entry out of the read cache until it gets read twice
+                        readAheadLane.put(orginalLedgerId, currentEntryId, entry);
+                    } else {
+                        // Insert entry in read cache
+                        readCache.put(orginalLedgerId, currentEntryId, entry);
+                    }
 
                     count++;
                     firstEntryId++;
@@ -700,6 +954,99 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         }
     }
 
+    /**
+     * Read-ahead with a single vectored read of the following entries of the ledger. Their locations are
+     * looked up in the index, so the read-ahead is not limited to entries stored right after each other.
+     */
+    private void fillReadAheadCacheVectored(long ledgerId, long firstEntryId, int entrySize,
+                                            int maxReadAheadCount) {
+        long readAheadStartNano = MathUtils.nowInNano();
+        int count = 0;
+        long size = 0;
+        List<ByteBuf> entries = Collections.emptyList();
+
+        try {
+            // Don't look up more entries than the read-ahead limits will let in, assuming similar entry sizes
+            long maxBytes = readAheadCacheBatchBytesSize > 0
+                    ? Math.min(maxReadAheadBytesSize, readAheadCacheBatchBytesSize)
+                    : maxReadAheadBytesSize;
+            int readCount = (int) Math.min(maxReadAheadCount, maxBytes / Math.max(entrySize, 1) + 1);
+            entries = readEntriesFromEntryLog(ledgerId, firstEntryId, readCount);
+
+            for (ByteBuf entry : entries) {
+                if (!chargeReadAheadCache(count, size)) {
+                    break;
+                }
+
+                if (readAheadLaneEnabled) {
+                    // Keep the entry out of the read cache until it gets read twice
+                    readAheadLane.put(ledgerId, firstEntryId + count, entry);
+                } else {
+                    readCache.put(ledgerId, firstEntryId + count, entry);
+                }
+
+                count++;
+                size += entry.readableBytes();
+            }
+        } catch (Exception e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Exception during read ahead for ledger: {}: e", ledgerId, e);
+            }
+        } finally {
+            entries.forEach(ReferenceCountUtil::release);
+            dbLedgerStorageStats.getReadAheadBatchCountStats().registerSuccessfulValue(count);
+            dbLedgerStorageStats.getReadAheadBatchSizeStats().registerSuccessfulValue(size);
+            dbLedgerStorageStats.getReadAheadTime().addLatency(
+                    MathUtils.elapsedNanos(readAheadStartNano), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Read up to {@code maxCount} consecutive entries of a ledger from the entry logger, with a single
+     * vectored read. Stops at the first entry missing from the location index.
+     */
+    private List<ByteBuf> readEntriesFromEntryLog(long ledgerId, long firstEntryId, int maxCount)
+            throws IOException {
+        long[] locations = new long[maxCount];
+        int count = 0;
+        long locationIndexStartNano = MathUtils.nowInNano();
+        try {
+            while (count < maxCount) {
+                long location = entryLocationIndex.getLocation(ledgerId, firstEntryId + count);
+                if (location == 0) {
+                    break;
+                }
+                locations[count++] = location;
+            }
+        } finally {
+            dbLedgerStorageStats.getReadFromLocationIndexTime().addLatency(
+                    MathUtils.elapsedNanos(locationIndexStartNano), TimeUnit.NANOSECONDS);
+        }
+
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+
+        List<ByteBuf> entries;
+        long readEntryStartNano = MathUtils.nowInNano();
+        try {
+            entries = entryLogger.readEntries(count < maxCount ? Arrays.copyOf(locations, count) : locations);
+        } finally {
+            dbLedgerStorageStats.getReadFromEntryLogTime().addLatency(
+                    MathUtils.elapsedNanos(readEntryStartNano), TimeUnit.NANOSECONDS);
+        }
+
+        for (int i = 0; i < entries.size(); i++) {
+            ByteBuf entry = entries.get(i);
+            if (entry.getLong(0) != ledgerId || entry.getLong(8) != firstEntryId + i) {
+                entries.forEach(ReferenceCountUtil::release);
+                throw new IOException("Bad location " + locations[i] + " for entry " + ledgerId + "@"
+                        + (firstEntryId + i) + ", found " + entry.getLong(0) + "@" + entry.getLong(8));
+            }
+        }
+        return entries;
+    }
+
     protected boolean chargeReadAheadCache(int currentReadAheadCount, long currentReadAheadBytes) {
         // compatible with old logic
         boolean chargeSizeCondition = currentReadAheadCount < readAheadCacheBatchSize
@@ -733,20 +1080,23 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
                 return entry;
             }
 
-            // If there's a flush going on, the entry might be in the flush buffer
-            entry = writeCacheBeingFlushed.getLastEntry(ledgerId);
-            if (entry != null) {
-                if (log.isDebugEnabled()) {
-                    entry.readLong(); // ledgedId
-                    long entryId = entry.readLong();
-                    entry.resetReaderIndex();
+            // If there are flushes going on, the entry might be in one of the flush buffers, starting from the newest
+            for (WriteCacheGeneration generation : writeCachesBeingFlushed) {
+                entry = generation.getWriteCache().getLastEntry(ledgerId);
+                if (entry != null) {
                     if (log.isDebugEnabled()) {
-                        log.debug("Found last entry for ledger {} in write cache being flushed: {}", ledgerId, entryId);
+                        entry.readLong(); // ledgedId
+                        long entryId = entry.readLong();
+                        entry.resetReaderIndex();
+                        if (log.isDebugEnabled()) {
+                            log.debug("Found last entry for ledger {} in write cache being flushed: {}", ledgerId,
+                                    entryId);
+                        }
                     }
-                }
 
-                dbLedgerStorageStats.getWriteCacheHitCounter().inc();
-                return entry;
+                    dbLedgerStorageStats.getWriteCacheHitCounter().inc();
+                    return entry;
+                }
             }
         } finally {
             writeCacheRotationLock.unlockRead(stamp);
@@ -782,6 +1132,31 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         }
     }
 
+    /**
+     * Flush a generation in background, unless another thread has already claimed it.
+     */
+    private void triggerFlush(WriteCacheGeneration generation) {
+        if (!generation.tryClaim()) {
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                long startTime = System.nanoTime();
+                try {
+                    flushWriteCacheGeneration(generation);
+                } catch (IOException e) {
+                    log.error("Error during flush", e);
+                } finally {
+                    flushExecutorTime.addLatency(MathUtils.elapsedNanos(startTime), TimeUnit.NANOSECONDS);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The storage was shut down, release the claim on the generation
+            generation.flushFailed(e);
+        }
+    }
+
     @Override
     public void checkpoint(Checkpoint checkpoint) throws IOException {
         Checkpoint thisCheckpoint = checkpointSource.newCheckpoint();
@@ -789,39 +1164,131 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             return;
         }
 
-        // Only a single flush operation can happen at a time
-        flushMutex.lock();
-        long startTime = -1;
-        try {
-            startTime = MathUtils.nowInNano();
-        } catch (Throwable e) {
-            // Fix spotbugs warning. Should never happen
-            flushMutex.unlock();
-            throw new IOException(e);
-        }
-
+        long startTime = MathUtils.nowInNano();
         try {
-            if (writeCache.isEmpty()) {
+            WriteCache localWriteCache = writeCache;
+            if (localWriteCache.isEmpty() && writeCachesBeingFlushed.length == 0) {
                 return;
             }
-            // Swap the write cache so that writes can continue to happen while the flush is
-            // ongoing
-            swapWriteCache();
 
-            long sizeToFlush = writeCacheBeingFlushed.size();
-            if (log.isDebugEnabled()) {
-                log.debug("Flushing entries. count: {} -- size {} Mb", writeCacheBeingFlushed.count(),
-                        sizeToFlush / 1024.0 / 1024);
+            // Rotate the write cache so that writes can continue to happen on a new generation while the flush is
+            // ongoing. If all the generations are still being flushed, we first need to wait for them.
+            while (!localWriteCache.isEmpty() && rotateWriteCache(localWriteCache) == null
+                    && writeCache == localWriteCache) {
+                flushWriteCacheGenerations(writeCachesBeingFlushed);
             }
 
-            // Write all the pending entries into the entry logger and collect the offset
-            // position for each entry
+            // All the entries added before the checkpoint are now in the generations being flushed. Flush the ones
+            // that are not yet picked up by a background thread, and wait for the others.
+            flushWriteCacheGenerations(writeCachesBeingFlushed);
+
+            long ledgerIndexStartTime = MathUtils.nowInNano();
+            ledgerIndex.flush();
+            recordSuccessfulEvent(dbLedgerStorageStats.getFlushLedgerIndexStats(), ledgerIndexStartTime);
+
+            updateLastCheckpoint(thisCheckpoint);
+
+            recordSuccessfulEvent(dbLedgerStorageStats.getFlushStats(), startTime);
+        } catch (IOException e) {
+            recordFailedEvent(dbLedgerStorageStats.getFlushStats(), startTime);
+            // Leave IOExecption as it is
+            throw e;
+        } finally {
+            cleanupExecutor.execute(() -> {
+                // There can only be one single cleanup task running because the cleanupExecutor
+                // is single-threaded
+                try {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Removing deleted ledgers from db indexes");
+                    }
 
-            Batch batch = entryLocationIndex.newBatch();
-            writeCacheBeingFlushed.forEach((ledgerId, entryId, entry) -> {
-                long location = entryLogger.addEntry(ledgerId, entry);
-                entryLocationIndex.addLocation(batch, ledgerId, entryId, location);
+                    entryLocationIndex.removeOffsetFromDeletedLedgers();
+                    ledgerIndex.removeDeletedLedgers();
+                } catch (Throwable t) {
+                    log.warn("Failed to cleanup db indexes", t);
+                }
             });
+        }
+    }
+
+    private synchronized void updateLastCheckpoint(Checkpoint checkpoint) {
+        if (checkpoint.compareTo(lastCheckpoint) > 0) {
+            lastCheckpoint = checkpoint;
+        }
+    }
+
+    /**
+     * Flush the given write cache generations, from the oldest to the newest, and wait for all of them to be
+     * persisted. The generations that are already being flushed by other threads are only waited for.
+     */
+    private void flushWriteCacheGenerations(WriteCacheGeneration[] generations) throws IOException {
+        for (int i = generations.length - 1; i >= 0; i--) {
+            if (generations[i].tryClaim()) {
+                flushWriteCacheGeneration(generations[i]);
+            }
+        }
+
+        // Wait for the generations claimed by other threads. If one of their flushes fails, the generation is
+        // flushed again here unless the error was already passed on while waiting for it
+        for (WriteCacheGeneration generation : generations) {
+            generation.flushOrAwait(this::flushWriteCacheGeneration);
+        }
+    }
+
+    /**
+     * Write all the entries of a write cache generation into the entry logger and the locations index.
+     *
+     * <p>The caller must have claimed the generation. Multiple generations can be flushed concurrently.
+     */
+    private void flushWriteCacheGeneration(WriteCacheGeneration generation) throws IOException {
+        long startTime = MathUtils.nowInNano();
+        WriteCache cacheToFlush = generation.getWriteCache();
+        long sizeToFlush = cacheToFlush.size();
+        if (log.isDebugEnabled()) {
+            log.debug("Flushing entries. count: {} -- size {} Mb", cacheToFlush.count(),
+                    sizeToFlush / 1024.0 / 1024);
+        }
+
+        long indexUpdateEpoch = beginIndexUpdate();
+        try {
+            if (flushPartitions == 1) {
+                flushWriteCache(cacheToFlush);
+            } else {
+                flushWriteCachePartitions(cacheToFlush);
+            }
+        } catch (IOException | RuntimeException e) {
+            generation.flushFailed(e);
+            throw e;
+        } finally {
+            endIndexUpdate(indexUpdateEpoch);
+        }
+
+        // Discard all the entry from the write cache, since they're now persisted
+        releaseWriteCacheGeneration(generation);
+        generation.flushCompleted();
+
+        double flushTimeSeconds = MathUtils.elapsedNanos(startTime) / (double) TimeUnit.SECONDS.toNanos(1);
+        double flushThroughput = sizeToFlush / 1024.0 / 1024.0 / flushTimeSeconds;
+
+        if (log.isDebugEnabled()) {
+            log.debug("Flushing done time {} s -- Written {} MB/s", flushTimeSeconds, flushThroughput);
+        }
+
+        dbLedgerStorageStats.getFlushSizeStats().registerSuccessfulValue(sizeToFlush);
+    }
+
+    private void flushWriteCache(WriteCache cacheToFlush) throws IOException {
+        // Write all the pending entries into the entry logger and collect the offset
+        // position for each entry
+        Batch batch = entryLocationIndex.newBatch();
+        try {
+            LedgerRunWriter writer = new LedgerRunWriter(batch);
+            try {
+                cacheToFlush.forEach(writer);
+                writer.finishLedgerRun();
+            } finally {
+                writer.unlock();
+            }
 
             long entryLoggerStart = MathUtils.nowInNano();
             entryLogger.flush();
@@ -829,80 +1296,223 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
             long batchFlushStartTime = MathUtils.nowInNano();
             batch.flush();
-            batch.close();
             recordSuccessfulEvent(dbLedgerStorageStats.getFlushLocationIndexStats(), batchFlushStartTime);
             if (log.isDebugEnabled()) {
                 log.debug("DB batch flushed time : {} s",
                         MathUtils.elapsedNanos(batchFlushStartTime) / (double) TimeUnit.SECONDS.toNanos(1));
             }
+        } finally {
+            batch.close();
+        }
+    }
 
-            long ledgerIndexStartTime = MathUtils.nowInNano();
-            ledgerIndex.flush();
-            recordSuccessfulEvent(dbLedgerStorageStats.getFlushLedgerIndexStats(), ledgerIndexStartTime);
+    private long beginIndexUpdate() {
+        return ledgerEntriesSummary != null ? ledgerEntriesSummary.beginIndexUpdate() : 0;
+    }
 
-            lastCheckpoint = thisCheckpoint;
+    private void endIndexUpdate(long epoch) {
+        if (ledgerEntriesSummary != null) {
+            ledgerEntriesSummary.endIndexUpdate(epoch);
+        }
+    }
+
+    private void addToLedgerEntriesSummary(long ledgerId, long entryId) throws IOException {
+        if (ledgerEntriesSummary != null) {
+            ledgerEntriesSummary.add(ledgerId, entryId);
+        }
+    }
+
+    /**
+     * Flush a write cache split in partitions by ledger id, each one with its own locations index batch.
+     *
+     * <p>The partitions are sorted and indexed in parallel. The entries of each ledger are written into the entry
+     * logger as a single contiguous run, see {@link LedgerRunWriter}. The location batches are only flushed once the
+     * entry logger is flushed, so the index never points to entries that are not persisted.
+     */
+    private void flushWriteCachePartitions(WriteCache cacheToFlush) throws IOException {
+        Batch[] batches = new Batch[flushPartitions];
+        try {
+            for (int i = 0; i < flushPartitions; i++) {
+                batches[i] = entryLocationIndex.newBatch();
+            }
 
-            // Discard all the entry from the write cache, since they're now persisted
-            writeCacheBeingFlushed.clear();
+            runFlushPartitions(partition -> {
+                long partitionStartTime = MathUtils.nowInNano();
+                LedgerRunWriter writer = new LedgerRunWriter(batches[partition]);
+                try {
+                    cacheToFlush.forEachInPartition(partition, flushPartitions, writer);
+                    writer.finishLedgerRun();
+                } finally {
+                    writer.unlock();
+                }
+                recordSuccessfulEvent(dbLedgerStorageStats.getFlushPartitionStats()[partition], partitionStartTime);
+            });
 
-            double flushTimeSeconds = MathUtils.elapsedNanos(startTime) / (double) TimeUnit.SECONDS.toNanos(1);
-            double flushThroughput = sizeToFlush / 1024.0 / 1024.0 / flushTimeSeconds;
+            long entryLoggerStart = MathUtils.nowInNano();
+            entryLogger.flush();
+            recordSuccessfulEvent(dbLedgerStorageStats.getFlushEntryLogStats(), entryLoggerStart);
 
+            long batchFlushStartTime = MathUtils.nowInNano();
+            runFlushPartitions(partition -> batches[partition].flush());
+            recordSuccessfulEvent(dbLedgerStorageStats.getFlushLocationIndexStats(), batchFlushStartTime);
             if (log.isDebugEnabled()) {
-                log.debug("Flushing done time {} s -- Written {} MB/s", flushTimeSeconds, flushThroughput);
+                log.debug("DB batches flushed time : {} s",
+                        MathUtils.elapsedNanos(batchFlushStartTime) / (double) TimeUnit.SECONDS.toNanos(1));
             }
-
-            recordSuccessfulEvent(dbLedgerStorageStats.getFlushStats(), startTime);
-            dbLedgerStorageStats.getFlushSizeStats().registerSuccessfulValue(sizeToFlush);
-        } catch (IOException e) {
-            recordFailedEvent(dbLedgerStorageStats.getFlushStats(), startTime);
-            // Leave IOExecption as it is
-            throw e;
         } finally {
+            for (Batch batch : batches) {
+                if (batch != null) {
+                    batch.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the entries of a write cache, or of one of its partitions, into the entry logger.
+     *
+     * <p>The partitions and the write cache generations that are flushed concurrently share the entry logger, so the
+     * entry log lock is held for the whole run of entries of a ledger. The entries of a ledger are then contiguous in
+     * the entry log and can be read back sequentially. The locations of a run are indexed after releasing the lock.
+     */
+    private final class LedgerRunWriter implements WriteCache.EntryConsumer {
+        private final Batch batch;
+        // (entryId, location) of the entries of the current run
+        private final LongArrayList locations = new LongArrayList();
+        private long ledgerId;
+        private boolean locked = false;
+
+        LedgerRunWriter(Batch batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void accept(long ledgerId, long entryId, ByteBuf entry) throws IOException {
+            if (!locked || ledgerId != this.ledgerId) {
+                finishLedgerRun();
+                flushEntryLogLock.lock();
+                locked = true;
+                this.ledgerId = ledgerId;
+            }
+
+            locations.add(entryId, entryLogger.addEntry(ledgerId, entry));
+        }
+
+        void finishLedgerRun() throws IOException {
+            unlock();
+            for (int i = 0; i < locations.size(); i += 2) {
+                entryLocationIndex.addLocation(batch, ledgerId, locations.get(i), locations.get(i + 1));
+                addToLedgerEntriesSummary(ledgerId, locations.get(i));
+            }
+            locations.clear();
+        }
+
+        void unlock() {
+            if (locked) {
+                locked = false;
+                flushEntryLogLock.unlock();
+            }
+        }
+    }
+
+    private interface FlushPartitionTask {
+        void run(int partition) throws IOException;
+    }
+
+    /**
+     * Run a task for each flush partition on the flush partitions executor, and wait for all of them to complete.
+     */
+    private void runFlushPartitions(FlushPartitionTask task) throws IOException {
+        List<Future<?>> futures = new ArrayList<>(flushPartitions);
+        for (int i = 0; i < flushPartitions; i++) {
+            final int partition = i;
+            futures.add(flushPartitionsExecutor.submit(() -> {
+                task.run(partition);
+                return null;
+            }));
+        }
+
+        IOException exception = null;
+        for (Future<?> future : futures) {
             try {
-                cleanupExecutor.execute(() -> {
-                    // There can only be one single cleanup task running because the cleanupExecutor
-                    // is single-threaded
-                    try {
-                        if (log.isDebugEnabled()) {
-                            log.debug("Removing deleted ledgers from db indexes");
-                        }
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while flushing write cache partitions", e);
+            } catch (ExecutionException e) {
+                if (exception == null) {
+                    exception = e.getCause() instanceof IOException
+                            ? (IOException) e.getCause()
+                            : new IOException("Failed to flush write cache partition", e.getCause());
+                }
+            }
+        }
 
-                        entryLocationIndex.removeOffsetFromDeletedLedgers();
-                        ledgerIndex.removeDeletedLedgers();
-                    } catch (Throwable t) {
-                        log.warn("Failed to cleanup db indexes", t);
-                    }
-                });
+        if (exception != null) {
+            throw exception;
+        }
+    }
 
-                isFlushOngoing.set(false);
-            } finally {
-                flushMutex.unlock();
+    /**
+     * Replace the current write cache with an empty one, if the current one is still the expected one.
+     *
+     * @return the generation to flush or null if the write cache was already rotated or there is no empty
+     *         write cache available
+     */
+    private WriteCacheGeneration rotateWriteCache(WriteCache expectedWriteCache) {
+        long stamp = writeCacheRotationLock.writeLock();
+        try {
+            if (writeCache != expectedWriteCache || expectedWriteCache.isEmpty()) {
+                return null;
             }
+
+            WriteCache newWriteCache = freeWriteCaches.poll();
+            if (newWriteCache == null) {
+                return null;
+            }
+
+            // Swap the current write-cache with an empty one so that writes will go on unaffected
+            WriteCacheGeneration generation = new WriteCacheGeneration(expectedWriteCache);
+            WriteCacheGeneration[] generations = new WriteCacheGeneration[writeCachesBeingFlushed.length + 1];
+            generations[0] = generation;
+            System.arraycopy(writeCachesBeingFlushed, 0, generations, 1, writeCachesBeingFlushed.length);
+            writeCachesBeingFlushed = generations;
+            writeCache = newWriteCache;
+            return generation;
+        } finally {
+            writeCacheRotationLock.unlockWrite(stamp);
         }
     }
 
     /**
-     * Swap the current write cache with the replacement cache.
+     * Stop serving reads from a flushed generation and make its write cache available again.
      */
-    private void swapWriteCache() {
+    private void releaseWriteCacheGeneration(WriteCacheGeneration generation) {
         long stamp = writeCacheRotationLock.writeLock();
         try {
-            // First, swap the current write-cache map with an empty one so that writes will
-            // go on unaffected. Only a single flush is happening at the same time
-            WriteCache tmp = writeCacheBeingFlushed;
-            writeCacheBeingFlushed = writeCache;
-            writeCache = tmp;
-
-            // since the cache is switched, we can allow flush to be triggered
-            hasFlushBeenTriggered.set(false);
+            WriteCacheGeneration[] generations = new WriteCacheGeneration[writeCachesBeingFlushed.length - 1];
+            int idx = 0;
+            for (WriteCacheGeneration g : writeCachesBeingFlushed) {
+                if (g != generation) {
+                    generations[idx++] = g;
+                }
+            }
+            writeCachesBeingFlushed = generations;
+
+            generation.getWriteCache().clear();
+            freeWriteCaches.add(generation.getWriteCache());
         } finally {
-            try {
-                isFlushOngoing.set(true);
-            } finally {
-                writeCacheRotationLock.unlockWrite(stamp);
+            writeCacheRotationLock.unlockWrite(stamp);
+        }
+    }
+
+    private static boolean hasEntryInGenerations(WriteCacheGeneration[] generations, long ledgerId, long entryId) {
+        for (WriteCacheGeneration generation : generations) {
+            if (generation.getWriteCache().hasEntry(ledgerId, entryId)) {
+                return true;
             }
         }
+        return false;
     }
 
     @Override
@@ -920,15 +1530,24 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             log.debug("Deleting ledger {}", ledgerId);
         }
 
-        // Delete entries from this ledger that are still in the write cache
+        // Delete entries from this ledger that are still in the write caches
         long stamp = writeCacheRotationLock.readLock();
         try {
             writeCache.deleteLedger(ledgerId);
+            for (WriteCacheGeneration generation : writeCachesBeingFlushed) {
+                generation.getWriteCache().deleteLedger(ledgerId);
+            }
         } finally {
             writeCacheRotationLock.unlockRead(stamp);
         }
 
+        readAheadLane.removeLedger(ledgerId);
+        readAheadWindowTracker.removeLedger(ledgerId);
+
         entryLocationIndex.delete(ledgerId);
+        if (ledgerEntriesSummary != null) {
+            ledgerEntriesSummary.removeLedger(ledgerId);
+        }
         ledgerIndex.delete(ledgerId);
 
         for (int i = 0, size = ledgerDeletionListeners.size(); i < size; i++) {
@@ -965,11 +1584,17 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         // the DB.
         // The easiest lightweight way to achieve this is to wait for any pending
         // flush operation to be completed before updating the index with the compacted
-        // entries, by blocking on the flushMutex.
-        flushMutex.lock();
-        flushMutex.unlock();
+        // entries, by waiting on all the write cache generations being flushed.
+        for (WriteCacheGeneration generation : writeCachesBeingFlushed) {
+            try {
+                generation.awaitOngoingFlush();
+            } catch (IOException e) {
+                // The entries of a failed flush are not indexed and will be flushed again later
+                log.warn("Write cache flush failed while waiting to update compacted entries locations", e);
+            }
+        }
 
-        // We don't need to keep the flush mutex locked here while updating the DB.
+        // We don't need to block the flushes here while updating the DB.
         // It's fine to have a concurrent flush operation at this point, because we
         // know that none of the entries being flushed was included in the compaction
         // round that we are dealing with.
@@ -1088,18 +1713,24 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
         // Iterate over all the entries pages
         Batch batch = entryLocationIndex.newBatch();
-        for (LedgerCache.PageEntries page: pages) {
-            try (LedgerEntryPage lep = page.getLEP()) {
-                lep.getEntries((entryId, location) -> {
-                    entryLocationIndex.addLocation(batch, ledgerId, entryId, location);
-                    numberOfEntries.increment();
-                    return true;
-                });
+        long indexUpdateEpoch = beginIndexUpdate();
+        try {
+            for (LedgerCache.PageEntries page: pages) {
+                try (LedgerEntryPage lep = page.getLEP()) {
+                    lep.getEntries((entryId, location) -> {
+                        entryLocationIndex.addLocation(batch, ledgerId, entryId, location);
+                        addToLedgerEntriesSummary(ledgerId, entryId);
+                        numberOfEntries.increment();
+                        return true;
+                    });
+                }
             }
-        }
 
-        ledgerIndex.flush();
-        batch.flush();
+            ledgerIndex.flush();
+            batch.flush();
+        } finally {
+            endIndexUpdate(indexUpdateEpoch);
+        }
         batch.close();
 
         return numberOfEntries.longValue();
@@ -0,0 +1,388 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.LongArrayList;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.IllegalReferenceCountException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongPredicate;
+import org.apache.bookkeeper.common.collections.BusyWait;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
+
+/**
+ * Index of (ledgerId, entryId, offset, length) tuples that is kept sorted while the tuples are added.
+ *
+ * <p>The tuples of each ledger are appended into off-heap blocks owned by that ledger. Entries of a ledger are
+ * normally added in increasing entry id order, so they form a single sorted run. An entry that comes out of order
+ * starts a new run. Iterating in (ledgerId, entryId) order then only requires sorting the ledger ids and doing a
+ * k-way merge of the runs of each ledger, instead of sorting all the tuples.
+ *
+ * <p>Adding tuples is thread safe and does not take any lock, except when a ledger needs a new block. A tuple is
+ * visible to the iteration once it and all the tuples added before it to the same ledger are written. Clearing and
+ * closing tolerate late additions from writers that raced with the rotation of the write cache: a tuple added to a
+ * ledger while it is being cleared is dropped, and the blocks of the ledger are only released once the writers are
+ * done with them.
+ */
+public class SortedRunIndex implements Closeable {
+
+    /**
+     * Consumer of the tuples stored in the index.
+     */
+    public interface TupleConsumer {
+        void accept(long ledgerId, long entryId, long offset, long length) throws IOException;
+    }
+
+    private static final int TUPLE_SIZE = 3 * Long.BYTES;
+
+    // Blocks of a ledger double in size up to a max size, so that ledgers with few entries only use a little memory
+    private static final int MIN_BLOCK_TUPLES = 16;
+    private static final int MAX_BLOCK_GROWTH_SHIFT = 12;
+    private static final int MAX_BLOCK_TUPLES = MIN_BLOCK_TUPLES << MAX_BLOCK_GROWTH_SHIFT;
+    // Index of the first tuple stored in a block of max size
+    private static final int MAX_BLOCKS_START = MIN_BLOCK_TUPLES * ((1 << MAX_BLOCK_GROWTH_SHIFT) - 1);
+
+    private final ByteBufAllocator allocator;
+    private final ConcurrentLongHashMap<LedgerRuns> ledgers = ConcurrentLongHashMap.<LedgerRuns>newBuilder()
+            .expectedItems(4096)
+            .concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
+            .build();
+
+    private final AtomicLong memoryUsage = new AtomicLong();
+
+    public SortedRunIndex(ByteBufAllocator allocator) {
+        this.allocator = allocator;
+    }
+
+    public void add(long ledgerId, long entryId, long offset, long length) {
+        // If the runs are released concurrently, the tuple is dropped with the rest of the cleared index
+        ledgers.computeIfAbsent(ledgerId, LedgerRuns::new).add(entryId, offset, length);
+    }
+
+    /**
+     * Iterate through all the tuples, in (ledgerId, entryId) order.
+     */
+    public void forEach(TupleConsumer consumer) throws IOException {
+        forEach(ledgerId -> true, consumer);
+    }
+
+    /**
+     * Iterate through the tuples of the ledgers accepted by the filter, in (ledgerId, entryId) order.
+     */
+    public void forEach(LongPredicate ledgerFilter, TupleConsumer consumer) throws IOException {
+        LongArrayList filteredLedgerIds = new LongArrayList((int) ledgers.size());
+        ledgers.forEach((ledgerId, runs) -> {
+            if (ledgerFilter.test(ledgerId)) {
+                filteredLedgerIds.add(ledgerId);
+            }
+        });
+
+        long[] ledgerIds = filteredLedgerIds.toArray();
+        Arrays.sort(ledgerIds);
+
+        for (int i = 0; i < ledgerIds.length; i++) {
+            LedgerRuns runs = ledgers.get(ledgerIds[i]);
+            if (runs != null && runs.tryRetain()) {
+                try {
+                    runs.forEach(consumer);
+                } finally {
+                    runs.release();
+                }
+            }
+        }
+    }
+
+    public long ledgersCount() {
+        return ledgers.size();
+    }
+
+    /**
+     * @return the off-heap memory used by the blocks of the index
+     */
+    public long memoryUsage() {
+        return memoryUsage.get();
+    }
+
+    /**
+     * Remove all the tuples and release the off-heap memory used to store them.
+     */
+    public void clear() {
+        // The runs are released while being removed, so that a concurrent addition either lands in released runs,
+        // and is dropped, or creates new runs that stay in the index until the next clear
+        ledgers.removeIf((ledgerId, runs) -> {
+            runs.release();
+            return true;
+        });
+    }
+
+    @Override
+    public void close() {
+        clear();
+    }
+
+    private static int blockIndex(int tupleIdx) {
+        if (tupleIdx >= MAX_BLOCKS_START) {
+            return MAX_BLOCK_GROWTH_SHIFT + (tupleIdx - MAX_BLOCKS_START) / MAX_BLOCK_TUPLES;
+        }
+        return 31 - Integer.numberOfLeadingZeros(tupleIdx / MIN_BLOCK_TUPLES + 1);
+    }
+
+    private static int blockStart(int blockIdx) {
+        if (blockIdx >= MAX_BLOCK_GROWTH_SHIFT) {
+            return MAX_BLOCKS_START + (blockIdx - MAX_BLOCK_GROWTH_SHIFT) * MAX_BLOCK_TUPLES;
+        }
+        return MIN_BLOCK_TUPLES * ((1 << blockIdx) - 1);
+    }
+
+    private static int blockCapacity(int blockIdx) {
+        return MIN_BLOCK_TUPLES << Math.min(blockIdx, MAX_BLOCK_GROWTH_SHIFT);
+    }
+
+    /**
+     * The tuples of a single ledger, in insertion order.
+     *
+     * <p>Each addition reserves the position of its tuple, writes it without locking and then publishes it, after the
+     * tuples at the previous positions were published. The runs are only found when iterating. The blocks are
+     * released once the runs are released by the index and by all the writers.
+     */
+    private final class LedgerRuns extends AbstractReferenceCounted {
+        private final long ledgerId;
+
+        private volatile ByteBuf[] blocks = new ByteBuf[4];
+        private final AtomicInteger tuplesCount = new AtomicInteger();
+        private final AtomicInteger publishedCount = new AtomicInteger();
+
+        LedgerRuns(long ledgerId) {
+            this.ledgerId = ledgerId;
+        }
+
+        boolean tryRetain() {
+            try {
+                retain();
+                return true;
+            } catch (IllegalReferenceCountException e) {
+                return false;
+            }
+        }
+
+        void add(long entryId, long offset, long length) {
+            if (!tryRetain()) {
+                return;
+            }
+
+            try {
+                int tupleIdx = tuplesCount.getAndIncrement();
+                int blockIdx = blockIndex(tupleIdx);
+                ByteBuf[] localBlocks = blocks;
+                ByteBuf block = blockIdx < localBlocks.length ? localBlocks[blockIdx] : null;
+                if (block == null) {
+                    block = allocateBlock(blockIdx);
+                }
+
+                int blockOffset = (tupleIdx - blockStart(blockIdx)) * TUPLE_SIZE;
+                block.setLong(blockOffset, entryId);
+                block.setLong(blockOffset + Long.BYTES, offset);
+                block.setLong(blockOffset + 2 * Long.BYTES, length);
+
+                // Concurrent additions to the same ledger are rare, this is normally not spinning
+                while (!publishedCount.compareAndSet(tupleIdx, tupleIdx + 1)) {
+                    BusyWait.onSpinWait();
+                }
+            } finally {
+                release();
+            }
+        }
+
+        private synchronized ByteBuf allocateBlock(int blockIdx) {
+            ByteBuf[] localBlocks = blocks;
+            if (blockIdx >= localBlocks.length) {
+                localBlocks = Arrays.copyOf(localBlocks, Math.max(blockIdx + 1, localBlocks.length * 2));
+            } else if (localBlocks[blockIdx] != null) {
+                return localBlocks[blockIdx];
+            } else {
+                localBlocks = localBlocks.clone();
+            }
+
+            int capacity = blockCapacity(blockIdx) * TUPLE_SIZE;
+            localBlocks[blockIdx] = allocator.directBuffer(capacity, capacity);
+            memoryUsage.addAndGet(capacity);
+            blocks = localBlocks;
+            return localBlocks[blockIdx];
+        }
+
+        void forEach(TupleConsumer consumer) throws IOException {
+            // The blocks of the published tuples were set before the tuples were published
+            int count = publishedCount.get();
+            ByteBuf[] localBlocks = blocks;
+
+            // An entry that is not after the previous one starts a new sorted run
+            IntArrayList runStarts = new IntArrayList();
+            runStarts.add(0);
+            RunCursor scan = new RunCursor(localBlocks, 0, count);
+            long lastEntryId = -1;
+            while (scan.hasNext()) {
+                long entryId = scan.entryId();
+                if (scan.position > 0 && entryId <= lastEntryId) {
+                    runStarts.add(scan.position);
+                }
+                lastEntryId = entryId;
+                scan.next();
+            }
+
+            int runsCount = runStarts.size();
+            if (runsCount == 1) {
+                RunCursor cursor = new RunCursor(localBlocks, 0, count);
+                while (cursor.hasNext()) {
+                    consumer.accept(ledgerId, cursor.entryId(), cursor.offset(), cursor.length());
+                    cursor.next();
+                }
+                return;
+            }
+
+            // Merge the runs using a min-heap of cursors, ordered by the current (entryId, position) of each run.
+            // An entry that was added more than once is only reported with its latest position, as in the index
+            // of the write cache.
+            RunCursor[] heap = new RunCursor[runsCount];
+            for (int i = 0; i < runsCount; i++) {
+                int end = i == runsCount - 1 ? count : runStarts.get(i + 1);
+                heap[i] = new RunCursor(localBlocks, runStarts.get(i), end);
+            }
+            for (int i = runsCount / 2 - 1; i >= 0; i--) {
+                siftDown(heap, runsCount, i);
+            }
+
+            int heapSize = runsCount;
+            while (heapSize > 0) {
+                RunCursor cursor = heap[0];
+                long entryId = cursor.entryId();
+                long offset = cursor.offset();
+                long length = cursor.length();
+                cursor.next();
+                if (!cursor.hasNext()) {
+                    heap[0] = heap[--heapSize];
+                }
+                siftDown(heap, heapSize, 0);
+
+                if (heapSize == 0 || heap[0].entryId() != entryId) {
+                    consumer.accept(ledgerId, entryId, offset, length);
+                }
+            }
+        }
+
+        @Override
+        protected void deallocate() {
+            ByteBuf[] localBlocks = blocks;
+            for (int i = 0; i < localBlocks.length; i++) {
+                if (localBlocks[i] != null) {
+                    memoryUsage.addAndGet(-localBlocks[i].capacity());
+                    localBlocks[i].release();
+                    localBlocks[i] = null;
+                }
+            }
+        }
+
+        @Override
+        public LedgerRuns touch(Object hint) {
+            return this;
+        }
+
+        private void siftDown(RunCursor[] heap, int heapSize, int idx) {
+            while (true) {
+                int smallest = idx;
+                int left = 2 * idx + 1;
+                int right = left + 1;
+                if (left < heapSize && heap[left].isBefore(heap[smallest])) {
+                    smallest = left;
+                }
+                if (right < heapSize && heap[right].isBefore(heap[smallest])) {
+                    smallest = right;
+                }
+                if (smallest == idx) {
+                    return;
+                }
+
+                RunCursor tmp = heap[idx];
+                heap[idx] = heap[smallest];
+                heap[smallest] = tmp;
+                idx = smallest;
+            }
+        }
+
+        /**
+         * Sequential reader of the tuples of a run.
+         */
+        private final class RunCursor {
+            // The blocks of the ledger, that are not modified while a cursor is in use
+            private final ByteBuf[] blocks;
+            private int position;
+            private int remaining;
+            private int blockIdx;
+            private int blockOffset;
+
+            RunCursor(ByteBuf[] blocks, int start, int end) {
+                this.blocks = blocks;
+                this.position = start;
+                this.remaining = end - start;
+                this.blockIdx = blockIndex(start);
+                this.blockOffset = (start - blockStart(blockIdx)) * TUPLE_SIZE;
+            }
+
+            boolean hasNext() {
+                return remaining > 0;
+            }
+
+            long entryId() {
+                return blocks[blockIdx].getLong(blockOffset);
+            }
+
+            long offset() {
+                return blocks[blockIdx].getLong(blockOffset + Long.BYTES);
+            }
+
+            long length() {
+                return blocks[blockIdx].getLong(blockOffset + 2 * Long.BYTES);
+            }
+
+            boolean isBefore(RunCursor other) {
+                long entryId = entryId();
+                long otherEntryId = other.entryId();
+                return entryId < otherEntryId || (entryId == otherEntryId && position < other.position);
+            }
+
+            void next() {
+                position++;
+                remaining--;
+                blockOffset += TUPLE_SIZE;
+                if (blockOffset == blockCapacity(blockIdx) * TUPLE_SIZE) {
+                    blockIdx++;
+                    blockOffset = 0;
+                }
+            }
+        }
+    }
+}
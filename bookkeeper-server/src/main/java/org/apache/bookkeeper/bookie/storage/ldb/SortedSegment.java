@@ -0,0 +1,554 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+// CHECKSTYLE.OFF: IllegalImport
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.ReferenceCounted;
+import io.netty.util.internal.PlatformDependent;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+// CHECKSTYLE.ON: IllegalImport
+
+/**
+ * Immutable file with key-value records sorted by key, used by {@link KeyValueStorageSortedSegments}.
+ *
+ * <p>The file layout is:
+ *
+ * <pre>
+ * [records] [range tombstones] [records offsets index] [footer]
+ * </pre>
+ *
+ * <p>Each record is {@code [keyLength:int] [valueLength:int] [key] [value]}, with a value length of -1 for a
+ * deleted key. Range tombstones delete the keys in [begin, end) of the older segments. The index holds the offset of
+ * each record, so that the records can be binary searched. The file is memory mapped in regions of 1GB and a record
+ * never crosses a region boundary.
+ *
+ * <p>The segment is reference counted: the file is unmapped as soon as the last reference is released, rather than
+ * when the mapped buffers are garbage collected.
+ */
+class SortedSegment extends AbstractReferenceCounted {
+
+    static final Comparator<byte[]> KEY_COMPARATOR = SortedSegment::compareKeys;
+
+    private static final long MAGIC = 0x424b534547303031L; // BKSEG001
+    private static final int FOOTER_SIZE = 5 * Long.BYTES;
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int TOMBSTONE_LENGTH = -1;
+
+    private static final int REGION_BITS = 30;
+    private static final long REGION_SIZE = 1L << REGION_BITS;
+    private static final long REGION_MASK = REGION_SIZE - 1;
+
+    private final long id;
+    private final File file;
+    private final long fileSize;
+    private final long minCoveredId;
+    private final long recordsCount;
+    private final long indexOffset;
+    private final MappedByteBuffer[] regions;
+
+    // Range tombstones, sorted and not overlapping
+    private final byte[][] rangeBegins;
+    private final byte[][] rangeEnds;
+
+    // Lowest and highest keys affected by this segment, records or range tombstones
+    private final byte[] lowKey;
+    private final byte[] highKey;
+
+    private SortedSegment(long id, File file) throws IOException {
+        this.id = id;
+        this.file = file;
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            this.fileSize = channel.size();
+            if (fileSize < FOOTER_SIZE) {
+                throw new IOException("Segment file " + file + " is truncated");
+            }
+
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            while (footer.hasRemaining()) {
+                if (channel.read(footer, fileSize - FOOTER_SIZE + footer.position()) < 0) {
+                    throw new IOException("Failed to read footer of segment file " + file);
+                }
+            }
+            footer.flip();
+            // Segments that are not the result of a merge only cover themselves
+            long coveredId = footer.getLong();
+            this.minCoveredId = coveredId >= 0 ? coveredId : id;
+            this.recordsCount = footer.getLong();
+            long rangesOffset = footer.getLong();
+            this.indexOffset = footer.getLong();
+            if (footer.getLong() != MAGIC) {
+                throw new IOException("Invalid segment file " + file);
+            }
+
+            int regionsCount = (int) ((fileSize + REGION_SIZE - 1) >>> REGION_BITS);
+            this.regions = new MappedByteBuffer[regionsCount];
+            for (int i = 0; i < regionsCount; i++) {
+                long start = (long) i << REGION_BITS;
+                regions[i] = channel.map(MapMode.READ_ONLY, start, Math.min(REGION_SIZE, fileSize - start));
+            }
+
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel.position(rangesOffset))))) {
+                int rangesCount = in.readInt();
+                this.rangeBegins = new byte[rangesCount][];
+                this.rangeEnds = new byte[rangesCount][];
+                for (int i = 0; i < rangesCount; i++) {
+                    rangeBegins[i] = new byte[in.readInt()];
+                    rangeEnds[i] = new byte[in.readInt()];
+                    in.readFully(rangeBegins[i]);
+                    in.readFully(rangeEnds[i]);
+                }
+            }
+        }
+
+        byte[] low = recordsCount > 0 ? keyAt(0) : null;
+        byte[] high = recordsCount > 0 ? keyAt(recordsCount - 1) : null;
+        if (rangeBegins.length > 0) {
+            if (low == null || compareKeys(rangeBegins[0], low) < 0) {
+                low = rangeBegins[0];
+            }
+            if (high == null || compareKeys(rangeEnds[rangeEnds.length - 1], high) > 0) {
+                high = rangeEnds[rangeEnds.length - 1];
+            }
+        }
+        this.lowKey = low;
+        this.highKey = high;
+    }
+
+    /**
+     * Open a segment file, the returned segment must be released once done with it.
+     */
+    static SortedSegment open(long id, File file) throws IOException {
+        return new SortedSegment(id, file);
+    }
+
+    @Override
+    protected void deallocate() {
+        for (MappedByteBuffer region : regions) {
+            PlatformDependent.freeDirectBuffer(region);
+        }
+    }
+
+    @Override
+    public ReferenceCounted touch(Object hint) {
+        return this;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    long size() {
+        return fileSize;
+    }
+
+    /**
+     * @return the id of the oldest segment that was merged into this one, all the segments with an id between this
+     *         and the id of this segment are obsolete. For a segment that was not written by a merge, this is the id
+     *         of the segment itself
+     */
+    long getMinCoveredId() {
+        return minCoveredId;
+    }
+
+    long recordsCount() {
+        return recordsCount;
+    }
+
+    int rangesCount() {
+        return rangeBegins.length;
+    }
+
+    byte[] rangeBegin(int idx) {
+        return rangeBegins[idx];
+    }
+
+    byte[] rangeEnd(int idx) {
+        return rangeEnds[idx];
+    }
+
+    /**
+     * @return true if the key might be affected by this segment
+     */
+    boolean mightContain(byte[] key) {
+        return lowKey != null && compareKeys(key, lowKey) >= 0 && compareKeys(key, highKey) <= 0;
+    }
+
+    /**
+     * @return the begin of the range tombstone that covers the key, or null if the key is not in a deleted range
+     */
+    byte[] coveringRangeBegin(byte[] key) {
+        int low = 0;
+        int high = rangeBegins.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (compareKeys(rangeBegins[mid], key) <= 0) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        if (found >= 0 && compareKeys(key, rangeEnds[found]) < 0) {
+            return rangeBegins[found];
+        }
+        return null;
+    }
+
+    /**
+     * Binary search a key in the records.
+     *
+     * @return the index of the record, if found, or {@code -(insertionPoint + 1)}
+     */
+    long find(byte[] key) {
+        long low = 0;
+        long high = recordsCount - 1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            int cmp = compareKeyAt(mid, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * @return the index of the first record whose key is bigger or equal than the given key
+     */
+    long ceilIndex(byte[] key) {
+        long idx = find(key);
+        return idx >= 0 ? idx : -(idx + 1);
+    }
+
+    byte[] keyAt(long idx) {
+        long offset = recordOffset(idx);
+        ByteBuffer region = regions[(int) (offset >>> REGION_BITS)];
+        int pos = (int) (offset & REGION_MASK);
+        byte[] key = new byte[region.getInt(pos)];
+        readBytes(region, pos + RECORD_HEADER_SIZE, key);
+        return key;
+    }
+
+    boolean isTombstone(long idx) {
+        long offset = recordOffset(idx);
+        ByteBuffer region = regions[(int) (offset >>> REGION_BITS)];
+        return region.getInt((int) (offset & REGION_MASK) + Integer.BYTES) == TOMBSTONE_LENGTH;
+    }
+
+    /**
+     * @return the value of the record or null if the record is a tombstone
+     */
+    byte[] valueAt(long idx) {
+        long offset = recordOffset(idx);
+        ByteBuffer region = regions[(int) (offset >>> REGION_BITS)];
+        int pos = (int) (offset & REGION_MASK);
+        int keyLength = region.getInt(pos);
+        int valueLength = region.getInt(pos + Integer.BYTES);
+        if (valueLength == TOMBSTONE_LENGTH) {
+            return null;
+        }
+
+        byte[] value = new byte[valueLength];
+        readBytes(region, pos + RECORD_HEADER_SIZE + keyLength, value);
+        return value;
+    }
+
+    private long recordOffset(long idx) {
+        long indexPos = indexOffset + idx * Long.BYTES;
+        return regions[(int) (indexPos >>> REGION_BITS)].getLong((int) (indexPos & REGION_MASK));
+    }
+
+    private int compareKeyAt(long idx, byte[] key) {
+        long offset = recordOffset(idx);
+        ByteBuffer region = regions[(int) (offset >>> REGION_BITS)];
+        int pos = (int) (offset & REGION_MASK);
+        int keyLength = region.getInt(pos);
+        pos += RECORD_HEADER_SIZE;
+
+        int len = Math.min(keyLength, key.length);
+        int i = 0;
+        // Compare 8 bytes at a time, big-endian longs compare as unsigned bytes
+        for (; i + Long.BYTES <= len; i += Long.BYTES) {
+            long stored = region.getLong(pos + i);
+            long other = getLong(key, i);
+            if (stored != other) {
+                return Long.compareUnsigned(stored, other);
+            }
+        }
+        for (; i < len; i++) {
+            int cmp = (region.get(pos + i) & 0xff) - (key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return keyLength - key.length;
+    }
+
+    private static long getLong(byte[] array, int index) {
+        long value = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            value = (value << 8) | (array[index + i] & 0xff);
+        }
+        return value;
+    }
+
+    private static void readBytes(ByteBuffer region, int pos, byte[] dst) {
+        ByteBuffer buf = region.duplicate();
+        buf.position(pos);
+        buf.get(dst);
+    }
+
+    /**
+     * Compare keys as unsigned bytes, the same ordering of the RocksDB default comparator.
+     */
+    static int compareKeys(byte[] a, byte[] b) {
+        int len = Math.min(a.length, b.length);
+        for (int i = 0; i < len; i++) {
+            int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * Writer of a new segment file. The records must be added in increasing key order.
+     */
+    static class Writer implements Closeable {
+        private final File file;
+        private final File indexFile;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        private final DataOutputStream indexOut;
+        private final List<byte[][]> ranges = new ArrayList<>();
+
+        private long position = 0;
+        private long recordsCount = 0;
+        private byte[] lastKey = null;
+        private boolean finished = false;
+
+        Writer(File file) throws IOException {
+            this.file = file;
+            this.indexFile = new File(file.getPath() + ".idx");
+            this.channel = new RandomAccessFile(file, "rw").getChannel();
+            this.channel.truncate(0);
+            this.indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 64 * 1024));
+        }
+
+        /**
+         * Add a record, with a null value for a deleted key.
+         */
+        void add(byte[] key, byte[] value) throws IOException {
+            checkArgument(lastKey == null || compareKeys(lastKey, key) < 0, "Keys must be added in increasing order");
+            int recordSize = RECORD_HEADER_SIZE + key.length + (value != null ? value.length : 0);
+            if (recordSize > REGION_SIZE) {
+                throw new IOException("Record too big for a segment: " + recordSize + " bytes");
+            }
+
+            if ((position >>> REGION_BITS) != ((position + recordSize - 1) >>> REGION_BITS)) {
+                // Do not let the record cross a mapped region boundary
+                pad(REGION_SIZE - (position & REGION_MASK));
+            }
+
+            indexOut.writeLong(position);
+            writeInt(key.length);
+            writeInt(value != null ? value.length : TOMBSTONE_LENGTH);
+            write(key);
+            if (value != null) {
+                write(value);
+            }
+
+            lastKey = key;
+            recordsCount++;
+        }
+
+        /**
+         * Add a range tombstone that deletes the keys in [begin, end) from the older segments.
+         */
+        void addRange(byte[] begin, byte[] end) {
+            if (compareKeys(begin, end) < 0) {
+                ranges.add(new byte[][] { begin, end });
+            }
+        }
+
+        long recordsCount() {
+            return recordsCount;
+        }
+
+        boolean isEmpty() {
+            return recordsCount == 0 && ranges.isEmpty();
+        }
+
+        /**
+         * Write the range tombstones, the index and the footer, and sync the file on disk.
+         *
+         * @param minCoveredId the id of the oldest segment merged into this one, or -1 if the segment does not
+         *                     replace any older segment
+         */
+        void finish(long minCoveredId) throws IOException {
+            List<byte[][]> normalizedRanges = normalizeRanges(ranges);
+            long rangesOffset = position;
+            writeInt(normalizedRanges.size());
+            for (byte[][] range : normalizedRanges) {
+                writeInt(range[0].length);
+                writeInt(range[1].length);
+                write(range[0]);
+                write(range[1]);
+            }
+
+            pad((Long.BYTES - (position % Long.BYTES)) % Long.BYTES);
+            long indexOffset = position;
+            indexOut.close();
+            flushBuffer();
+            try (FileChannel indexChannel = new RandomAccessFile(indexFile, "r").getChannel()) {
+                long indexSize = indexChannel.size();
+                long transferred = 0;
+                while (transferred < indexSize) {
+                    transferred += indexChannel.transferTo(transferred, indexSize - transferred, channel);
+                }
+                position += indexSize;
+            }
+
+            writeLong(minCoveredId);
+            writeLong(recordsCount);
+            writeLong(rangesOffset);
+            writeLong(indexOffset);
+            writeLong(MAGIC);
+            flushBuffer();
+            channel.force(true);
+            finished = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                indexOut.close();
+                channel.close();
+            } finally {
+                Files.deleteIfExists(indexFile.toPath());
+                if (!finished) {
+                    Files.deleteIfExists(file.toPath());
+                }
+            }
+        }
+
+        private static List<byte[][]> normalizeRanges(List<byte[][]> ranges) {
+            ranges.sort((r1, r2) -> compareKeys(r1[0], r2[0]));
+            List<byte[][]> normalized = new ArrayList<>();
+            byte[][] current = null;
+            for (byte[][] range : ranges) {
+                if (current != null && compareKeys(range[0], current[1]) <= 0) {
+                    if (compareKeys(range[1], current[1]) > 0) {
+                        current[1] = range[1];
+                    }
+                } else {
+                    current = new byte[][] { range[0], range[1] };
+                    normalized.add(current);
+                }
+            }
+            return normalized;
+        }
+
+        private void pad(long size) throws IOException {
+            if (size > buffer.capacity()) {
+                // Leave a hole in the file
+                flushBuffer();
+                channel.position(channel.position() + size);
+            } else {
+                for (long i = 0; i < size; i++) {
+                    ensureCapacity(1);
+                    buffer.put((byte) 0);
+                }
+            }
+            position += size;
+        }
+
+        private void writeInt(int value) throws IOException {
+            ensureCapacity(Integer.BYTES);
+            buffer.putInt(value);
+            position += Integer.BYTES;
+        }
+
+        private void writeLong(long value) throws IOException {
+            ensureCapacity(Long.BYTES);
+            buffer.putLong(value);
+            position += Long.BYTES;
+        }
+
+        private void write(byte[] data) throws IOException {
+            int offset = 0;
+            while (offset < data.length) {
+                ensureCapacity(1);
+                int len = Math.min(buffer.remaining(), data.length - offset);
+                buffer.put(data, offset, len);
+                offset += len;
+            }
+            position += data.length;
+        }
+
+        private void ensureCapacity(int size) throws IOException {
+            if (buffer.remaining() < size) {
+                flushBuffer();
+            }
+        }
+
+        private void flushBuffer() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+/**
+ * Frequency based read cache eviction policy, in the spirit of TinyLFU.
+ *
+ * <p>The hits on the read cache are recorded in a {@link FrequencySketch}. When the oldest segment gets
+ * recycled, only the entries that have been read frequently enough are carried over into the new
+ * segment. Entries that were inserted by a sequential scan and read only once are dropped, so that a
+ * catch-up reader cannot flush out the working set of the other readers.
+ */
+class TinyLfuEvictionPolicy implements ReadCacheEvictionPolicy {
+
+    // Used to size the frequency sketch based on the cache capacity
+    private static final int ESTIMATED_ENTRY_SIZE = 1024;
+
+    // Entries that were read once after being inserted are considered part of a scan
+    private static final int MIN_RETAIN_FREQUENCY = 2;
+
+    private final FrequencySketch sketch;
+
+    TinyLfuEvictionPolicy(long maxCacheSize) {
+        this.sketch = new FrequencySketch(maxCacheSize / ESTIMATED_ENTRY_SIZE);
+    }
+
+    @Override
+    public String name() {
+        return TINY_LFU;
+    }
+
+    @Override
+    public void recordAccess(long ledgerId, long entryId) {
+        sketch.increment(ledgerId, entryId);
+    }
+
+    @Override
+    public boolean shouldRetain(long ledgerId, long entryId) {
+        return sketch.frequency(ledgerId, entryId) >= MIN_RETAIN_FREQUENCY;
+    }
+
+    @Override
+    public boolean isRetaining() {
+        return true;
+    }
+}
@@ -29,7 +29,7 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAdder;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongPredicate;
 import org.apache.bookkeeper.common.util.MathUtils;
 import org.apache.bookkeeper.util.collections.ConcurrentLongHashSet;
 import org.apache.bookkeeper.util.collections.ConcurrentLongLongHashMap;
@@ -48,7 +48,9 @@ import org.slf4j.LoggerFactory;
  * until the cache is cleared.
  *
  * <p>There is the possibility to iterate through the stored entries in an ordered
- * way, by (ledgerId, entry).
+ * way, by (ledgerId, entry). The order is maintained while the entries are added, in
+ * per-ledger sorted runs, so that no sorting is needed when the cache is flushed.
+ * The memory used by the sorted runs is counted against the max size of the cache.
  */
 public class WriteCache implements Closeable {
 
@@ -83,6 +85,9 @@ public class WriteCache implements Closeable {
 
     private final ConcurrentLongHashSet deletedLedgers = ConcurrentLongHashSet.newBuilder().build();
 
+    // Sorted runs of (ledgerId, entryId, offset, size) tuples, kept off-heap, to iterate the entries in order
+    private final SortedRunIndex sortedRunIndex;
+
     private final ByteBufAllocator allocator;
 
     public WriteCache(ByteBufAllocator allocator, long maxCacheSize) {
@@ -97,6 +102,7 @@ public class WriteCache implements Closeable {
         checkArgument(maxSegmentSize == alignedMaxSegmentSize, "Max segment size needs to be in form of 2^n");
 
         this.allocator = allocator;
+        this.sortedRunIndex = new SortedRunIndex(allocator);
         this.maxCacheSize = maxCacheSize;
         this.maxSegmentSize = (int) maxSegmentSize;
         this.segmentOffsetMask = maxSegmentSize - 1;
@@ -122,6 +128,7 @@ public class WriteCache implements Closeable {
         index.clear();
         lastEntryMap.clear();
         deletedLedgers.clear();
+        sortedRunIndex.clear();
     }
 
     @Override
@@ -129,6 +136,7 @@ public class WriteCache implements Closeable {
         for (ByteBuf buf : cacheSegments) {
             buf.release();
         }
+        sortedRunIndex.close();
     }
 
     public boolean put(long ledgerId, long entryId, ByteBuf entry) {
@@ -147,8 +155,8 @@ public class WriteCache implements Closeable {
             localOffset = (int) (offset & segmentOffsetMask);
             segmentIdx = (int) (offset >>> segmentOffsetBits);
 
-            if ((offset + size) > maxCacheSize) {
-                // Cache is full
+            if ((offset + size) > maxCacheSize - sortedRunIndex.memoryUsage()) {
+                // Cache is full, including the memory used by the sorted run index
                 return false;
             } else if (maxSegmentSize - localOffset < size) {
                 // If an entry is at the end of a segment, we need to get a new offset and try
@@ -178,6 +186,7 @@ public class WriteCache implements Closeable {
         }
 
         index.put(ledgerId, entryId, offset, size);
+        sortedRunIndex.add(ledgerId, entryId, offset, size);
         cacheCount.increment();
         cacheSize.addAndGet(size);
         return true;
@@ -218,66 +227,45 @@ public class WriteCache implements Closeable {
     }
 
     public void forEach(EntryConsumer consumer) throws IOException {
-        sortedEntriesLock.lock();
-
-        try {
-            int entriesToSort = (int) index.size();
-            int arrayLen = entriesToSort * 4;
-            if (sortedEntries == null || sortedEntries.length < arrayLen) {
-                sortedEntries = new long[(int) (arrayLen * 2)];
-            }
-
-            long startTime = MathUtils.nowInNano();
-
-            sortedEntriesIdx = 0;
-            index.forEach((ledgerId, entryId, offset, length) -> {
-                if (deletedLedgers.contains(ledgerId)) {
-                    // Ignore deleted ledgers
-                    return;
-                }
-
-                sortedEntries[sortedEntriesIdx] = ledgerId;
-                sortedEntries[sortedEntriesIdx + 1] = entryId;
-                sortedEntries[sortedEntriesIdx + 2] = offset;
-                sortedEntries[sortedEntriesIdx + 3] = length;
-                sortedEntriesIdx += 4;
-            });
+        forEach(ledgerId -> true, consumer);
+    }
 
-            if (log.isDebugEnabled()) {
-                log.debug("iteration took {} ms", MathUtils.elapsedNanos(startTime) / 1e6);
-            }
-            startTime = MathUtils.nowInNano();
+    /**
+     * Iterate, in (ledgerId, entryId) order, through the entries of the ledgers that belong to the given partition.
+     *
+     * <p>Ledgers are assigned to partitions by hash, so that different partitions can be consumed concurrently by
+     * different threads, each one receiving all the entries of its ledgers.
+     */
+    public void forEachInPartition(int partition, int partitionsCount, EntryConsumer consumer) throws IOException {
+        checkArgument(partition >= 0 && partition < partitionsCount, "Invalid partition %s of %s", partition,
+                partitionsCount);
+        forEach(ledgerId -> getPartition(ledgerId, partitionsCount) == partition, consumer);
+    }
 
-            // Sort entries by (ledgerId, entryId) maintaining the 4 items groups
-            ArrayGroupSort.sort(sortedEntries, 0, sortedEntriesIdx);
-            if (log.isDebugEnabled()) {
-                log.debug("sorting {} ms", (MathUtils.elapsedNanos(startTime) / 1e6));
-            }
-            startTime = MathUtils.nowInNano();
+    static int getPartition(long ledgerId, int partitionsCount) {
+        return MathUtils.signSafeMod(ledgerId, partitionsCount);
+    }
 
-            ByteBuf[] entrySegments = new ByteBuf[segmentsCount];
-            for (int i = 0; i < segmentsCount; i++) {
-                entrySegments[i] = cacheSegments[i].slice(0, cacheSegments[i].capacity());
-            }
+    private void forEach(LongPredicate ledgerFilter, EntryConsumer consumer) throws IOException {
+        long startTime = MathUtils.nowInNano();
 
-            for (int i = 0; i < sortedEntriesIdx; i += 4) {
-                long ledgerId = sortedEntries[i];
-                long entryId = sortedEntries[i + 1];
-                long offset = sortedEntries[i + 2];
-                long length = sortedEntries[i + 3];
-
-                int localOffset = (int) (offset & segmentOffsetMask);
-                int segmentIdx = (int) (offset >>> segmentOffsetBits);
-                ByteBuf entry = entrySegments[segmentIdx];
-                entry.setIndex(localOffset, localOffset + (int) length);
-                consumer.accept(ledgerId, entryId, entry);
-            }
+        ByteBuf[] entrySegments = new ByteBuf[segmentsCount];
+        for (int i = 0; i < segmentsCount; i++) {
+            entrySegments[i] = cacheSegments[i].slice(0, cacheSegments[i].capacity());
+        }
 
-            if (log.isDebugEnabled()) {
-                log.debug("entry log adding {} ms", MathUtils.elapsedNanos(startTime) / 1e6);
-            }
-        } finally {
-            sortedEntriesLock.unlock();
+        // The entries are already sorted in runs, merge them without sorting the whole cache
+        sortedRunIndex.forEach(ledgerId -> ledgerFilter.test(ledgerId) && !deletedLedgers.contains(ledgerId),
+                (ledgerId, entryId, offset, length) -> {
+                    int localOffset = (int) (offset & segmentOffsetMask);
+                    int segmentIdx = (int) (offset >>> segmentOffsetBits);
+                    ByteBuf entry = entrySegments[segmentIdx];
+                    entry.setIndex(localOffset, localOffset + (int) length);
+                    consumer.accept(ledgerId, entryId, entry);
+                });
+
+        if (log.isDebugEnabled()) {
+            log.debug("entry log adding {} ms", MathUtils.elapsedNanos(startTime) / 1e6);
         }
     }
 
@@ -303,9 +291,5 @@ public class WriteCache implements Closeable {
         return (long) Math.pow(2, 64 - Long.numberOfLeadingZeros(n - 1));
     }
 
-    private final ReentrantLock sortedEntriesLock = new ReentrantLock();
-    private long[] sortedEntries;
-    private int sortedEntriesIdx;
-
     private static final Logger log = LoggerFactory.getLogger(WriteCache.class);
 }
@@ -0,0 +1,138 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A write cache that was rotated out of the write path and is waiting to be, or being, flushed.
+ *
+ * <p>A generation is flushed by a single thread at a time, the one that managed to claim it. Other threads
+ * can wait for the flush attempt that is ongoing when they start waiting. If the flush fails, the error is
+ * passed on to the threads waiting for that attempt and the claim is released, so that the generation can
+ * be flushed again.
+ */
+class WriteCacheGeneration {
+
+    /**
+     * Flush a claimed generation, completing it with {@link #flushCompleted()} or {@link #flushFailed(Throwable)}.
+     */
+    interface Flusher {
+        void flush(WriteCacheGeneration generation) throws IOException;
+    }
+
+    private final WriteCache writeCache;
+
+    // The ongoing flush attempt, or null if no thread has claimed the generation
+    private CompletableFuture<Void> ongoingFlush = null;
+    private volatile boolean flushed = false;
+
+    WriteCacheGeneration(WriteCache writeCache) {
+        this.writeCache = writeCache;
+    }
+
+    WriteCache getWriteCache() {
+        return writeCache;
+    }
+
+    /**
+     * @return true if the caller is now responsible for flushing this generation
+     */
+    synchronized boolean tryClaim() {
+        if (flushed || ongoingFlush != null) {
+            return false;
+        }
+
+        ongoingFlush = new CompletableFuture<>();
+        return true;
+    }
+
+    boolean isFlushed() {
+        return flushed;
+    }
+
+    void flushCompleted() {
+        CompletableFuture<Void> completedFlush;
+        synchronized (this) {
+            completedFlush = ongoingFlush;
+            ongoingFlush = null;
+            flushed = true;
+        }
+        completedFlush.complete(null);
+    }
+
+    void flushFailed(Throwable cause) {
+        CompletableFuture<Void> failedFlush;
+        synchronized (this) {
+            failedFlush = ongoingFlush;
+            ongoingFlush = null;
+        }
+        failedFlush.completeExceptionally(cause);
+    }
+
+    /**
+     * Wait until this generation is flushed. When no other thread is flushing it, the generation is claimed and
+     * flushed by the caller.
+     *
+     * @throws IOException if the flush of the caller, or the one it was waiting for, failed
+     */
+    void flushOrAwait(Flusher flusher) throws IOException {
+        while (!flushed) {
+            if (tryClaim()) {
+                flusher.flush(this);
+            } else {
+                awaitOngoingFlush();
+            }
+        }
+    }
+
+    /**
+     * Wait for the flush of this generation to complete, only if a thread is already flushing it.
+     *
+     * @throws IOException if the flush failed or the thread was interrupted
+     */
+    void awaitOngoingFlush() throws IOException {
+        CompletableFuture<Void> future;
+        synchronized (this) {
+            future = ongoingFlush;
+        }
+
+        if (future != null) {
+            await(future);
+        }
+    }
+
+    private static void await(CompletableFuture<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for write cache flush", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to flush write cache", e.getCause());
+        }
+    }
+}
@@ -105,6 +105,8 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String COMPACTION_RATE = "compactionRate";
     protected static final String COMPACTION_RATE_BY_ENTRIES = "compactionRateByEntries";
     protected static final String COMPACTION_RATE_BY_BYTES = "compactionRateByBytes";
+    protected static final String COMPACTION_THREADS = "compactionThreads";
+    protected static final String COMPACTION_CANDIDATE_SELECTOR = "compactionCandidateSelector";
 
     // Gc Parameters
     protected static final String GC_WAIT_TIME = "gcWaitTime";
@@ -113,10 +115,15 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String GC_OVERREPLICATED_LEDGER_MAX_CONCURRENT_REQUESTS =
             "gcOverreplicatedLedgerMaxConcurrentRequests";
     protected static final String USE_TRANSACTIONAL_COMPACTION = "useTransactionalCompaction";
+    protected static final String COMPACTION_COLD_ENTRY_LOGS_ENABLED = "compactionColdEntryLogsEnabled";
     protected static final String VERIFY_METADATA_ON_GC = "verifyMetadataOnGC";
+    protected static final String GC_VERIFY_METADATA_BATCH_SIZE = "gcVerifyMetadataBatchSize";
+    protected static final String GC_METADATA_OPS_RATE_LIMIT = "gcMetadataOpsRateLimit";
     protected static final String GC_ENTRYLOGMETADATA_CACHE_ENABLED = "gcEntryLogMetadataCacheEnabled";
     protected static final String GC_ENTRYLOG_METADATA_CACHE_PATH = "gcEntryLogMetadataCachePath";
     protected static final String USE_TARGET_ENTRYLOG_SIZE_FOR_GC = "useTargetEntryLogSizeForGc";
+    protected static final String GC_INCREMENTAL_ENTRYLOG_USAGE_ENABLED = "gcIncrementalEntryLogUsageEnabled";
+    protected static final String GC_ENTRYLOG_USAGE_REBUILD_INTERVAL = "gcEntryLogUsageRebuildInterval";
     // Scrub Parameters
     protected static final String LOCAL_SCRUB_PERIOD = "localScrubInterval";
     protected static final String LOCAL_SCRUB_RATE_LIMIT = "localScrubRateLimit";
@@ -138,10 +145,14 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String JOURNAL_SYNC_DATA = "journalSyncData";
     protected static final String JOURNAL_WRITE_DATA = "journalWriteData";
     protected static final String JOURNAL_ADAPTIVE_GROUP_WRITES = "journalAdaptiveGroupWrites";
+    protected static final String JOURNAL_MAX_OUTSTANDING_FORCE_WRITES = "journalMaxOutstandingForceWrites";
     protected static final String JOURNAL_MAX_GROUP_WAIT_MSEC = "journalMaxGroupWaitMSec";
     protected static final String JOURNAL_BUFFERED_WRITES_THRESHOLD = "journalBufferedWritesThreshold";
     protected static final String JOURNAL_BUFFERED_ENTRIES_THRESHOLD = "journalBufferedEntriesThreshold";
     protected static final String JOURNAL_FLUSH_WHEN_QUEUE_EMPTY = "journalFlushWhenQueueEmpty";
+    protected static final String JOURNAL_ADAPTIVE_GROUP_COMMIT_ENABLED = "journalAdaptiveGroupCommitEnabled";
+    protected static final String JOURNAL_ADAPTIVE_GROUP_COMMIT_TARGET_SYNC_RATE =
+            "journalAdaptiveGroupCommitTargetSyncRate";
     protected static final String JOURNAL_REMOVE_FROM_PAGE_CACHE = "journalRemoveFromPageCache";
     protected static final String JOURNAL_PRE_ALLOC_SIZE = "journalPreAllocSizeMB";
     protected static final String JOURNAL_WRITE_BUFFER_SIZE = "journalWriteBufferSizeKB";
@@ -149,10 +160,14 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String NUM_JOURNAL_CALLBACK_THREADS = "numJournalCallbackThreads";
     protected static final String JOURNAL_FORMAT_VERSION_TO_WRITE = "journalFormatVersionToWrite";
     protected static final String JOURNAL_QUEUE_SIZE = "journalQueueSize";
+    protected static final String JOURNAL_QUEUE_ENTRY_POOL_SIZE = "journalQueueEntryPoolSize";
     protected static final String JOURNAL_MAX_MEMORY_SIZE_MB = "journalMaxMemorySizeMb";
     protected static final String JOURNAL_PAGECACHE_FLUSH_INTERVAL_MSEC = "journalPageCacheFlushIntervalMSec";
     protected static final String JOURNAL_CHANNEL_PROVIDER = "journalChannelProvider";
     protected static final String JOURNAL_REUSE_FILES = "journalReuseFiles";
+    protected static final String JOURNAL_DIRECT_IO_ENABLED = "journalDirectIOEnabled";
+    protected static final String JOURNAL_ADAPTIVE_ROUTING_ENABLED = "journalAdaptiveRoutingEnabled";
+    protected static final String JOURNAL_ROUTING_REBIND_IDLE_TIME_MS = "journalRoutingRebindIdleTimeMs";
     // backpressure control
     protected static final String MAX_ADDS_IN_PROGRESS_LIMIT = "maxAddsInProgressLimit";
     protected static final String MAX_READS_IN_PROGRESS_LIMIT = "maxReadsInProgressLimit";
@@ -236,6 +251,8 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
 
     protected static final String READ_BUFFER_SIZE = "readBufferSizeBytes";
     protected static final String WRITE_BUFFER_SIZE = "writeBufferSizeBytes";
+    protected static final String ENTRY_LOG_MMAP_READ_MAX_BYTES = "entryLogMmapReadMaxBytes";
+    protected static final String ZERO_COPY_READ_MIN_ENTRY_SIZE = "zeroCopyReadMinEntrySizeBytes";
     // Whether the bookie should use its hostname or ipaddress for the
     // registration.
     protected static final String USE_HOST_NAME_AS_BOOKIE_ID = "useHostNameAsBookieID";
@@ -343,6 +360,7 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         "maxOperationNumbersInSingleRocksdbWriteBatch";
 
     protected static final String SKIP_REPLAY_JOURNAL_INVALID_RECORD = "skipReplayJournalInvalidRecord";
+    protected static final String JOURNAL_REPLAY_THREADS = "journalReplayThreads";
 
     protected static final String MAX_BATCH_READ_SIZE = "maxBatchReadSize";
     protected static final int DEFAULT_MAX_BATCH_READ_SIZE = 5 * 1024 * 1024; // 5MB
@@ -498,6 +516,38 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Get whether compaction writes the surviving entries to cold entry logs, separated from the entry logs
+     * receiving new writes.
+     *
+     * <p>When enabled, compaction is transactional and the compacted entry logs are packed into compaction
+     * logs of up to {@link #getEntryLogSizeLimit()}, tracked as cold entry logs with the number of times their
+     * data was compacted. With several {@link #getCompactionThreads()}, each compacted entry log still gets its
+     * own compaction log. Minor compaction only compacts the entry logs written by the bookie, the cold entry
+     * logs are left to major compaction, so that long lived entries are not copied over and over. The usage of
+     * the cold entry logs is always relative to their own size, even with {@link #isUseTargetEntryLogSizeForGc()}.
+     *
+     * <p>The generation of a cold entry log is only kept in memory until its metadata is extracted. The cold
+     * entry logs written just before a restart, or recovered on startup, are seen as entry logs written by the
+     * bookie, so their entries are copied once more by the next minor compaction.
+     *
+     * @return whether compaction writes to cold entry logs
+     */
+    public boolean isCompactionColdEntryLogsEnabled() {
+        return this.getBoolean(COMPACTION_COLD_ENTRY_LOGS_ENABLED, false);
+    }
+
+    /**
+     * Set whether compaction writes the surviving entries to cold entry logs.
+     *
+     * @param enabled
+     * @return server configuration
+     */
+    public ServerConfiguration setCompactionColdEntryLogsEnabled(boolean enabled) {
+        this.setProperty(COMPACTION_COLD_ENTRY_LOGS_ENABLED, enabled);
+        return this;
+    }
+
     /**
      * Get whether the bookie is configured to double check prior to gc.
      *
@@ -517,6 +567,49 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Get the number of ledger metadata read concurrently when the bookie double checks the ledgers
+     * missing from the metadata store prior to gc. Default: 100
+     *
+     * @return batch size of the metadata verification
+     */
+    public int getGcVerifyMetadataBatchSize() {
+        return this.getInt(GC_VERIFY_METADATA_BATCH_SIZE, 100);
+    }
+
+    /**
+     * Set the number of ledger metadata read concurrently when the bookie double checks the ledgers
+     * missing from the metadata store prior to gc.
+     *
+     * @param batchSize
+     * @return server configuration
+     */
+    public ServerConfiguration setGcVerifyMetadataBatchSize(int batchSize) {
+        this.setProperty(GC_VERIFY_METADATA_BATCH_SIZE, batchSize);
+        return this;
+    }
+
+    /**
+     * Get the max number of metadata store operations per second issued by the garbage collector, to list
+     * the ledger ranges and to read the metadata of single ledgers. Default: 0, unlimited
+     *
+     * @return metadata operations per second, 0 for unlimited
+     */
+    public int getGcMetadataOpsRateLimit() {
+        return this.getInt(GC_METADATA_OPS_RATE_LIMIT, 0);
+    }
+
+    /**
+     * Set the max number of metadata store operations per second issued by the garbage collector.
+     *
+     * @param rateLimit metadata operations per second, 0 for unlimited
+     * @return server configuration
+     */
+    public ServerConfiguration setGcMetadataOpsRateLimit(int rateLimit) {
+        this.setProperty(GC_METADATA_OPS_RATE_LIMIT, rateLimit);
+        return this;
+    }
+
     /**
      * Get whether the bookie is configured to use persistent
      * entrylogMetadataMap.
@@ -573,6 +666,56 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Get whether the garbage collector maintains the entry log usage incrementally.
+     *
+     * <p>When enabled, the ledgers deleted by the garbage collector are only removed from the metadata of
+     * the entry logs that contain them, and compaction picks its candidates from an in-memory index sorted
+     * by usage, instead of checking every ledger of every entry log on each gc cycle. A full scan still
+     * runs on startup and every {@link #getGcEntryLogUsageRebuildInterval()} seconds.
+     *
+     * <p>The index keeps the ledgers of every entry log on heap, it is not used when
+     * {@link #isGcEntryLogMetadataCacheEnabled()} keeps the entry log metadata off-heap.
+     *
+     * @return true if the entry log usage is maintained incrementally
+     */
+    public boolean isGcIncrementalEntryLogUsageEnabled() {
+        return getBoolean(GC_INCREMENTAL_ENTRYLOG_USAGE_ENABLED, false);
+    }
+
+    /**
+     * Set whether the garbage collector maintains the entry log usage incrementally.
+     *
+     * @param enabled
+     * @return server configuration
+     */
+    public ServerConfiguration setGcIncrementalEntryLogUsageEnabled(boolean enabled) {
+        this.setProperty(GC_INCREMENTAL_ENTRYLOG_USAGE_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Get the interval, in seconds, between two full scans of the entry log metadata when the entry log usage
+     * is maintained incrementally. Default is 86400 (1 day).
+     *
+     * @return interval in seconds
+     */
+    public long getGcEntryLogUsageRebuildInterval() {
+        return getLong(GC_ENTRYLOG_USAGE_REBUILD_INTERVAL, 86400);
+    }
+
+    /**
+     * Set the interval, in seconds, between two full scans of the entry log metadata when the entry log usage
+     * is maintained incrementally.
+     *
+     * @param interval interval in seconds
+     * @return server configuration
+     */
+    public ServerConfiguration setGcEntryLogUsageRebuildInterval(long interval) {
+        this.setProperty(GC_ENTRYLOG_USAGE_REBUILD_INTERVAL, interval);
+        return this;
+    }
+
     /**
      * Get whether local scrub is enabled.
      *
@@ -947,6 +1090,31 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this.getInt(JOURNAL_QUEUE_SIZE, 10_000);
     }
 
+    /**
+     * Set the number of journal queue entries allocated upfront for each journal.
+     *
+     * @param journalQueueEntryPoolSize
+     *            the number of pre-allocated queue entries, or 0 to recycle them with the netty recycler
+     * @return server configuration.
+     */
+    public ServerConfiguration setJournalQueueEntryPoolSize(int journalQueueEntryPoolSize) {
+        this.setProperty(JOURNAL_QUEUE_ENTRY_POOL_SIZE, journalQueueEntryPoolSize);
+        return this;
+    }
+
+    /**
+     * Get the number of journal queue entries allocated upfront for each journal.
+     *
+     * <p>The threads adding entries to the journal claim the queue entries directly from this pool, which
+     * avoids the thread local lookups and the cross thread recycling of the netty recycler. Defaults to the
+     * size of the journal queue.
+     *
+     * @return the number of pre-allocated queue entries, or 0 to recycle them with the netty recycler.
+     */
+    public int getJournalQueueEntryPoolSize() {
+        return this.getInt(JOURNAL_QUEUE_ENTRY_POOL_SIZE, getJournalQueueSize());
+    }
+
     /**
      * Set the max amount of memory that can be used by the journal.
      *
@@ -1030,6 +1198,75 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Whether the journal entries are written with direct I/O (O_DIRECT | O_DSYNC), bypassing
+     * the page cache. Each write is then durable once it returns, without a separate fsync.
+     *
+     * @return whether the journal writes use direct I/O
+     */
+    public boolean getJournalDirectIOEnabled() {
+        return this.getBoolean(JOURNAL_DIRECT_IO_ENABLED, false);
+    }
+
+    /**
+     * Set whether the journal entries are written with direct I/O (O_DIRECT | O_DSYNC).
+     *
+     * @param enabled
+     *          whether the journal writes use direct I/O
+     * @return server configuration.
+     */
+    public ServerConfiguration setJournalDirectIOEnabled(boolean enabled) {
+        setProperty(JOURNAL_DIRECT_IO_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Whether the ledgers are assigned to the least loaded journal, instead of a journal chosen by the ledger id.
+     *
+     * <p>The load of a journal is estimated from its queue length and its recent fsync latency. All the writes
+     * of a ledger go to the same journal, until the ledger has been idle for
+     * {@link #getJournalRoutingRebindIdleTimeMs()}.
+     *
+     * @return true if the adaptive journal routing is enabled
+     */
+    public boolean isJournalAdaptiveRoutingEnabled() {
+        return this.getBoolean(JOURNAL_ADAPTIVE_ROUTING_ENABLED, false);
+    }
+
+    /**
+     * Enable or disable the adaptive journal routing.
+     *
+     * @param enabled
+     *          whether to assign the ledgers to the least loaded journal
+     * @return server configuration
+     */
+    public ServerConfiguration setJournalAdaptiveRoutingEnabled(boolean enabled) {
+        setProperty(JOURNAL_ADAPTIVE_ROUTING_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Get the time after which an idle ledger can be assigned to another journal, when the adaptive journal
+     * routing is enabled.
+     *
+     * @return idle time in milliseconds
+     */
+    public long getJournalRoutingRebindIdleTimeMs() {
+        return this.getLong(JOURNAL_ROUTING_REBIND_IDLE_TIME_MS, 60000);
+    }
+
+    /**
+     * Set the time after which an idle ledger can be assigned to another journal.
+     *
+     * @param idleTimeMs
+     *          idle time in milliseconds
+     * @return server configuration
+     */
+    public ServerConfiguration setJournalRoutingRebindIdleTimeMs(long idleTimeMs) {
+        setProperty(JOURNAL_ROUTING_REBIND_IDLE_TIME_MS, idleTimeMs);
+        return this;
+    }
+
     /**
      * Get max number of adds in progress. 0 == unlimited.
      *
@@ -1943,6 +2180,52 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Get the maximum number of bytes of sealed entry logs that can be memory mapped
+     * to read entries from. Default is 0, which disables the memory mapped reads.
+     *
+     * @return max total size of the mapped entry logs
+     */
+    public long getEntryLogMmapReadMaxBytes() {
+        return getLong(ENTRY_LOG_MMAP_READ_MAX_BYTES, 0);
+    }
+
+    /**
+     * Set the maximum number of bytes of sealed entry logs that can be memory mapped
+     * to read entries from.
+     *
+     * @param maxBytes
+     *          max total size of the mapped entry logs, 0 to disable the memory mapped reads
+     * @return server configuration
+     */
+    public ServerConfiguration setEntryLogMmapReadMaxBytes(long maxBytes) {
+        setProperty(ENTRY_LOG_MMAP_READ_MAX_BYTES, maxBytes);
+        return this;
+    }
+
+    /**
+     * Get the minimum size of the entries that are sent to clients straight from the
+     * entry log files, without being copied into memory.
+     *
+     * @return min entry size for the zero copy reads, 0 if they are disabled
+     */
+    public int getZeroCopyReadMinEntrySize() {
+        return getInt(ZERO_COPY_READ_MIN_ENTRY_SIZE, 0);
+    }
+
+    /**
+     * Set the minimum size of the entries that are sent to clients straight from the
+     * entry log files, without being copied into memory.
+     *
+     * @param minSize
+     *          min entry size for the zero copy reads, 0 to disable them
+     * @return server configuration
+     */
+    public ServerConfiguration setZeroCopyReadMinEntrySize(int minSize) {
+        setProperty(ZERO_COPY_READ_MIN_ENTRY_SIZE, minSize);
+        return this;
+    }
+
     /**
      * Set the number of threads that would handle write requests.
      *
@@ -2342,6 +2625,31 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Get the max number of journal force writes (fsyncs) in progress at the same time, for each journal.
+     *
+     * <p>With 1, a force write only starts once the previous one is done. With more, the next groups of entries are
+     * synced while the previous force writes are still in progress, which lowers the add latency on devices with a
+     * high fsync latency but a high parallelism. The entries are still acknowledged in order.
+     *
+     * @return max number of outstanding force writes
+     */
+    public int getJournalMaxOutstandingForceWrites() {
+        return getInt(JOURNAL_MAX_OUTSTANDING_FORCE_WRITES, 1);
+    }
+
+    /**
+     * Set the max number of journal force writes in progress at the same time, for each journal.
+     *
+     * @param maxOutstandingForceWrites
+     *          max number of outstanding force writes
+     * @return server configuration
+     */
+    public ServerConfiguration setJournalMaxOutstandingForceWrites(int maxOutstandingForceWrites) {
+        setProperty(JOURNAL_MAX_OUTSTANDING_FORCE_WRITES, maxOutstandingForceWrites);
+        return this;
+    }
+
     /**
      * Maximum latency to impose on a journal write to achieve grouping. Default is 2ms.
      *
@@ -2425,6 +2733,54 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return getBoolean(JOURNAL_FLUSH_WHEN_QUEUE_EMPTY, false);
     }
 
+    /**
+     * Whether the journal group wait is adapted to the load, instead of using the static
+     * {@link #getJournalMaxGroupWaitMSec()} and {@link #getJournalBufferedWritesThreshold()}.
+     *
+     * <p>The adaptive group commit measures the arrival rate of the entries and the fsync latency, and picks the
+     * shortest group wait keeping the fsync rate under {@link #getJournalAdaptiveGroupCommitTargetSyncRate()}.
+     * The static values are then used as upper bounds.
+     *
+     * @return whether the adaptive group commit is enabled
+     */
+    public boolean isJournalAdaptiveGroupCommitEnabled() {
+        return getBoolean(JOURNAL_ADAPTIVE_GROUP_COMMIT_ENABLED, false);
+    }
+
+    /**
+     * Enable or disable the adaptive group commit of the journal.
+     *
+     * @param enabled
+     *          whether to adapt the journal group wait to the load
+     * @return server configuration
+     */
+    public ServerConfiguration setJournalAdaptiveGroupCommitEnabled(boolean enabled) {
+        setProperty(JOURNAL_ADAPTIVE_GROUP_COMMIT_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Get the max number of fsyncs per second targeted by the adaptive group commit of each journal.
+     * 0 means no target, so the entries are never grouped on purpose.
+     *
+     * @return target fsync rate
+     */
+    public int getJournalAdaptiveGroupCommitTargetSyncRate() {
+        return getInt(JOURNAL_ADAPTIVE_GROUP_COMMIT_TARGET_SYNC_RATE, 1000);
+    }
+
+    /**
+     * Set the max number of fsyncs per second targeted by the adaptive group commit of each journal.
+     *
+     * @param syncsPerSecond
+     *          target fsync rate
+     * @return server configuration
+     */
+    public ServerConfiguration setJournalAdaptiveGroupCommitTargetSyncRate(int syncsPerSecond) {
+        setProperty(JOURNAL_ADAPTIVE_GROUP_COMMIT_TARGET_SYNC_RATE, syncsPerSecond);
+        return this;
+    }
+
     /**
      * Set whether the bookie is able to go into read-only mode.
      * If this is set to false, the bookie will shutdown on encountering
@@ -2973,6 +3329,58 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Get the number of entry logs compacted concurrently by the garbage collector. Default is 1.
+     *
+     * <p>The compaction rate limit is shared by all the compaction threads, so raising this value lets the
+     * garbage collector go through many sparse entry logs in parallel without using more disk bandwidth
+     * than {@link #getCompactionRateByBytes()} or {@link #getCompactionRateByEntries()}.
+     *
+     * @return number of compaction threads
+     */
+    public int getCompactionThreads() {
+        return getInt(COMPACTION_THREADS, 1);
+    }
+
+    /**
+     * Set the number of entry logs compacted concurrently by the garbage collector.
+     *
+     * @param compactionThreads number of compaction threads
+     *
+     * @return ServerConfiguration
+     */
+    public ServerConfiguration setCompactionThreads(int compactionThreads) {
+        setProperty(COMPACTION_THREADS, compactionThreads);
+        return this;
+    }
+
+    /**
+     * Get the policy ordering the entry logs below the compaction threshold. Default is "usage".
+     *
+     * <ul>
+     * <li>usage: the entry logs are compacted by usage buckets of 10%, the least used first.</li>
+     * <li>cost-benefit: the entry logs are ranked by {@code (1 - u) * age / (1 + u)}, so that old sparse
+     * entry logs are compacted before young entry logs whose data is still being deleted.</li>
+     * </ul>
+     *
+     * @return name of the compaction candidate selector
+     */
+    public String getCompactionCandidateSelector() {
+        return getString(COMPACTION_CANDIDATE_SELECTOR, "usage");
+    }
+
+    /**
+     * Set the policy ordering the entry logs below the compaction threshold.
+     *
+     * @param selector name of the compaction candidate selector, "usage" or "cost-benefit"
+     *
+     * @return ServerConfiguration
+     */
+    public ServerConfiguration setCompactionCandidateSelector(String selector) {
+        setProperty(COMPACTION_CANDIDATE_SELECTOR, selector);
+        return this;
+    }
+
     /**
      * Should we remove pages from page cache after force write.
      *
@@ -4037,6 +4445,29 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this.getBoolean(SKIP_REPLAY_JOURNAL_INVALID_RECORD, false);
     }
 
+    /**
+     * Get the number of threads applying the journal entries to the ledger storage when the journal is replayed on
+     * startup. The journals are still read sequentially, and the entries of a ledger are always applied by the same
+     * thread, in the journal order. 1 means that the entries are applied by the thread reading the journals.
+     *
+     * @return number of journal replay threads
+     */
+    public int getJournalReplayThreads() {
+        return this.getInt(JOURNAL_REPLAY_THREADS, 1);
+    }
+
+    /**
+     * Set the number of threads applying the journal entries to the ledger storage when the journal is replayed.
+     *
+     * @param numThreads
+     *          number of journal replay threads
+     * @return server configuration
+     */
+    public ServerConfiguration setJournalReplayThreads(int numThreads) {
+        this.setProperty(JOURNAL_REPLAY_THREADS, numThreads);
+        return this;
+    }
+
     /**
      * Get default rocksdb conf.
      *
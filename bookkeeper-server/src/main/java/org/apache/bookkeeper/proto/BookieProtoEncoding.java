@@ -33,6 +33,7 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelOutboundHandlerAdapter;
 import io.netty.channel.ChannelPromise;
+import io.netty.channel.FileRegion;
 import io.netty.util.ReferenceCountUtil;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
@@ -298,6 +299,16 @@ public class BookieProtoEncoding {
                     } else {
                         return ByteBufList.get(buf, rr.getData());
                     }
+                } else if (msg instanceof BookieProtocol.ReadFileRegionResponse) {
+                    // Only the headers are encoded here, the region is written on its own after them
+                    BookieProtocol.ReadFileRegionResponse rr = (BookieProtocol.ReadFileRegionResponse) r;
+                    ByteBuf buf = allocator.buffer(4 /* frame size */ + RESPONSE_HEADERS_SIZE);
+                    buf.writeInt(RESPONSE_HEADERS_SIZE + (int) rr.getData().count());
+                    buf.writeInt(PacketHeader.toInt(r.getProtocolVersion(), r.getOpCode(), (short) 0));
+                    buf.writeInt(r.getErrorCode());
+                    buf.writeLong(r.getLedgerId());
+                    buf.writeLong(r.getEntryId());
+                    return buf;
                 } else if (msg instanceof BookieProtocol.BatchedReadResponse) {
                     BookieProtocol.BatchedReadResponse brr = (BookieProtocol.BatchedReadResponse) r;
                     int payloadSize = brr.getData().readableBytes();
@@ -595,6 +606,10 @@ public class BookieProtoEncoding {
                 ctx.write(msg, promise);
             } else if (msg instanceof BookkeeperProtocol.Response) {
                 ctx.write(repV3.encode(msg, ctx.alloc()), promise);
+            } else if (msg instanceof BookieProtocol.ReadFileRegionResponse) {
+                FileRegion data = ((BookieProtocol.ReadFileRegionResponse) msg).getData();
+                ctx.write(repPreV3.encode(msg, ctx.alloc()), ctx.voidPromise());
+                ctx.write(data, promise);
             } else if (msg instanceof BookieProtocol.Response) {
                 ctx.write(repPreV3.encode(msg, ctx.alloc()), promise);
             } else {
@@ -18,6 +18,10 @@
 package org.apache.bookkeeper.proto;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.FileRegion;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.ssl.SslHandler;
 import io.netty.util.Recycler;
 import io.netty.util.ReferenceCountUtil;
 import io.netty.util.ReferenceCounted;
@@ -128,6 +132,11 @@ class ReadEntryProcessor extends PacketProcessorBase<ReadRequest> {
     }
 
     protected ReferenceCounted readData() throws Exception {
+        Channel channel = requestHandler.ctx().channel();
+        if (channel instanceof SocketChannel && channel.pipeline().get(SslHandler.class) == null) {
+            // The entry can be sent straight from its file, which needs the bytes to go to the socket untouched
+            return requestProcessor.getBookie().readEntryForTransfer(request.getLedgerId(), request.getEntryId());
+        }
         return requestProcessor.getBookie().readEntry(request.getLedgerId(), request.getEntryId());
     }
 
@@ -151,6 +160,9 @@ class ReadEntryProcessor extends PacketProcessorBase<ReadRequest> {
     }
 
     protected BookieProtocol.Response buildReadResponse(ReferenceCounted data) {
+        if (data instanceof FileRegion) {
+            return ResponseBuilder.buildReadResponse((FileRegion) data, request);
+        }
         return ResponseBuilder.buildReadResponse((ByteBuf) data, request);
     }
 
@@ -0,0 +1,134 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.FileRegion;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the entries sent as file regions of the entry logs.
+ */
+public class DefaultEntryLoggerRegionTest {
+
+    private static final int ENTRY_SIZE = 1024;
+
+    private File dir;
+    private DefaultEntryLogger entryLogger;
+    private boolean closed;
+
+    @Before
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("entry-logger-region-test").toFile();
+        File currentDir = BookieImpl.getCurrentDirectory(dir);
+        currentDir.mkdirs();
+        ServerConfiguration conf = new ServerConfiguration();
+        conf.setLedgerDirNames(new String[] { dir.getPath() });
+        conf.setZeroCopyReadMinEntrySize(1);
+        entryLogger = new DefaultEntryLogger(conf);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (!closed) {
+            entryLogger.close();
+        }
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private static ByteBuf entry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(ENTRY_SIZE);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        while (entry.isWritable()) {
+            entry.writeByte((int) entryId);
+        }
+        return entry;
+    }
+
+    private static byte[] transfer(FileRegion region) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WritableByteChannel channel = Channels.newChannel(out);
+        while (region.transferred() < region.count()) {
+            region.transferTo(channel, region.transferred());
+        }
+        return out.toByteArray();
+    }
+
+    private long addEntryAndFlushLog(long ledgerId, long entryId) throws Exception {
+        long location = entryLogger.addEntry(ledgerId, entry(ledgerId, entryId));
+        ((EntryLogManagerBase) entryLogger.getEntryLogManager()).createNewLog(ledgerId);
+        entryLogger.flush();
+        return location;
+    }
+
+    @Test
+    public void testRegionSharesTheLogChannel() throws Exception {
+        long location = addEntryAndFlushLog(1, 0);
+        long logId = DefaultEntryLogger.logIdForOffset(location);
+        BufferedReadChannel readChannel = entryLogger.getChannelForLogId(logId);
+
+        FileRegion first = entryLogger.readEntryRegion(1, 0, location);
+        FileRegion second = entryLogger.readEntryRegion(1, 0, location);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertArrayEquals(entry(1, 0).array(), transfer(first));
+
+        // The log is removed while the regions are not sent yet, the channel stays open until they are released
+        assertTrue(entryLogger.removeEntryLog(logId));
+        assertTrue(readChannel.fileChannel.isOpen());
+        assertArrayEquals(entry(1, 0).array(), transfer(second));
+
+        first.release();
+        assertTrue(readChannel.fileChannel.isOpen());
+        second.release();
+        assertFalse(readChannel.fileChannel.isOpen());
+    }
+
+    @Test
+    public void testCloseReleasesTheChannels() throws Exception {
+        long location = addEntryAndFlushLog(1, 0);
+        long logId = DefaultEntryLogger.logIdForOffset(location);
+        BufferedReadChannel readChannel = entryLogger.getChannelForLogId(logId);
+
+        FileRegion region = entryLogger.readEntryRegion(1, 0, location);
+        entryLogger.close();
+        closed = true;
+        assertTrue(readChannel.fileChannel.isOpen());
+        region.release();
+        assertFalse(readChannel.fileChannel.isOpen());
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.bookkeeper.common.util.nativeio.NativeIO;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the aligned block writes of {@link DirectBufferedChannel}.
+ */
+public class DirectBufferedChannelTest {
+
+    private static final int BLOCK = DirectBufferedChannel.ALIGNMENT;
+
+    private File file;
+    private RandomAccessFile raf;
+    private FileChannel fc;
+    private final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    private final List<long[]> writes = new ArrayList<>();
+
+    /**
+     * Writes the blocks through a regular file channel, recording their offset and size.
+     */
+    private class RecordingNativeIO implements NativeIO {
+        private final FileChannel writeChannel;
+
+        RecordingNativeIO() throws Exception {
+            writeChannel = new RandomAccessFile(file, "rw").getChannel();
+        }
+
+        @Override
+        public int open(String pathname, int flags, int mode) {
+            return 1;
+        }
+
+        @Override
+        public int pwrite(int fd, long pointer, int count, long offset) throws NativeIOException {
+            writes.add(new long[] { offset, count });
+            byte[] data = new byte[count];
+            io.netty.util.internal.PlatformDependent.copyMemory(pointer, data, 0, count);
+            try {
+                writeChannel.write(ByteBuffer.wrap(data), offset);
+            } catch (Exception e) {
+                throw new NativeIOException(e.getMessage());
+            }
+            return count;
+        }
+
+        @Override
+        public int close(int fd) throws NativeIOException {
+            try {
+                writeChannel.close();
+            } catch (Exception e) {
+                throw new NativeIOException(e.getMessage());
+            }
+            return 0;
+        }
+
+        @Override
+        public int fsync(int fd) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int fallocate(int fd, int mode, long offset, long len) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int posix_fadvise(int fd, long offset, long len, int flag) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long posix_memalign(int alignment, int size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void free(long pointer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long lseek(int fd, long offset, int whence) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long pread(int fd, long pointer, long size, long offset) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    @Before
+    public void setup() throws Exception {
+        file = Files.createTempFile("direct-buffered-channel-test", ".txn").toFile();
+        raf = new RandomAccessFile(file, "rw");
+        fc = raf.getChannel();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fc.close();
+        raf.close();
+        file.delete();
+    }
+
+    private void writeHeader(int size) throws Exception {
+        byte[] header = data(size, 100);
+        fc.write(ByteBuffer.wrap(header));
+        expected.write(header);
+    }
+
+    private DirectBufferedChannel newChannel(int capacity) throws Exception {
+        return new DirectBufferedChannel(new RecordingNativeIO(), UnpooledByteBufAllocator.DEFAULT, fc, file,
+                capacity);
+    }
+
+    private static byte[] data(int size, int seed) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (seed + i);
+        }
+        return data;
+    }
+
+    private void write(DirectBufferedChannel channel, int size, int seed) throws Exception {
+        byte[] data = data(size, seed);
+        channel.write(Unpooled.wrappedBuffer(data));
+        expected.write(data);
+    }
+
+    private byte[] fileContent() throws Exception {
+        byte[] content = new byte[expected.size()];
+        ByteBuffer dst = ByteBuffer.wrap(content);
+        while (dst.hasRemaining()) {
+            fc.read(dst, dst.position());
+        }
+        return content;
+    }
+
+    private void assertWrite(int index, long offset, long size) {
+        assertEquals(offset, writes.get(index)[0]);
+        assertEquals(size, writes.get(index)[1]);
+    }
+
+    @Test
+    public void testPartialBlockIsWrittenAgain() throws Exception {
+        // The header is written through the file channel, its block is written again with the data
+        writeHeader(100);
+        DirectBufferedChannel channel = newChannel(4 * BLOCK);
+
+        write(channel, 1000, 1);
+        channel.flush();
+        assertWrite(0, 0, BLOCK);
+        assertArrayEquals(expected.toByteArray(), fileContent());
+
+        write(channel, 5000, 2);
+        channel.flush();
+        assertWrite(1, 0, 2 * BLOCK);
+        assertArrayEquals(expected.toByteArray(), fileContent());
+
+        // Only the last partial block is kept in the buffer
+        write(channel, 10, 3);
+        channel.flush();
+        assertWrite(2, BLOCK, BLOCK);
+        assertArrayEquals(expected.toByteArray(), fileContent());
+        assertEquals(expected.size(), channel.forceWrite(false));
+
+        // Nothing new to write
+        channel.flush();
+        assertEquals(3, writes.size());
+        channel.close();
+    }
+
+    @Test
+    public void testFullBufferIsWrittenOnAppend() throws Exception {
+        DirectBufferedChannel channel = newChannel(2 * BLOCK);
+
+        write(channel, 5 * BLOCK + 10, 1);
+        assertEquals(2, writes.size());
+        assertWrite(0, 0, 2 * BLOCK);
+        assertWrite(1, 2 * BLOCK, 2 * BLOCK);
+        assertEquals(BLOCK + 10, channel.getNumOfBytesInWriteBuffer());
+
+        channel.flush();
+        assertWrite(2, 4 * BLOCK, 2 * BLOCK);
+        assertEquals(0, channel.getNumOfBytesInWriteBuffer());
+        assertArrayEquals(expected.toByteArray(), fileContent());
+        channel.close();
+
+        for (long[] write : writes) {
+            assertEquals(0, write[0] % BLOCK);
+            assertEquals(0, write[1] % BLOCK);
+        }
+    }
+
+    @Test
+    public void testReadSeesBufferedData() throws Exception {
+        writeHeader(10);
+        DirectBufferedChannel channel = newChannel(4 * BLOCK);
+        write(channel, 100, 1);
+
+        ByteBuf dest = Unpooled.buffer(110);
+        assertEquals(110, channel.read(dest, 0, 110));
+        assertArrayEquals(expected.toByteArray(), dest.array());
+        channel.close();
+    }
+}
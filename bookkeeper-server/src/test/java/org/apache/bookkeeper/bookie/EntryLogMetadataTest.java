@@ -0,0 +1,108 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import org.apache.bookkeeper.bookie.EntryLogMetadata.EntryLogMetadataRecyclable;
+import org.junit.Test;
+
+/**
+ * Test the serialization of {@link EntryLogMetadata}.
+ */
+public class EntryLogMetadataTest {
+
+    private static byte[] serialize(EntryLogMetadata metadata) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DataOutputStream dataOut = new DataOutputStream(out)) {
+            metadata.serialize(dataOut);
+        }
+        return out.toByteArray();
+    }
+
+    private static EntryLogMetadataRecyclable deserialize(byte[] data) throws IOException {
+        return EntryLogMetadata.deserialize(new DataInputStream(new ByteArrayInputStream(data)));
+    }
+
+    private static EntryLogMetadata newMetadata(int generation) {
+        EntryLogMetadata metadata = new EntryLogMetadata(7);
+        metadata.addLedgerSize(1, 100);
+        metadata.addLedgerSize(2, 200);
+        metadata.addLedgerSize(3, 300);
+        metadata.removeLedgerIf(ledgerId -> ledgerId == 3);
+        metadata.setGeneration(generation);
+        return metadata;
+    }
+
+    private static void assertMetadataEquals(EntryLogMetadata expected, EntryLogMetadata actual) {
+        assertEquals(expected.getEntryLogId(), actual.getEntryLogId());
+        assertEquals(expected.getTotalSize(), actual.getTotalSize());
+        assertEquals(expected.getRemainingSize(), actual.getRemainingSize());
+        assertEquals(expected.getGeneration(), actual.getGeneration());
+        assertEquals(expected.getLedgersMap().size(), actual.getLedgersMap().size());
+        expected.getLedgersMap().forEach((ledgerId, size) -> assertEquals(size, actual.getLedgersMap().get(ledgerId)));
+    }
+
+    @Test
+    public void testYoungEntryLogKeepsVersion0() throws Exception {
+        EntryLogMetadata metadata = newMetadata(0);
+        byte[] data = serialize(metadata);
+        assertEquals(0, new DataInputStream(new ByteArrayInputStream(data)).readShort());
+
+        EntryLogMetadataRecyclable deserialized = deserialize(data);
+        assertMetadataEquals(metadata, deserialized);
+        deserialized.recycle();
+    }
+
+    @Test
+    public void testColdEntryLogRoundTripsWithVersion1() throws Exception {
+        EntryLogMetadata metadata = newMetadata(3);
+        byte[] data = serialize(metadata);
+        assertEquals(1, new DataInputStream(new ByteArrayInputStream(data)).readShort());
+
+        EntryLogMetadataRecyclable deserialized = deserialize(data);
+        assertMetadataEquals(metadata, deserialized);
+        deserialized.recycle();
+
+        // A recycled metadata does not carry the generation over
+        deserialized = deserialize(serialize(newMetadata(0)));
+        assertEquals(0, deserialized.getGeneration());
+        deserialized.recycle();
+    }
+
+    @Test
+    public void testUnknownVersionIsRejected() throws Exception {
+        byte[] data = serialize(newMetadata(3));
+        data[1] = 2;
+        try {
+            deserialize(data);
+            fail("Version 2 is not supported");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.carrotsearch.hppc.LongArrayList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Test the incremental maintenance of the {@link EntryLogUsageIndex}.
+ */
+public class EntryLogUsageIndexTest {
+
+    private final EntryLogUsageIndex index = new EntryLogUsageIndex();
+
+    private static EntryLogMetadata metadata(long entryLogId, int generation, long... ledgerIds) {
+        EntryLogMetadata metadata = new EntryLogMetadata(entryLogId);
+        for (long ledgerId : ledgerIds) {
+            metadata.addLedgerSize(ledgerId, 100);
+        }
+        metadata.setGeneration(generation);
+        return metadata;
+    }
+
+    private void addEntryLog(EntryLogMetadata metadata) {
+        index.addEntryLog(metadata, metadata.getUsage());
+    }
+
+    private List<Long> entryLogsByUsage() {
+        List<Long> entryLogIds = new ArrayList<>();
+        index.forEach(entryLog -> entryLogIds.add(entryLog.getEntryLogId()));
+        return entryLogIds;
+    }
+
+    private static List<Long> list(LongArrayList entryLogIds) {
+        List<Long> list = new ArrayList<>();
+        for (long entryLogId : entryLogIds.toArray()) {
+            list.add(entryLogId);
+        }
+        list.sort(Long::compare);
+        return list;
+    }
+
+    @Test
+    public void testEntryLogsAreSortedByUsage() {
+        EntryLogMetadata first = metadata(1, 0, 1, 2, 3, 4);
+        first.removeLedgerIf(ledgerId -> ledgerId == 1);
+        EntryLogMetadata second = metadata(2, 0, 1, 5);
+        second.removeLedgerIf(ledgerId -> ledgerId == 1);
+        EntryLogMetadata third = metadata(3, 0, 1, 6, 7, 8);
+        third.removeLedgerIf(ledgerId -> ledgerId <= 7);
+        addEntryLog(first);
+        addEntryLog(second);
+        addEntryLog(third);
+
+        assertEquals(Arrays.asList(3L, 2L, 1L), entryLogsByUsage());
+        assertEquals(3, index.size());
+        assertEquals(500, index.getTotalRemainingSize());
+
+        // Adding an entry log again replaces its usage, the entry logs with the same usage are sorted by id
+        first.removeLedgerIf(ledgerId -> ledgerId == 3);
+        addEntryLog(first);
+        assertEquals(Arrays.asList(3L, 1L, 2L), entryLogsByUsage());
+        assertEquals(3, index.size());
+        assertEquals(400, index.getTotalRemainingSize());
+    }
+
+    @Test
+    public void testDeletedLedgerUpdatesOnlyItsEntryLogs() {
+        addEntryLog(metadata(1, 0, 1, 2));
+        addEntryLog(metadata(2, 0, 1, 3));
+        addEntryLog(metadata(3, 0, 3, 4));
+
+        assertEquals(Arrays.asList(1L, 2L), list(index.removeLedger(1)));
+        // A ledger is only reported once
+        assertTrue(index.removeLedger(1).isEmpty());
+        assertTrue(index.removeLedger(5).isEmpty());
+
+        index.updateEntryLog(1, 200, 100, 0.5);
+        index.updateEntryLog(2, 200, 100, 0.5);
+        assertEquals(Arrays.asList(1L, 2L, 3L), entryLogsByUsage());
+        assertEquals(400, index.getTotalRemainingSize());
+    }
+
+    @Test
+    public void testUpdatedEntryLogKeepsItsGeneration() {
+        addEntryLog(metadata(1, 0, 1, 2));
+        addEntryLog(metadata(2, 3, 1, 2));
+
+        index.updateEntryLog(2, 200, 50, 0.25);
+        List<Integer> generations = new ArrayList<>();
+        index.forEach(entryLog -> generations.add(entryLog.getGeneration()));
+        assertEquals(Arrays.asList(3, 0), generations);
+        assertEquals(250, index.getTotalRemainingSize());
+    }
+
+    @Test
+    public void testRemovedEntryLogIsNotReported() {
+        EntryLogMetadata first = metadata(1, 0, 1, 2);
+        addEntryLog(first);
+        addEntryLog(metadata(2, 0, 1, 2));
+        addEntryLog(metadata(3, 0, 2));
+
+        // With its metadata, the entry log is removed from the entry logs of its ledgers
+        index.removeEntryLog(1, first);
+        assertEquals(Arrays.asList(2L), list(index.removeLedger(1)));
+
+        // Without, it is skipped when one of its ledgers is deleted
+        index.removeEntryLog(2, null);
+        assertEquals(Arrays.asList(3L), list(index.removeLedger(2)));
+
+        assertEquals(Arrays.asList(3L), entryLogsByUsage());
+        assertEquals(1, index.size());
+        assertEquals(100, index.getTotalRemainingSize());
+    }
+
+    @Test
+    public void testClearForRebuild() {
+        addEntryLog(metadata(1, 0, 1, 2));
+        addEntryLog(metadata(2, 0, 1));
+        index.clear();
+
+        assertEquals(0, index.size());
+        assertEquals(0, index.getTotalRemainingSize());
+        assertTrue(index.removeLedger(1).isEmpty());
+
+        // The index is rebuilt from the metadata of the entry logs
+        addEntryLog(metadata(2, 0, 1));
+        assertEquals(Arrays.asList(2L), list(index.removeLedger(1)));
+    }
+}
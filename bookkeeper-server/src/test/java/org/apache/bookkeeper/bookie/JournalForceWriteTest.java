@@ -0,0 +1,145 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the journal with several outstanding force writes.
+ */
+public class JournalForceWriteTest {
+
+    private static final int ENTRIES = 500;
+
+    private File dir;
+    private Journal journal;
+    private final AtomicInteger forceWrites = new AtomicInteger();
+    private final AtomicInteger concurrentForceWrites = new AtomicInteger();
+    private final AtomicInteger maxConcurrentForceWrites = new AtomicInteger();
+
+    /**
+     * A journal channel where every other force write is slow, so that the force writes complete out of order.
+     */
+    private class SlowSyncChannel extends BufferedChannel {
+        SlowSyncChannel(FileChannel fc, int capacity) throws IOException {
+            super(UnpooledByteBufAllocator.DEFAULT, fc, capacity);
+        }
+
+        @Override
+        public long forceWrite(boolean forceMetadata) throws IOException {
+            if (forceMetadata) {
+                return super.forceWrite(true);
+            }
+            int concurrent = concurrentForceWrites.incrementAndGet();
+            maxConcurrentForceWrites.accumulateAndGet(concurrent, Math::max);
+            try {
+                if (forceWrites.incrementAndGet() % 2 == 1) {
+                    Thread.sleep(20);
+                }
+                return super.forceWrite(false);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } finally {
+                concurrentForceWrites.decrementAndGet();
+            }
+        }
+    }
+
+    @Before
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("journal-force-write-test").toFile();
+        ServerConfiguration conf = new ServerConfiguration();
+        conf.setJournalDirName(dir.getPath());
+        conf.setLedgerDirNames(new String[] { dir.getPath() });
+        conf.setJournalMaxOutstandingForceWrites(4);
+        journal = new Journal(0, dir, conf, new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()))) {
+            @Override
+            public BufferedChannelBuilder getBufferedChannelBuilder() {
+                return SlowSyncChannel::new;
+            }
+        };
+        journal.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        journal.shutdown();
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testEntriesAreAcknowledgedInOrder() throws Exception {
+        List<Long> acknowledged = new ArrayList<>();
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(ENTRIES);
+        for (long entryId = 0; entryId < ENTRIES; entryId++) {
+            journal.logAddEntry(1, entryId, Unpooled.wrappedBuffer(new byte[128]), false,
+                    (rc, ledgerId, eid, addr, ctx) -> {
+                        synchronized (acknowledged) {
+                            acknowledged.add(eid);
+                        }
+                        if (rc != BKException.Code.OK) {
+                            failures.incrementAndGet();
+                        }
+                        done.countDown();
+                    }, null);
+            if (entryId % 10 == 0) {
+                // Let the journal flush, so that the entries are spread over several force writes
+                Thread.sleep(1);
+            }
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertEquals(0, failures.get());
+
+        // The slow force writes completed after the following ones, the entries are still acknowledged in order
+        assertTrue(maxConcurrentForceWrites.get() > 1);
+        synchronized (acknowledged) {
+            for (int i = 0; i < ENTRIES; i++) {
+                assertEquals(i, (long) acknowledged.get(i));
+            }
+        }
+
+        // The log mark covers all the acknowledged entries
+        assertTrue(journal.getLastLogMark().getCurMark().getLogFileOffset() >= ENTRIES * 128L);
+    }
+}
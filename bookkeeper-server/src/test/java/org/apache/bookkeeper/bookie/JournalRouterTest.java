@@ -0,0 +1,171 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the adaptive routing of the ledgers to the journals.
+ */
+public class JournalRouterTest {
+
+    private static final int JOURNALS = 4;
+
+    private final List<Journal> journals = new ArrayList<>();
+    private JournalRouter router;
+
+    @Before
+    public void setup() {
+        for (int i = 0; i < JOURNALS; i++) {
+            Journal journal = mock(Journal.class, RETURNS_DEEP_STUBS);
+            when(journal.getRoutingLoadMicros()).thenReturn(10L);
+            when(journal.getJournalQueueLength()).thenReturn(0);
+            journals.add(journal);
+        }
+
+        ServerConfiguration conf = new ServerConfiguration();
+        conf.setJournalAdaptiveRoutingEnabled(true);
+        conf.setJournalRoutingRebindIdleTimeMs(0);
+        router = new JournalRouter(journals, conf);
+    }
+
+    @Test
+    public void testEquallyLoadedJournalsAreUsedInRoundRobin() {
+        Set<Journal> used = new HashSet<>();
+        for (long ledgerId = 0; ledgerId < JOURNALS; ledgerId++) {
+            used.add(router.getJournal(ledgerId));
+        }
+        assertEquals(JOURNALS, used.size());
+    }
+
+    @Test
+    public void testTiesAreBrokenByQueueLength() {
+        when(journals.get(0).getJournalQueueLength()).thenReturn(5);
+        when(journals.get(1).getJournalQueueLength()).thenReturn(5);
+        when(journals.get(2).getJournalQueueLength()).thenReturn(1);
+        when(journals.get(3).getJournalQueueLength()).thenReturn(5);
+
+        for (long ledgerId = 0; ledgerId < JOURNALS; ledgerId++) {
+            assertSame(journals.get(2), router.getJournal(ledgerId));
+        }
+    }
+
+    @Test
+    public void testLedgerStaysOnItsJournal() {
+        Journal journal = router.getJournal(1);
+        when(journal.getJournalQueueLength()).thenReturn(100);
+        when(journal.getRoutingLoadMicros()).thenReturn(1000L);
+
+        // The queue of the journal is not drained, the ledger is not moved
+        assertSame(journal, router.getJournal(1));
+    }
+
+    @Test
+    public void testIdleLedgerIsMovedToLessLoadedJournal() {
+        Journal journal = router.getJournal(1);
+        when(journal.getRoutingLoadMicros()).thenReturn(1000L);
+
+        Journal moved = router.getJournal(1);
+        assertNotSame(journal, moved);
+        assertSame(moved, router.getJournal(1));
+    }
+
+    @Test
+    public void testLedgerWithUnsyncedEntriesIsNotMoved() {
+        Journal journal = router.getJournal(1, true);
+        when(journal.getRoutingLoadMicros()).thenReturn(1000L);
+        assertSame(journal, router.getJournal(1, true));
+
+        // The forceLedger syncs the entries once completed
+        AtomicInteger completions = new AtomicInteger();
+        WriteCallback cb = router.wrapForceLedgerCallback(1,
+                (rc, ledgerId, entryId, addr, ctx) -> completions.incrementAndGet());
+        assertSame(journal, router.getJournal(1));
+        cb.writeComplete(BKException.Code.OK, 1, BookieImpl.METAENTRY_ID_FORCE_LEDGER, null, null);
+        assertEquals(1, completions.get());
+
+        assertNotSame(journal, router.getJournal(1));
+    }
+
+    @Test
+    public void testFailedForceLedgerDoesNotSyncEntries() {
+        Journal journal = router.getJournal(1, true);
+        when(journal.getRoutingLoadMicros()).thenReturn(1000L);
+
+        WriteCallback cb = router.wrapForceLedgerCallback(1, (rc, ledgerId, entryId, addr, ctx) -> { });
+        cb.writeComplete(BKException.Code.WriteException, 1, BookieImpl.METAENTRY_ID_FORCE_LEDGER, null, null);
+        assertSame(journal, router.getJournal(1));
+    }
+
+    @Test
+    public void testEntriesAddedDuringForceLedgerAreNotSynced() {
+        Journal journal = router.getJournal(1, true);
+        WriteCallback cb = router.wrapForceLedgerCallback(1, (rc, ledgerId, entryId, addr, ctx) -> { });
+        assertSame(journal, router.getJournal(1, true));
+        when(journal.getRoutingLoadMicros()).thenReturn(1000L);
+
+        cb.writeComplete(BKException.Code.OK, 1, BookieImpl.METAENTRY_ID_FORCE_LEDGER, null, null);
+        assertSame(journal, router.getJournal(1));
+    }
+
+    @Test
+    public void testRoutingLoadBeforeFirstSync() throws Exception {
+        File dir = Files.createTempDirectory("journal-router-test").toFile();
+        try {
+            ServerConfiguration conf = new ServerConfiguration();
+            conf.setJournalDirName(dir.getPath());
+            conf.setLedgerDirNames(new String[] { dir.getPath() });
+            Journal journal = new Journal(0, dir, conf, new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                    new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold())));
+
+            // Without any fsync yet, the load is not 0 and still grows with the queue
+            long load = journal.getRoutingLoadMicros();
+            assertTrue(load > 0);
+            journal.logAddEntry(1, 0, Unpooled.wrappedBuffer(new byte[16]), false,
+                    (rc, ledgerId, entryId, addr, ctx) -> { }, null);
+            assertTrue(journal.getRoutingLoadMicros() > load);
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+}
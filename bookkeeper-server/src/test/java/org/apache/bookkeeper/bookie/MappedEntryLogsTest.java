@@ -0,0 +1,111 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import io.netty.buffer.ByteBuf;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the memory mappings of the entry logs.
+ */
+public class MappedEntryLogsTest {
+
+    private File dir;
+    private File logFile;
+    private final AtomicBoolean sealed = new AtomicBoolean();
+    private final AtomicInteger lookups = new AtomicInteger();
+    private MappedEntryLogs mappedEntryLogs;
+
+    @Before
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("mapped-entry-logs-test").toFile();
+        logFile = new File(dir, "1.log");
+        Files.write(logFile.toPath(), new byte[] { 1, 2, 3, 4 });
+        mappedEntryLogs = new MappedEntryLogs(1024 * 1024, logId -> {
+            lookups.incrementAndGet();
+            return sealed.get() ? logFile : null;
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mappedEntryLogs.close();
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testUnsealedLogIsOnlyLookedUpOnce() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            assertNull(mappedEntryLogs.acquire(1));
+        }
+        assertEquals(1, lookups.get());
+
+        // The log is sealed without notification, it is still considered not sealed
+        sealed.set(true);
+        assertNull(mappedEntryLogs.acquire(1));
+        assertEquals(1, lookups.get());
+
+        mappedEntryLogs.logsSealed();
+        ByteBuf mapping = mappedEntryLogs.acquire(1);
+        assertNotNull(mapping);
+        assertEquals(4, mapping.capacity());
+        assertEquals(3, mapping.getByte(2));
+        mapping.release();
+        assertEquals(2, lookups.get());
+
+        // Mapped logs don't need the locator anymore
+        mapping = mappedEntryLogs.acquire(1);
+        mapping.release();
+        assertEquals(2, lookups.get());
+        assertEquals(4, mappedEntryLogs.getMappedBytes());
+    }
+
+    @Test
+    public void testOtherLogsAreLookedUpAgainAfterSeal() throws Exception {
+        assertNull(mappedEntryLogs.acquire(1));
+        assertNull(mappedEntryLogs.acquire(2));
+        assertEquals(2, lookups.get());
+
+        mappedEntryLogs.logsSealed();
+        assertNull(mappedEntryLogs.acquire(1));
+        assertNull(mappedEntryLogs.acquire(2));
+        assertEquals(4, lookups.get());
+    }
+
+    @Test
+    public void testUnmapForgetsUnsealedLog() throws Exception {
+        assertNull(mappedEntryLogs.acquire(1));
+        mappedEntryLogs.unmap(1);
+        assertNull(mappedEntryLogs.acquire(1));
+        assertEquals(2, lookups.get());
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/**
+ * Test the parallel replay of the journal records by {@link OrderedJournalScanner}.
+ */
+public class OrderedJournalScannerTest {
+
+    private static final int RECORD_SIZE = 32;
+
+    private static ByteBuffer record(long ledgerId, long entryId) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.putLong(ledgerId);
+        record.putLong(entryId);
+        record.clear();
+        return record;
+    }
+
+    @Test
+    public void testRecordsOfLedgerAreProcessedInOrder() throws Exception {
+        final int ledgers = 16;
+        final int entries = 200;
+        Map<Long, List<Long>> processed = new ConcurrentHashMap<>();
+        Journal.JournalScanner scanner = (journalVersion, offset, entry) -> {
+            long ledgerId = entry.getLong(0);
+            processed.computeIfAbsent(ledgerId, id -> new ArrayList<>()).add(entry.getLong(8));
+            if (entry.getLong(8) % 50 == 0) {
+                Thread.yield();
+            }
+        };
+
+        try (OrderedJournalScanner orderedScanner = new OrderedJournalScanner(scanner, 4, 1024 * 1024)) {
+            // The same buffer is reused for all the records, like the journal scan does
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+            for (long entryId = 0; entryId < entries; entryId++) {
+                for (long ledgerId = 0; ledgerId < ledgers; ledgerId++) {
+                    buffer.clear();
+                    buffer.put(record(ledgerId, entryId));
+                    buffer.flip();
+                    orderedScanner.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 0, buffer);
+                }
+            }
+            orderedScanner.drain();
+        }
+
+        assertEquals(ledgers, processed.size());
+        for (List<Long> entryIds : processed.values()) {
+            assertEquals(entries, entryIds.size());
+            for (int i = 0; i < entries; i++) {
+                assertEquals(i, (long) entryIds.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testDrainWaitsForAllRecords() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        AtomicInteger processed = new AtomicInteger();
+        Journal.JournalScanner scanner = (journalVersion, offset, entry) -> {
+            if (entry.getLong(0) == 1) {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            processed.incrementAndGet();
+        };
+
+        try (OrderedJournalScanner orderedScanner = new OrderedJournalScanner(scanner, 2, 1024 * 1024)) {
+            for (long ledgerId = 0; ledgerId < 4; ledgerId++) {
+                orderedScanner.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 0, record(ledgerId, 0));
+            }
+
+            // The journal is only marked as replayed once drained, which waits for the blocked record
+            CompletableFuture<Void> drained = CompletableFuture.runAsync(() -> {
+                try {
+                    orderedScanner.drain();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            try {
+                drained.get(100, TimeUnit.MILLISECONDS);
+                fail("A record is still being processed");
+            } catch (TimeoutException e) {
+                // expected
+            }
+            assertFalse(drained.isDone());
+
+            blocked.countDown();
+            drained.get(10, TimeUnit.SECONDS);
+            assertEquals(4, processed.get());
+        }
+    }
+
+    @Test
+    public void testFailedRecordFailsTheReplay() throws Exception {
+        AtomicInteger processed = new AtomicInteger();
+        Journal.JournalScanner scanner = (journalVersion, offset, entry) -> {
+            if (entry.getLong(8) == 5) {
+                throw new IOException("Failed to apply the record");
+            }
+            processed.incrementAndGet();
+        };
+
+        try (OrderedJournalScanner orderedScanner = new OrderedJournalScanner(scanner, 2, 1024 * 1024)) {
+            try {
+                for (long entryId = 0; entryId < 10; entryId++) {
+                    // The failure may already be reported while dispatching the records
+                    orderedScanner.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 0, record(1, entryId));
+                }
+                orderedScanner.drain();
+                fail("The replay failed");
+            } catch (IOException e) {
+                assertEquals("Failed to apply the record", e.getMessage());
+            }
+
+            // The records following the failed one are skipped, and no more records are taken
+            assertEquals(5, processed.get());
+            try {
+                orderedScanner.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 0, record(2, 0));
+                fail("The replay failed");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testPendingRecordsAreBounded() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        Journal.JournalScanner scanner = (journalVersion, offset, entry) -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        };
+
+        // A reservation may go over the limit once, the second record reaches it
+        try (OrderedJournalScanner orderedScanner = new OrderedJournalScanner(scanner, 2, 2 * RECORD_SIZE - 1)) {
+            orderedScanner.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 0, record(1, 0));
+            orderedScanner.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 0, record(1, 1));
+
+            // The third record waits for the memory of the first ones
+            CompletableFuture<Void> third = CompletableFuture.runAsync(() -> {
+                try {
+                    orderedScanner.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 0, record(1, 2));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            try {
+                third.get(100, TimeUnit.MILLISECONDS);
+                fail("The pending records are above the limit");
+            } catch (TimeoutException e) {
+                // expected
+            } finally {
+                blocked.countDown();
+            }
+
+            third.get(10, TimeUnit.SECONDS);
+            orderedScanner.drain();
+            assertTrue(third.isDone());
+        }
+    }
+}
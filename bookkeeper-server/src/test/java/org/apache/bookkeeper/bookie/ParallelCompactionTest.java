@@ -0,0 +1,222 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.bookie.storage.EntryLogger;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the compaction of several entry logs concurrently by the {@link GarbageCollectorThread}.
+ */
+public class ParallelCompactionTest {
+
+    private static final int WORKERS = 3;
+
+    private GarbageCollectorThread gcThread;
+    private final Map<Integer, List<Long>> compactedByWorker = new HashMap<>();
+    private final AtomicInteger concurrentCompactions = new AtomicInteger();
+    private final AtomicInteger maxConcurrentCompactions = new AtomicInteger();
+    private volatile long compactionTimeMillis = 10;
+    private volatile long failingEntryLogId = -1;
+    private volatile CountDownLatch blocked = new CountDownLatch(0);
+
+    /**
+     * Records the entry logs compacted by a worker, instead of copying their entries.
+     */
+    private class RecordingCompactor extends AbstractLogCompactor {
+        private final int worker;
+
+        RecordingCompactor(ServerConfiguration conf, int worker) {
+            super(conf, logToRemove -> {});
+            this.worker = worker;
+        }
+
+        @Override
+        public boolean compact(EntryLogMetadata entryLogMeta) {
+            int concurrent = concurrentCompactions.incrementAndGet();
+            maxConcurrentCompactions.accumulateAndGet(concurrent, Math::max);
+            try {
+                blocked.await();
+                Thread.sleep(compactionTimeMillis);
+                if (entryLogMeta.getEntryLogId() == failingEntryLogId) {
+                    throw new RuntimeException("Failed to compact entry log " + failingEntryLogId);
+                }
+                synchronized (compactedByWorker) {
+                    compactedByWorker.computeIfAbsent(worker, w -> new ArrayList<>())
+                            .add(entryLogMeta.getEntryLogId());
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                concurrentCompactions.decrementAndGet();
+            }
+        }
+    }
+
+    @Before
+    public void setup() throws Exception {
+        ServerConfiguration conf = new ServerConfiguration();
+        conf.setAllowLoopback(true);
+        conf.setCompactionThreads(WORKERS);
+        gcThread = new GarbageCollectorThread(conf, mock(LedgerManager.class), mock(LedgerDirsManager.class),
+                mock(CompactableLedgerStorage.class), mock(EntryLogger.class), NullStatsLogger.INSTANCE);
+        assertEquals(WORKERS, gcThread.compactionThreads);
+        for (int i = 0; i < WORKERS; i++) {
+            // The compaction rate is a budget shared by all the workers
+            assertSame(gcThread.compactor.throttler, gcThread.workerCompactors[i].throttler);
+            gcThread.workerCompactors[i] = new RecordingCompactor(conf, i);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        blocked.countDown();
+        if (gcThread != null) {
+            gcThread.shutdown();
+        }
+    }
+
+    /**
+     * Add entry logs with an increasing usage, entry log 1 having the lowest usage.
+     */
+    private void addEntryLogs(int count) throws Exception {
+        for (long entryLogId = 1; entryLogId <= count; entryLogId++) {
+            EntryLogMetadata metadata = new EntryLogMetadata(entryLogId);
+            metadata.addLedgerSize(1, entryLogId);
+            metadata.addLedgerSize(2, 10 * count);
+            metadata.removeLedgerIf(ledgerId -> ledgerId == 2);
+            gcThread.getEntryLogMetaMap().put(entryLogId, metadata);
+        }
+    }
+
+    private List<Long> allCompacted() {
+        List<Long> compacted = new ArrayList<>();
+        synchronized (compactedByWorker) {
+            compactedByWorker.values().forEach(compacted::addAll);
+        }
+        compacted.sort(Long::compare);
+        return compacted;
+    }
+
+    @Test
+    public void testEntryLogsAreCompactedConcurrently() throws Exception {
+        addEntryLogs(12);
+        gcThread.doCompactEntryLogs(0.5, 0);
+
+        List<Long> expected = new ArrayList<>();
+        for (long entryLogId = 1; entryLogId <= 12; entryLogId++) {
+            expected.add(entryLogId);
+        }
+        assertEquals(expected, allCompacted());
+        assertTrue(maxConcurrentCompactions.get() > 1);
+        assertFalse(gcThread.compacting.get());
+
+        // Each worker takes the entry logs with the lowest usage first
+        for (List<Long> entryLogIds : compactedByWorker.values()) {
+            for (int i = 1; i < entryLogIds.size(); i++) {
+                assertTrue(entryLogIds.get(i - 1) < entryLogIds.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testFailedEntryLogDoesNotStopTheWorkers() throws Exception {
+        addEntryLogs(9);
+        failingEntryLogId = 2;
+        gcThread.doCompactEntryLogs(0.5, 0);
+
+        List<Long> compacted = allCompacted();
+        assertEquals(8, compacted.size());
+        assertFalse(compacted.contains(2L));
+    }
+
+    @Test
+    public void testCompactionStopsAtMaxTime() throws Exception {
+        addEntryLogs(60);
+        compactionTimeMillis = 50;
+        gcThread.doCompactEntryLogs(0.5, 100);
+
+        // The workers stop picking up entry logs, the ones with the lowest usage were compacted
+        List<Long> compacted = allCompacted();
+        assertTrue(compacted.size() < 60);
+        assertTrue(compacted.contains(1L));
+        assertFalse(gcThread.compacting.get());
+    }
+
+    @Test
+    public void testShutdownWaitsForTheWorkers() throws Exception {
+        addEntryLogs(WORKERS);
+        blocked = new CountDownLatch(1);
+        CompletableFuture<Void> compaction = CompletableFuture.runAsync(() -> {
+            try {
+                gcThread.doCompactEntryLogs(0.5, 0);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        while (concurrentCompactions.get() < WORKERS) {
+            Thread.sleep(1);
+        }
+
+        CompletableFuture<Void> shutdown = CompletableFuture.runAsync(() -> {
+            try {
+                gcThread.shutdown();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        try {
+            shutdown.get(300, TimeUnit.MILLISECONDS);
+            fail("The workers are still compacting");
+        } catch (TimeoutException e) {
+            // expected
+        } finally {
+            blocked.countDown();
+        }
+
+        compaction.get(10, TimeUnit.SECONDS);
+        shutdown.get(10, TimeUnit.SECONDS);
+        assertEquals(WORKERS, allCompacted().size());
+    }
+}
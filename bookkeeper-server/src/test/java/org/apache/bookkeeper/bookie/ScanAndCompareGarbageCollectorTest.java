@@ -0,0 +1,190 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.meta.LedgerManager.LedgerRange;
+import org.apache.bookkeeper.meta.LedgerManager.LedgerRangeIterator;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.versioning.LongVersion;
+import org.apache.bookkeeper.versioning.Versioned;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the merge of the bookie ledgers with the metadata ranges by {@link ScanAndCompareGarbageCollector}.
+ */
+public class ScanAndCompareGarbageCollectorTest {
+
+    private ServerConfiguration conf;
+    private LedgerManager ledgerManager;
+    private CompactableLedgerStorage ledgerStorage;
+    private final List<Long> cleaned = Collections.synchronizedList(new ArrayList<>());
+    private final List<Long> metadataReads = Collections.synchronizedList(new ArrayList<>());
+    private final Map<Long, CompletableFuture<Versioned<LedgerMetadata>>> metadataFutures = new HashMap<>();
+
+    @Before
+    public void setup() throws Exception {
+        conf = new ServerConfiguration();
+        conf.setAllowLoopback(true);
+        ledgerManager = mock(LedgerManager.class);
+        ledgerStorage = mock(CompactableLedgerStorage.class);
+
+        // The bookie ledgers are not sorted
+        when(ledgerStorage.getActiveLedgersInRange(0, Long.MAX_VALUE)).thenReturn(
+                Arrays.asList(25L, 1L, 12L, 2L, 3L, 20L, 4L, 5L, 15L, 6L, 10L, 11L));
+        when(ledgerManager.getLedgerRanges(anyLong())).thenAnswer(invocation -> ranges(
+                Arrays.asList(1L, 3L, 5L), Arrays.asList(10L, 12L), Arrays.asList(20L)));
+        when(ledgerManager.readLedgerMetadata(anyLong())).thenAnswer(invocation -> {
+            long ledgerId = invocation.getArgument(0);
+            metadataReads.add(ledgerId);
+            return metadataFuture(ledgerId);
+        });
+    }
+
+    @SafeVarargs
+    private static LedgerRangeIterator ranges(List<Long>... ranges) {
+        Iterator<List<Long>> iterator = Arrays.asList(ranges).iterator();
+        return new LedgerRangeIterator() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public LedgerRange next() {
+                return new LedgerRange(new HashSet<>(iterator.next()));
+            }
+        };
+    }
+
+    private CompletableFuture<Versioned<LedgerMetadata>> metadataFuture(long ledgerId) {
+        synchronized (metadataFutures) {
+            return metadataFutures.computeIfAbsent(ledgerId, id -> new CompletableFuture<>());
+        }
+    }
+
+    private static Versioned<LedgerMetadata> metadata(BookieId bookie) {
+        LedgerMetadata metadata = mock(LedgerMetadata.class);
+        TreeMap<Long, List<BookieId>> ensembles = new TreeMap<>();
+        ensembles.put(0L, Arrays.asList(bookie));
+        doReturn(ensembles).when(metadata).getAllEnsembles();
+        return new Versioned<>(metadata, new LongVersion(0));
+    }
+
+    private ScanAndCompareGarbageCollector newGarbageCollector() throws Exception {
+        return new ScanAndCompareGarbageCollector(ledgerManager, ledgerStorage, conf, NullStatsLogger.INSTANCE);
+    }
+
+    private void awaitMetadataReads(int count) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (metadataReads.size() < count) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        // No read of the following batch is issued before the batch completes
+        Thread.sleep(50);
+        assertEquals(count, metadataReads.size());
+    }
+
+    @Test
+    public void testLedgersMissingFromMetadataAreCleaned() throws Exception {
+        ScanAndCompareGarbageCollector gc = newGarbageCollector();
+        gc.gc(cleaned::add);
+
+        // Including the ledgers after the last metadata range
+        assertEquals(Arrays.asList(2L, 4L, 6L, 11L, 15L, 25L), cleaned);
+        assertEquals(12, gc.getNumActiveLedgers());
+        assertTrue(metadataReads.isEmpty());
+    }
+
+    @Test
+    public void testDeletionCandidatesAreVerifiedInBatches() throws Exception {
+        conf.setVerifyMetadataOnGc(true);
+        conf.setGcVerifyMetadataBatchSize(2);
+        ScanAndCompareGarbageCollector gc = newGarbageCollector();
+        BookieId self = BookieImpl.getBookieId(conf);
+        BookieId other = BookieId.parse("other-bookie:3181");
+
+        CompletableFuture<Void> done = CompletableFuture.runAsync(() -> gc.gc(cleaned::add));
+
+        // The candidates of the first range are read together
+        awaitMetadataReads(2);
+        assertEquals(Arrays.asList(2L, 4L), metadataReads);
+        metadataFuture(2).completeExceptionally(new BKException.BKNoSuchLedgerExistsOnMetadataServerException());
+        metadataFuture(4).complete(metadata(self));
+
+        awaitMetadataReads(4);
+        assertEquals(Arrays.asList(6L, 11L), metadataReads.subList(2, 4));
+        metadataFuture(6).complete(metadata(other));
+        metadataFuture(11).completeExceptionally(new BKException.BKBookieHandleNotAvailableException());
+
+        // The batches don't span several metadata ranges
+        awaitMetadataReads(5);
+        assertEquals(15L, (long) metadataReads.get(4));
+        metadataFuture(15).completeExceptionally(new BKException.BKNoSuchLedgerExistsOnMetadataServerException());
+
+        // Including the ledgers after the last metadata range
+        awaitMetadataReads(6);
+        assertEquals(25L, (long) metadataReads.get(5));
+        metadataFuture(25).complete(metadata(self));
+
+        done.get(10, TimeUnit.SECONDS);
+        // Only the ledgers gone from the metadata store, or not stored by this bookie anymore
+        assertEquals(Arrays.asList(2L, 6L, 15L), cleaned);
+    }
+
+    @Test
+    public void testMetadataOperationsAreRateLimited() throws Exception {
+        conf.setGcMetadataOpsRateLimit(20);
+        ScanAndCompareGarbageCollector gc = newGarbageCollector();
+
+        // One operation per metadata range, plus the end of the ranges
+        long start = System.nanoTime();
+        gc.gc(cleaned::add);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("Took " + elapsedMillis + "ms", elapsedMillis >= 100);
+        assertEquals(Arrays.asList(2L, 4L, 6L, 11L, 15L, 25L), cleaned);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.bookkeeper.bookie.storage.CompactionEntryLog;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the compaction of several entry logs into a single compaction log.
+ */
+public class TransactionalEntryLogCompactorTest {
+
+    private static final int ENTRIES = 5;
+    private static final long DELETED_LEDGER = 100;
+
+    private File dir;
+    private ServerConfiguration conf;
+    private DefaultEntryLogger entryLogger;
+    private final List<EntryLocation> locations = new ArrayList<>();
+    private final Set<Long> removedLogs = new HashSet<>();
+    private final List<Long> compactedLogs = new ArrayList<>();
+    private final Set<Long> dstLogs = new HashSet<>();
+    private TransactionalEntryLogCompactor compactor;
+
+    @Before
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("transactional-compactor-test").toFile();
+        BookieImpl.getCurrentDirectory(dir).mkdirs();
+        conf = new ServerConfiguration();
+        conf.setLedgerDirNames(new String[] { dir.getPath() });
+        entryLogger = new DefaultEntryLogger(conf);
+        compactor = newCompactor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        entryLogger.close();
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private TransactionalEntryLogCompactor newCompactor() throws Exception {
+        CompactableLedgerStorage ledgerStorage = mock(CompactableLedgerStorage.class);
+        doAnswer(invocation -> {
+            for (EntryLocation location : invocation.<Iterable<EntryLocation>>getArgument(0)) {
+                locations.add(location);
+            }
+            return null;
+        }).when(ledgerStorage).updateEntriesLocations(any());
+        return new TransactionalEntryLogCompactor(conf, entryLogger, ledgerStorage,
+                new AbstractLogCompactor.LogRemovalListener() {
+                    @Override
+                    public void removeEntryLog(long logToRemove) {
+                        removedLogs.add(logToRemove);
+                    }
+
+                    @Override
+                    public void compactedEntryLog(EntryLogMetadata compactedLogMeta, long dstLogId) {
+                        compactedLogs.add(compactedLogMeta.getEntryLogId());
+                        dstLogs.add(dstLogId);
+                    }
+                });
+    }
+
+    private static ByteBuf entry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(64);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        while (entry.isWritable()) {
+            entry.writeByte((int) (ledgerId + entryId));
+        }
+        return entry;
+    }
+
+    /**
+     * Write an entry log with the entries of the ledger and of a deleted ledger.
+     */
+    private long writeEntryLog(long ledgerId) throws Exception {
+        long location = 0;
+        for (long entryId = 0; entryId < ENTRIES; entryId++) {
+            location = entryLogger.addEntry(ledgerId, entry(ledgerId, entryId));
+            entryLogger.addEntry(DELETED_LEDGER, entry(DELETED_LEDGER, entryId));
+        }
+        ((EntryLogManagerBase) entryLogger.getEntryLogManager()).createNewLog(ledgerId);
+        entryLogger.flush();
+        return DefaultEntryLogger.logIdForOffset(location);
+    }
+
+    private EntryLogMetadata liveMetadata(long logId) throws Exception {
+        EntryLogMetadata metadata = entryLogger.getEntryLogMetadata(logId);
+        metadata.removeLedgerIf(ledgerId -> ledgerId == DELETED_LEDGER);
+        return metadata;
+    }
+
+    @Test
+    public void testEntryLogsArePackedIntoOneCompactionLog() throws Exception {
+        List<EntryLogMetadata> metadatas = new ArrayList<>();
+        for (long ledgerId = 1; ledgerId <= 3; ledgerId++) {
+            metadatas.add(liveMetadata(writeEntryLog(ledgerId)));
+        }
+        Set<Long> srcLogs = new HashSet<>();
+        for (EntryLogMetadata metadata : metadatas) {
+            srcLogs.add(metadata.getEntryLogId());
+        }
+
+        assertTrue(compactor.compact(metadatas));
+        assertEquals(srcLogs, removedLogs);
+        assertEquals(srcLogs, new HashSet<>(compactedLogs));
+        assertEquals(1, dstLogs.size());
+        long dstLog = dstLogs.iterator().next();
+
+        // All the live entries moved to the compaction log
+        assertEquals(3 * ENTRIES, locations.size());
+        for (EntryLocation location : locations) {
+            assertEquals(dstLog, DefaultEntryLogger.logIdForOffset(location.getLocation()));
+            ByteBuf entry = entryLogger.readEntry(location.getLedger(), location.getEntry(), location.getLocation());
+            assertEquals(entry(location.getLedger(), location.getEntry()), entry);
+            entry.release();
+        }
+        EntryLogMetadata dstMetadata = entryLogger.getEntryLogMetadata(dstLog);
+        assertEquals(new HashSet<>(Arrays.asList(1L, 2L, 3L)), new HashSet<>(dstMetadata.getLedgersMap().keys()));
+        assertTrue(entryLogger.incompleteCompactionLogs().isEmpty());
+    }
+
+    @Test
+    public void testPackedCompactionLogIsRecoveredForEachEntryLog() throws Exception {
+        long firstLog = writeEntryLog(1);
+        long secondLog = writeEntryLog(2);
+
+        // The compaction stops once the compaction log is marked compacted
+        CompactionEntryLog compactionLog = entryLogger.newCompactionLog(firstLog);
+        assertTrue(compactionLog.addSrcLog(secondLog));
+        assertEquals(Arrays.asList(firstLog, secondLog), compactionLog.getSrcLogIds());
+        for (long ledgerId = 1; ledgerId <= 2; ledgerId++) {
+            for (long entryId = 0; entryId < ENTRIES; entryId++) {
+                compactionLog.addEntry(ledgerId, entry(ledgerId, entryId));
+            }
+        }
+        compactionLog.flush();
+        compactionLog.markCompacted();
+        entryLogger.clearCompactingLogId();
+
+        Set<Long> recoveredSrcLogs = new HashSet<>();
+        for (CompactionEntryLog log : entryLogger.incompleteCompactionLogs()) {
+            assertEquals(compactionLog.getDstLogId(), log.getDstLogId());
+            recoveredSrcLogs.add(log.getSrcLogId());
+        }
+        assertEquals(new HashSet<>(Arrays.asList(firstLog, secondLog)), recoveredSrcLogs);
+
+        newCompactor().cleanUpAndRecover();
+        assertEquals(recoveredSrcLogs, removedLogs);
+        assertTrue(entryLogger.incompleteCompactionLogs().isEmpty());
+        assertTrue(entryLogger.logExists(compactionLog.getDstLogId()));
+        assertFalse(locations.isEmpty());
+        for (EntryLocation location : locations) {
+            assertEquals(compactionLog.getDstLogId(), DefaultEntryLogger.logIdForOffset(location.getLocation()));
+        }
+    }
+}
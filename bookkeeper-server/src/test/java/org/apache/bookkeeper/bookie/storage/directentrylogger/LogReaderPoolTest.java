@@ -0,0 +1,209 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.directentrylogger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Test the sharing and the eviction of the readers of {@link LogReaderPool}.
+ */
+public class LogReaderPoolTest {
+
+    private final Map<Integer, List<LogReader>> opened = new HashMap<>();
+    private final List<Integer> closed = new ArrayList<>();
+
+    private synchronized LogReader open(int logId) {
+        LogReader reader = mock(LogReader.class);
+        opened.computeIfAbsent(logId, id -> new ArrayList<>()).add(reader);
+        return reader;
+    }
+
+    private synchronized void onClose(int logId, IOException error) {
+        closed.add(logId);
+    }
+
+    private synchronized int openedCount(int logId) {
+        return opened.getOrDefault(logId, new ArrayList<>()).size();
+    }
+
+    private LogReaderPool newPool(int maxReaders, long maxIdleSeconds) {
+        return new LogReaderPool(this::open, this::onClose, maxReaders, maxIdleSeconds);
+    }
+
+    @Test
+    public void testReaderIsShared() throws Exception {
+        try (LogReaderPool pool = newPool(4, 60)) {
+            LogReader first = pool.acquire(1);
+            LogReader second = pool.acquire(1);
+            first.close();
+            second.close();
+            pool.acquire(1).close();
+
+            assertEquals(1, openedCount(1));
+            assertEquals(1, pool.size());
+            assertTrue(closed.isEmpty());
+        }
+        assertEquals(1, closed.size());
+        verify(opened.get(1).get(0), times(1)).close();
+    }
+
+    @Test
+    public void testLeastRecentlyUsedReaderIsEvicted() throws Exception {
+        try (LogReaderPool pool = newPool(2, 60)) {
+            pool.acquire(1).close();
+            Thread.sleep(1);
+            pool.acquire(2).close();
+            Thread.sleep(1);
+            pool.acquire(1).close();
+            Thread.sleep(1);
+            pool.acquire(3).close();
+
+            assertEquals(2, pool.size());
+            assertEquals(1, closed.size());
+            assertEquals(2, (int) closed.get(0));
+
+            // The evicted log is opened again
+            pool.acquire(2).close();
+            assertEquals(2, openedCount(2));
+        }
+    }
+
+    @Test
+    public void testEvictedReaderIsClosedOnceReleased() throws Exception {
+        try (LogReaderPool pool = newPool(1, 60)) {
+            LogReader reader = pool.acquire(1);
+            pool.acquire(2).close();
+            assertEquals(1, pool.size());
+
+            // Evicted, but still in use
+            assertTrue(closed.isEmpty());
+            verify(opened.get(1).get(0), never()).close();
+
+            reader.close();
+            assertEquals(1, closed.size());
+            verify(opened.get(1).get(0), times(1)).close();
+        }
+    }
+
+    @Test
+    public void testInvalidatedReaderIsNotReused() throws Exception {
+        try (LogReaderPool pool = newPool(4, 60)) {
+            LogReader reader = pool.acquire(1);
+            pool.invalidate(1);
+            assertEquals(0, pool.size());
+            assertTrue(closed.isEmpty());
+
+            pool.acquire(1).close();
+            assertEquals(2, openedCount(1));
+
+            reader.close();
+            verify(opened.get(1).get(0), times(1)).close();
+            verify(opened.get(1).get(1), never()).close();
+        }
+    }
+
+    @Test
+    public void testIdleReadersAreClosed() throws Exception {
+        try (LogReaderPool pool = newPool(4, 0)) {
+            pool.acquire(1).close();
+            Thread.sleep(1);
+            pool.acquire(2).close();
+            assertTrue(closed.contains(1));
+        }
+    }
+
+    @Test
+    public void testClosedPoolRejectsNewReaders() throws Exception {
+        LogReaderPool pool = newPool(4, 60);
+        LogReader reader = pool.acquire(1);
+        pool.close();
+        assertTrue(closed.isEmpty());
+        reader.close();
+        assertEquals(1, closed.size());
+
+        try {
+            pool.acquire(2);
+            fail("The pool is closed");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(2, closed.size());
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void testConcurrentAcquireClosesEachReaderOnce() throws Exception {
+        final int threads = 8;
+        final int iterations = 1000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (LogReaderPool pool = newPool(2, 60)) {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < iterations; i++) {
+                        pool.acquire((thread + i) % 4).close();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+            assertTrue(pool.size() <= 2);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Every opened reader is closed exactly once
+        synchronized (this) {
+            int openedReaders = 0;
+            for (List<LogReader> readers : opened.values()) {
+                openedReaders += readers.size();
+                for (LogReader reader : readers) {
+                    verify(reader, times(1)).close();
+                }
+            }
+            assertEquals(openedReaders, closed.size());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.bookkeeper.bookie.Checkpointer;
+import org.apache.bookkeeper.bookie.CheckpointSource;
+import org.apache.bookkeeper.bookie.LedgerDirsManager;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Flush of the write cache of {@link DbLedgerStorage} with multiple partitions.
+ */
+public class DbLedgerStorageFlushTest {
+
+    private static final int LEDGERS = 20;
+    private static final int ENTRIES = 50;
+    private static final int ENTRY_SIZE = 1024;
+
+    private File dir;
+    private DbLedgerStorage storage;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("flush-partitions-test").toFile();
+        new File(dir, "current").mkdirs();
+
+        ServerConfiguration conf = new ServerConfiguration();
+        conf.setAllowLoopback(true);
+        conf.setLedgerDirNames(new String[] { dir.getPath() });
+        conf.setProperty(DbLedgerStorage.WRITE_CACHE_MAX_SIZE_MB, 4);
+        conf.setProperty(DbLedgerStorage.READ_AHEAD_CACHE_MAX_SIZE_MB, 4);
+        conf.setProperty(DbLedgerStorage.FLUSH_PARTITIONS, 4);
+
+        LedgerDirsManager ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+        storage = new DbLedgerStorage();
+        storage.initialize(conf, null, ledgerDirsManager, ledgerDirsManager, NullStatsLogger.INSTANCE,
+                UnpooledByteBufAllocator.DEFAULT);
+        storage.setCheckpointSource(CheckpointSource.DEFAULT);
+        storage.setCheckpointer(Checkpointer.NULL);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        storage.shutdown();
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private static ByteBuf entry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(ENTRY_SIZE);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        while (entry.isWritable()) {
+            entry.writeByte((int) (ledgerId + entryId));
+        }
+        return entry;
+    }
+
+    @Test
+    public void testLedgerEntriesAreContiguousInEntryLog() throws Exception {
+        // The entries of the ledgers are added interleaved
+        for (long entryId = 0; entryId < ENTRIES; entryId++) {
+            for (long ledgerId = 0; ledgerId < LEDGERS; ledgerId++) {
+                storage.addEntry(entry(ledgerId, entryId));
+            }
+        }
+        storage.flush();
+
+        Map<Long, Long> ledgerByLocation = new TreeMap<>();
+        for (long ledgerId = 0; ledgerId < LEDGERS; ledgerId++) {
+            long previousLocation = -1;
+            for (long entryId = 0; entryId < ENTRIES; entryId++) {
+                long location = storage.getLocation(ledgerId, entryId);
+                Assert.assertTrue(location > previousLocation);
+                previousLocation = location;
+                ledgerByLocation.put(location, ledgerId);
+            }
+        }
+
+        // Each ledger is written as a single run in the entry log
+        int runs = 0;
+        long previousLedgerId = -1;
+        for (long ledgerId : ledgerByLocation.values()) {
+            if (ledgerId != previousLedgerId) {
+                runs++;
+                previousLedgerId = ledgerId;
+            }
+        }
+        Assert.assertEquals(LEDGERS, runs);
+
+        for (long ledgerId = 0; ledgerId < LEDGERS; ledgerId++) {
+            for (long entryId = 0; entryId < ENTRIES; entryId++) {
+                ByteBuf entry = storage.getEntry(ledgerId, entryId);
+                Assert.assertEquals(entry(ledgerId, entryId), entry);
+                entry.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.Batch;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KeyValueStorageSortedSegmentsTest {
+
+    private static final int LEDGERS = 10;
+
+    private File dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("sorted-segments-test").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private KeyValueStorage open(int mergeMinSegments) throws IOException {
+        ServerConfiguration conf = new ServerConfiguration();
+        conf.setProperty(KeyValueStorageSortedSegments.SORTED_SEGMENTS_MERGE_MIN_SEGMENTS, mergeMinSegments);
+        conf.setProperty(KeyValueStorageSortedSegments.SORTED_SEGMENTS_MAX_SEGMENTS, 1000);
+        return new KeyValueStorageSortedSegments(dir.getPath(), "locations", conf);
+    }
+
+    private static void writeBatch(KeyValueStorage kv, long entryId) throws IOException {
+        try (Batch batch = kv.newBatch()) {
+            for (long ledger = 0; ledger < LEDGERS; ledger++) {
+                batch.put(key(ledger, entryId), value(ledger * 1000 + entryId));
+            }
+            batch.flush();
+        }
+    }
+
+    private static void assertEntries(KeyValueStorage kv, long entries) throws IOException {
+        for (long ledger = 0; ledger < LEDGERS; ledger++) {
+            for (long entryId = 0; entryId < entries; entryId++) {
+                Assert.assertArrayEquals("ledger " + ledger + " entry " + entryId,
+                        value(ledger * 1000 + entryId), kv.get(key(ledger, entryId)));
+            }
+        }
+    }
+
+    @Test
+    public void testReopenKeepsFlushedSegments() throws IOException {
+        // No merge, each batch stays in its own segment
+        KeyValueStorage kv = open(1000);
+        for (long entryId = 0; entryId < 5; entryId++) {
+            writeBatch(kv, entryId);
+        }
+        assertEntries(kv, 5);
+        kv.close();
+
+        kv = open(1000);
+        assertEntries(kv, 5);
+        Assert.assertEquals(5 * LEDGERS, kv.count());
+        kv.close();
+    }
+
+    @Test
+    public void testReopenKeepsSingleOperations() throws IOException {
+        KeyValueStorage kv = open(1000);
+        writeBatch(kv, 0);
+        kv.put(key(0, 1), value(1));
+        kv.sync();
+        writeBatch(kv, 2);
+        kv.delete(key(1, 0));
+        kv.close();
+
+        kv = open(1000);
+        Assert.assertArrayEquals(value(1), kv.get(key(0, 1)));
+        Assert.assertArrayEquals(value(2), kv.get(key(0, 2)));
+        Assert.assertNull(kv.get(key(1, 0)));
+        Assert.assertArrayEquals(value(2000), kv.get(key(2, 0)));
+        kv.close();
+    }
+
+    @Test
+    public void testReopenAfterMerge() throws IOException {
+        KeyValueStorage kv = open(2);
+        for (long entryId = 0; entryId < 10; entryId++) {
+            writeBatch(kv, entryId);
+        }
+        kv.compact();
+        writeBatch(kv, 10);
+        kv.close();
+
+        kv = open(1000);
+        assertEntries(kv, 11);
+        kv.close();
+    }
+
+    @Test
+    public void testIteratorKeepsMergedSegmentsMapped() throws Exception {
+        KeyValueStorage kv = open(1000);
+        for (long entryId = 0; entryId < 5; entryId++) {
+            writeBatch(kv, entryId);
+        }
+
+        try (KeyValueStorage.CloseableIterator<byte[]> keys = kv.keys()) {
+            // The merged segments are dropped while the iterator still reads them
+            kv.compact();
+            int count = 0;
+            while (keys.hasNext()) {
+                keys.next();
+                count++;
+            }
+            Assert.assertEquals(5 * LEDGERS, count);
+        }
+
+        assertEntries(kv, 5);
+        kv.close();
+    }
+
+    private static byte[] key(long ledgerId, long entryId) {
+        LongPairWrapper key = LongPairWrapper.get(ledgerId, entryId);
+        byte[] array = key.array.clone();
+        key.recycle();
+        return array;
+    }
+
+    private static byte[] value(long location) {
+        LongWrapper value = LongWrapper.get(location);
+        byte[] array = value.array.clone();
+        value.recycle();
+        return array;
+    }
+}
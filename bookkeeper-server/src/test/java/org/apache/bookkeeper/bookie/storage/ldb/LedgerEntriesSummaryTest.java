@@ -0,0 +1,144 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.Batch;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LedgerEntriesSummaryTest {
+
+    private static final int MAX_LEDGERS = 10;
+
+    private File dir;
+    private EntryLocationIndex entryLocationIndex;
+    private LedgerEntriesSummary summary;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("ledger-entries-summary-test").toFile();
+        entryLocationIndex = new EntryLocationIndex(new ServerConfiguration(), KeyValueStorageRocksDB.factory,
+                dir.getPath(), NullStatsLogger.INSTANCE);
+        summary = new LedgerEntriesSummary(entryLocationIndex, MAX_LEDGERS, 0,
+                NullStatsLogger.INSTANCE.getCounter("range"), NullStatsLogger.INSTANCE.getCounter("bloom"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        entryLocationIndex.close();
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private void addEntries(Batch batch, long ledgerId, long firstEntryId, long lastEntryId) throws IOException {
+        for (long entryId = firstEntryId; entryId <= lastEntryId; entryId++) {
+            entryLocationIndex.addLocation(batch, ledgerId, entryId, 1000 + entryId);
+            summary.add(ledgerId, entryId);
+        }
+    }
+
+    @Test
+    public void testPersistedLedgersAreEvicted() throws Exception {
+        for (long ledgerId = 1; ledgerId <= 3 * MAX_LEDGERS; ledgerId++) {
+            long epoch = summary.beginIndexUpdate();
+            try (Batch batch = entryLocationIndex.newBatch()) {
+                addEntries(batch, ledgerId, 5, 10);
+                batch.flush();
+            } finally {
+                summary.endIndexUpdate(epoch);
+            }
+            Assert.assertTrue(summary.ledgersCount() <= MAX_LEDGERS);
+        }
+
+        // The evicted ledgers are loaded again from the index
+        for (long ledgerId = 1; ledgerId <= 3 * MAX_LEDGERS; ledgerId++) {
+            Assert.assertTrue(summary.isDefinitelyAbsent(ledgerId, 4));
+            Assert.assertFalse(summary.isDefinitelyAbsent(ledgerId, 5));
+            Assert.assertFalse(summary.isDefinitelyAbsent(ledgerId, 10));
+            Assert.assertTrue(summary.isDefinitelyAbsent(ledgerId, 11));
+        }
+        Assert.assertTrue(summary.ledgersCount() <= MAX_LEDGERS);
+    }
+
+    @Test
+    public void testLedgersWithEntriesNotPersistedAreNotEvicted() throws Exception {
+        long epoch = summary.beginIndexUpdate();
+        Batch batch = entryLocationIndex.newBatch();
+        for (long ledgerId = 1; ledgerId <= 2 * MAX_LEDGERS; ledgerId++) {
+            addEntries(batch, ledgerId, 0, 3);
+        }
+
+        // A later update that completes does not make the entries of the earlier one evictable
+        long otherEpoch = summary.beginIndexUpdate();
+        try (Batch otherBatch = entryLocationIndex.newBatch()) {
+            addEntries(otherBatch, 100, 0, 0);
+            otherBatch.flush();
+        } finally {
+            summary.endIndexUpdate(otherEpoch);
+        }
+        Assert.assertEquals(2 * MAX_LEDGERS + 1, summary.ledgersCount());
+
+        // The entries are not in the index yet, only the summary knows about them
+        for (long ledgerId = 1; ledgerId <= 2 * MAX_LEDGERS; ledgerId++) {
+            Assert.assertFalse(summary.isDefinitelyAbsent(ledgerId, 3));
+        }
+
+        batch.flush();
+        batch.close();
+        summary.endIndexUpdate(epoch);
+
+        // Once persisted, the ledgers are evicted when the next ledger is added
+        epoch = summary.beginIndexUpdate();
+        try (Batch nextBatch = entryLocationIndex.newBatch()) {
+            addEntries(nextBatch, 200, 0, 0);
+            nextBatch.flush();
+        } finally {
+            summary.endIndexUpdate(epoch);
+        }
+        Assert.assertTrue(summary.ledgersCount() <= MAX_LEDGERS);
+        for (long ledgerId = 1; ledgerId <= 2 * MAX_LEDGERS; ledgerId++) {
+            Assert.assertFalse(summary.isDefinitelyAbsent(ledgerId, 3));
+            Assert.assertTrue(summary.isDefinitelyAbsent(ledgerId, 4));
+        }
+    }
+
+    @Test
+    public void testDeletedLedgerIsRemoved() throws Exception {
+        long epoch = summary.beginIndexUpdate();
+        try (Batch batch = entryLocationIndex.newBatch()) {
+            addEntries(batch, 1, 0, 3);
+            batch.flush();
+        } finally {
+            summary.endIndexUpdate(epoch);
+        }
+        Assert.assertEquals(1, summary.ledgersCount());
+
+        summary.removeLedger(1);
+        Assert.assertEquals(0, summary.ledgersCount());
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReadAheadLaneTest {
+
+    private static final int ENTRY_SIZE = 100;
+
+    private ReadCache readCache;
+    private ReadAheadLane lane;
+
+    @Before
+    public void setup() {
+        readCache = new ReadCache(UnpooledByteBufAllocator.DEFAULT, 64 * 1024, 32 * 1024);
+        // At most 10 entries in total and 4 entries per ledger
+        lane = new ReadAheadLane(readCache, 10 * ENTRY_SIZE, 4 * ENTRY_SIZE,
+                NullStatsLogger.INSTANCE.getCounter("promotions"), NullStatsLogger.INSTANCE.getCounter("evictions"));
+    }
+
+    @After
+    public void tearDown() {
+        lane.close();
+        readCache.close();
+    }
+
+    private static ByteBuf entry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(ENTRY_SIZE);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        entry.writerIndex(ENTRY_SIZE);
+        return entry;
+    }
+
+    private void put(long ledgerId, long entryId) {
+        ByteBuf entry = entry(ledgerId, entryId);
+        lane.put(ledgerId, entryId, entry);
+        entry.release();
+    }
+
+    @Test
+    public void testLedgerLimitDropsOldestEntries() {
+        for (long entryId = 0; entryId < 6; entryId++) {
+            put(1, entryId);
+        }
+
+        Assert.assertEquals(4, lane.count());
+        Assert.assertEquals(4 * ENTRY_SIZE, lane.size());
+        Assert.assertFalse(lane.hasEntry(1, 0));
+        Assert.assertFalse(lane.hasEntry(1, 1));
+        for (long entryId = 2; entryId < 6; entryId++) {
+            Assert.assertTrue(lane.hasEntry(1, entryId));
+        }
+    }
+
+    @Test
+    public void testTotalLimitDropsLeastRecentlyUsedLedger() {
+        for (long ledgerId = 1; ledgerId <= 3; ledgerId++) {
+            for (long entryId = 0; entryId < 3; entryId++) {
+                put(ledgerId, entryId);
+            }
+        }
+        Assert.assertEquals(9 * ENTRY_SIZE, lane.size());
+
+        // Ledger 1 is read, so ledger 2 becomes the least recently used one
+        ByteBuf entry = lane.get(1, 0);
+        Assert.assertEquals(entry(1, 0), entry);
+        entry.release();
+
+        put(4, 0);
+        put(4, 1);
+        Assert.assertEquals(8, lane.count());
+        Assert.assertEquals(8 * ENTRY_SIZE, lane.size());
+        Assert.assertTrue(lane.hasEntry(1, 0));
+        Assert.assertFalse(lane.hasEntry(2, 0));
+        Assert.assertTrue(lane.hasEntry(3, 0));
+        Assert.assertTrue(lane.hasEntry(4, 1));
+
+        // The evicted ledger gets a new lane
+        put(2, 5);
+        Assert.assertTrue(lane.hasEntry(2, 5));
+        Assert.assertEquals(9 * ENTRY_SIZE, lane.size());
+    }
+
+    @Test
+    public void testSecondReadPromotesIntoReadCache() {
+        put(1, 0);
+        put(1, 1);
+
+        ByteBuf entry = lane.get(1, 0);
+        entry.release();
+        Assert.assertEquals(2, lane.count());
+        Assert.assertFalse(readCache.hasEntry(1, 0));
+
+        entry = lane.get(1, 0);
+        Assert.assertEquals(entry(1, 0), entry);
+        entry.release();
+        Assert.assertEquals(1, lane.count());
+        Assert.assertEquals(ENTRY_SIZE, lane.size());
+        Assert.assertTrue(readCache.hasEntry(1, 0));
+        Assert.assertNull(lane.get(1, 0));
+
+        // The lane of the ledger is dropped with its last entry
+        entry = lane.get(1, 1);
+        entry.release();
+        entry = lane.get(1, 1);
+        entry.release();
+        Assert.assertEquals(0, lane.count());
+        Assert.assertEquals(0, lane.size());
+    }
+
+    @Test
+    public void testSliceOfSpanIsCopied() {
+        // Two entries read with a single span, as done by the vectored reads
+        ByteBuf span = Unpooled.directBuffer(4 * ENTRY_SIZE);
+        span.writeBytes(entry(1, 0));
+        span.writeZero(2 * ENTRY_SIZE);
+        span.writeBytes(entry(1, 1));
+
+        ByteBuf first = span.retainedSlice(0, ENTRY_SIZE);
+        ByteBuf second = span.retainedSlice(3 * ENTRY_SIZE, ENTRY_SIZE);
+        span.release();
+        lane.put(1, 0, first);
+        lane.put(1, 1, second);
+        first.release();
+        second.release();
+
+        // The lane does not keep the span alive
+        Assert.assertEquals(0, span.refCnt());
+        Assert.assertEquals(2 * ENTRY_SIZE, lane.size());
+
+        ByteBuf entry = lane.get(1, 1);
+        Assert.assertEquals(entry(1, 1), entry);
+        entry.release();
+    }
+
+    @Test
+    public void testDuplicateSliceIsReleased() {
+        put(1, 0);
+        ByteBuf buffer = entry(1, 0);
+        ByteBuf slice = buffer.retainedSlice();
+        buffer.release();
+        lane.put(1, 0, slice);
+        slice.release();
+
+        Assert.assertEquals(0, buffer.refCnt());
+        Assert.assertEquals(1, lane.count());
+    }
+
+    @Test
+    public void testRemoveLedgerReleasesEntries() {
+        ByteBuf entry = entry(1, 0);
+        lane.put(1, 0, entry);
+        Assert.assertEquals(2, entry.refCnt());
+        put(2, 0);
+
+        lane.removeLedger(1);
+        Assert.assertEquals(1, entry.refCnt());
+        Assert.assertFalse(lane.hasEntry(1, 0));
+        Assert.assertEquals(ENTRY_SIZE, lane.size());
+        Assert.assertEquals(1, lane.count());
+        entry.release();
+
+        // The removed ledger is not in the LRU order anymore, the oldest remaining one is evicted
+        for (long entryId = 0; entryId < 4; entryId++) {
+            put(3, entryId);
+            put(4, entryId);
+        }
+        put(5, 0);
+        Assert.assertEquals(10, lane.count());
+        put(5, 1);
+        Assert.assertEquals(10, lane.count());
+        Assert.assertFalse(lane.hasEntry(2, 0));
+        Assert.assertTrue(lane.hasEntry(3, 0));
+    }
+}
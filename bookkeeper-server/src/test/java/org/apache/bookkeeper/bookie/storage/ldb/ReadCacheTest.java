@@ -0,0 +1,184 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReadCacheTest {
+
+    private static final int ENTRY_SIZE = 64;
+    private static final int SEGMENT_SIZE = 64 * ENTRY_SIZE;
+
+    private static ReadCache newCache(ReadCacheEvictionPolicy policy) {
+        return new ReadCache(UnpooledByteBufAllocator.DEFAULT, 2 * SEGMENT_SIZE, SEGMENT_SIZE, policy,
+                NullStatsLogger.INSTANCE.getCounter("evicted"), NullStatsLogger.INSTANCE.getCounter("retained"));
+    }
+
+    private static ByteBuf entry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(ENTRY_SIZE);
+        while (entry.isWritable()) {
+            entry.writeLong(ledgerId);
+            entry.writeLong(entryId);
+        }
+        return entry;
+    }
+
+    private static void assertEntry(ReadCache cache, long ledgerId, long entryId) {
+        ByteBuf entry = cache.get(ledgerId, entryId);
+        Assert.assertNotNull("entry " + ledgerId + "@" + entryId, entry);
+        try {
+            Assert.assertEquals(entry(ledgerId, entryId), entry);
+        } finally {
+            entry.release();
+        }
+    }
+
+    /**
+     * Fill both segments of the cache with entries of ledger 1.
+     */
+    private static void fill(ReadCache cache) {
+        for (long entryId = 0; entryId < 2 * SEGMENT_SIZE / ENTRY_SIZE; entryId++) {
+            cache.put(1, entryId, entry(1, entryId));
+        }
+    }
+
+    @Test
+    public void testFifoDropsOldestSegment() {
+        ReadCache cache = newCache(FifoEvictionPolicy.INSTANCE);
+        fill(cache);
+        Assert.assertEquals(2 * SEGMENT_SIZE / ENTRY_SIZE, cache.count());
+
+        // The next entry recycles the first segment
+        cache.put(2, 0, entry(2, 0));
+        Assert.assertEquals(SEGMENT_SIZE / ENTRY_SIZE + 1, cache.count());
+        Assert.assertNull(cache.get(1, 0));
+        assertEntry(cache, 1, SEGMENT_SIZE / ENTRY_SIZE);
+        assertEntry(cache, 2, 0);
+        cache.close();
+    }
+
+    @Test
+    public void testTinyLfuRetainsFrequentEntries() {
+        ReadCache cache = newCache(new TinyLfuEvictionPolicy(2 * SEGMENT_SIZE));
+        fill(cache);
+
+        // Entries 3 and 7 of the first segment are read twice, entry 5 once
+        for (int i = 0; i < 2; i++) {
+            assertEntry(cache, 1, 3);
+            assertEntry(cache, 1, 7);
+        }
+        assertEntry(cache, 1, 5);
+
+        cache.put(2, 0, entry(2, 0));
+        Assert.assertEquals(SEGMENT_SIZE / ENTRY_SIZE + 3, cache.count());
+        assertEntry(cache, 1, 3);
+        assertEntry(cache, 1, 7);
+        Assert.assertNull(cache.get(1, 5));
+        Assert.assertNull(cache.get(1, 0));
+        assertEntry(cache, 2, 0);
+
+        // The entries added after the roll-over do not overwrite the retained ones
+        for (long entryId = 1; entryId < SEGMENT_SIZE / ENTRY_SIZE - 2; entryId++) {
+            cache.put(2, entryId, entry(2, entryId));
+        }
+        assertEntry(cache, 1, 3);
+        assertEntry(cache, 1, 7);
+        for (long entryId = 0; entryId < SEGMENT_SIZE / ENTRY_SIZE - 2; entryId++) {
+            assertEntry(cache, 2, entryId);
+        }
+        cache.close();
+    }
+
+    @Test
+    public void testRetainedEntriesAreCappedToHalfSegment() {
+        ReadCache cache = newCache(new TinyLfuEvictionPolicy(2 * SEGMENT_SIZE));
+        fill(cache);
+
+        // Every entry of the first segment is frequently read
+        for (int i = 0; i < 2; i++) {
+            for (long entryId = 0; entryId < SEGMENT_SIZE / ENTRY_SIZE; entryId++) {
+                assertEntry(cache, 1, entryId);
+            }
+        }
+
+        cache.put(2, 0, entry(2, 0));
+        Assert.assertEquals(SEGMENT_SIZE / ENTRY_SIZE + SEGMENT_SIZE / ENTRY_SIZE / 2 + 1, cache.count());
+        Assert.assertEquals(SEGMENT_SIZE + SEGMENT_SIZE / 2 + ENTRY_SIZE, cache.size());
+        assertEntry(cache, 2, 0);
+        cache.close();
+    }
+
+    @Test
+    public void testReadsDuringRollOvers() throws Exception {
+        ReadCache cache = newCache(new TinyLfuEvictionPolicy(2 * SEGMENT_SIZE));
+        int entries = 100 * SEGMENT_SIZE / ENTRY_SIZE;
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread reader = new Thread(() -> {
+                try {
+                    while (!done.get()) {
+                        // Read back a few hot entries, which keep being retained, and some recent ones
+                        for (long entryId = 0; entryId < entries; entryId += 97) {
+                            ByteBuf entry = cache.get(1, entryId);
+                            if (entry != null) {
+                                try {
+                                    Assert.assertEquals(entry(1, entryId), entry);
+                                } finally {
+                                    entry.release();
+                                }
+                            }
+                        }
+                    }
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+
+        for (long entryId = 0; entryId < entries; entryId++) {
+            cache.put(1, entryId, entry(1, entryId));
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+        Assert.assertTrue(cache.size() <= 2 * SEGMENT_SIZE);
+        cache.close();
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WriteCacheGenerationTest {
+
+    private WriteCache writeCache;
+    private WriteCacheGeneration generation;
+
+    @Before
+    public void setup() {
+        writeCache = new WriteCache(UnpooledByteBufAllocator.DEFAULT, 1024);
+        generation = new WriteCacheGeneration(writeCache);
+    }
+
+    @After
+    public void tearDown() {
+        writeCache.close();
+    }
+
+    private static CompletableFuture<Void> flushOrAwaitAsync(WriteCacheGeneration generation,
+                                                             WriteCacheGeneration.Flusher flusher) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                generation.flushOrAwait(flusher);
+                result.complete(null);
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        thread.start();
+        return result;
+    }
+
+    private static WriteCacheGeneration.Flusher failingFlusher(CountDownLatch started, CountDownLatch proceed) {
+        return g -> {
+            started.countDown();
+            try {
+                proceed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            IOException e = new IOException("flush failed");
+            g.flushFailed(e);
+            throw e;
+        };
+    }
+
+    @Test
+    public void testFailedFlushIsPassedOnToWaiter() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        CompletableFuture<Void> flushing = flushOrAwaitAsync(generation, failingFlusher(started, proceed));
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // The second thread finds the generation claimed and waits for the ongoing flush
+        AtomicInteger secondFlushes = new AtomicInteger();
+        CompletableFuture<Void> waiting = flushOrAwaitAsync(generation, g -> {
+            secondFlushes.incrementAndGet();
+            g.flushCompleted();
+        });
+        Thread.sleep(100);
+        Assert.assertFalse(waiting.isDone());
+
+        proceed.countDown();
+        assertFailed(flushing);
+        assertFailed(waiting);
+        Assert.assertEquals(0, secondFlushes.get());
+        Assert.assertFalse(generation.isFlushed());
+
+        // The claim was released, the generation can be flushed again
+        generation.flushOrAwait(WriteCacheGeneration::flushCompleted);
+        Assert.assertTrue(generation.isFlushed());
+        Assert.assertFalse(generation.tryClaim());
+    }
+
+    @Test
+    public void testWaiterAfterFailedFlushFlushesItself() throws Exception {
+        CountDownLatch proceed = new CountDownLatch(1);
+        proceed.countDown();
+        try {
+            generation.flushOrAwait(failingFlusher(new CountDownLatch(1), proceed));
+            Assert.fail("flush should have failed");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        // A thread that comes after the failure does not wait for a flush that nobody is doing
+        CompletableFuture<Void> waiting = flushOrAwaitAsync(generation, WriteCacheGeneration::flushCompleted);
+        waiting.get(10, TimeUnit.SECONDS);
+        Assert.assertTrue(generation.isFlushed());
+    }
+
+    @Test
+    public void testWaitersOfSuccessfulFlush() throws Exception {
+        Assert.assertTrue(generation.tryClaim());
+        Assert.assertFalse(generation.tryClaim());
+
+        CompletableFuture<Void> first = flushOrAwaitAsync(generation, g -> Assert.fail("already claimed"));
+        CompletableFuture<Void> second = flushOrAwaitAsync(generation, g -> Assert.fail("already claimed"));
+        Thread.sleep(100);
+        Assert.assertFalse(first.isDone());
+        Assert.assertFalse(second.isDone());
+
+        generation.flushCompleted();
+        first.get(10, TimeUnit.SECONDS);
+        second.get(10, TimeUnit.SECONDS);
+        Assert.assertTrue(generation.isFlushed());
+
+        // Nothing to wait for anymore
+        generation.awaitOngoingFlush();
+        generation.flushOrAwait(g -> Assert.fail("already flushed"));
+    }
+
+    private static void assertFailed(CompletableFuture<Void> future) throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            Assert.fail("flush should have failed");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+            Assert.assertEquals("flush failed", e.getCause().getMessage());
+        }
+    }
+}
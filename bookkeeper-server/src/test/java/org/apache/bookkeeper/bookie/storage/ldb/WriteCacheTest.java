@@ -11,7 +11,9 @@ import org.junit.experimental.runners.Enclosed;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 @RunWith(Enclosed.class)
 public class WriteCacheTest {
@@ -316,5 +318,163 @@ public class WriteCacheTest {
         }
     }
 
+    public static class TestSortedRuns {
+
+        private static ByteBuf entry(long ledgerId, long entryId, int version) {
+            return Unpooled.copiedBuffer(("entry-" + ledgerId + "-" + entryId + "-" + version).getBytes());
+        }
+
+        private static List<Pair> forEachPairs(WriteCache writeCache, Map<Pair, ByteBuf> expected) throws Exception {
+            List<Pair> pairs = new ArrayList<>();
+            writeCache.forEach((ledgerId, entryId, entry) -> {
+                Pair pair = new Pair(ledgerId, entryId);
+                pairs.add(pair);
+                if (expected != null) {
+                    Assert.assertTrue(ByteBufUtil.equals(expected.get(pair), entry));
+                }
+            });
+            return pairs;
+        }
+
+        @Test
+        public void testOutOfOrderEntries() throws Exception {
+            WriteCache writeCache = new WriteCache(UnpooledByteBufAllocator.DEFAULT, 64 * 1024, 1024);
+            Map<Pair, ByteBuf> expected = new HashMap<>();
+            long[] entryIds = {5, 3, 4, 0, 1, 2, 9, 7, 8, 6};
+            for (long ledgerId : new long[] {3, 1, 2}) {
+                for (long entryId : entryIds) {
+                    expected.put(new Pair(ledgerId, entryId), entry(ledgerId, entryId, 0));
+                    Assert.assertTrue(writeCache.put(ledgerId, entryId, entry(ledgerId, entryId, 0)));
+                }
+            }
+
+            List<Pair> pairs = forEachPairs(writeCache, expected);
+            Assert.assertEquals(30, pairs.size());
+            for (int i = 0; i < pairs.size(); i++) {
+                Assert.assertEquals(new Pair(1 + i / 10, i % 10), pairs.get(i));
+            }
+            writeCache.close();
+        }
+
+        @Test
+        public void testMultipleRunsWithOverwrittenEntries() throws Exception {
+            WriteCache writeCache = new WriteCache(UnpooledByteBufAllocator.DEFAULT, 256 * 1024, 4096);
+            Map<Pair, ByteBuf> expected = new HashMap<>();
+            // Enough entries to span several blocks, added in 3 runs that overwrite some of the previous entries
+            for (int run = 0; run < 3; run++) {
+                for (long entryId = run * 50; entryId < 100 + run * 50; entryId++) {
+                    expected.put(new Pair(1L, entryId), entry(1L, entryId, run));
+                    Assert.assertTrue(writeCache.put(1L, entryId, entry(1L, entryId, run)));
+                }
+            }
+
+            List<Pair> pairs = forEachPairs(writeCache, expected);
+            Assert.assertEquals(200, pairs.size());
+            for (int i = 0; i < pairs.size(); i++) {
+                Assert.assertEquals(new Pair(1L, i), pairs.get(i));
+            }
+
+            // The index is reusable after being cleared
+            writeCache.clear();
+            Assert.assertTrue(forEachPairs(writeCache, null).isEmpty());
+            Assert.assertTrue(writeCache.put(1L, 0L, entry(1L, 0L, 0)));
+            Assert.assertEquals(Collections.singletonList(new Pair(1L, 0L)), forEachPairs(writeCache, null));
+            writeCache.close();
+        }
+
+        @Test
+        public void testClearRacingWithPut() throws Exception {
+            WriteCache writeCache = new WriteCache(UnpooledByteBufAllocator.DEFAULT, 1024 * 1024, 64 * 1024);
+            AtomicBoolean running = new AtomicBoolean(true);
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            List<Thread> writers = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                long ledgerId = t;
+                Thread writer = new Thread(() -> {
+                    try {
+                        long entryId = 0;
+                        while (running.get()) {
+                            // A full cache makes the writer try again after the next clear
+                            writeCache.put(ledgerId % 2, entryId++, entry(ledgerId, entryId, 0));
+                        }
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                });
+                writer.start();
+                writers.add(writer);
+            }
+
+            try {
+                for (int i = 0; i < 1000; i++) {
+                    forEachPairs(writeCache, null);
+                    writeCache.clear();
+                }
+            } finally {
+                running.set(false);
+                for (Thread writer : writers) {
+                    writer.join();
+                }
+            }
+
+            Assert.assertNull(error.get());
+            writeCache.clear();
+            writeCache.close();
+        }
+
+        @Test
+        public void testConcurrentPutsToSameLedger() throws Exception {
+            WriteCache writeCache = new WriteCache(UnpooledByteBufAllocator.DEFAULT, 4 * 1024 * 1024, 64 * 1024);
+            int threads = 4;
+            int entriesPerThread = 5000;
+            List<Thread> writers = new ArrayList<>();
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            for (int t = 0; t < threads; t++) {
+                long firstEntryId = t;
+                Thread writer = new Thread(() -> {
+                    try {
+                        for (long entryId = firstEntryId; entryId < threads * entriesPerThread; entryId += threads) {
+                            Assert.assertTrue(writeCache.put(1L, entryId, entry(1L, entryId, 0)));
+                        }
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                });
+                writer.start();
+                writers.add(writer);
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            Assert.assertNull(error.get());
+
+            List<Pair> pairs = forEachPairs(writeCache, null);
+            Assert.assertEquals(threads * entriesPerThread, pairs.size());
+            for (int i = 0; i < pairs.size(); i++) {
+                Assert.assertEquals(new Pair(1L, i), pairs.get(i));
+            }
+            writeCache.close();
+        }
+
+        @Test
+        public void testIndexMemoryCountsAgainstCacheSize() throws Exception {
+            WriteCache writeCache = new WriteCache(UnpooledByteBufAllocator.DEFAULT, 64 * 1024, 4096);
+            ByteBuf entry = Unpooled.wrappedBuffer(new byte[64]);
+            // Ledgers with a single entry use a whole block of the index each
+            int count = 0;
+            while (writeCache.put(count, 0, entry)) {
+                count++;
+            }
+            Assert.assertTrue(count < 64 * 1024 / 64);
+            Assert.assertEquals(count, writeCache.count());
+
+            // The memory of the index is released when the cache is cleared
+            writeCache.clear();
+            for (int i = 0; i < count; i++) {
+                Assert.assertTrue(writeCache.put(i, 0, entry));
+            }
+            writeCache.close();
+        }
+    }
 
 }
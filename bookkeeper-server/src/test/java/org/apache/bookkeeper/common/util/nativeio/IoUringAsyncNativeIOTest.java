@@ -0,0 +1,137 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.common.util.nativeio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the io_uring backend of {@link AsyncNativeIO}. The tests are skipped when the kernel does not support it.
+ */
+public class IoUringAsyncNativeIOTest {
+
+    private static final int QUEUE_DEPTH = 4;
+    private static final int BLOCK_SIZE = 4096;
+
+    private final NativeIO nativeIO = new NativeIOImpl();
+    private File dir;
+    private AsyncNativeIO asyncNativeIO;
+
+    @Before
+    public void setup() throws Exception {
+        asyncNativeIO = IoUringAsyncNativeIO.tryCreate(QUEUE_DEPTH);
+        assumeTrue("io_uring is not supported", asyncNativeIO != null);
+        dir = Files.createTempDirectory("io-uring-test").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (asyncNativeIO != null) {
+            asyncNativeIO.close();
+        }
+        if (dir != null) {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void testWriteAndReadBack() throws Exception {
+        String path = new File(dir, "test").getPath();
+        int blocks = 4 * QUEUE_DEPTH;
+        ByteBuf buffer = UnpooledByteBufAllocator.DEFAULT.directBuffer(blocks * BLOCK_SIZE);
+        try {
+            for (int i = 0; i < blocks * BLOCK_SIZE; i++) {
+                buffer.writeByte(i);
+            }
+
+            // More writes than the queue depth, the slots are reused
+            int writeFd = nativeIO.open(path, NativeIO.O_CREAT | NativeIO.O_WRONLY, 0644);
+            List<CompletableFuture<Integer>> writes = new ArrayList<>();
+            for (int i = 0; i < blocks; i++) {
+                writes.add(asyncNativeIO.pwrite(writeFd, buffer.memoryAddress() + (long) i * BLOCK_SIZE, BLOCK_SIZE,
+                        (long) i * BLOCK_SIZE));
+            }
+            for (CompletableFuture<Integer> write : writes) {
+                assertEquals(BLOCK_SIZE, (int) write.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(0, (int) asyncNativeIO.fsync(writeFd).get(10, TimeUnit.SECONDS));
+            nativeIO.close(writeFd);
+
+            ByteBuf read = UnpooledByteBufAllocator.DEFAULT.directBuffer(blocks * BLOCK_SIZE);
+            try {
+                int readFd = nativeIO.open(path, NativeIO.O_RDONLY, 0);
+                long count = asyncNativeIO.pread(readFd, read.memoryAddress(), blocks * BLOCK_SIZE, 0)
+                        .get(10, TimeUnit.SECONDS);
+                nativeIO.close(readFd);
+                assertEquals(blocks * BLOCK_SIZE, count);
+                read.writerIndex(blocks * BLOCK_SIZE);
+                assertEquals(buffer, read);
+            } finally {
+                read.release();
+            }
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Test
+    public void testFailedOperationReleasesItsSlot() throws Exception {
+        // More failures than the queue depth, they do not leak the slots
+        for (int i = 0; i < 4 * QUEUE_DEPTH; i++) {
+            try {
+                asyncNativeIO.fsync(-1).get(10, TimeUnit.SECONDS);
+                fail("fsync of an invalid fd should fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof NativeIOException);
+            }
+        }
+    }
+
+    @Test
+    public void testOperationsFailFastOnceClosed() throws Exception {
+        asyncNativeIO.close();
+
+        // The operations neither block on the permits held by close() nor use the released ring
+        for (int i = 0; i < 2 * QUEUE_DEPTH; i++) {
+            CompletableFuture<Integer> future = asyncNativeIO.fsync(-1);
+            assertTrue(future.isCompletedExceptionally());
+        }
+
+        // Closing again is a no-op
+        asyncNativeIO.close();
+    }
+}
@@ -21,11 +21,14 @@
 
 package org.apache.bookkeeper.bookie;
 
+import io.netty.buffer.ByteBufAllocator;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import org.apache.bookkeeper.bookie.storage.ldb.ArrayGroupSort;
+import org.apache.bookkeeper.bookie.storage.ldb.SortedRunIndex;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.Fork;
 import org.openjdk.jmh.annotations.Level;
@@ -34,7 +37,9 @@ import org.openjdk.jmh.annotations.OutputTimeUnit;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
 import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
 
 @OutputTimeUnit(TimeUnit.SECONDS)
 @Fork(1)
@@ -43,6 +48,7 @@ import org.openjdk.jmh.annotations.Warmup;
 public class GroupSortBenchmark {
 
     private static final int N = 10_000;
+    private static final int LEDGERS = 100;
 
     @State(Scope.Benchmark)
     public static class TestState {
@@ -116,4 +122,65 @@ public class GroupSortBenchmark {
     public void reverseSortedArraySort(GroupSortBenchmark.TestState s) {
         Arrays.sort(s.reverseSortedItems);
     }
+
+    /**
+     * Write cache: entries of multiple ledgers are written concurrently, each ledger in entry id order, and must be
+     * iterated in (ledgerId, entryId) order when the cache is flushed. Compares appending the tuples to an array and
+     * sorting them at flush time with adding them to the sorted runs and merging the runs. Both benchmarks include
+     * the cost of adding the tuples.
+     */
+    @State(Scope.Benchmark)
+    public static class WriteCacheState {
+
+        private final long[] writeCacheItems = new long[N * 4];
+        private final long[] items = new long[N * 4];
+        private final SortedRunIndex sortedRunIndex = new SortedRunIndex(ByteBufAllocator.DEFAULT);
+
+        public WriteCacheState() {
+            Random r = ThreadLocalRandom.current();
+            long[] lastEntryIds = new long[LEDGERS];
+            long offset = 0;
+            for (int i = 0; i < (N * 4); i += 4) {
+                int ledger = r.nextInt(LEDGERS);
+                long length = 64 + r.nextInt(1024);
+                writeCacheItems[i] = ledger;
+                writeCacheItems[i + 1] = lastEntryIds[ledger]++;
+                writeCacheItems[i + 2] = offset;
+                writeCacheItems[i + 3] = length;
+                offset += length;
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            sortedRunIndex.close();
+        }
+    }
+
+    @Benchmark
+    public void writeCacheGroupSort(GroupSortBenchmark.WriteCacheState s, Blackhole bh) {
+        long[] tuples = s.writeCacheItems;
+        for (int i = 0; i < tuples.length; i += 4) {
+            s.items[i] = tuples[i];
+            s.items[i + 1] = tuples[i + 1];
+            s.items[i + 2] = tuples[i + 2];
+            s.items[i + 3] = tuples[i + 3];
+        }
+
+        ArrayGroupSort.sort(s.items);
+        for (int i = 0; i < s.items.length; i += 4) {
+            bh.consume(s.items[i + 2]);
+        }
+    }
+
+    @Benchmark
+    public void writeCacheSortedRunMerge(GroupSortBenchmark.WriteCacheState s, Blackhole bh) throws IOException {
+        long[] tuples = s.writeCacheItems;
+        for (int i = 0; i < tuples.length; i += 4) {
+            s.sortedRunIndex.add(tuples[i], tuples[i + 1], tuples[i + 2], tuples[i + 3]);
+        }
+
+        s.sortedRunIndex.forEach((ledgerId, entryId, offset, length) -> bh.consume(offset));
+        s.sortedRunIndex.clear();
+    }
 }
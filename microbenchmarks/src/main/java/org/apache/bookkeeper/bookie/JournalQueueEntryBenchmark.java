@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.bookie;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.Journal.QueueEntry;
+import org.apache.bookkeeper.bookie.Journal.QueueEntryPool;
+import org.apache.bookkeeper.common.collections.BlockingMpscQueue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Microbenchmarks of the allocation of the journal queue entries, which are claimed by many threads and
+ * released by another thread once acknowledged.
+ */
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@BenchmarkMode(Mode.Throughput)
+@Threads(16)
+@Fork(1)
+@Warmup(iterations = 1, time = 10, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 10, timeUnit = TimeUnit.SECONDS)
+public class JournalQueueEntryBenchmark {
+
+    private static final int QUEUE_SIZE = 10_000;
+
+    /**
+     * State holder of the test.
+     */
+    @State(Scope.Benchmark)
+    public static class TestState {
+
+        private final BlockingMpscQueue<QueueEntry> recyclerQueue = new BlockingMpscQueue<>(QUEUE_SIZE);
+
+        private final BlockingMpscQueue<QueueEntry> poolQueue = new BlockingMpscQueue<>(QUEUE_SIZE);
+
+        private final QueueEntryPool pool = new QueueEntryPool(QUEUE_SIZE);
+
+        private final ExecutorService executor = Executors.newCachedThreadPool();
+
+        @Setup(Level.Trial)
+        public void setup() {
+            executor.execute(() -> release(recyclerQueue));
+            executor.execute(() -> release(poolQueue));
+        }
+
+        private void release(BlockingMpscQueue<QueueEntry> queue) {
+            QueueEntry[] localArray = new QueueEntry[QUEUE_SIZE];
+
+            try {
+                while (true) {
+                    int count = queue.takeAll(localArray);
+                    for (int i = 0; i < count; i++) {
+                        localArray[i].recycle();
+                        localArray[i] = null;
+                    }
+                }
+            } catch (InterruptedException ie) {
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() {
+            executor.shutdownNow();
+        }
+
+        @TearDown(Level.Iteration)
+        public void cleanupQueue() throws InterruptedException {
+            Thread.sleep(1_000);
+        }
+    }
+
+    @Benchmark
+    public void recycler(TestState s) throws Exception {
+        s.recyclerQueue.put(QueueEntry.create(null, false, 1L, 1L, null, null, 0L, null, null, null));
+    }
+
+    @Benchmark
+    public void preallocatedPool(TestState s) throws Exception {
+        s.poolQueue.put(QueueEntry.create(null, false, 1L, 1L, null, null, 0L, null, null, s.pool));
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.Batch;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigType;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compare the entry location index storage implementations, on keys distributed as in the location index: many
+ * ledgers whose entries are appended concurrently, and written in batches sorted by (ledgerId, entryId).
+ */
+@OutputTimeUnit(TimeUnit.SECONDS)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 1, time = 10)
+@Measurement(iterations = 3, time = 10)
+public class KeyValueStorageBenchmark {
+
+    private static final int LEDGERS = 1_000;
+    private static final int INITIAL_ENTRIES_PER_LEDGER = 1_000;
+    private static final int BATCH_SIZE = 10_000;
+
+    /**
+     * State holder of the test.
+     */
+    @State(Scope.Benchmark)
+    public static class TestState {
+
+        @Param({ DbLedgerStorage.ENTRY_LOCATION_INDEX_STORAGE_ROCKSDB,
+                DbLedgerStorage.ENTRY_LOCATION_INDEX_STORAGE_SORTED_SEGMENTS })
+        private String storage;
+
+        private File dir;
+        private KeyValueStorage kv;
+        private final long[] lastEntryIds = new long[LEDGERS];
+        private long location = 0;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            dir = Files.createTempDirectory("kv-storage-benchmark").toFile();
+            ServerConfiguration conf = new ServerConfiguration();
+            conf.setProperty(DbLedgerStorage.ENTRY_LOCATION_INDEX_STORAGE, storage);
+            kv = DbLedgerStorage.getEntryLocationIndexStorageFactory(conf)
+                    .newKeyValueStorage(dir.getPath(), "locations", DbConfigType.EntryLocation, conf);
+
+            for (int i = 0; i < INITIAL_ENTRIES_PER_LEDGER * LEDGERS / BATCH_SIZE; i++) {
+                writeBatch();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            kv.close();
+            FileUtils.deleteDirectory(dir);
+        }
+
+        /**
+         * Append entries to random ledgers and write them, sorted, in a single batch, as a write cache flush does.
+         */
+        void writeBatch() throws IOException {
+            Random r = ThreadLocalRandom.current();
+            int[] entriesPerLedger = new int[LEDGERS];
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                entriesPerLedger[r.nextInt(LEDGERS)]++;
+            }
+
+            try (Batch batch = kv.newBatch()) {
+                LongPairWrapper key = LongPairWrapper.get(0, 0);
+                LongWrapper value = LongWrapper.get();
+                for (int ledger = 0; ledger < LEDGERS; ledger++) {
+                    for (int i = 0; i < entriesPerLedger[ledger]; i++) {
+                        key.set(ledger, lastEntryIds[ledger]++);
+                        value.set(location++);
+                        batch.put(key.array, value.array);
+                    }
+                }
+                batch.flush();
+                key.recycle();
+                value.recycle();
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void writeBatch(TestState s) throws IOException {
+        s.writeBatch();
+    }
+
+    @Benchmark
+    public byte[] getLocation(TestState s) throws IOException {
+        Random r = ThreadLocalRandom.current();
+        int ledger = r.nextInt(LEDGERS);
+        LongPairWrapper key = LongPairWrapper.get(ledger, r.nextInt(INITIAL_ENTRIES_PER_LEDGER));
+        try {
+            return s.kv.get(key.array);
+        } finally {
+            key.recycle();
+        }
+    }
+
+    @Benchmark
+    public Object getLastEntry(TestState s) throws IOException {
+        int ledger = ThreadLocalRandom.current().nextInt(LEDGERS);
+        LongPairWrapper key = LongPairWrapper.get(ledger + 1, 0);
+        try {
+            return s.kv.getFloor(key.array);
+        } finally {
+            key.recycle();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bookkeeper.common.util.nativeio;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Asynchronous NativeIO API.
+ *
+ * <p>The operations are submitted without blocking the caller, so that a single thread can keep many
+ * I/Os in flight. The returned futures are completed with the same values returned by the corresponding
+ * blocking {@link NativeIO} calls, or exceptionally with a {@link NativeIOException}.
+ */
+public interface AsyncNativeIO extends AutoCloseable {
+
+    CompletableFuture<Long> pread(int fd, long pointer, int size, long offset);
+
+    CompletableFuture<Integer> pwrite(int fd, long pointer, int count, long offset);
+
+    CompletableFuture<Integer> fsync(int fd);
+
+    /**
+     * @return true if the I/Os are submitted to an io_uring, false if they are blocking calls run by an executor
+     */
+    boolean isIoUring();
+
+    @Override
+    void close();
+
+    /**
+     * Create an asynchronous NativeIO backed by an io_uring, or by blocking calls run on the given
+     * executor when io_uring is not supported by the kernel.
+     *
+     * @param nativeIO the blocking NativeIO used by the fallback
+     * @param queueDepth max number of I/Os in flight in the io_uring
+     * @param fallbackExecutor executor that runs the blocking calls of the fallback
+     */
+    static AsyncNativeIO create(NativeIO nativeIO, int queueDepth, ExecutorService fallbackExecutor) {
+        AsyncNativeIO asyncNativeIO = IoUringAsyncNativeIO.tryCreate(queueDepth);
+        return asyncNativeIO != null ? asyncNativeIO : new BlockingAsyncNativeIO(nativeIO, fallbackExecutor);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bookkeeper.common.util.nativeio;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * AsyncNativeIO running the blocking NativeIO calls on an executor, used when io_uring is not available.
+ */
+class BlockingAsyncNativeIO implements AsyncNativeIO {
+
+    private final NativeIO nativeIO;
+    private final ExecutorService executor;
+
+    BlockingAsyncNativeIO(NativeIO nativeIO, ExecutorService executor) {
+        this.nativeIO = nativeIO;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<Long> pread(int fd, long pointer, int size, long offset) {
+        return submit(() -> nativeIO.pread(fd, pointer, size, offset));
+    }
+
+    @Override
+    public CompletableFuture<Integer> pwrite(int fd, long pointer, int count, long offset) {
+        return submit(() -> nativeIO.pwrite(fd, pointer, count, offset));
+    }
+
+    @Override
+    public CompletableFuture<Integer> fsync(int fd) {
+        return submit(() -> nativeIO.fsync(fd));
+    }
+
+    @Override
+    public boolean isIoUring() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        // The executor is owned by the caller
+    }
+
+    private <T> CompletableFuture<T> submit(NativeCall<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(call.run());
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+        }
+        return future;
+    }
+
+    private interface NativeCall<T> {
+        T run() throws NativeIOException;
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bookkeeper.common.util.nativeio;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import org.apache.commons.lang3.SystemUtils;
+
+/**
+ * AsyncNativeIO backed by a Linux io_uring.
+ *
+ * <p>The operations are submitted to the ring by the calling threads, one at a time, and their completions are
+ * reaped by a dedicated thread that completes the futures. At most {@code queueDepth} operations are in flight,
+ * the submitting threads are blocked when the queue is full. Once closed, the operations fail immediately.
+ */
+class IoUringAsyncNativeIO implements AsyncNativeIO {
+
+    // Operation codes, as defined in the JNI code
+    static final int OP_READ = 0;
+    static final int OP_WRITE = 1;
+    static final int OP_FSYNC = 2;
+    static final int OP_NOP = 3;
+
+    private static final long CLOSE_USER_DATA = -1L;
+    private static final int EBADF = 9;
+
+    private final long ring;
+    private final int queueDepth;
+    private final Semaphore permits;
+
+    // The futures of the operations in flight, indexed by the slot passed as user data to the ring
+    private final CompletableFuture<?>[] pending;
+    private final int[] freeSlots;
+    private int freeSlotsCount;
+
+    private final Thread completionThread;
+    private volatile boolean closed = false;
+    // Set if the ring failed to wait for completions, it cannot be used anymore
+    private NativeIOException failure = null;
+
+    /**
+     * Create an io_uring backed AsyncNativeIO if the kernel supports it.
+     *
+     * @return the AsyncNativeIO, or null if io_uring is not supported
+     */
+    static AsyncNativeIO tryCreate(int queueDepth) {
+        if (!SystemUtils.IS_OS_LINUX || queueDepth <= 0) {
+            return null;
+        }
+
+        IoUringAsyncNativeIO asyncNativeIO;
+        try {
+            asyncNativeIO = new IoUringAsyncNativeIO(queueDepth);
+        } catch (Throwable t) {
+            // The kernel does not support io_uring, it is forbidden, or the native library is too old
+            return null;
+        }
+
+        // Read and write operations were added in Linux 5.6, older kernels fail them with EINVAL
+        try {
+            asyncNativeIO.submit(OP_READ, -1, 0, 0, 0).get();
+        } catch (Throwable t) {
+            if (!(t.getCause() instanceof NativeIOException)
+                    || ((NativeIOException) t.getCause()).getErrno() != EBADF) {
+                asyncNativeIO.close();
+                return null;
+            }
+        }
+        return asyncNativeIO;
+    }
+
+    private IoUringAsyncNativeIO(int queueDepth) throws NativeIOException {
+        // One more entry for the operation that stops the completion thread
+        this.ring = NativeIOJni.io_uring_setup(queueDepth + 1);
+        this.queueDepth = queueDepth;
+        this.permits = new Semaphore(queueDepth);
+        this.pending = new CompletableFuture<?>[queueDepth];
+        this.freeSlots = new int[queueDepth];
+        for (int i = 0; i < queueDepth; i++) {
+            freeSlots[i] = i;
+        }
+        this.freeSlotsCount = queueDepth;
+
+        this.completionThread = new Thread(this::reapCompletions, "native-io-uring-completion");
+        this.completionThread.setDaemon(true);
+        this.completionThread.start();
+    }
+
+    @Override
+    public CompletableFuture<Long> pread(int fd, long pointer, int size, long offset) {
+        return submit(OP_READ, fd, pointer, size, offset);
+    }
+
+    @Override
+    public CompletableFuture<Integer> pwrite(int fd, long pointer, int count, long offset) {
+        return submit(OP_WRITE, fd, pointer, count, offset).thenApply(Long::intValue);
+    }
+
+    @Override
+    public CompletableFuture<Integer> fsync(int fd) {
+        return submit(OP_FSYNC, fd, 0, 0, 0).thenApply(Long::intValue);
+    }
+
+    @Override
+    public boolean isIoUring() {
+        return true;
+    }
+
+    private CompletableFuture<Long> submit(int op, int fd, long pointer, int len, long offset) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        if (closed) {
+            future.completeExceptionally(new NativeIOException("io_uring is closed"));
+            return future;
+        }
+
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        synchronized (this) {
+            if (closed || failure != null) {
+                permits.release();
+                future.completeExceptionally(failure != null ? failure : new NativeIOException("io_uring is closed"));
+                return future;
+            }
+
+            int slot = freeSlots[--freeSlotsCount];
+            pending[slot] = future;
+            try {
+                NativeIOJni.io_uring_submit(ring, op, fd, pointer, len, offset, slot);
+            } catch (NativeIOException e) {
+                // The operation was withdrawn from the ring, it will not be completed and its slot can be reused
+                pending[slot] = null;
+                freeSlots[freeSlotsCount++] = slot;
+                permits.release();
+                future.completeExceptionally(e);
+            }
+        }
+        return future;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void reapCompletions() {
+        long[] userData = new long[queueDepth + 1];
+        int[] results = new int[queueDepth + 1];
+
+        while (true) {
+            int count;
+            try {
+                count = NativeIOJni.io_uring_wait(ring, userData, results);
+            } catch (NativeIOException e) {
+                failPending(e);
+                return;
+            }
+
+            boolean stop = false;
+            for (int i = 0; i < count; i++) {
+                if (userData[i] == CLOSE_USER_DATA) {
+                    stop = true;
+                    continue;
+                }
+
+                int slot = (int) userData[i];
+                CompletableFuture<Long> future;
+                synchronized (this) {
+                    future = (CompletableFuture<Long>) pending[slot];
+                    pending[slot] = null;
+                    freeSlots[freeSlotsCount++] = slot;
+                }
+                permits.release();
+
+                if (results[i] < 0) {
+                    future.completeExceptionally(new NativeIOException("io_uring operation failed", -results[i]));
+                } else {
+                    future.complete((long) results[i]);
+                }
+            }
+
+            if (stop) {
+                return;
+            }
+        }
+    }
+
+    private void failPending(NativeIOException e) {
+        synchronized (this) {
+            failure = e;
+            for (int i = 0; i < pending.length; i++) {
+                if (pending[i] != null) {
+                    pending[i].completeExceptionally(e);
+                    pending[i] = null;
+                    freeSlots[freeSlotsCount++] = i;
+                    permits.release();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+
+        // Wait for the operations in flight, then stop the completion thread before releasing the ring
+        permits.acquireUninterruptibly(queueDepth);
+        try {
+            if (completionThread.isAlive()) {
+                NativeIOJni.io_uring_submit(ring, OP_NOP, -1, 0, 0, 0, CLOSE_USER_DATA);
+            }
+            completionThread.join();
+        } catch (NativeIOException e) {
+            // The completion thread is blocked on the ring, it must not be released
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            // Unblock the threads that were waiting for a permit while closing, they find the ring closed
+            permits.release(queueDepth);
+        }
+        NativeIOJni.io_uring_close(ring);
+    }
+}
@@ -48,6 +48,25 @@ class NativeIOJni {
 
     static native int close(int fd) throws NativeIOException;
 
+    /**
+     * io_uring is a linux-only API, added in Linux 5.1.
+     *
+     * @return the address of the ring
+     */
+    static native long io_uring_setup(int entries) throws NativeIOException;
+
+    static native void io_uring_submit(long ring, int op, int fd, long pointer, int len, long offset,
+                                       long userData) throws NativeIOException;
+
+    /**
+     * Wait for at least one completion, and return up to {@code results.length} completions.
+     *
+     * @return the number of completions, with their user data and result in the arrays
+     */
+    static native int io_uring_wait(long ring, long[] userData, int[] results) throws NativeIOException;
+
+    static native void io_uring_close(long ring);
+
     static {
         try {
             if (SystemUtils.IS_OS_MAC_OSX) {
@@ -28,6 +28,15 @@
 
 #include <org_apache_bookkeeper_common_util_nativeio_NativeIOJni.h>
 
+#if defined(__linux__) && defined(__has_include)
+#if __has_include(<linux/io_uring.h>)
+#define HAVE_IO_URING 1
+#include <linux/io_uring.h>
+#include <sys/mman.h>
+#include <sys/syscall.h>
+#endif
+#endif
+
 #ifdef _WIN32
 
 #define fsync(fd) fflush(fd)
@@ -311,3 +320,257 @@ JNIEXPORT void JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJ
      free((const void*) pointer);
 }
 
+
+/*
+ * io_uring support, using the raw system calls so that liburing is not required.
+ *
+ * A ring has a single submitter and a single reaper: the Java side serializes the submissions and
+ * reaps the completions from one thread.
+ */
+
+// Operation codes, as defined in IoUringAsyncNativeIO
+#define OP_READ 0
+#define OP_WRITE 1
+#define OP_FSYNC 2
+#define OP_NOP 3
+
+#ifdef HAVE_IO_URING
+
+struct io_ring {
+    int ring_fd;
+    unsigned *sq_head;
+    unsigned *sq_tail;
+    unsigned *sq_mask;
+    unsigned *sq_array;
+    struct io_uring_sqe *sqes;
+    unsigned *cq_head;
+    unsigned *cq_tail;
+    unsigned *cq_mask;
+    struct io_uring_cqe *cqes;
+    void *sq_ptr;
+    size_t sq_len;
+    void *cq_ptr;
+    size_t cq_len;
+    size_t sqes_len;
+    unsigned sq_entries;
+};
+
+static void io_ring_unmap(struct io_ring *ring) {
+    if (ring->sqes != NULL && ring->sqes != MAP_FAILED) {
+        munmap(ring->sqes, ring->sqes_len);
+    }
+    if (ring->cq_ptr != NULL && ring->cq_ptr != MAP_FAILED && ring->cq_ptr != ring->sq_ptr) {
+        munmap(ring->cq_ptr, ring->cq_len);
+    }
+    if (ring->sq_ptr != NULL && ring->sq_ptr != MAP_FAILED) {
+        munmap(ring->sq_ptr, ring->sq_len);
+    }
+    close(ring->ring_fd);
+    free(ring);
+}
+
+#endif
+
+/*
+ * Class:     org_apache_bookkeeper_common_util_nativeio_NativeIOJni
+ * Method:    io_uring_setup
+ * Signature: (I)J
+ */
+JNIEXPORT jlong JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJni_io_1uring_1setup
+    (JNIEnv* env, jclass clazz, jint entries) {
+#ifdef HAVE_IO_URING
+    struct io_uring_params params;
+    memset(&params, 0, sizeof(params));
+
+    int ring_fd = (int) syscall(__NR_io_uring_setup, (unsigned) entries, &params);
+    if (ring_fd < 0) {
+        throwExceptionWithErrno(env, "Failed to setup io_uring");
+        return 0;
+    }
+
+    struct io_ring *ring = calloc(1, sizeof(struct io_ring));
+    if (ring == NULL) {
+        close(ring_fd);
+        throwException(env, "Failed to allocate io_uring");
+        return 0;
+    }
+    ring->ring_fd = ring_fd;
+    ring->sq_entries = params.sq_entries;
+
+    ring->sq_len = params.sq_off.array + params.sq_entries * sizeof(unsigned);
+    ring->cq_len = params.cq_off.cqes + params.cq_entries * sizeof(struct io_uring_cqe);
+    if (params.features & IORING_FEAT_SINGLE_MMAP) {
+        if (ring->cq_len > ring->sq_len) {
+            ring->sq_len = ring->cq_len;
+        }
+        ring->cq_len = ring->sq_len;
+    }
+
+    ring->sq_ptr = mmap(0, ring->sq_len, PROT_READ | PROT_WRITE, MAP_SHARED | MAP_POPULATE,
+                        ring_fd, IORING_OFF_SQ_RING);
+    if (ring->sq_ptr == MAP_FAILED) {
+        throwExceptionWithErrno(env, "Failed to map io_uring submission queue");
+        io_ring_unmap(ring);
+        return 0;
+    }
+
+    if (params.features & IORING_FEAT_SINGLE_MMAP) {
+        ring->cq_ptr = ring->sq_ptr;
+    } else {
+        ring->cq_ptr = mmap(0, ring->cq_len, PROT_READ | PROT_WRITE, MAP_SHARED | MAP_POPULATE,
+                            ring_fd, IORING_OFF_CQ_RING);
+        if (ring->cq_ptr == MAP_FAILED) {
+            throwExceptionWithErrno(env, "Failed to map io_uring completion queue");
+            io_ring_unmap(ring);
+            return 0;
+        }
+    }
+
+    ring->sqes_len = params.sq_entries * sizeof(struct io_uring_sqe);
+    ring->sqes = mmap(0, ring->sqes_len, PROT_READ | PROT_WRITE, MAP_SHARED | MAP_POPULATE,
+                      ring_fd, IORING_OFF_SQES);
+    if (ring->sqes == MAP_FAILED) {
+        throwExceptionWithErrno(env, "Failed to map io_uring submission entries");
+        io_ring_unmap(ring);
+        return 0;
+    }
+
+    ring->sq_head = (unsigned *) ((char *) ring->sq_ptr + params.sq_off.head);
+    ring->sq_tail = (unsigned *) ((char *) ring->sq_ptr + params.sq_off.tail);
+    ring->sq_mask = (unsigned *) ((char *) ring->sq_ptr + params.sq_off.ring_mask);
+    ring->sq_array = (unsigned *) ((char *) ring->sq_ptr + params.sq_off.array);
+    ring->cq_head = (unsigned *) ((char *) ring->cq_ptr + params.cq_off.head);
+    ring->cq_tail = (unsigned *) ((char *) ring->cq_ptr + params.cq_off.tail);
+    ring->cq_mask = (unsigned *) ((char *) ring->cq_ptr + params.cq_off.ring_mask);
+    ring->cqes = (struct io_uring_cqe *) ((char *) ring->cq_ptr + params.cq_off.cqes);
+
+    return (jlong) ring;
+#else
+    errno = ENOSYS;
+    throwExceptionWithErrno(env, "io_uring is not available");
+    return 0;
+#endif
+}
+
+/*
+ * Class:     org_apache_bookkeeper_common_util_nativeio_NativeIOJni
+ * Method:    io_uring_submit
+ * Signature: (JIIJIJJ)V
+ */
+JNIEXPORT void JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJni_io_1uring_1submit
+    (JNIEnv* env, jclass clazz, jlong ringPtr, jint op, jint fd, jlong pointer, jint len, jlong offset,
+     jlong userData) {
+#ifdef HAVE_IO_URING
+    struct io_ring *ring = (struct io_ring *) ringPtr;
+
+    unsigned tail = *ring->sq_tail;
+    unsigned head = __atomic_load_n(ring->sq_head, __ATOMIC_ACQUIRE);
+    if (tail - head >= ring->sq_entries) {
+        errno = EBUSY;
+        throwExceptionWithErrno(env, "io_uring submission queue is full");
+        return;
+    }
+
+    unsigned index = tail & *ring->sq_mask;
+    struct io_uring_sqe *sqe = &ring->sqes[index];
+    memset(sqe, 0, sizeof(*sqe));
+    switch (op) {
+    case OP_READ:
+        sqe->opcode = IORING_OP_READ;
+        break;
+    case OP_WRITE:
+        sqe->opcode = IORING_OP_WRITE;
+        break;
+    case OP_FSYNC:
+        sqe->opcode = IORING_OP_FSYNC;
+        break;
+    default:
+        sqe->opcode = IORING_OP_NOP;
+        break;
+    }
+    sqe->fd = fd;
+    sqe->addr = (__u64) pointer;
+    sqe->len = (__u32) len;
+    sqe->off = (__u64) offset;
+    sqe->user_data = (__u64) userData;
+    ring->sq_array[index] = index;
+    __atomic_store_n(ring->sq_tail, tail + 1, __ATOMIC_RELEASE);
+
+    int res;
+    do {
+        res = (int) syscall(__NR_io_uring_enter, ring->ring_fd, 1, 0, 0, NULL, 0);
+    } while (res < 0 && errno == EINTR);
+
+    if (res < 0) {
+        // Without SQPOLL the kernel only consumes the submissions in io_uring_enter. If the entry was not
+        // consumed, withdraw it, so that it is not submitted later with a user data that is reused
+        if (__atomic_load_n(ring->sq_head, __ATOMIC_ACQUIRE) == tail) {
+            int err = errno;
+            __atomic_store_n(ring->sq_tail, tail, __ATOMIC_RELEASE);
+            errno = err;
+            throwExceptionWithErrno(env, "Failed to submit to io_uring");
+        }
+        // Otherwise the operation is in flight and its completion will be reaped
+    }
+#else
+    errno = ENOSYS;
+    throwExceptionWithErrno(env, "io_uring is not available");
+#endif
+}
+
+/*
+ * Class:     org_apache_bookkeeper_common_util_nativeio_NativeIOJni
+ * Method:    io_uring_wait
+ * Signature: (J[J[I)I
+ */
+JNIEXPORT jint JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJni_io_1uring_1wait
+    (JNIEnv* env, jclass clazz, jlong ringPtr, jlongArray userDataArray, jintArray resultsArray) {
+#ifdef HAVE_IO_URING
+    struct io_ring *ring = (struct io_ring *) ringPtr;
+
+    unsigned head = *ring->cq_head;
+    unsigned tail = __atomic_load_n(ring->cq_tail, __ATOMIC_ACQUIRE);
+    while (head == tail) {
+        int res = (int) syscall(__NR_io_uring_enter, ring->ring_fd, 0, 1, IORING_ENTER_GETEVENTS, NULL, 0);
+        if (res < 0 && errno != EINTR) {
+            throwExceptionWithErrno(env, "Failed to wait for io_uring completions");
+            return -1;
+        }
+        tail = __atomic_load_n(ring->cq_tail, __ATOMIC_ACQUIRE);
+    }
+
+    jsize max = (*env)->GetArrayLength(env, resultsArray);
+    jlong *userData = (*env)->GetLongArrayElements(env, userDataArray, NULL);
+    jint *results = (*env)->GetIntArrayElements(env, resultsArray, NULL);
+
+    int count = 0;
+    while (head != tail && count < max) {
+        struct io_uring_cqe *cqe = &ring->cqes[head & *ring->cq_mask];
+        userData[count] = (jlong) cqe->user_data;
+        results[count] = cqe->res;
+        count++;
+        head++;
+    }
+    __atomic_store_n(ring->cq_head, head, __ATOMIC_RELEASE);
+
+    (*env)->ReleaseLongArrayElements(env, userDataArray, userData, 0);
+    (*env)->ReleaseIntArrayElements(env, resultsArray, results, 0);
+    return count;
+#else
+    errno = ENOSYS;
+    throwExceptionWithErrno(env, "io_uring is not available");
+    return -1;
+#endif
+}
+
+/*
+ * Class:     org_apache_bookkeeper_common_util_nativeio_NativeIOJni
+ * Method:    io_uring_close
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJni_io_1uring_1close
+    (JNIEnv* env, jclass clazz, jlong ringPtr) {
+#ifdef HAVE_IO_URING
+    io_ring_unmap((struct io_ring *) ringPtr);
+#endif
+}